@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.recommenders.jayes.sampling.SampleBlock;
+
+/**
+ * Reads the binary columnar format written by {@link ColumnarDatasetWriter}, block by block.
+ */
+public class ColumnarDatasetReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final List<String> nodeNames = new ArrayList<String>();
+    private final List<List<String>> outcomes = new ArrayList<List<String>>();
+    private int[] valueSizes;
+
+    public ColumnarDatasetReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        readHeader();
+    }
+
+    private void readHeader() throws IOException {
+        require(12);
+        if (buffer.getInt() != ColumnarDatasetWriter.MAGIC) {
+            throw new IOException("Not a columnar dataset");
+        }
+        int version = buffer.getInt();
+        if (version != ColumnarDatasetWriter.VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        int nodeCount = buffer.getInt();
+        valueSizes = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            nodeNames.add(readString());
+            require(4);
+            int outcomeCount = buffer.getInt();
+            valueSizes[node] = ColumnarDatasetWriter.getValueSize(outcomeCount);
+            List<String> names = new ArrayList<String>(outcomeCount);
+            for (int i = 0; i < outcomeCount; i++) {
+                names.add(readString());
+            }
+            outcomes.add(names);
+        }
+    }
+
+    private String readString() throws IOException {
+        require(2);
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        require(bytes.length);
+        buffer.get(bytes);
+        return new String(bytes, ColumnarDatasetWriter.UTF8);
+    }
+
+    /**
+     * reads the next block into the given block, or into a new block if the given one is null or too small
+     *
+     * @return the block that holds the rows, or null at the end of the dataset
+     */
+    public SampleBlock readBlock(SampleBlock reuse) throws IOException {
+        if (!fill(4)) {
+            return null;
+        }
+        int rows = buffer.getInt();
+        SampleBlock block = reuse;
+        if (block == null || block.getCapacity() < rows || block.getNodeCount() != valueSizes.length) {
+            block = new SampleBlock(valueSizes.length, rows);
+        }
+        for (int node = 0; node < valueSizes.length; node++) {
+            int[] column = block.getColumn(node);
+            int row = 0;
+            while (row < rows) {
+                require(valueSizes[node]);
+                int end = Math.min(rows, row + buffer.remaining() / valueSizes[node]);
+                switch (valueSizes[node]) {
+                case 1:
+                    for (; row < end; row++) {
+                        column[row] = buffer.get() & 0xFF;
+                    }
+                    break;
+                case 2:
+                    for (; row < end; row++) {
+                        column[row] = buffer.getShort() & 0xFFFF;
+                    }
+                    break;
+                default:
+                    for (; row < end; row++) {
+                        column[row] = buffer.getInt();
+                    }
+                }
+            }
+        }
+        block.setRowCount(rows);
+        return block;
+    }
+
+    private void require(int bytes) throws IOException {
+        if (!fill(bytes)) {
+            throw new EOFException("Unexpected end of the dataset");
+        }
+    }
+
+    /**
+     * @return whether the buffer holds at least the given number of bytes. It is false only if the channel ends
+     *         before any byte could be read.
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        boolean isEmpty = buffer.position() == 0;
+        while (buffer.position() < bytes) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                buffer.flip();
+                if (isEmpty) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of the dataset");
+            }
+            isEmpty &= read == 0;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    public List<String> getNodeNames() {
+        return nodeNames;
+    }
+
+    public List<String> getOutcomes(int node) {
+        return outcomes.get(node);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.sampling.ISampleBlockSink;
+import org.eclipse.recommenders.jayes.sampling.SampleBlock;
+
+/**
+ * Writes sample blocks to a compact binary columnar format, read by {@link ColumnarDatasetReader}. <br/>
+ * <br/>
+ * The header consists of the magic number, the format version and the node count, followed by the name, outcome count
+ * and outcome names of every node. Strings are stored as UTF-8 with a preceding unsigned short length. Every block
+ * consists of its row count, followed by one column per node. The outcome indices of a column take one byte if the
+ * node has at most 256 outcomes, two bytes if it has at most 65536 outcomes, and four bytes otherwise. All numbers are
+ * big-endian.
+ */
+public class ColumnarDatasetWriter implements ISampleBlockSink, Closeable {
+
+    public static final int MAGIC = 0x4A594443;
+    public static final int VERSION = 1;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 17;
+
+    private final WritableByteChannel channel;
+    private final int[] valueSizes;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public ColumnarDatasetWriter(WritableByteChannel channel, BayesNet net) throws IOException {
+        this.channel = channel;
+        this.valueSizes = new int[net.getNodes().size()];
+        writeHeader(net);
+    }
+
+    private void writeHeader(BayesNet net) throws IOException {
+        ensureRemaining(12);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(net.getNodes().size());
+        for (BayesNode node : net.getNodes()) {
+            valueSizes[node.getId()] = getValueSize(node.getOutcomeCount());
+            writeString(node.getName());
+            ensureRemaining(4);
+            buffer.putInt(node.getOutcomeCount());
+            for (String outcome : node.getOutcomes()) {
+                writeString(outcome);
+            }
+        }
+    }
+
+    static int getValueSize(int outcomeCount) {
+        if (outcomeCount <= 1 << 8) {
+            return 1;
+        }
+        return outcomeCount <= 1 << 16 ? 2 : 4;
+    }
+
+    private void writeString(String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Name too long: " + string);
+        }
+        ensureRemaining(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    @Override
+    public void write(SampleBlock block) throws IOException {
+        int rows = block.getRowCount();
+        ensureRemaining(4);
+        buffer.putInt(rows);
+        for (int node = 0; node < valueSizes.length; node++) {
+            int[] column = block.getColumn(node);
+            int row = 0;
+            while (row < rows) {
+                ensureRemaining(valueSizes[node]);
+                int end = Math.min(rows, row + buffer.remaining() / valueSizes[node]);
+                switch (valueSizes[node]) {
+                case 1:
+                    for (; row < end; row++) {
+                        buffer.put((byte) column[row]);
+                    }
+                    break;
+                case 2:
+                    for (; row < end; row++) {
+                        buffer.putShort((short) column[row]);
+                    }
+                    break;
+                default:
+                    for (; row < end; row++) {
+                        buffer.putInt(column[row]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * flushes the buffered data and closes the channel
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+}
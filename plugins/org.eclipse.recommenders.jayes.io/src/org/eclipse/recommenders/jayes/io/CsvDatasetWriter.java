@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.sampling.ISampleBlockSink;
+import org.eclipse.recommenders.jayes.sampling.SampleBlock;
+
+/**
+ * Writes sample blocks as CSV (RFC 4180) in UTF-8: a header row with the node names, then one row per sample with the
+ * outcome names. The encoded names are prepared once, so writing a row only copies bytes into the buffer.
+ */
+public class CsvDatasetWriter implements ISampleBlockSink, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte SEPARATOR = ',';
+    private static final byte[] LINE_END = { '\r', '\n' };
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    // the encoded outcome names, per node
+    private final byte[][][] outcomes;
+    // an upper bound of the encoded length of a row
+    private final int maxRowLength;
+
+    public CsvDatasetWriter(WritableByteChannel channel, BayesNet net) throws IOException {
+        this.channel = channel;
+        int nodeCount = net.getNodes().size();
+        outcomes = new byte[nodeCount][][];
+        int rowLength = 0;
+        int headerLength = 0;
+        byte[][] header = new byte[nodeCount][];
+        for (BayesNode node : net.getNodes()) {
+            header[node.getId()] = encode(node.getName());
+            headerLength += header[node.getId()].length + 1;
+            byte[][] names = new byte[node.getOutcomeCount()][];
+            int maxLength = 0;
+            for (int i = 0; i < names.length; i++) {
+                names[i] = encode(node.getOutcomeName(i));
+                maxLength = Math.max(maxLength, names[i].length);
+            }
+            outcomes[node.getId()] = names;
+            rowLength += maxLength + 1;
+        }
+        maxRowLength = rowLength + LINE_END.length;
+        buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE,
+                Math.max(maxRowLength, headerLength + LINE_END.length)));
+        writeRow(header);
+    }
+
+    private static byte[] encode(String value) {
+        boolean isQuoted = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                || value.indexOf('\r') >= 0;
+        if (isQuoted) {
+            value = '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value.getBytes(ColumnarDatasetWriter.UTF8);
+    }
+
+    private void writeRow(byte[][] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                buffer.put(SEPARATOR);
+            }
+            buffer.put(values[i]);
+        }
+        buffer.put(LINE_END);
+    }
+
+    @Override
+    public void write(SampleBlock block) throws IOException {
+        int nodeCount = outcomes.length;
+        int[][] columns = new int[nodeCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            columns[node] = block.getColumn(node);
+        }
+        for (int row = 0; row < block.getRowCount(); row++) {
+            if (buffer.remaining() < maxRowLength) {
+                flush();
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                if (node > 0) {
+                    buffer.put(SEPARATOR);
+                }
+                buffer.put(outcomes[node][columns[node][row]]);
+            }
+            buffer.put(LINE_END);
+        }
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * flushes the buffered data and closes the channel
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.internal.jayes.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+public final class ParallelTasks {
+
+    private ParallelTasks() {
+
+    }
+
+    /**
+     * runs all tasks and waits for their completion. If no executor is given, the tasks are run in the calling thread,
+     * in order.
+     *
+     * @return the results of the tasks, in the order of the tasks
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (executor == null) {
+            for (Callable<T> task : tasks) {
+                results.add(callUnchecked(task));
+            }
+            return results;
+        }
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for parallel tasks", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * waits for the result of a task, rethrowing its exception unchecked
+     */
+    public static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a parallel task", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static <T> T callUnchecked(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.internal.jayes.util;
+
+import java.util.Random;
+
+/**
+ * Splittable pseudo random number generator using the SplitMix64 algorithm, see "Fast Splittable Pseudorandom Number
+ * Generators" (Steele, Lea, Flood, 2014). {@link #split()} derives an independent stream, so a single seed can
+ * reproducibly feed any number of parallel workers. Instances are not thread-safe; every worker needs its own stream.
+ */
+public class SplitMix64Random extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private long state;
+    private long gamma;
+
+    public SplitMix64Random(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64Random(long seed, long gamma) {
+        super(0);
+        this.state = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * @return a new generator whose stream is independent of the remaining stream of this generator
+     */
+    public SplitMix64Random split() {
+        return new SplitMix64Random(nextLong(), mixGamma(nextState()));
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        // also called by the constructor of Random
+        this.state = seed;
+        this.gamma = GOLDEN_GAMMA;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(nextState());
+    }
+
+    @Override
+    public int nextInt() {
+        return mix32(nextState());
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    private long nextState() {
+        state += gamma;
+        return state;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        // avoid gammas with too few bit transitions
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.internal.jayes.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Iterates over the entries of the product of several tables with one variable summed out, without creating the
+ * product table. The tables are in row-major order, the last dimension varies fastest. The dimensions of the result
+ * are ordered by their first occurrence in the tables. <br/>
+ * <br/>
+ * For every entry of the result, in order, {@link #getIndex(int, int)} gives the positions in the tables that are
+ * multiplied and summed up, per outcome of the summed variable. {@link #next()} advances the positions in place, like
+ * an odometer.
+ */
+public final class SumOutOdometer {
+
+    private final int[] dimensionIDs;
+    private final int[] dimensions;
+    private final int summedSize;
+    // per table, the strides of the result dimensions
+    private final long[][] strides;
+    private final long[] summedStrides;
+    private final int[] counter;
+    private final long[] indices;
+
+    /**
+     * @param tableIDs
+     *            the dimension ids of every table
+     * @param tableDimensions
+     *            the dimensions of every table
+     * @param summedID
+     *            the variable to sum out
+     */
+    public SumOutOdometer(int[][] tableIDs, int[][] tableDimensions, int summedID) {
+        Map<Integer, Integer> scope = new LinkedHashMap<Integer, Integer>();
+        int summed = 1;
+        for (int t = 0; t < tableIDs.length; t++) {
+            for (int i = 0; i < tableIDs[t].length; i++) {
+                if (tableIDs[t][i] == summedID) {
+                    summed = tableDimensions[t][i];
+                } else {
+                    scope.put(tableIDs[t][i], tableDimensions[t][i]);
+                }
+            }
+        }
+        summedSize = summed;
+        dimensionIDs = new int[scope.size()];
+        dimensions = new int[scope.size()];
+        int d = 0;
+        for (Map.Entry<Integer, Integer> e : scope.entrySet()) {
+            dimensionIDs[d] = e.getKey();
+            dimensions[d++] = e.getValue();
+        }
+
+        strides = new long[tableIDs.length][];
+        summedStrides = new long[tableIDs.length];
+        for (int t = 0; t < tableIDs.length; t++) {
+            strides[t] = computeStrides(tableIDs[t], tableDimensions[t], dimensionIDs);
+            summedStrides[t] = computeStrides(tableIDs[t], tableDimensions[t], new int[] { summedID })[0];
+        }
+        counter = new int[dimensionIDs.length];
+        indices = new long[tableIDs.length];
+    }
+
+    /**
+     * @return the strides of the variables in the table, 0 for variables it does not contain
+     */
+    private static long[] computeStrides(int[] ids, int[] tableDimensions, int[] variables) {
+        long[] result = new long[variables.length];
+        for (int v = 0; v < variables.length; v++) {
+            long stride = 1;
+            for (int i = ids.length - 1; i >= 0; i--) {
+                if (ids[i] == variables[v]) {
+                    result[v] = stride;
+                    break;
+                }
+                stride *= tableDimensions[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the dimension ids of the result
+     */
+    public int[] getDimensionIDs() {
+        return dimensionIDs;
+    }
+
+    /**
+     * @return the dimensions of the result
+     */
+    public int[] getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the number of outcomes of the summed variable, 1 if no table contains it
+     */
+    public int getSummedSize() {
+        return summedSize;
+    }
+
+    /**
+     * @return the position in the table that contributes to the current result entry, for the given outcome of the
+     *         summed variable
+     */
+    public long getIndex(int table, int summedOutcome) {
+        return indices[table] + summedOutcome * summedStrides[table];
+    }
+
+    /**
+     * advances to the next entry of the result
+     *
+     * @return <code>false</code> if the last entry has been passed, the positions are back at the first entry then
+     */
+    public boolean next() {
+        for (int d = dimensions.length - 1; d >= 0; d--) {
+            for (int t = 0; t < indices.length; t++) {
+                indices[t] += strides[t][d];
+            }
+            if (++counter[d] < dimensions[d]) {
+                return true;
+            }
+            for (int t = 0; t < indices.length; t++) {
+                indices[t] -= strides[t][d] * dimensions[d];
+            }
+            counter[d] = 0;
+        }
+        return false;
+    }
+
+}
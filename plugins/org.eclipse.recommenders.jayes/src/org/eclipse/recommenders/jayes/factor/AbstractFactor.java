@@ -10,8 +10,12 @@
  ******************************************************************************/
 package org.eclipse.recommenders.jayes.factor;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
 import org.eclipse.recommenders.jayes.factor.arraywrapper.DoubleArrayWrapper;
 import org.eclipse.recommenders.jayes.factor.arraywrapper.IArrayWrapper;
 import org.eclipse.recommenders.jayes.factor.opcache.DivisionCache;
@@ -27,6 +31,14 @@ public abstract class AbstractFactor implements Cloneable {
 
     protected abstract int getRealPosition(int virtualPosition);
 
+    /**
+     * @return whether the virtual position is in a block of zeros that is stored once for all its positions. Such a
+     *         block stays zero in multiplications, and must not be written concurrently.
+     */
+    boolean isZeroBlock(int virtualPosition) {
+        return false;
+    }
+
     public abstract void fill(double d);
 
     protected int[] dimensions = new int[0];
@@ -36,6 +48,11 @@ public abstract class AbstractFactor implements Cloneable {
     protected Cut cut = new Cut(this);
     private boolean isCutValid = false;
     private boolean isLogScale = false;
+    protected FactorParallelism parallelism;
+    // -1 if the zero blocks are not tracked
+    private int occupancyBlockBits = -1;
+    // one bit per block of virtual positions, cleared if all selected entries of the block are zero. null if unknown.
+    private long[] occupancy;
 
     public AbstractFactor() {
         super();
@@ -43,13 +60,33 @@ public abstract class AbstractFactor implements Cloneable {
 
     public void setValues(IArrayWrapper values) {
         this.values = values;
+        invalidateOccupancy();
         assert (MathUtils.product(dimensions) == values.length());
     }
 
+    /**
+     * the returned values must not be modified, use {@link #getMutableValues()} for that
+     */
     public IArrayWrapper getValues() {
         return values;
     }
 
+    /**
+     * the returned values may be modified, so the known zero blocks are forgotten (see
+     * {@link #setOccupancyBlockSize(int)})
+     */
+    public IArrayWrapper getMutableValues() {
+        invalidateOccupancy();
+        return values;
+    }
+
+    /**
+     * @return the number of stored values, which is smaller than the product of the dimensions for sparse factors
+     */
+    public int getValueCount() {
+        return values.length();
+    }
+
     public double getValue(int i) {
         return values.getDouble(getRealPosition(i));
     }
@@ -61,6 +98,7 @@ public abstract class AbstractFactor implements Cloneable {
         int length = MathUtils.product(dimensions);
         if (length > values.length())
             values.newArray(length);
+        invalidateOccupancy();
         dimensionIDs = Arrays.copyOf(dimensionIDs, dimensions.length);
     }
 
@@ -91,12 +129,14 @@ public abstract class AbstractFactor implements Cloneable {
         if (selections[dim] != index) {
             selections[dim] = index;
             isCutValid = false;
+            invalidateOccupancy();
         }
     }
 
     public void resetSelections() {
         Arrays.fill(selections, -1);
         isCutValid = false;
+        invalidateOccupancy();
     }
 
     public void setLogScale(boolean isLogScale) {
@@ -107,6 +147,91 @@ public abstract class AbstractFactor implements Cloneable {
         return isLogScale;
     }
 
+    /**
+     * @param parallelism
+     *            the configuration for processing large factors in parallel, or <code>null</code> to always process
+     *            them in the calling thread (the default)
+     */
+    public void setParallelism(FactorParallelism parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public FactorParallelism getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * lets the factor track which blocks of entries are zero, so that {@link #sumPrepared} and
+     * {@link #multiplyPrepared} skip them. Every (non-log-scale) multiplication records the blocks in which all selected
+     * entries became zero; this information is kept until the values or the selections change by other means. After
+     * propagating evidence, many entries of a clique are zero, so the following operations only process the support
+     * of the posterior. Zero entries stay zero when they are skipped, even if they would be multiplied by an infinite
+     * value.
+     *
+     * @param blockSize
+     *            the number of consecutive entries that share a bit, a power of two, or 0 to not track the zero blocks
+     *            (the default)
+     */
+    public void setOccupancyBlockSize(int blockSize) {
+        if (blockSize != 0 && Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("The block size must be a power of two, but was " + blockSize);
+        }
+        occupancyBlockBits = blockSize == 0 ? -1 : Integer.numberOfTrailingZeros(blockSize);
+        invalidateOccupancy();
+    }
+
+    public int getOccupancyBlockSize() {
+        return occupancyBlockBits == -1 ? 0 : 1 << occupancyBlockBits;
+    }
+
+    /**
+     * @return the fraction of the blocks of entries that are known to be zero
+     */
+    public double getZeroBlockFraction() {
+        if (occupancy == null) {
+            return 0;
+        }
+        int blocks = ((MathUtils.product(dimensions) - 1) >>> occupancyBlockBits) + 1;
+        int occupied = 0;
+        for (long word : occupancy) {
+            occupied += Long.bitCount(word);
+        }
+        return 1 - (double) occupied / blocks;
+    }
+
+    /**
+     * forgets the known zero blocks; to be called whenever the values change outside of {@link #multiplyPrepared}
+     */
+    protected void invalidateOccupancy() {
+        occupancy = null;
+    }
+
+    private boolean isTrackingOccupancy() {
+        return occupancyBlockBits != -1 && !isLogScale;
+    }
+
+    private long[] newOccupancy() {
+        return new long[(((MathUtils.product(dimensions) - 1) >>> occupancyBlockBits) >>> 6) + 1];
+    }
+
+    private boolean isOccupied(long[] occupancy, int virtualPosition) {
+        int block = virtualPosition >>> occupancyBlockBits;
+        return (occupancy[block >>> 6] & (1L << block)) != 0;
+    }
+
+    private void markOccupied(long[] occupancy, int virtualPosition) {
+        int block = virtualPosition >>> occupancyBlockBits;
+        occupancy[block >>> 6] |= 1L << block;
+    }
+
+    /**
+     * @return the first position after the block of the given position that is reached with the step size
+     */
+    private int skipBlock(int virtualPosition, int step) {
+        int blockEnd = ((virtualPosition >>> occupancyBlockBits) + 1) << occupancyBlockBits;
+        return virtualPosition + (blockEnd - virtualPosition + step - 1) / step * step;
+    }
+
     /**
      * marginalizes out all variables except the one with id sumDimensionID
      * 
@@ -156,7 +281,13 @@ public abstract class AbstractFactor implements Cloneable {
 
     public void multiplyPrepared(IArrayWrapper compatibleValues, int[] positions) {
         validateCut();
-        if (!isLogScale)
+        if (isParallelizable()) {
+            multiplyPreparedInParallel(compatibleValues, positions);
+        } else if (isTrackingOccupancy()) {
+            long[] next = newOccupancy();
+            multiplyPreparedTracked(cut, 0, compatibleValues, positions, occupancy, next);
+            occupancy = next;
+        } else if (!isLogScale)
             multiplyPrepared(cut, 0, compatibleValues, positions);
         else
             multiplyPreparedLog(cut, 0, compatibleValues, positions);
@@ -177,15 +308,43 @@ public abstract class AbstractFactor implements Cloneable {
         }
     }
 
+    private void multiplyPreparedTracked(Cut cut, int offset, IArrayWrapper compatibleValues, int[] positions,
+            long[] previous, long[] next) {
+        if (cut.getSubCut() == null) {
+            int last = cut.getEnd() + offset;
+            int step = cut.getStepSize();
+            for (int i = cut.getStart() + offset; i < last; i += step) {
+                if (previous != null && !isOccupied(previous, i)) {
+                    i = skipBlock(i, step) - step;
+                    continue;
+                }
+                int j = getRealPosition(i);
+                values.mulAssign(j, compatibleValues, positions[j]);
+                if (values.getDouble(j) != 0) {
+                    markOccupied(next, i);
+                }
+            }
+        } else {
+            Cut c = cut.getSubCut();
+            for (int i = 0; i < cut.getLength(); i += cut.getSubtreeStepsize()) {
+                multiplyPreparedTracked(c, offset + i, compatibleValues, positions, previous, next);
+            }
+        }
+    }
+
     public void sumPrepared(IArrayWrapper compatibleFactorValues, int[] preparedOperation) {
         validateCut();
 
         compatibleFactorValues.fill(0);
 
-        if (!isLogScale)
-            sumPrepared(cut, 0, compatibleFactorValues, preparedOperation);
-        else
+        if (isLogScale)
             sumPreparedLog(compatibleFactorValues, preparedOperation);
+        else if (isParallelizable())
+            sumPreparedInParallel(compatibleFactorValues, preparedOperation);
+        else if (occupancy != null && isTrackingOccupancy())
+            sumPreparedTracked(cut, 0, compatibleFactorValues, preparedOperation, occupancy);
+        else
+            sumPrepared(cut, 0, compatibleFactorValues, preparedOperation);
 
     }
 
@@ -204,6 +363,27 @@ public abstract class AbstractFactor implements Cloneable {
         }
     }
 
+    private void sumPreparedTracked(Cut cut, int offset, IArrayWrapper compatibleFactorValues, int[] positions,
+            long[] occupancy) {
+        if (cut.getSubCut() == null) {
+            int last = cut.getEnd() + offset;
+            int step = cut.getStepSize();
+            for (int i = cut.getStart() + offset; i < last; i += step) {
+                if (!isOccupied(occupancy, i)) {
+                    i = skipBlock(i, step) - step;
+                    continue;
+                }
+                int j = getRealPosition(i);
+                compatibleFactorValues.addAssign(positions[j], values, j);
+            }
+        } else {
+            Cut c = cut.getSubCut();
+            for (int i = 0; i < cut.getLength(); i += cut.getSubtreeStepsize()) {
+                sumPreparedTracked(c, offset + i, compatibleFactorValues, positions, occupancy);
+            }
+        }
+    }
+
     private void sumPreparedLog(IArrayWrapper compatibleFactorValues, int[] positions) {
         double max = findMax(cut, 0, 0);
         sumPreparedLog(cut, 0, compatibleFactorValues, positions, max);
@@ -263,6 +443,178 @@ public abstract class AbstractFactor implements Cloneable {
         }
     }
 
+    private boolean isParallelizable() {
+        if (parallelism == null) {
+            return false;
+        }
+        long selectedEntries = 1;
+        for (int i = 0; i < dimensions.length; i++) {
+            if (selections[i] == -1) {
+                selectedEntries *= dimensions[i];
+            }
+        }
+        return parallelism.isApplicable(selectedEntries);
+    }
+
+    /*
+     * the iterations of the outermost loop of the cut are split into chunks. Multiplication writes to disjoint
+     * positions, so all chunks can work on this factor; positions in zero blocks are skipped, as they share their
+     * storage. Summation goes into a partial result per chunk, and the partial results are added up in chunk order
+     * afterwards.
+     */
+    private void multiplyPreparedInParallel(final IArrayWrapper compatibleValues, final int[] positions) {
+        final boolean isTracking = isTrackingOccupancy();
+        final long[] previous = occupancy;
+        List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (final int[] chunk : computeChunks()) {
+            tasks.add(new Callable<long[]>() {
+
+                @Override
+                public long[] call() {
+                    // every chunk records its zero blocks separately, as they may share words of the bitmap
+                    long[] next = isTracking ? newOccupancy() : null;
+                    createConcurrentView().multiplyPreparedChunk(chunk[0], chunk[1], compatibleValues, positions,
+                            previous, next);
+                    return next;
+                }
+
+            });
+        }
+        List<long[]> partialOccupancies = ParallelTasks.invokeAll(parallelism.getExecutor(), tasks);
+        if (isTracking) {
+            long[] next = newOccupancy();
+            for (long[] partial : partialOccupancies) {
+                for (int i = 0; i < next.length; i++) {
+                    next[i] |= partial[i];
+                }
+            }
+            occupancy = next;
+        }
+    }
+
+    private void multiplyPreparedChunk(int from, int to, IArrayWrapper compatibleValues, int[] positions,
+            long[] previous, long[] next) {
+        Cut c = cut.getSubCut();
+        if (c == null) {
+            int first = cut.getStart() + from * cut.getStepSize();
+            int last = Math.min(cut.getStart() + to * cut.getStepSize(), cut.getEnd());
+            multiplyPreparedConcurrently(first, last, cut.getStepSize(), compatibleValues, positions, previous, next);
+        } else {
+            int last = Math.min(to * cut.getSubtreeStepsize(), cut.getLength());
+            for (int i = from * cut.getSubtreeStepsize(); i < last; i += cut.getSubtreeStepsize()) {
+                multiplyPreparedConcurrently(c, i, compatibleValues, positions, previous, next);
+            }
+        }
+    }
+
+    private void multiplyPreparedConcurrently(Cut cut, int offset, IArrayWrapper compatibleValues, int[] positions,
+            long[] previous, long[] next) {
+        if (cut.getSubCut() == null) {
+            multiplyPreparedConcurrently(cut.getStart() + offset, cut.getEnd() + offset, cut.getStepSize(),
+                    compatibleValues, positions, previous, next);
+        } else {
+            Cut c = cut.getSubCut();
+            for (int i = 0; i < cut.getLength(); i += cut.getSubtreeStepsize()) {
+                multiplyPreparedConcurrently(c, offset + i, compatibleValues, positions, previous, next);
+            }
+        }
+    }
+
+    private void multiplyPreparedConcurrently(int first, int last, int step, IArrayWrapper compatibleValues,
+            int[] positions, long[] previous, long[] next) {
+        for (int i = first; i < last; i += step) {
+            if (next != null && previous != null && !isOccupied(previous, i)) {
+                i = skipBlock(i, step) - step;
+                continue;
+            }
+            if (isZeroBlock(i)) {
+                continue;
+            }
+            int j = getRealPosition(i);
+            if (!isLogScale)
+                values.mulAssign(j, compatibleValues, positions[j]);
+            else
+                values.addAssign(j, compatibleValues, positions[j]);
+            if (next != null && values.getDouble(j) != 0) {
+                markOccupied(next, i);
+            }
+        }
+    }
+
+    private void sumPreparedInParallel(final IArrayWrapper compatibleFactorValues, final int[] positions) {
+        final long[] current = isTrackingOccupancy() ? occupancy : null;
+        List<Callable<IArrayWrapper>> tasks = new ArrayList<Callable<IArrayWrapper>>();
+        for (final int[] chunk : computeChunks()) {
+            tasks.add(new Callable<IArrayWrapper>() {
+
+                @Override
+                public IArrayWrapper call() {
+                    IArrayWrapper partialResult = compatibleFactorValues.clone();
+                    partialResult.fill(0);
+                    createConcurrentView().sumPreparedChunk(chunk[0], chunk[1], partialResult, positions, current);
+                    return partialResult;
+                }
+
+            });
+        }
+        for (IArrayWrapper partialResult : ParallelTasks.invokeAll(parallelism.getExecutor(), tasks)) {
+            for (int i = 0; i < compatibleFactorValues.length(); i++) {
+                compatibleFactorValues.addAssign(i, partialResult, i);
+            }
+        }
+    }
+
+    private void sumPreparedChunk(int from, int to, IArrayWrapper compatibleFactorValues, int[] positions,
+            long[] occupancy) {
+        Cut c = cut.getSubCut();
+        if (c == null) {
+            int last = Math.min(cut.getStart() + to * cut.getStepSize(), cut.getEnd());
+            for (int i = cut.getStart() + from * cut.getStepSize(); i < last; i += cut.getStepSize()) {
+                if (occupancy != null && !isOccupied(occupancy, i)) {
+                    continue;
+                }
+                int j = getRealPosition(i);
+                compatibleFactorValues.addAssign(positions[j], values, j);
+            }
+        } else {
+            int last = Math.min(to * cut.getSubtreeStepsize(), cut.getLength());
+            for (int i = from * cut.getSubtreeStepsize(); i < last; i += cut.getSubtreeStepsize()) {
+                if (occupancy != null)
+                    sumPreparedTracked(c, i, compatibleFactorValues, positions, occupancy);
+                else
+                    sumPrepared(c, i, compatibleFactorValues, positions);
+            }
+        }
+    }
+
+    /**
+     * @return [from, to) ranges of iterations of the outermost loop of the cut
+     */
+    private List<int[]> computeChunks() {
+        int step = cut.getSubCut() == null ? cut.getStepSize() : cut.getSubtreeStepsize();
+        int iterations = (cut.getLength() + step - 1) / step;
+        int chunkCount = Math.min(parallelism.getChunkCount(), iterations);
+        List<int[]> chunks = new ArrayList<int[]>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.add(new int[] { (int) ((long) iterations * i / chunkCount),
+                    (int) ((long) iterations * (i + 1) / chunkCount) });
+        }
+        return chunks;
+    }
+
+    /**
+     * creates a view on this factor that shares the values and structure, but can be used concurrently to this factor
+     * and other views as long as they write to different positions.
+     */
+    protected AbstractFactor createConcurrentView() {
+        try {
+            return (AbstractFactor) super.clone();
+        } catch (CloneNotSupportedException exception) {
+            // should not be possible to happen
+            throw new IllegalStateException(exception);
+        }
+    }
+
     protected void validateCut() {
         if (!isCutValid) {
             cut.initialize();
@@ -282,12 +634,14 @@ public abstract class AbstractFactor implements Cloneable {
         }
         f.values = values.clone();
         f.selections = selections.clone();
+        f.occupancy = occupancy == null ? null : occupancy.clone();
         f.cut = new Cut(f);
         f.isCutValid = false;
         return f;
     }
 
     public void multiplyCompatibleToLog(AbstractFactor factor) {
+        invalidateOccupancy();
         int[] positions = prepareMultiplication(factor);
         for (int i = 0; i < values.length(); i++) {
             values.addAssign(i, Math.log(factor.values.getDouble(positions[i])));
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.factor;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.recommenders.internal.jayes.util.SumOutOdometer;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+
+/**
+ * A dense factor whose table may have more than 2^31 entries. The index arithmetic uses <code>long</code>, and the
+ * values are stored in chunks of at most 2^chunkBits entries, so no single array exceeds the maximal array size. <br/>
+ * <br/>
+ * Unlike {@link AbstractFactor}, there are no prepared multiplications: those would need an index per table entry,
+ * which is as large as the table itself. Instead, the positions in the other factor are computed incrementally while
+ * iterating over the table. Like for {@link AbstractFactor}, the table is in row-major order, the last dimension
+ * varies fastest.
+ */
+public class ChunkedFactor {
+
+    public static final int DEFAULT_CHUNK_BITS = 24;
+    // the largest power of two below the maximal array size
+    private static final int MAX_CHUNK_BITS = 30;
+
+    private final int[] dimensionIDs;
+    private final int[] dimensions;
+    private final long[] strides;
+    private final long length;
+    private final int[] selections;
+
+    private final int chunkBits;
+    private final long chunkMask;
+    private final double[][] chunks;
+
+    public ChunkedFactor(int[] dimensionIDs, int[] dimensions) {
+        this(dimensionIDs, dimensions, DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * @param chunkBits
+     *            the logarithm of the chunk size, between 1 and 30
+     * @throws IllegalArgumentException
+     *             if the chunk size is out of range, or if the number of entries exceeds the range of long
+     */
+    public ChunkedFactor(int[] dimensionIDs, int[] dimensions, int chunkBits) {
+        if (chunkBits <= 0 || chunkBits > MAX_CHUNK_BITS) {
+            throw new IllegalArgumentException("chunkBits has to be between 1 and " + MAX_CHUNK_BITS + ", but was "
+                    + chunkBits);
+        }
+        if (dimensionIDs.length != dimensions.length) {
+            throw new IllegalArgumentException("Expected one id per dimension, but got " + dimensionIDs.length
+                    + " ids for " + dimensions.length + " dimensions");
+        }
+        this.dimensionIDs = dimensionIDs.clone();
+        this.dimensions = dimensions.clone();
+        this.length = MathUtils.longProduct(dimensions);
+        this.strides = new long[dimensions.length];
+        long stride = 1;
+        for (int i = dimensions.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= dimensions[i];
+        }
+        this.selections = new int[dimensions.length];
+        Arrays.fill(selections, -1);
+
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+        long chunkCount = (length + chunkMask) >>> chunkBits;
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks for " + length + " entries");
+        }
+        chunks = new double[(int) chunkCount][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new double[(int) Math.min(1L << chunkBits, length - ((long) i << chunkBits))];
+        }
+    }
+
+    public int[] getDimensionIDs() {
+        return dimensionIDs;
+    }
+
+    public int[] getDimensions() {
+        return dimensions;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public double getValue(long index) {
+        return chunks[(int) (index >>> chunkBits)][(int) (index & chunkMask)];
+    }
+
+    public void setValue(long index, double value) {
+        chunks[(int) (index >>> chunkBits)][(int) (index & chunkMask)] = value;
+    }
+
+    public void fill(double value) {
+        for (double[] chunk : chunks) {
+            Arrays.fill(chunk, value);
+        }
+    }
+
+    /**
+     * @return the distance between consecutive outcomes of the dimension in the table, or 0 if the factor does not
+     *         have the dimension
+     */
+    public long getStride(int dimensionID) {
+        for (int i = 0; i < dimensionIDs.length; i++) {
+            if (dimensionIDs[i] == dimensionID) {
+                return strides[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * restricts the following operations to the entries with the given outcome of the dimension. -1 removes the
+     * restriction.
+     */
+    public void select(int dimensionID, int index) {
+        for (int i = 0; i < dimensionIDs.length; i++) {
+            if (dimensionIDs[i] == dimensionID) {
+                selections[i] = index;
+            }
+        }
+    }
+
+    public void resetSelections() {
+        Arrays.fill(selections, -1);
+    }
+
+    /**
+     * multiplies the selected entries with the corresponding entries of a factor that has a subset of the dimensions
+     * of this factor
+     */
+    public void multiplyCompatible(ChunkedFactor compatible) {
+        combine(compatible, true);
+    }
+
+    /**
+     * sums the selected entries into a factor that has a subset of the dimensions of this factor. The previous values
+     * of that factor are overwritten.
+     */
+    public void sumInto(ChunkedFactor compatible) {
+        compatible.fill(0);
+        combine(compatible, false);
+    }
+
+    /**
+     * iterates over the selected entries like an odometer, advancing the index into this factor and the one into the
+     * compatible factor along with the counter. The innermost unselected dimension is a plain loop.
+     */
+    private void combine(ChunkedFactor compatible, boolean isMultiplication) {
+        if (length == 0) {
+            return;
+        }
+        long[] foreignStrides = getForeignStrides(compatible);
+        int[] counter = new int[dimensions.length];
+        long index = initializeCounter(counter);
+        long foreignIndex = computeIndex(counter, foreignStrides);
+        int inner = dimensions.length - 1;
+        while (inner >= 0 && selections[inner] != -1) {
+            inner--;
+        }
+        int innerSize = inner >= 0 ? dimensions[inner] : 1;
+        long innerStride = inner >= 0 ? strides[inner] : 0;
+        long innerForeignStride = inner >= 0 ? foreignStrides[inner] : 0;
+        int d;
+        long innerExtent = (innerSize - 1) * innerStride;
+        long innerForeignExtent = (innerSize - 1) * innerForeignStride;
+        do {
+            if (isInOneChunk(index, innerExtent) && compatible.isInOneChunk(foreignIndex, innerForeignExtent)) {
+                combineRun(compatible, index, foreignIndex, innerSize, (int) innerStride, (int) innerForeignStride,
+                        isMultiplication);
+            } else {
+                long i = index;
+                long j = foreignIndex;
+                for (int k = 0; k < innerSize; k++) {
+                    if (isMultiplication) {
+                        setValue(i, getValue(i) * compatible.getValue(j));
+                    } else {
+                        compatible.setValue(j, compatible.getValue(j) + getValue(i));
+                    }
+                    i += innerStride;
+                    j += innerForeignStride;
+                }
+            }
+            for (d = inner - 1; d >= 0; d--) {
+                if (selections[d] != -1) {
+                    continue;
+                }
+                index += strides[d];
+                foreignIndex += foreignStrides[d];
+                if (++counter[d] < dimensions[d]) {
+                    break;
+                }
+                index -= strides[d] * dimensions[d];
+                foreignIndex -= foreignStrides[d] * dimensions[d];
+                counter[d] = 0;
+            }
+        } while (d >= 0);
+    }
+
+    /**
+     * @param dimensionID
+     *            -1 for last dimension (default)
+     * @return the sums of the selected entries per outcome of the dimension
+     */
+    public double[] marginalizeAllBut(int dimensionID) {
+        if (dimensionID == -1) {
+            dimensionID = dimensionIDs[dimensionIDs.length - 1];
+        }
+        int dimension = indexOf(dimensionID);
+        ChunkedFactor marginal = new ChunkedFactor(new int[] { dimensionID }, new int[] { dimensions[dimension] });
+        sumInto(marginal);
+        return marginal.chunks.length == 0 ? new double[0] : marginal.chunks[0];
+    }
+
+    private int indexOf(int dimensionID) {
+        for (int i = 0; i < dimensionIDs.length; i++) {
+            if (dimensionIDs[i] == dimensionID) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No dimension with id " + dimensionID);
+    }
+
+    private boolean isInOneChunk(long index, long extent) {
+        return index >>> chunkBits == (index + extent) >>> chunkBits;
+    }
+
+    /**
+     * combines a run of entries that lies within one chunk of each factor, so it can work on the chunk arrays
+     */
+    private void combineRun(ChunkedFactor compatible, long index, long foreignIndex, int size, int stride,
+            int foreignStride, boolean isMultiplication) {
+        double[] chunk = chunks[(int) (index >>> chunkBits)];
+        double[] foreignChunk = compatible.chunks[(int) (foreignIndex >>> compatible.chunkBits)];
+        int i = (int) (index & chunkMask);
+        int j = (int) (foreignIndex & compatible.chunkMask);
+        if (isMultiplication) {
+            for (int k = 0; k < size; k++, i += stride, j += foreignStride) {
+                chunk[i] *= foreignChunk[j];
+            }
+        } else if (foreignStride == 0) {
+            double sum = 0;
+            for (int k = 0; k < size; k++, i += stride) {
+                sum += chunk[i];
+            }
+            foreignChunk[j] += sum;
+        } else {
+            for (int k = 0; k < size; k++, i += stride, j += foreignStride) {
+                foreignChunk[j] += chunk[i];
+            }
+        }
+    }
+
+    private long[] getForeignStrides(ChunkedFactor compatible) {
+        long[] foreignStrides = new long[dimensions.length];
+        for (int i = 0; i < dimensions.length; i++) {
+            foreignStrides[i] = compatible.getStride(dimensionIDs[i]);
+        }
+        return foreignStrides;
+    }
+
+    private long initializeCounter(int[] counter) {
+        for (int i = 0; i < counter.length; i++) {
+            counter[i] = selections[i] == -1 ? 0 : selections[i];
+        }
+        return computeIndex(counter, strides);
+    }
+
+    private static long computeIndex(int[] counter, long[] strides) {
+        long index = 0;
+        for (int i = 0; i < counter.length; i++) {
+            index += counter[i] * strides[i];
+        }
+        return index;
+    }
+
+    /**
+     * multiplies the factors and sums out one of their dimensions, without creating the product table. The remaining
+     * dimensions of the result are ordered by their first occurrence in the factors. Selections are ignored.
+     *
+     * @see SumOutOdometer
+     */
+    public static ChunkedFactor multiplyAndSumOut(List<ChunkedFactor> factors, int dimensionID) {
+        int factorCount = factors.size();
+        ChunkedFactor[] sources = factors.toArray(new ChunkedFactor[factorCount]);
+        int[][] ids = new int[factorCount][];
+        int[][] dimensions = new int[factorCount][];
+        for (int f = 0; f < factorCount; f++) {
+            ids[f] = sources[f].dimensionIDs;
+            dimensions[f] = sources[f].dimensions;
+        }
+        SumOutOdometer odometer = new SumOutOdometer(ids, dimensions, dimensionID);
+        ChunkedFactor result = new ChunkedFactor(odometer.getDimensionIDs(), odometer.getDimensions());
+        int summedSize = odometer.getSummedSize();
+        for (long i = 0; i < result.length; i++, odometer.next()) {
+            double sum = 0;
+            for (int x = 0; x < summedSize; x++) {
+                double product = 1;
+                for (int f = 0; f < factorCount; f++) {
+                    product *= sources[f].getValue(odometer.getIndex(f, x));
+                }
+                sum += product;
+            }
+            result.setValue(i, sum);
+        }
+        return result;
+    }
+
+}
@@ -14,6 +14,7 @@ public class DenseFactor extends AbstractFactor {
 
     @Override
     public void fill(double d) {
+        invalidateOccupancy();
         values.fill(d);
     }
 
@@ -49,6 +50,7 @@ public class DenseFactor extends AbstractFactor {
 
     @Override
     public void copyValues(IArrayWrapper arrayWrapper) {
+        invalidateOccupancy();
         validateCut();
         int index = cut.getStart();
         int length = Math.min(cut.getLength(), values.length() - index);
@@ -0,0 +1,458 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.factor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.recommenders.jayes.factor.arraywrapper.DoubleArrayWrapper;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+
+/**
+ * Operations on factors over arbitrary sets of variables. Unlike {@link AbstractFactor#multiplyCompatible} and
+ * {@link AbstractFactor#marginalizeAllBut}, the operands do not need to contain each other's variables, and no
+ * operation changes its operands: every result is a new {@link DenseFactor}. The variables are identified by the
+ * dimension IDs, and all factors must agree on the number of outcomes of a variable. <br/>
+ * <br/>
+ * {@link #sumProduct} and {@link #maxProduct} compute the marginal of a product without creating the product table:
+ * the variables that are not kept are eliminated one after another, and every elimination multiplies the factors of
+ * the variable and sums it out in a single pass. If an operand is a {@link SparseFactor}, the pass iterates over its
+ * non-zero blocks and skips all combinations with its zero entries; otherwise, it runs over the dense tables
+ * directly. <br/>
+ * <br/>
+ * Log-scale operands are read as their exponentials, results are never in log-scale. Selections of the operands are
+ * ignored.
+ */
+public final class FactorAlgebra {
+
+    private enum Reduction {
+        SUM, MAX
+    }
+
+    private FactorAlgebra() {
+    }
+
+    /**
+     * @return the product of the factors, over the union of their variables, in the order of their first occurrence
+     */
+    public static DenseFactor product(AbstractFactor... factors) {
+        List<Operand> operands = toOperands(Arrays.asList(factors));
+        return combine(operands, toArray(collectDimensionIDs(operands)), Reduction.SUM);
+    }
+
+    /**
+     * @return the factor with the given variables summed out
+     */
+    public static DenseFactor sumOut(AbstractFactor factor, int... dimensionIDs) {
+        return combine(toOperands(Collections.singletonList(factor)), remove(factor.getDimensionIDs(), dimensionIDs),
+                Reduction.SUM);
+    }
+
+    /**
+     * @return the factor with the given variables maximized out
+     */
+    public static DenseFactor maxOut(AbstractFactor factor, int... dimensionIDs) {
+        return combine(toOperands(Collections.singletonList(factor)), remove(factor.getDimensionIDs(), dimensionIDs),
+                Reduction.MAX);
+    }
+
+    /**
+     * @param evidence
+     *            the observed outcome index per dimension ID. Variables that the factor does not contain are ignored.
+     * @return the slice of the factor that agrees with the evidence, without the observed variables
+     */
+    public static DenseFactor reduce(AbstractFactor factor, Map<Integer, Integer> evidence) {
+        Operand operand = new Operand(factor, evidence);
+        return combine(Collections.singletonList(operand), operand.ids, Reduction.SUM);
+    }
+
+    /**
+     * @return the product of the factors with all variables except the kept ones summed out, over the kept variables
+     *         in the given order
+     */
+    public static DenseFactor sumProduct(List<? extends AbstractFactor> factors, int... keepDimensionIDs) {
+        return eliminate(toOperands(factors), keepDimensionIDs, Reduction.SUM);
+    }
+
+    /**
+     * @return the product of the factors with all variables except the kept ones maximized out, over the kept
+     *         variables in the given order
+     */
+    public static DenseFactor maxProduct(List<? extends AbstractFactor> factors, int... keepDimensionIDs) {
+        return eliminate(toOperands(factors), keepDimensionIDs, Reduction.MAX);
+    }
+
+    private static List<Operand> toOperands(List<? extends AbstractFactor> factors) {
+        List<Operand> operands = new ArrayList<Operand>(factors.size());
+        for (AbstractFactor f : factors) {
+            operands.add(new Operand(f, Collections.<Integer, Integer> emptyMap()));
+        }
+        return operands;
+    }
+
+    private static Set<Integer> collectDimensionIDs(List<Operand> operands) {
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (Operand operand : operands) {
+            for (int id : operand.ids) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static int[] toArray(Set<Integer> ids) {
+        int[] array = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            array[i++] = id;
+        }
+        return array;
+    }
+
+    private static int[] remove(int[] ids, int[] removed) {
+        Set<Integer> remaining = new LinkedHashSet<Integer>();
+        for (int id : ids) {
+            remaining.add(id);
+        }
+        for (int id : removed) {
+            remaining.remove(id);
+        }
+        return toArray(remaining);
+    }
+
+    /**
+     * eliminates the variables that are not kept one after another, each time choosing the variable whose factors have
+     * the smallest union of variables
+     */
+    private static DenseFactor eliminate(List<Operand> operands, int[] keep, Reduction reduction) {
+        List<Operand> pool = new ArrayList<Operand>(operands);
+        Set<Integer> eliminated = collectDimensionIDs(pool);
+        for (int id : keep) {
+            eliminated.remove(id);
+        }
+        Map<Integer, Integer> sizes = collectSizes(pool);
+        while (!eliminated.isEmpty()) {
+            int next = -1;
+            double minLogSize = Double.POSITIVE_INFINITY;
+            for (int id : eliminated) {
+                double logSize = 0;
+                for (int var : collectDimensionIDs(getBucket(pool, id))) {
+                    logSize += Math.log(sizes.get(var));
+                }
+                if (logSize < minLogSize) {
+                    minLogSize = logSize;
+                    next = id;
+                }
+            }
+            eliminated.remove(next);
+            List<Operand> bucket = getBucket(pool, next);
+            pool.removeAll(bucket);
+            Set<Integer> remaining = collectDimensionIDs(bucket);
+            remaining.remove(next);
+            pool.add(new Operand(combine(bucket, toArray(remaining), reduction), Collections
+                    .<Integer, Integer> emptyMap()));
+        }
+        return combine(pool, keep, reduction);
+    }
+
+    private static List<Operand> getBucket(List<Operand> pool, int id) {
+        List<Operand> bucket = new ArrayList<Operand>();
+        for (Operand operand : pool) {
+            if (operand.getDimension(id) != -1) {
+                bucket.add(operand);
+            }
+        }
+        return bucket;
+    }
+
+    private static Map<Integer, Integer> collectSizes(List<Operand> operands) {
+        Map<Integer, Integer> sizes = new LinkedHashMap<Integer, Integer>();
+        for (Operand operand : operands) {
+            for (int i = 0; i < operand.ids.length; i++) {
+                Integer previous = sizes.put(operand.ids[i], operand.dimensions[i]);
+                if (previous != null && previous != operand.dimensions[i]) {
+                    throw new IllegalArgumentException("The factors disagree on the size of dimension "
+                            + operand.ids[i] + ": " + previous + " and " + operand.dimensions[i]);
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * multiplies the operands and reduces all variables but the result variables, in a single pass over the
+     * combinations of the variables
+     */
+    private static DenseFactor combine(List<Operand> operands, int[] resultIDs, Reduction reduction) {
+        Map<Integer, Integer> sizes = collectSizes(operands);
+        int[] resultDimensions = new int[resultIDs.length];
+        for (int i = 0; i < resultIDs.length; i++) {
+            Integer size = sizes.get(resultIDs[i]);
+            if (size == null) {
+                throw new IllegalArgumentException("No factor contains dimension " + resultIDs[i]);
+            }
+            resultDimensions[i] = size;
+        }
+        double[] result = new double[MathUtils.product(resultDimensions)];
+
+        Operand driver = null;
+        for (Operand operand : operands) {
+            if (operand.sparse != null && operand.isUnreduced) {
+                driver = operand;
+                break;
+            }
+        }
+        List<Operand> others = new ArrayList<Operand>(operands);
+        others.remove(driver);
+
+        // the variables of the driver come first, then the kept and the reduced variables, so that the innermost loop
+        // runs over the reduced variables
+        Set<Integer> order = new LinkedHashSet<Integer>();
+        int outerCount = 0;
+        if (driver != null) {
+            for (int id : driver.ids) {
+                order.add(id);
+            }
+            outerCount = order.size();
+        }
+        for (int id : resultIDs) {
+            order.add(id);
+        }
+        order.addAll(sizes.keySet());
+        int[] ids = toArray(order);
+        int[] dimensions = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            dimensions[i] = sizes.get(ids[i]);
+        }
+
+        int[][] strides = new int[others.size()][];
+        for (int f = 0; f < strides.length; f++) {
+            strides[f] = others.get(f).getStrides(ids);
+        }
+        int[] resultStrides = computeStrides(resultIDs, resultDimensions, ids);
+
+        Loop loop = new Loop(others, strides, resultStrides, Arrays.copyOfRange(dimensions, outerCount, ids.length),
+                outerCount, result, reduction);
+        if (driver == null) {
+            loop.run(1, new int[others.size()], 0);
+        } else {
+            runDriven(driver, Arrays.copyOf(dimensions, outerCount), loop);
+        }
+
+        DenseFactor factor = new DenseFactor();
+        factor.setDimensionIDs(resultIDs);
+        factor.setDimensions(resultDimensions);
+        factor.setValues(new DoubleArrayWrapper(result));
+        return factor;
+    }
+
+    /**
+     * runs the inner loop for every non-zero entry of the sparse driver, skipping its zero blocks
+     */
+    private static void runDriven(Operand driver, int[] driverDimensions, Loop loop) {
+        SparseFactor sparse = driver.sparse;
+        int blockSize = sparse.getBlockSize();
+        int length = MathUtils.product(driverDimensions);
+        int[] counter = new int[driverDimensions.length];
+        int[] bases = new int[loop.operands.size()];
+        for (int position = 0; position < length; position++) {
+            if (position % blockSize == 0 && sparse.isZeroBlock(position)) {
+                position += blockSize - 1;
+                continue;
+            }
+            double value = driver.getValue(position);
+            if (value == 0) {
+                continue;
+            }
+            int rest = position;
+            for (int d = counter.length - 1; d >= 0; d--) {
+                counter[d] = rest % driverDimensions[d];
+                rest /= driverDimensions[d];
+            }
+            Arrays.fill(bases, 0);
+            int resultBase = 0;
+            for (int d = 0; d < counter.length; d++) {
+                for (int f = 0; f < bases.length; f++) {
+                    bases[f] += counter[d] * loop.strides[f][d];
+                }
+                resultBase += counter[d] * loop.resultStrides[d];
+            }
+            loop.run(value, bases, resultBase);
+        }
+    }
+
+    private static int[] computeStrides(int[] ownIDs, int[] ownDimensions, int[] ids) {
+        int[] strides = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int stride = 1;
+            for (int j = ownIDs.length - 1; j >= 0; j--) {
+                if (ownIDs[j] == ids[i]) {
+                    strides[i] = stride;
+                    break;
+                }
+                stride *= ownDimensions[j];
+            }
+        }
+        return strides;
+    }
+
+    /**
+     * the odometer over the variables after the driver's variables
+     */
+    private static final class Loop {
+
+        final List<Operand> operands;
+        final int[][] strides;
+        final int[] resultStrides;
+        final int[] dimensions;
+        final int offset;
+        final double[] result;
+        final Reduction reduction;
+        final long length;
+
+        Loop(List<Operand> operands, int[][] strides, int[] resultStrides, int[] dimensions, int offset,
+                double[] result, Reduction reduction) {
+            this.operands = operands;
+            this.strides = strides;
+            this.resultStrides = resultStrides;
+            this.dimensions = dimensions;
+            this.offset = offset;
+            this.result = result;
+            this.reduction = reduction;
+            this.length = MathUtils.longProduct(dimensions);
+        }
+
+        void run(double factor, int[] bases, int resultBase) {
+            int count = operands.size();
+            int[] indices = bases.clone();
+            int resultIndex = resultBase;
+            int[] counter = new int[dimensions.length];
+            for (long step = 0; step < length; step++) {
+                double value = factor;
+                for (int f = 0; f < count && value != 0; f++) {
+                    value *= operands.get(f).getValue(indices[f]);
+                }
+                if (reduction == Reduction.SUM) {
+                    result[resultIndex] += value;
+                } else if (value > result[resultIndex]) {
+                    result[resultIndex] = value;
+                }
+                for (int d = dimensions.length - 1; d >= 0; d--) {
+                    int dim = d + offset;
+                    for (int f = 0; f < count; f++) {
+                        indices[f] += strides[f][dim];
+                    }
+                    resultIndex += resultStrides[dim];
+                    if (++counter[d] < dimensions[d]) {
+                        break;
+                    }
+                    for (int f = 0; f < count; f++) {
+                        indices[f] -= strides[f][dim] * dimensions[d];
+                    }
+                    resultIndex -= resultStrides[dim] * dimensions[d];
+                    counter[d] = 0;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * a factor, possibly sliced at evidence, with its values in linear scale
+     */
+    private static final class Operand {
+
+        final int[] ids;
+        final int[] dimensions;
+        final int[] ownStrides;
+        final int offset;
+        final boolean isUnreduced;
+        // either the values of a dense factor, or the sparse factor itself
+        final double[] dense;
+        final SparseFactor sparse;
+        final boolean isLogScale;
+
+        Operand(AbstractFactor factor, Map<Integer, Integer> evidence) {
+            int[] allIDs = factor.getDimensionIDs();
+            int[] allDimensions = factor.getDimensions();
+            int[] allStrides = computeStrides(allIDs, allDimensions, allIDs);
+            List<Integer> free = new ArrayList<Integer>();
+            int offset = 0;
+            for (int i = 0; i < allIDs.length; i++) {
+                Integer outcome = evidence.get(allIDs[i]);
+                if (outcome == null) {
+                    free.add(i);
+                } else {
+                    offset += outcome * allStrides[i];
+                }
+            }
+            ids = new int[free.size()];
+            dimensions = new int[free.size()];
+            ownStrides = new int[free.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = allIDs[free.get(i)];
+                dimensions[i] = allDimensions[free.get(i)];
+                ownStrides[i] = allStrides[free.get(i)];
+            }
+            this.offset = offset;
+            this.isUnreduced = free.size() == allIDs.length;
+            this.isLogScale = factor.isLogScale();
+
+            if (factor instanceof SparseFactor) {
+                sparse = (SparseFactor) factor;
+                dense = null;
+            } else {
+                sparse = null;
+                double[] values = factor.values.toDoubleArray();
+                if (isLogScale) {
+                    values = values.clone();
+                    MathUtils.exp(values);
+                }
+                dense = values;
+            }
+        }
+
+        int getDimension(int id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int[] getStrides(int[] order) {
+            int[] strides = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                int dimension = getDimension(order[i]);
+                strides[i] = dimension == -1 ? 0 : ownStrides[dimension];
+            }
+            return strides;
+        }
+
+        double getValue(int index) {
+            if (dense != null) {
+                return dense[offset + index];
+            }
+            double value = sparse.getValue(offset + index);
+            return isLogScale ? Math.exp(value) : value;
+        }
+
+    }
+
+}
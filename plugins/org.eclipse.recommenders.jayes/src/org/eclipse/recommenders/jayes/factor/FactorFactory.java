@@ -25,6 +25,8 @@ public class FactorFactory {
     protected BayesNet net;
     private boolean useLogScale = false;
     private IArrayWrapper prototype = new DoubleArrayWrapper(0.0); //TODO is a length of 1 here still necessary?
+    private FactorParallelism parallelism;
+    private int occupancyBlockSize;
 
     /**
      * sets the floating point precision to use.
@@ -55,6 +57,24 @@ public class FactorFactory {
         this.useLogScale = useLogScale;
     }
 
+    /**
+     * lets the created factors process large cuts in parallel
+     * 
+     * @see AbstractFactor#setParallelism(FactorParallelism)
+     */
+    public void setParallelism(FactorParallelism parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * lets the created factors skip blocks of entries that became zero
+     * 
+     * @see AbstractFactor#setOccupancyBlockSize(int)
+     */
+    public void setOccupancyBlockSize(int blockSize) {
+        this.occupancyBlockSize = blockSize;
+    }
+
     /**
      * creates a factor, the class of which is dependent on different criteria defined in the concrete subclasses. The
      * default behavior is to return a DenseFactor.
@@ -85,6 +105,8 @@ public class FactorFactory {
         f.setValues(prototype.clone());
         f.setDimensions(dimensions);
         f.setDimensionIDs(ArrayUtils.toIntArray(vars));
+        f.setParallelism(parallelism);
+        f.setOccupancyBlockSize(occupancyBlockSize);
         if (useLogScale) {
             f.setLogScale(true);
         }
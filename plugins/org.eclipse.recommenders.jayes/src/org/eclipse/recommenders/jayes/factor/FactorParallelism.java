@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.factor;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * configures how {@link AbstractFactor#sumPrepared} and {@link AbstractFactor#multiplyPrepared} split the selected
+ * entries of large factors into chunks that are processed in parallel. Summation into a log-scale target is always done
+ * sequentially. <br/>
+ * <br/>
+ * The executor must not be one whose tasks themselves operate on factors with this configuration, as the nested tasks
+ * could then wait for each other.
+ */
+public class FactorParallelism {
+
+    public static final int DEFAULT_THRESHOLD = 1 << 18;
+
+    private final ExecutorService executor;
+    private final int chunkCount;
+    private int threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * @param executor
+     *            runs the chunks
+     * @param chunkCount
+     *            the number of chunks an operation is split into, usually the number of available cores
+     */
+    public FactorParallelism(ExecutorService executor, int chunkCount) {
+        this.executor = executor;
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * @param threshold
+     *            the minimal number of selected entries of a factor to process it in parallel
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    boolean isApplicable(long selectedEntries) {
+        return chunkCount > 1 && selectedEntries >= threshold;
+    }
+
+}
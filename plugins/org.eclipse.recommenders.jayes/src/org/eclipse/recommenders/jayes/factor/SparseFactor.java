@@ -38,6 +38,7 @@ public class SparseFactor extends AbstractFactor {
 
     @Override
     public void copyValues(IArrayWrapper other) {
+        invalidateOccupancy();
         validateCut();
         int offset = getRealPosition(cut.getStart());
         // we don't know how many values need to be copied, thus copy everything until the end
@@ -109,6 +110,7 @@ public class SparseFactor extends AbstractFactor {
      * can't put this in a constructor because we already need full information about the dimensions here
      */
     public void sparsify(AbstractFactor... compatible) {
+        invalidateOccupancy();
         if (dimensions.length == 0) {
             //treat 0-dimensional factors specially (many methods break for them)
             blockSize = 1;
@@ -144,6 +146,30 @@ public class SparseFactor extends AbstractFactor {
         }
     }
 
+    /**
+     * checks whether the zero/non-zero structure of this factor can hold the product of the given factors, i.e.
+     * whether every block that has been compressed away is also zero in the product. This is the case if the factors
+     * have (at least) the same zeros as the ones this factor has been sparsified with.
+     * 
+     * @param compatible
+     *            Factors with compatible dimensions
+     */
+    public boolean isSparsityCompatible(AbstractFactor... compatible) {
+        if (dimensions.length == 0) {
+            return true;
+        }
+        int[][] posTransformations = computePositionTransformations(compatible);
+        int[] counter = new int[dimensions.length];
+        counter[counter.length - 1] = -1;
+        for (int i = 0; i < relativeBlockPointers.length; i++) {
+            boolean isZero = checkIfPartitionIsZero(i, counter, compatible, posTransformations, blockSize);
+            if (!isZero && getRealPosition(getOriginalBlockAddress(i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void optimizeDimensionOrder(AbstractFactor[] compatible) {
         int[][] zerosByDimension = countZerosByDimension(compatible);
         final double[] infogain = computeInfoGain(zerosByDimension);
@@ -360,12 +386,22 @@ public class SparseFactor extends AbstractFactor {
         return relativeBlockPointers[divCache.apply(virtualPosition)] + virtualPosition;
     }
 
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    boolean isZeroBlock(int virtualPosition) {
+        return getRealPosition(virtualPosition) < blockSize;
+    }
+
     private int computeDenseLength() {
         return MathUtils.product(dimensions);
     }
 
     @Override
     public void fill(double d) {
+        invalidateOccupancy();
         values.fill(d);
         for (int i = 0; i < blockSize; i++) {
             values.set(i, isLogScale() ? Double.NEGATIVE_INFINITY : 0);
@@ -377,9 +413,23 @@ public class SparseFactor extends AbstractFactor {
         return relativeBlockPointers.length * SIZE_OF_INT;
     }
 
+    @Override
+    protected AbstractFactor createConcurrentView() {
+        SparseFactor view = (SparseFactor) super.createConcurrentView();
+        if (divCache != null) {
+            view.divCache = new DivisionCache(blockSize);
+        }
+        return view;
+    }
+
     @Override
     public SparseFactor clone() {
-        return (SparseFactor) super.clone();
+        SparseFactor clone = (SparseFactor) super.clone();
+        // the block pointers can be shared, but the cache is mutable
+        if (divCache != null) {
+            clone.divCache = new DivisionCache(blockSize);
+        }
+        return clone;
     }
 
     /**
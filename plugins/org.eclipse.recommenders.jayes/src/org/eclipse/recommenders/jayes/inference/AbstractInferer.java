@@ -10,6 +10,7 @@
  */
 package org.eclipse.recommenders.jayes.inference;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,6 +18,10 @@ import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.factor.FactorFactory;
 
+/**
+ * Base class of the inferers. Settings of a subclass that determine how the network is compiled, like heuristics,
+ * builders and compilers, are only read by {@link #setNetwork(BayesNet)}, so they have to be set before the network.
+ */
 public abstract class AbstractInferer implements IBayesInferer {
 
     protected Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
@@ -72,4 +77,19 @@ public abstract class AbstractInferer implements IBayesInferer {
 
     protected abstract void updateBeliefs();
 
+    /**
+     * @param observed
+     *            receives the outcome index of every observed node, indexed by node id, and -1 for the other nodes.
+     *            Evidence on nodes that do not belong to the network is ignored.
+     */
+    protected void fillObservedOutcomes(BayesNet net, int[] observed) {
+        Arrays.fill(observed, -1);
+        for (Map.Entry<BayesNode, String> e : evidence.entrySet()) {
+            BayesNode node = e.getKey();
+            if (node.getId() < observed.length && net.getNode(node.getId()) == node) {
+                observed[node.getId()] = node.getOutcomeIndex(e.getValue());
+            }
+        }
+    }
+
 }
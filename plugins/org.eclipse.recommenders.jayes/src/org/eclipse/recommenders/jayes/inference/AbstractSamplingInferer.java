@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.Arrays;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+
+/**
+ * base class for inferers that estimate the beliefs from weighted samples. By default, a fixed number of samples is
+ * drawn. If an accuracy target or a time budget is set, the samples are drawn in batches until the target is met, the
+ * time budget is used up or the maximal sample count is reached. The accuracy that was achieved is reported together
+ * with the beliefs.
+ */
+public abstract class AbstractSamplingInferer extends AbstractInferer {
+
+    /**
+     * the standard score of a 95% confidence interval
+     */
+    private static final double CONFIDENCE_FACTOR = 1.96;
+
+    private int sampleCount = 200;
+    private double targetHalfWidth = Double.NaN;
+    private double targetEffectiveSampleSize = Double.NaN;
+    private long timeBudget = -1;
+    private int batchSize = 100;
+    private int maxSampleCount = 1 << 20;
+    private int[] queryNodes;
+
+    private int drawnSampleCount;
+    private double weightSum;
+    private double squaredWeightSum;
+    // per outcome, the sum of the squared weights of the samples having that outcome
+    private double[][] squaredWeightedCounts;
+    private double halfWidth;
+
+    @Override
+    public void setNetwork(BayesNet bn) {
+        super.setNetwork(bn);
+        squaredWeightedCounts = new double[beliefs.length][];
+        for (int i = 0; i < beliefs.length; i++) {
+            squaredWeightedCounts[i] = new double[beliefs[i].length];
+        }
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        prepareSampling();
+        for (int i = 0; i < beliefs.length; i++) {
+            Arrays.fill(beliefs[i], 0);
+            Arrays.fill(squaredWeightedCounts[i], 0);
+        }
+        drawnSampleCount = 0;
+        weightSum = 0;
+        squaredWeightSum = 0;
+
+        int[] sample = new int[beliefs.length];
+        if (!isAdaptive()) {
+            drawSamples(sample, sampleCount);
+        } else {
+            long deadline = timeBudget < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeBudget;
+            do {
+                drawSamples(sample, Math.min(batchSize, maxSampleCount - drawnSampleCount));
+            } while (!isTargetMet() && drawnSampleCount < maxSampleCount && System.currentTimeMillis() < deadline);
+        }
+
+        halfWidth = computeHalfWidth();
+        if (weightSum == 0) {
+            throw new NumericalInstabilityException("All " + drawnSampleCount
+                    + " samples have weight zero, the evidence " + evidence + " is impossible or too unlikely");
+        }
+        for (int i = 0; i < beliefs.length; i++) {
+            beliefs[i] = MathUtils.normalize(beliefs[i]);
+        }
+    }
+
+    private boolean isAdaptive() {
+        return isHalfWidthTargeted() || isEffectiveSampleSizeTargeted() || timeBudget >= 0;
+    }
+
+    private boolean isHalfWidthTargeted() {
+        return !Double.isNaN(targetHalfWidth);
+    }
+
+    private boolean isEffectiveSampleSizeTargeted() {
+        return !Double.isNaN(targetEffectiveSampleSize);
+    }
+
+    private boolean isTargetMet() {
+        if (!isHalfWidthTargeted() && !isEffectiveSampleSizeTargeted()) {
+            // only a time budget is set
+            return false;
+        }
+        if (isEffectiveSampleSizeTargeted() && getCurrentEffectiveSampleSize() < targetEffectiveSampleSize) {
+            return false;
+        }
+        return !isHalfWidthTargeted() || computeHalfWidth() <= targetHalfWidth;
+    }
+
+    private void drawSamples(int[] sample, int count) {
+        for (int i = 0; i < count; i++) {
+            double weight = drawWeightedSample(sample);
+            double squaredWeight = weight * weight;
+            for (int node = 0; node < sample.length; node++) {
+                beliefs[node][sample[node]] += weight;
+                squaredWeightedCounts[node][sample[node]] += squaredWeight;
+            }
+            weightSum += weight;
+            squaredWeightSum += squaredWeight;
+        }
+        drawnSampleCount += count;
+    }
+
+    /*
+     * the variance of the ratio estimator sum(w * I) / sum(w) of an outcome indicator I is approximately
+     * sum(w^2 * (I - p)^2) / sum(w)^2
+     */
+    private double computeHalfWidth() {
+        if (weightSum == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double maxVariance = 0;
+        for (int node : getQueryNodes()) {
+            for (int outcome = 0; outcome < beliefs[node].length; outcome++) {
+                double p = beliefs[node][outcome] / weightSum;
+                double variance = (squaredWeightedCounts[node][outcome] * (1 - 2 * p) + p * p * squaredWeightSum)
+                        / (weightSum * weightSum);
+                maxVariance = Math.max(maxVariance, variance);
+            }
+        }
+        return CONFIDENCE_FACTOR * Math.sqrt(maxVariance);
+    }
+
+    private int[] getQueryNodes() {
+        if (queryNodes != null) {
+            return queryNodes;
+        }
+        boolean[] isObserved = new boolean[beliefs.length];
+        for (BayesNode n : evidence.keySet()) {
+            isObserved[n.getId()] = true;
+        }
+        int[] unobserved = new int[beliefs.length];
+        int count = 0;
+        for (int node = 0; node < beliefs.length; node++) {
+            if (!isObserved[node]) {
+                unobserved[count++] = node;
+            }
+        }
+        return Arrays.copyOf(unobserved, count);
+    }
+
+    private double getCurrentEffectiveSampleSize() {
+        if (weightSum == 0) {
+            return 0;
+        }
+        return weightSum * weightSum / squaredWeightSum;
+    }
+
+    /**
+     * called at the start of every update of the beliefs, before any sample is drawn
+     */
+    protected void prepareSampling() {
+
+    }
+
+    /**
+     * draws a sample consistent with the evidence
+     *
+     * @param sample
+     *            receives the outcome index of every node, indexed by node id
+     * @return the weight of the sample
+     */
+    protected abstract double drawWeightedSample(int[] sample);
+
+    /**
+     * @param sampleCount
+     *            the number of samples, if neither an accuracy target nor a time budget is set
+     */
+    public void setSampleCount(int sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    /**
+     * @param halfWidth
+     *            the maximal half width of the 95% confidence intervals of the beliefs of the query nodes
+     */
+    public void setTargetHalfWidth(double halfWidth) {
+        this.targetHalfWidth = halfWidth;
+    }
+
+    /**
+     * @param effectiveSampleSize
+     *            the minimal effective sample size, see {@link #getEffectiveSampleSize()}
+     */
+    public void setTargetEffectiveSampleSize(double effectiveSampleSize) {
+        this.targetEffectiveSampleSize = effectiveSampleSize;
+    }
+
+    /**
+     * @param millis
+     *            the time after which sampling stops, even if the accuracy target is not met yet. The time is checked
+     *            after every batch.
+     */
+    public void setTimeBudget(long millis) {
+        this.timeBudget = millis;
+    }
+
+    /**
+     * @param batchSize
+     *            the number of samples between two checks of the stopping rule, has to be positive
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size has to be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param maxSampleCount
+     *            the number of samples after which sampling stops, even if the accuracy target is not met yet
+     */
+    public void setMaxSampleCount(int maxSampleCount) {
+        this.maxSampleCount = maxSampleCount;
+    }
+
+    /**
+     * @param nodes
+     *            the nodes whose beliefs have to meet the half width target. By default, these are all unobserved
+     *            nodes.
+     */
+    public void setQueryNodes(BayesNode... nodes) {
+        queryNodes = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            queryNodes[i] = nodes[i].getId();
+        }
+    }
+
+    private void ensureBeliefsValid() {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+    }
+
+    /**
+     * @return the largest half width of the 95% confidence intervals of the beliefs of the query nodes, as estimated
+     *         from the samples of the last update. It is infinite if all samples have weight zero.
+     */
+    public double getHalfWidth() {
+        ensureBeliefsValid();
+        return halfWidth;
+    }
+
+    /**
+     * @return the number of unweighted samples that the weighted samples of the last update are worth,
+     *         <code>(sum w)^2 / sum w^2</code>. It is 0 if all samples have weight zero.
+     */
+    public double getEffectiveSampleSize() {
+        ensureBeliefsValid();
+        return getCurrentEffectiveSampleSize();
+    }
+
+    /**
+     * @return the variance of the weights of the last update, relative to their squared mean. It is 0 if all samples
+     *         have the same weight, and infinite if all samples have weight zero.
+     */
+    public double getWeightVariance() {
+        ensureBeliefsValid();
+        if (weightSum == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return drawnSampleCount * squaredWeightSum / (weightSum * weightSum) - 1;
+    }
+
+    /**
+     * @return the number of samples drawn in the last update
+     */
+    public int getDrawnSampleCount() {
+        ensureBeliefsValid();
+        return drawnSampleCount;
+    }
+
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.sampling.CompiledSampler;
+
+/**
+ * Importance sampling that adapts its proposal distribution to the evidence, following AIS-BN (Cheng and Druzdzel,
+ * 2000). The proposal consists of one importance CPT per node. It starts from the original CPTs, with the parents of
+ * evidence nodes set to uniform distributions and small probabilities of the other ancestors of evidence nodes raised
+ * to a threshold. In each learning stage, the importance CPTs of the ancestors of evidence nodes move towards the
+ * weighted frequencies of the stage's samples. The beliefs are estimated from the samples drawn after learning only. <br/>
+ * <br/>
+ * With unlikely evidence, this keeps the weights much more even than likelihood weighting, which is visible in the
+ * effective sample size.
+ */
+public class AdaptiveImportanceSampling extends AbstractSamplingInferer {
+
+    private static final int UNOBSERVED = -1;
+
+    private int learningStages = 10;
+    private int learningSampleCount = 500;
+    private double initialLearningRate = 0.4;
+    private double finalLearningRate = 0.14;
+    private double probabilityThreshold = 0.04;
+    private final Random random = new Random();
+
+    private int[] topologicalOrder;
+    private int[] outcomeCounts;
+    // parents of node n are parentIds[parentOffsets[n]] ... parentIds[parentOffsets[n + 1] - 1]
+    private int[] parentOffsets;
+    private int[] parentIds;
+    private int[] parentStrides;
+    private int[] tableOffsets;
+    private double[] probabilities;
+    private double[] importanceProbabilities;
+    private int[] observed;
+
+    public AdaptiveImportanceSampling() {
+        setSampleCount(1000);
+    }
+
+    @Override
+    public void setNetwork(BayesNet bn) {
+        super.setNetwork(bn);
+        int nodeCount = bn.getNodes().size();
+        topologicalOrder = CompiledSampler.computeTopologicalOrder(bn);
+        outcomeCounts = new int[nodeCount];
+        parentOffsets = new int[nodeCount + 1];
+        tableOffsets = new int[nodeCount + 1];
+        for (int i = 0; i < nodeCount; i++) {
+            BayesNode node = bn.getNode(i);
+            outcomeCounts[i] = node.getOutcomeCount();
+            parentOffsets[i + 1] = parentOffsets[i] + node.getParents().size();
+            tableOffsets[i + 1] = tableOffsets[i] + node.getProbabilities().length;
+        }
+
+        parentIds = new int[parentOffsets[nodeCount]];
+        parentStrides = new int[parentIds.length];
+        probabilities = new double[tableOffsets[nodeCount]];
+        for (BayesNode node : bn.getNodes()) {
+            int id = node.getId();
+            int stride = 1;
+            for (int p = node.getParents().size() - 1; p >= 0; p--) {
+                BayesNode parent = node.getParents().get(p);
+                parentIds[parentOffsets[id] + p] = parent.getId();
+                parentStrides[parentOffsets[id] + p] = stride;
+                stride *= parent.getOutcomeCount();
+            }
+            System.arraycopy(node.getProbabilities(), 0, probabilities, tableOffsets[id],
+                    node.getProbabilities().length);
+        }
+    }
+
+    @Override
+    protected void prepareSampling() {
+        observed = new int[outcomeCounts.length];
+        Arrays.fill(observed, UNOBSERVED);
+        for (Entry<BayesNode, String> e : evidence.entrySet()) {
+            observed[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+        boolean[] learned = computeEvidenceAncestors(observed);
+        initializeImportanceProbabilities(observed, learned);
+        learnImportanceProbabilities(observed, learned);
+    }
+
+    @Override
+    protected double drawWeightedSample(int[] sample) {
+        return sample(sample, observed);
+    }
+
+    private boolean[] computeEvidenceAncestors(int[] observed) {
+        boolean[] isAncestor = new boolean[outcomeCounts.length];
+        // in reverse topological order, the children of a node are visited before the node
+        for (int i = topologicalOrder.length - 1; i >= 0; i--) {
+            int node = topologicalOrder[i];
+            if (observed[node] != UNOBSERVED || isAncestor[node]) {
+                for (int p = parentOffsets[node]; p < parentOffsets[node + 1]; p++) {
+                    isAncestor[parentIds[p]] = true;
+                }
+            }
+        }
+        for (int node = 0; node < observed.length; node++) {
+            isAncestor[node] &= observed[node] == UNOBSERVED;
+        }
+        return isAncestor;
+    }
+
+    private void initializeImportanceProbabilities(int[] observed, boolean[] learned) {
+        importanceProbabilities = probabilities.clone();
+        boolean[] isEvidenceParent = new boolean[outcomeCounts.length];
+        for (int node = 0; node < observed.length; node++) {
+            if (observed[node] != UNOBSERVED) {
+                for (int p = parentOffsets[node]; p < parentOffsets[node + 1]; p++) {
+                    isEvidenceParent[parentIds[p]] = true;
+                }
+            }
+        }
+        for (int node = 0; node < outcomeCounts.length; node++) {
+            if (!learned[node]) {
+                continue;
+            }
+            int outcomeCount = outcomeCounts[node];
+            double threshold = Math.min(probabilityThreshold, 0.5 / outcomeCount);
+            for (int row = tableOffsets[node]; row < tableOffsets[node + 1]; row += outcomeCount) {
+                if (isEvidenceParent[node]) {
+                    Arrays.fill(importanceProbabilities, row, row + outcomeCount, 1.0 / outcomeCount);
+                } else {
+                    raiseSmallProbabilities(row, outcomeCount, threshold);
+                }
+            }
+        }
+    }
+
+    private void raiseSmallProbabilities(int row, int outcomeCount, double threshold) {
+        double sum = 0;
+        for (int i = row; i < row + outcomeCount; i++) {
+            importanceProbabilities[i] = Math.max(importanceProbabilities[i], threshold);
+            sum += importanceProbabilities[i];
+        }
+        for (int i = row; i < row + outcomeCount; i++) {
+            importanceProbabilities[i] /= sum;
+        }
+    }
+
+    private void learnImportanceProbabilities(int[] observed, boolean[] learned) {
+        int[] sample = new int[outcomeCounts.length];
+        double[] counts = new double[probabilities.length];
+        for (int stage = 0; stage < learningStages; stage++) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < learningSampleCount; i++) {
+                double weight = sample(sample, observed);
+                for (int node = 0; node < sample.length; node++) {
+                    if (learned[node]) {
+                        counts[computeRowOffset(node, sample) + sample[node]] += weight;
+                    }
+                }
+            }
+            double learningRate = initialLearningRate
+                    * Math.pow(finalLearningRate / initialLearningRate, (double) stage / learningStages);
+            updateImportanceProbabilities(counts, learned, learningRate);
+        }
+    }
+
+    private void updateImportanceProbabilities(double[] counts, boolean[] learned, double learningRate) {
+        for (int node = 0; node < outcomeCounts.length; node++) {
+            if (!learned[node]) {
+                continue;
+            }
+            int outcomeCount = outcomeCounts[node];
+            for (int row = tableOffsets[node]; row < tableOffsets[node + 1]; row += outcomeCount) {
+                double sum = 0;
+                for (int i = row; i < row + outcomeCount; i++) {
+                    sum += counts[i];
+                }
+                // rows that were not sampled in this stage keep their distribution
+                if (sum > 0) {
+                    for (int i = row; i < row + outcomeCount; i++) {
+                        importanceProbabilities[i] += learningRate * (counts[i] / sum - importanceProbabilities[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * draws a sample from the importance distribution, with the evidence nodes clamped to their observed outcomes
+     *
+     * @return the importance weight of the sample
+     */
+    private double sample(int[] sample, int[] observed) {
+        double weight = 1.0;
+        for (int node : topologicalOrder) {
+            int rowOffset = computeRowOffset(node, sample);
+            if (observed[node] != UNOBSERVED) {
+                sample[node] = observed[node];
+                weight *= probabilities[rowOffset + observed[node]];
+            } else {
+                int outcome = drawOutcome(rowOffset, outcomeCounts[node]);
+                sample[node] = outcome;
+                weight *= probabilities[rowOffset + outcome] / importanceProbabilities[rowOffset + outcome];
+            }
+        }
+        return weight;
+    }
+
+    private int drawOutcome(int rowOffset, int outcomeCount) {
+        double u = random.nextDouble();
+        for (int outcome = 0; outcome < outcomeCount - 1; outcome++) {
+            u -= importanceProbabilities[rowOffset + outcome];
+            if (u < 0) {
+                return outcome;
+            }
+        }
+        return outcomeCount - 1;
+    }
+
+    private int computeRowOffset(int node, int[] sample) {
+        int row = 0;
+        for (int p = parentOffsets[node]; p < parentOffsets[node + 1]; p++) {
+            row += sample[parentIds[p]] * parentStrides[p];
+        }
+        return tableOffsets[node] + row * outcomeCounts[node];
+    }
+
+    /**
+     * @param learningStages
+     *            the number of stages in which the importance CPTs are learned
+     * @param learningSampleCount
+     *            the number of samples per learning stage
+     */
+    public void setLearningStages(int learningStages, int learningSampleCount) {
+        this.learningStages = learningStages;
+        this.learningSampleCount = learningSampleCount;
+    }
+
+    /**
+     * sets the learning rate, which decreases geometrically from the initial to the final rate over the learning
+     * stages
+     */
+    public void setLearningRate(double initialLearningRate, double finalLearningRate) {
+        this.initialLearningRate = initialLearningRate;
+        this.finalLearningRate = finalLearningRate;
+    }
+
+    /**
+     * @param probabilityThreshold
+     *            the minimal initial importance probability of the outcomes of evidence ancestors
+     */
+    public void setProbabilityThreshold(double probabilityThreshold) {
+        this.probabilityThreshold = probabilityThreshold;
+    }
+
+    public void seed(long seed) {
+        random.setSeed(seed);
+    }
+
+}
@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.junctionTree.CompileCostEstimate;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeBuilder;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+
+/**
+ * Chooses the inference algorithm for a network from the predicted cost of compiling it (see
+ * {@link CompileCostEstimate}), the memory budget and the latency budget:
+ * <ul>
+ * <li>{@link Strategy#JUNCTION_TREE}, if the junction tree fits into the memory budget and a propagation fits into
+ * the latency budget</li>
+ * <li>{@link Strategy#VARIABLE_ELIMINATION} instead, if the junction tree would be feasible, but is compiled in the
+ * calling thread and compiling it would exceed the latency budget, or if a clique has more entries than an array can
+ * hold</li>
+ * <li>{@link Strategy#LOOPY_BELIEF_PROPAGATION}, if exact inference is not feasible. If it does not converge or the
+ * evidence contradicts its beliefs, the beliefs are sampled instead.</li>
+ * <li>{@link Strategy#SAMPLING}, if not even loopy belief propagation fits into the latency budget</li>
+ * </ul>
+ * If an executor is set, the estimation and compilation happen in the background. Until they are finished, queries
+ * are answered by loopy belief propagation, which is available immediately; then, the chosen algorithm takes over,
+ * with the evidence set in the meantime. Thus, the time to the first answer does not depend on the size of the
+ * junction tree. Without an executor, the chosen algorithm is set up in {@link #setNetwork(BayesNet)}. <br/>
+ * <br/>
+ * The queries are synchronized with the switch of the algorithm, but like the other inferers, this inferer is not
+ * meant to be used by several threads at once.
+ */
+public class AutomaticInferer implements IBayesInferer {
+
+    public enum Strategy {
+        JUNCTION_TREE, VARIABLE_ELIMINATION, LOOPY_BELIEF_PROPAGATION, SAMPLING
+    }
+
+    private static final int LOOPY_ITERATIONS = 100;
+    private static final double SAMPLING_HALF_WIDTH = 0.005;
+
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private long latencyBudget = 100;
+    private double operationsPerMillisecond = 1e5;
+    private JunctionTreeBuilder junctionTreeBuilder = JunctionTreeBuilder.forHeuristic(new MinFillIn());
+    private ExecutorService executor;
+
+    private Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+    private IBayesInferer inferer;
+    private Strategy strategy;
+    private volatile CompileCostEstimate estimate;
+    private Future<Void> selection;
+    // identifies the latest network, so that selections for older networks are discarded
+    private int generation;
+
+    @Override
+    public void setNetwork(final BayesNet bayesNet) {
+        final int currentGeneration;
+        synchronized (this) {
+            currentGeneration = ++generation;
+            if (selection != null) {
+                selection.cancel(true);
+                selection = null;
+            }
+            estimate = null;
+        }
+        if (executor == null) {
+            Strategy chosen = chooseStrategy(bayesNet, false, currentGeneration);
+            install(createInferer(chosen, bayesNet), chosen, currentGeneration);
+            return;
+        }
+        install(createInferer(Strategy.LOOPY_BELIEF_PROPAGATION, bayesNet), Strategy.LOOPY_BELIEF_PROPAGATION,
+                currentGeneration);
+        Future<Void> future = executor.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                Strategy chosen = chooseStrategy(bayesNet, true, currentGeneration);
+                if (chosen != Strategy.LOOPY_BELIEF_PROPAGATION) {
+                    install(createInferer(chosen, bayesNet), chosen, currentGeneration);
+                }
+                return null;
+            }
+
+        });
+        synchronized (this) {
+            if (generation == currentGeneration) {
+                selection = future;
+            }
+        }
+    }
+
+    private synchronized void install(IBayesInferer newInferer, Strategy newStrategy, int newGeneration) {
+        if (newGeneration != generation) {
+            return;
+        }
+        newInferer.setEvidence(new HashMap<BayesNode, String>(evidence));
+        inferer = newInferer;
+        strategy = newStrategy;
+    }
+
+    private Strategy chooseStrategy(BayesNet net, boolean isBackground, int currentGeneration) {
+        CompileCostEstimate cost = junctionTreeBuilder.estimateCost(net);
+        synchronized (this) {
+            if (currentGeneration == generation) {
+                estimate = cost;
+            }
+        }
+        if (isExactInferenceFeasible(cost)) {
+            if (!cost.isCompilable()) {
+                // the variable elimination factors are not limited to the maximal array size
+                return Strategy.VARIABLE_ELIMINATION;
+            }
+            double compileTime = (cost.getTotalCliqueStates() + cost.getPreparedIndexMemory() / 4
+                    + cost.getMultiplications() + cost.getAdditions())
+                    / operationsPerMillisecond;
+            return isBackground || compileTime <= latencyBudget ? Strategy.JUNCTION_TREE
+                    : Strategy.VARIABLE_ELIMINATION;
+        }
+        return getLoopyOperations(net) / operationsPerMillisecond <= latencyBudget ? Strategy.LOOPY_BELIEF_PROPAGATION
+                : Strategy.SAMPLING;
+    }
+
+    private boolean isExactInferenceFeasible(CompileCostEstimate cost) {
+        double memory = (double) Math.min(cost.getDenseMemory(), cost.getSparseMemory())
+                + cost.getPreparedIndexMemory();
+        double propagationTime = ((double) cost.getMultiplications() + cost.getAdditions())
+                / operationsPerMillisecond;
+        return memory <= memoryBudget && propagationTime <= latencyBudget;
+    }
+
+    /**
+     * every iteration computes a message from every factor to each of its variables, and back
+     */
+    private double getLoopyOperations(BayesNet net) {
+        double operations = 0;
+        for (BayesNode node : net.getNodes()) {
+            operations += 2.0 * node.getFactor().getValueCount() * (node.getParents().size() + 1);
+        }
+        return operations * LOOPY_ITERATIONS;
+    }
+
+    private IBayesInferer createInferer(Strategy chosen, BayesNet net) {
+        IBayesInferer result;
+        switch (chosen) {
+        case JUNCTION_TREE:
+            JunctionTreeAlgorithm junctionTree = new JunctionTreeAlgorithm();
+            junctionTree.setJunctionTreeBuilder(junctionTreeBuilder);
+            result = junctionTree;
+            break;
+        case VARIABLE_ELIMINATION:
+            result = new VariableElimination();
+            break;
+        case LOOPY_BELIEF_PROPAGATION:
+            result = new LoopyWithSamplingFallback(createSampling());
+            break;
+        default:
+            result = createSampling();
+        }
+        result.setNetwork(net);
+        return result;
+    }
+
+    private AbstractSamplingInferer createSampling() {
+        AbstractSamplingInferer sampling = new LikelihoodWeightedSampling();
+        sampling.setTargetHalfWidth(SAMPLING_HALF_WIDTH);
+        sampling.setTimeBudget(latencyBudget);
+        return sampling;
+    }
+
+    @Override
+    public synchronized void setEvidence(Map<BayesNode, String> evidence) {
+        this.evidence = evidence;
+        if (inferer != null) {
+            inferer.setEvidence(new HashMap<BayesNode, String>(evidence));
+        }
+    }
+
+    @Override
+    public synchronized void addEvidence(BayesNode node, String outcome) {
+        evidence.put(node, outcome);
+        if (inferer != null) {
+            inferer.addEvidence(node, outcome);
+        }
+    }
+
+    @Override
+    public Map<BayesNode, String> getEvidence() {
+        return evidence;
+    }
+
+    @Override
+    public synchronized double[] getBeliefs(BayesNode node) {
+        return inferer.getBeliefs(node);
+    }
+
+    /**
+     * @return the algorithm that currently answers the queries
+     */
+    public synchronized Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return the cost estimate of the current network, or <code>null</code> if it is still being computed in the
+     *         background
+     */
+    public CompileCostEstimate getCostEstimate() {
+        return estimate;
+    }
+
+    /**
+     * waits until the algorithm chosen for the current network answers the queries. Errors of the background
+     * compilation are rethrown.
+     */
+    public void awaitStrategy() {
+        Future<Void> pending;
+        synchronized (this) {
+            pending = selection;
+        }
+        if (pending != null) {
+            ParallelTasks.await(pending);
+        }
+    }
+
+    /**
+     * has to be set before the network.
+     *
+     * @param memoryBudget
+     *            the maximal memory of a junction tree, in bytes. By default, a quarter of the maximal heap size.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * has to be set before the network.
+     *
+     * @param millis
+     *            the maximal predicted time of updating the beliefs after the evidence changed, which is also the
+     *            time budget of sampling. 100ms by default.
+     */
+    public void setLatencyBudget(long millis) {
+        this.latencyBudget = millis;
+    }
+
+    /**
+     * @param operationsPerMillisecond
+     *            the number of table entry operations per millisecond, used to convert the predicted operations into
+     *            time
+     */
+    public void setOperationsPerMillisecond(double operationsPerMillisecond) {
+        this.operationsPerMillisecond = operationsPerMillisecond;
+    }
+
+    public void setJunctionTreeBuilder(JunctionTreeBuilder junctionTreeBuilder) {
+        this.junctionTreeBuilder = junctionTreeBuilder;
+    }
+
+    /**
+     * @param executor
+     *            estimates and compiles the networks in the background. If none is set, this happens in
+     *            {@link #setNetwork(BayesNet)}.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * loopy belief propagation, which falls back to sampling for evidence it does not converge for
+     */
+    private static final class LoopyWithSamplingFallback extends AbstractInferer {
+
+        private final LoopyBeliefPropagation loopy = new LoopyBeliefPropagation();
+        private final AbstractSamplingInferer sampling;
+        private BayesNet net;
+        private boolean isSampling;
+
+        LoopyWithSamplingFallback(AbstractSamplingInferer sampling) {
+            this.sampling = sampling;
+            loopy.setMaxIterations(LOOPY_ITERATIONS);
+        }
+
+        @Override
+        public void setNetwork(BayesNet bayesNet) {
+            super.setNetwork(bayesNet);
+            this.net = bayesNet;
+            loopy.setNetwork(bayesNet);
+            sampling.setNetwork(bayesNet);
+        }
+
+        @Override
+        public double[] getBeliefs(BayesNode node) {
+            if (!beliefsValid) {
+                beliefsValid = true;
+                updateBeliefs();
+            }
+            return isSampling ? sampling.getBeliefs(node) : loopy.getBeliefs(node);
+        }
+
+        @Override
+        protected void updateBeliefs() {
+            loopy.setEvidence(evidence);
+            isSampling = false;
+            if (net.getNodes().isEmpty()) {
+                return;
+            }
+            try {
+                loopy.getBeliefs(net.getNodes().get(0));
+                isSampling = !loopy.isConverged();
+            } catch (NumericalInstabilityException e) {
+                isSampling = true;
+            }
+            if (isSampling) {
+                sampling.setEvidence(evidence);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
+import org.eclipse.recommenders.internal.jayes.util.SplitMix64Random;
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.sampling.CompiledSampler;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+
+/**
+ * Gibbs sampling with several independent chains. Every unobserved node is resampled in turn from its distribution
+ * given its Markov blanket, which is the product of its own CPT and the CPTs of its children. The positions of these
+ * CPT entries are precompiled into stride tables, so that a chain only works on its <code>int[]</code> state. <br/>
+ * <br/>
+ * The chains are initialized with forward samples consistent with the evidence and draw from their own random streams,
+ * split off from the seed in chain order. Unlike likelihood weighting, the samples do not degenerate when the evidence
+ * is unlikely. The agreement between the chains is reported as the potential scale reduction factor (R-hat) of the
+ * outcome indicators, values close to 1 indicate convergence. <br/>
+ * <br/>
+ * If a chain finds no initial state consistent with the evidence within a fixed number of forward samples, or its
+ * Markov blanket distribution underflows, the update of the beliefs throws a {@link NumericalInstabilityException}.
+ */
+public class GibbsSampling extends AbstractInferer {
+
+    private static final int UNOBSERVED = -1;
+    private static final int INITIALIZATION_ATTEMPTS = 100;
+
+    private int chainCount = 4;
+    private int sampleCount = 500;
+    private int burnIn = 100;
+    private int thinning = 1;
+    private long seed = new Random().nextLong();
+    private ExecutorService executor;
+    private final CompiledSampler initializer = new CompiledSampler();
+
+    private int[] outcomeCounts;
+    // the CPT of node n covers the variables scopeIds[scopeOffsets[n]] ... scopeIds[scopeOffsets[n + 1] - 1]
+    private int[] scopeOffsets;
+    private int[] scopeIds;
+    private int[] scopeStrides;
+    private int[] tableOffsets;
+    private double[] probabilities;
+    // the Markov blanket factors of node n are the CPTs blanketNodes[blanketOffsets[n]] ... with the stride of n in them
+    private int[] blanketOffsets;
+    private int[] blanketNodes;
+    private int[] blanketStrides;
+    private int[] beliefOffsets;
+    private int maxOutcomeCount;
+
+    private double[][] potentialScaleReductions;
+
+    @Override
+    public void setNetwork(BayesNet bn) {
+        super.setNetwork(bn);
+        initializer.setNetwork(bn);
+        int nodeCount = bn.getNodes().size();
+        outcomeCounts = new int[nodeCount];
+        scopeOffsets = new int[nodeCount + 1];
+        tableOffsets = new int[nodeCount + 1];
+        beliefOffsets = new int[nodeCount + 1];
+        maxOutcomeCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            BayesNode node = bn.getNode(i);
+            outcomeCounts[i] = node.getOutcomeCount();
+            scopeOffsets[i + 1] = scopeOffsets[i] + node.getParents().size() + 1;
+            tableOffsets[i + 1] = tableOffsets[i] + node.getProbabilities().length;
+            beliefOffsets[i + 1] = beliefOffsets[i] + node.getOutcomeCount();
+            maxOutcomeCount = Math.max(maxOutcomeCount, node.getOutcomeCount());
+        }
+        compileScopes(bn);
+        compileBlankets(bn);
+        potentialScaleReductions = new double[nodeCount][];
+    }
+
+    private void compileScopes(BayesNet bn) {
+        scopeIds = new int[scopeOffsets[outcomeCounts.length]];
+        scopeStrides = new int[scopeIds.length];
+        probabilities = new double[tableOffsets[outcomeCounts.length]];
+        for (BayesNode node : bn.getNodes()) {
+            int id = node.getId();
+            // the node itself is the last dimension of its CPT
+            int last = scopeOffsets[id + 1] - 1;
+            scopeIds[last] = id;
+            scopeStrides[last] = 1;
+            int stride = node.getOutcomeCount();
+            for (int p = node.getParents().size() - 1; p >= 0; p--) {
+                BayesNode parent = node.getParents().get(p);
+                scopeIds[scopeOffsets[id] + p] = parent.getId();
+                scopeStrides[scopeOffsets[id] + p] = stride;
+                stride *= parent.getOutcomeCount();
+            }
+            System.arraycopy(node.getProbabilities(), 0, probabilities, tableOffsets[id],
+                    node.getProbabilities().length);
+        }
+    }
+
+    private void compileBlankets(BayesNet bn) {
+        int nodeCount = outcomeCounts.length;
+        blanketOffsets = new int[nodeCount + 1];
+        for (int n = 0; n < nodeCount; n++) {
+            for (int s = scopeOffsets[n]; s < scopeOffsets[n + 1]; s++) {
+                blanketOffsets[scopeIds[s] + 1]++;
+            }
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            blanketOffsets[n + 1] += blanketOffsets[n];
+        }
+        blanketNodes = new int[blanketOffsets[nodeCount]];
+        blanketStrides = new int[blanketNodes.length];
+        int[] filled = Arrays.copyOf(blanketOffsets, nodeCount);
+        for (int n = 0; n < nodeCount; n++) {
+            for (int s = scopeOffsets[n]; s < scopeOffsets[n + 1]; s++) {
+                int variable = scopeIds[s];
+                blanketNodes[filled[variable]] = n;
+                blanketStrides[filled[variable]] = scopeStrides[s];
+                filled[variable]++;
+            }
+        }
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        final int[] observed = new int[outcomeCounts.length];
+        Arrays.fill(observed, UNOBSERVED);
+        for (Entry<BayesNode, String> e : evidence.entrySet()) {
+            observed[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+        initializer.setEvidence(observed);
+
+        SplitMix64Random root = new SplitMix64Random(seed);
+        List<Callable<double[]>> chains = new ArrayList<Callable<double[]>>(chainCount);
+        for (int chain = 0; chain < chainCount; chain++) {
+            chains.add(createChain(root.split(), observed));
+        }
+        List<double[]> counts = ParallelTasks.invokeAll(executor, chains);
+
+        for (int node = 0; node < beliefs.length; node++) {
+            Arrays.fill(beliefs[node], 0);
+            for (double[] chainCounts : counts) {
+                for (int outcome = 0; outcome < beliefs[node].length; outcome++) {
+                    beliefs[node][outcome] += chainCounts[beliefOffsets[node] + outcome];
+                }
+            }
+            beliefs[node] = MathUtils.normalize(beliefs[node]);
+        }
+        computePotentialScaleReductions(counts);
+    }
+
+    private Callable<double[]> createChain(final Random random, final int[] observed) {
+        return new Callable<double[]>() {
+
+            @Override
+            public double[] call() {
+                int[] state = initializeChain(random);
+                double[] distribution = new double[maxOutcomeCount];
+                double[] counts = new double[beliefOffsets[beliefOffsets.length - 1]];
+                for (int i = 0; i < burnIn; i++) {
+                    sweep(state, observed, distribution, random);
+                }
+                for (int i = 0; i < sampleCount; i++) {
+                    for (int t = 0; t < thinning; t++) {
+                        sweep(state, observed, distribution, random);
+                    }
+                    for (int node = 0; node < state.length; node++) {
+                        counts[beliefOffsets[node] + state[node]]++;
+                    }
+                }
+                return counts;
+            }
+
+        };
+    }
+
+    private int[] initializeChain(Random random) {
+        int[] state = new int[outcomeCounts.length];
+        for (int i = 0; i < INITIALIZATION_ATTEMPTS; i++) {
+            if (initializer.sampleLikelihoodWeighted(state, random) > 0) {
+                return state;
+            }
+        }
+        throw new NumericalInstabilityException("No state consistent with the evidence found in "
+                + INITIALIZATION_ATTEMPTS + " attempts, the evidence is impossible or too unlikely: " + evidence);
+    }
+
+    private void sweep(int[] state, int[] observed, double[] distribution, Random random) {
+        for (int node = 0; node < state.length; node++) {
+            if (observed[node] == UNOBSERVED) {
+                state[node] = drawFromBlanket(node, state, distribution, random);
+            }
+        }
+    }
+
+    private int drawFromBlanket(int node, int[] state, double[] distribution, Random random) {
+        int outcomeCount = outcomeCounts[node];
+        Arrays.fill(distribution, 0, outcomeCount, 1.0);
+        for (int b = blanketOffsets[node]; b < blanketOffsets[node + 1]; b++) {
+            int stride = blanketStrides[b];
+            int base = computeTableIndex(blanketNodes[b], state) - state[node] * stride;
+            for (int outcome = 0; outcome < outcomeCount; outcome++) {
+                distribution[outcome] *= probabilities[base + outcome * stride];
+            }
+        }
+
+        double sum = 0;
+        for (int outcome = 0; outcome < outcomeCount; outcome++) {
+            sum += distribution[outcome];
+        }
+        if (sum <= 0) {
+            // the current outcome has a positive probability in a consistent state, unless it underflows
+            throw new NumericalInstabilityException("Numerical instability detected for evidence: " + evidence
+                    + " and node : " + node);
+        }
+        double u = random.nextDouble() * sum;
+        for (int outcome = 0; outcome < outcomeCount - 1; outcome++) {
+            u -= distribution[outcome];
+            if (u < 0) {
+                return outcome;
+            }
+        }
+        return outcomeCount - 1;
+    }
+
+    private int computeTableIndex(int node, int[] state) {
+        int index = tableOffsets[node];
+        for (int s = scopeOffsets[node]; s < scopeOffsets[node + 1]; s++) {
+            index += state[scopeIds[s]] * scopeStrides[s];
+        }
+        return index;
+    }
+
+    private void computePotentialScaleReductions(List<double[]> counts) {
+        int chains = counts.size();
+        double n = sampleCount;
+        for (int node = 0; node < beliefs.length; node++) {
+            potentialScaleReductions[node] = new double[outcomeCounts[node]];
+            for (int outcome = 0; outcome < outcomeCounts[node]; outcome++) {
+                double meanOfMeans = 0;
+                double within = 0;
+                for (double[] chainCounts : counts) {
+                    double mean = chainCounts[beliefOffsets[node] + outcome] / n;
+                    meanOfMeans += mean;
+                    // sample variance of the outcome indicator within the chain
+                    within += mean * (1 - mean) * n / (n - 1);
+                }
+                meanOfMeans /= chains;
+                within /= chains;
+                double between = 0;
+                for (double[] chainCounts : counts) {
+                    double mean = chainCounts[beliefOffsets[node] + outcome] / n;
+                    between += (mean - meanOfMeans) * (mean - meanOfMeans);
+                }
+                between *= n / (chains - 1);
+                potentialScaleReductions[node][outcome] = computePotentialScaleReduction(within, between, n);
+            }
+        }
+    }
+
+    private static double computePotentialScaleReduction(double within, double between, double n) {
+        if (within == 0) {
+            // all chains are stuck, they only agree if they are stuck in the same outcome
+            return between == 0 ? 1.0 : Double.POSITIVE_INFINITY;
+        }
+        double pooledVariance = (n - 1) / n * within + between / n;
+        return Math.sqrt(pooledVariance / within);
+    }
+
+    /**
+     * @return the potential scale reduction factor of each outcome indicator of the node, as measured during the last
+     *         update of the beliefs. It requires at least two chains and two samples per chain.
+     */
+    public double[] getPotentialScaleReductions(BayesNode node) {
+        getBeliefs(node);
+        return potentialScaleReductions[node.getId()];
+    }
+
+    /**
+     * @return the largest potential scale reduction factor over all outcomes of all nodes, NaN if there are fewer
+     *         than two chains or samples per chain
+     */
+    public double getMaxPotentialScaleReduction() {
+        double max = 0;
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        for (double[] reductions : potentialScaleReductions) {
+            for (double r : reductions) {
+                max = Math.max(max, r);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param sampleCount
+     *            the number of samples every chain contributes after burn-in
+     */
+    public void setSampleCount(int sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    public void setChainCount(int chainCount) {
+        this.chainCount = chainCount;
+    }
+
+    /**
+     * @param burnIn
+     *            the number of sweeps over all nodes every chain discards before collecting samples
+     */
+    public void setBurnIn(int burnIn) {
+        this.burnIn = burnIn;
+    }
+
+    /**
+     * @param thinning
+     *            the number of sweeps between two collected samples
+     */
+    public void setThinning(int thinning) {
+        this.thinning = thinning;
+    }
+
+    /**
+     * @param executor
+     *            runs the chains. If none is set, the chains run one after another in the calling thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void seed(long seed) {
+        this.seed = seed;
+    }
+
+}
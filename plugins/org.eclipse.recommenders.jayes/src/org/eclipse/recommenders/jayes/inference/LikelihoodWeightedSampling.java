@@ -11,15 +11,15 @@
 package org.eclipse.recommenders.jayes.inference;
 
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.sampling.BasicSampler;
-import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.sampling.IUniformSource;
 
-public class LikelihoodWeightedSampling extends AbstractInferer {
+public class LikelihoodWeightedSampling extends AbstractSamplingInferer {
 
-    private int sampleCount = 200;
     private BasicSampler sampler = new BasicSampler();
 
     @Override
@@ -30,24 +30,17 @@ public class LikelihoodWeightedSampling extends AbstractInferer {
     }
 
     @Override
-    protected void updateBeliefs() {
+    protected void prepareSampling() {
         sampler.setEvidence(evidence);
-        for (int i = 0; i < sampleCount; i++) {
-            Map<BayesNode, String> sample = sampler.sample();
-            double weight = computeEvidenceProbability(sample);
-
-            for (BayesNode e : sample.keySet()) {
-                beliefs[e.getId()][e.getOutcomeIndex(sample.get(e))] += weight;
-            }
-        }
-
-        normalizeBeliefs();
-
     }
 
-    private void normalizeBeliefs() {
-        for (int i = 0; i < beliefs.length; i++)
-            beliefs[i] = MathUtils.normalize(beliefs[i]);
+    @Override
+    protected double drawWeightedSample(int[] sample) {
+        Map<BayesNode, String> outcomes = sampler.sample();
+        for (Entry<BayesNode, String> e : outcomes.entrySet()) {
+            sample[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+        return computeEvidenceProbability(outcomes);
     }
 
     private double computeEvidenceProbability(Map<BayesNode, String> sample) {
@@ -58,12 +51,15 @@ public class LikelihoodWeightedSampling extends AbstractInferer {
         return factor;
     }
 
-    public void setSampleCount(int sampleCount) {
-        this.sampleCount = sampleCount;
-    }
-
     public void seed(long seed) {
         sampler.seed(seed);
     }
 
+    /**
+     * @see BasicSampler#setUniformSource(IUniformSource)
+     */
+    public void setUniformSource(IUniformSource uniformSource) {
+        sampler.setUniformSource(uniformSource);
+    }
+
 }
@@ -0,0 +1,571 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+
+/**
+ * Loopy belief propagation on the factor graph of the network, which has one factor per CPT. The beliefs are exact for
+ * polytrees and approximate otherwise, but the cost per iteration only grows with the size of the CPTs, not with the
+ * size of the junction tree. <br/>
+ * <br/>
+ * All messages are kept in flat arrays, indexed by the edges of the factor graph. Two schedules are available:
+ * <ul>
+ * <li>{@link Schedule#RESIDUAL} (the default) always updates the factor-to-variable message that would change the most
+ * (residual belief propagation, Elidan et al., 2006). This usually converges in fewer message updates, and also in
+ * cases where the synchronous schedule oscillates.</li>
+ * <li>{@link Schedule#SYNCHRONOUS} updates all messages in every sweep. The factors, and then the variables, are split
+ * into chunks that are computed in parallel if an executor is set. The result does not depend on the executor.</li>
+ * </ul>
+ * Messages can be damped, and propagation stops when no message changes by more than the tolerance, or after the
+ * maximal number of iterations. The messages are kept across evidence changes, so that propagation starts from the
+ * previous fixed point.
+ */
+public class LoopyBeliefPropagation extends AbstractInferer {
+
+    public enum Schedule {
+        RESIDUAL, SYNCHRONOUS
+    }
+
+    private static final int UNOBSERVED = -1;
+
+    private Schedule schedule = Schedule.RESIDUAL;
+    private double damping = 0;
+    private double tolerance = 1e-6;
+    private int maxIterations = 100;
+    private boolean isWarmStart = true;
+    private ExecutorService executor;
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+
+    private int[] outcomeCounts;
+    // the edges of factor f are factorEdgeOffsets[f] ... factorEdgeOffsets[f + 1] - 1, one per variable of the CPT of
+    // node f, in the order of the CPT's dimensions (parents first, the node itself last)
+    private int[] factorEdgeOffsets;
+    private int[] edgeFactors;
+    private int[] edgeVariables;
+    // the edges of variable v are variableEdges[variableEdgeOffsets[v]] ... variableEdges[variableEdgeOffsets[v+1] - 1]
+    private int[] variableEdgeOffsets;
+    private int[] variableEdges;
+    // the messages along edge e are stored at messageOffsets[e] ... messageOffsets[e + 1] - 1
+    private int[] messageOffsets;
+    private int[] tableOffsets;
+    private double[] probabilities;
+    private int maxScopeSize;
+
+    private double[] factorToVariable;
+    private double[] variableToFactor;
+    private double[] pending;
+    private int[] observed;
+
+    private int updateCount;
+    private double maxResidual;
+
+    @Override
+    public void setNetwork(BayesNet bn) {
+        super.setNetwork(bn);
+        int nodeCount = bn.getNodes().size();
+        outcomeCounts = new int[nodeCount];
+        factorEdgeOffsets = new int[nodeCount + 1];
+        tableOffsets = new int[nodeCount + 1];
+        maxScopeSize = 0;
+        for (BayesNode node : bn.getNodes()) {
+            int id = node.getId();
+            outcomeCounts[id] = node.getOutcomeCount();
+            factorEdgeOffsets[id + 1] = factorEdgeOffsets[id] + node.getParents().size() + 1;
+            tableOffsets[id + 1] = tableOffsets[id] + node.getProbabilities().length;
+            maxScopeSize = Math.max(maxScopeSize, node.getParents().size() + 1);
+        }
+
+        int edgeCount = factorEdgeOffsets[nodeCount];
+        edgeFactors = new int[edgeCount];
+        edgeVariables = new int[edgeCount];
+        probabilities = new double[tableOffsets[nodeCount]];
+        variableEdgeOffsets = new int[nodeCount + 1];
+        for (BayesNode node : bn.getNodes()) {
+            int id = node.getId();
+            int edge = factorEdgeOffsets[id];
+            for (BayesNode parent : node.getParents()) {
+                edgeFactors[edge] = id;
+                edgeVariables[edge++] = parent.getId();
+            }
+            edgeFactors[edge] = id;
+            edgeVariables[edge] = id;
+            System.arraycopy(node.getProbabilities(), 0, probabilities, tableOffsets[id],
+                    node.getProbabilities().length);
+        }
+
+        for (int edge = 0; edge < edgeCount; edge++) {
+            variableEdgeOffsets[edgeVariables[edge] + 1]++;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            variableEdgeOffsets[v + 1] += variableEdgeOffsets[v];
+        }
+        variableEdges = new int[edgeCount];
+        int[] filled = Arrays.copyOf(variableEdgeOffsets, nodeCount);
+        messageOffsets = new int[edgeCount + 1];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            variableEdges[filled[edgeVariables[edge]]++] = edge;
+            messageOffsets[edge + 1] = messageOffsets[edge] + outcomeCounts[edgeVariables[edge]];
+        }
+
+        factorToVariable = new double[messageOffsets[edgeCount]];
+        variableToFactor = new double[messageOffsets[edgeCount]];
+        pending = new double[messageOffsets[edgeCount]];
+        initializeMessages();
+    }
+
+    /**
+     * sets all messages to uniform distributions, so that the next update does not start from the previous fixed point
+     */
+    public void resetMessages() {
+        initializeMessages();
+        beliefsValid = false;
+    }
+
+    private void initializeMessages() {
+        for (int edge = 0; edge < edgeFactors.length; edge++) {
+            Arrays.fill(factorToVariable, messageOffsets[edge], messageOffsets[edge + 1],
+                    1.0 / outcomeCounts[edgeVariables[edge]]);
+        }
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        observed = new int[outcomeCounts.length];
+        Arrays.fill(observed, UNOBSERVED);
+        for (Entry<BayesNode, String> e : evidence.entrySet()) {
+            observed[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+        if (!isWarmStart) {
+            initializeMessages();
+        }
+        for (int v = 0; v < outcomeCounts.length; v++) {
+            updateVariableToFactor(v);
+        }
+        updateCount = 0;
+        if (schedule == Schedule.RESIDUAL) {
+            propagateByResidual();
+        } else {
+            propagateSynchronously();
+        }
+        computeBeliefs();
+    }
+
+    private void propagateByResidual() {
+        ResidualQueue queue = new ResidualQueue(edgeFactors.length);
+        int[] counter = new int[maxScopeSize];
+        for (int edge = 0; edge < edgeFactors.length; edge++) {
+            updatePending(edge, queue, counter);
+        }
+        long maxUpdates = (long) maxIterations * edgeFactors.length;
+        while (!queue.isEmpty() && queue.peekResidual() >= tolerance && updateCount < maxUpdates) {
+            int edge = queue.poll();
+            int offset = messageOffsets[edge];
+            System.arraycopy(pending, offset, factorToVariable, offset, messageOffsets[edge + 1] - offset);
+            updateCount++;
+
+            int variable = edgeVariables[edge];
+            updateVariableToFactor(variable);
+            for (int i = variableEdgeOffsets[variable]; i < variableEdgeOffsets[variable + 1]; i++) {
+                int changed = variableEdges[i];
+                if (changed == edge) {
+                    continue;
+                }
+                int factor = edgeFactors[changed];
+                for (int affected = factorEdgeOffsets[factor]; affected < factorEdgeOffsets[factor + 1]; affected++) {
+                    if (affected != changed) {
+                        updatePending(affected, queue, counter);
+                    }
+                }
+            }
+        }
+        maxResidual = queue.isEmpty() ? 0 : queue.peekResidual();
+    }
+
+    private void updatePending(int edge, ResidualQueue queue, int[] counter) {
+        // the messages to observed variables do not influence any other message
+        if (observed[edgeVariables[edge]] != UNOBSERVED) {
+            queue.update(edge, 0);
+            return;
+        }
+        queue.update(edge, computeFactorToVariable(edge, pending, counter));
+    }
+
+    private void propagateSynchronously() {
+        int chunkCount = executor == null ? 1 : Math.min(workerCount, outcomeCounts.length);
+        List<Callable<Double>> factorTasks = new ArrayList<Callable<Double>>(chunkCount);
+        List<Callable<Double>> variableTasks = new ArrayList<Callable<Double>>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int start = (int) ((long) outcomeCounts.length * chunk / chunkCount);
+            int end = (int) ((long) outcomeCounts.length * (chunk + 1) / chunkCount);
+            factorTasks.add(createFactorSweep(start, end));
+            variableTasks.add(createVariableSweep(start, end));
+        }
+
+        int activeEdgeCount = 0;
+        for (int edge = 0; edge < edgeVariables.length; edge++) {
+            if (observed[edgeVariables[edge]] == UNOBSERVED) {
+                activeEdgeCount++;
+            }
+        }
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            maxResidual = 0;
+            for (double residual : ParallelTasks.invokeAll(executor, factorTasks)) {
+                maxResidual = Math.max(maxResidual, residual);
+            }
+            ParallelTasks.invokeAll(executor, variableTasks);
+            updateCount += activeEdgeCount;
+            if (maxResidual < tolerance) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * updates the messages from the factors in the range. They only depend on the variable-to-factor messages, which
+     * are not changed during the factor sweep.
+     */
+    private Callable<Double> createFactorSweep(final int start, final int end) {
+        return new Callable<Double>() {
+
+            @Override
+            public Double call() {
+                int[] counter = new int[maxScopeSize];
+                double residual = 0;
+                for (int edge = factorEdgeOffsets[start]; edge < factorEdgeOffsets[end]; edge++) {
+                    if (observed[edgeVariables[edge]] == UNOBSERVED) {
+                        residual = Math.max(residual, computeFactorToVariable(edge, pending, counter));
+                        int offset = messageOffsets[edge];
+                        System.arraycopy(pending, offset, factorToVariable, offset, messageOffsets[edge + 1] - offset);
+                    }
+                }
+                return residual;
+            }
+
+        };
+    }
+
+    private Callable<Double> createVariableSweep(final int start, final int end) {
+        return new Callable<Double>() {
+
+            @Override
+            public Double call() {
+                for (int v = start; v < end; v++) {
+                    updateVariableToFactor(v);
+                }
+                return 0.0;
+            }
+
+        };
+    }
+
+    /**
+     * computes the (damped) message from the factor of the edge to its variable into the target array
+     *
+     * @return the largest absolute change compared to the current message
+     */
+    private double computeFactorToVariable(int edge, double[] target, int[] counter) {
+        int factor = edgeFactors[edge];
+        int firstEdge = factorEdgeOffsets[factor];
+        int scopeSize = factorEdgeOffsets[factor + 1] - firstEdge;
+        int position = edge - firstEdge;
+        int offset = messageOffsets[edge];
+        int outcomeCount = outcomeCounts[edgeVariables[edge]];
+        Arrays.fill(target, offset, offset + outcomeCount, 0);
+        Arrays.fill(counter, 0, scopeSize, 0);
+
+        for (int entry = tableOffsets[factor]; entry < tableOffsets[factor + 1]; entry++) {
+            double value = probabilities[entry];
+            for (int i = 0; i < scopeSize && value != 0; i++) {
+                if (i != position) {
+                    value *= variableToFactor[messageOffsets[firstEdge + i] + counter[i]];
+                }
+            }
+            target[offset + counter[position]] += value;
+            // the last dimension varies fastest
+            for (int i = scopeSize - 1; i >= 0; i--) {
+                if (++counter[i] < outcomeCounts[edgeVariables[firstEdge + i]]) {
+                    break;
+                }
+                counter[i] = 0;
+            }
+        }
+
+        normalize(target, offset, outcomeCount, UNOBSERVED);
+        double residual = 0;
+        for (int i = offset; i < offset + outcomeCount; i++) {
+            target[i] = (1 - damping) * target[i] + damping * factorToVariable[i];
+            residual = Math.max(residual, Math.abs(target[i] - factorToVariable[i]));
+        }
+        return residual;
+    }
+
+    /**
+     * computes the messages from the variable to all its factors, each the product of the evidence and the messages
+     * from all other factors. The products over the other factors are combined from prefix and suffix products.
+     */
+    private void updateVariableToFactor(int variable) {
+        int first = variableEdgeOffsets[variable];
+        int last = variableEdgeOffsets[variable + 1];
+        for (int x = 0; x < outcomeCounts[variable]; x++) {
+            double prefix = observed[variable] == UNOBSERVED || observed[variable] == x ? 1 : 0;
+            for (int i = first; i < last; i++) {
+                int index = messageOffsets[variableEdges[i]] + x;
+                variableToFactor[index] = prefix;
+                prefix *= factorToVariable[index];
+            }
+            double suffix = 1;
+            for (int i = last - 1; i >= first; i--) {
+                int index = messageOffsets[variableEdges[i]] + x;
+                variableToFactor[index] *= suffix;
+                suffix *= factorToVariable[index];
+            }
+        }
+        for (int i = first; i < last; i++) {
+            normalize(variableToFactor, messageOffsets[variableEdges[i]], outcomeCounts[variable], observed[variable]);
+        }
+    }
+
+    /**
+     * normalizes a message. Messages that are zero everywhere, which can happen with contradicting messages in loopy
+     * networks, are replaced by a uniform distribution over the outcomes allowed by the evidence.
+     */
+    private static void normalize(double[] messages, int offset, int length, int observedOutcome) {
+        double sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += messages[i];
+        }
+        if (sum > 0) {
+            for (int i = offset; i < offset + length; i++) {
+                messages[i] /= sum;
+            }
+        } else if (observedOutcome == UNOBSERVED) {
+            Arrays.fill(messages, offset, offset + length, 1.0 / length);
+        } else {
+            Arrays.fill(messages, offset, offset + length, 0);
+            messages[offset + observedOutcome] = 1;
+        }
+    }
+
+    private void computeBeliefs() {
+        for (int v = 0; v < beliefs.length; v++) {
+            double[] belief = beliefs[v];
+            if (observed[v] != UNOBSERVED) {
+                Arrays.fill(belief, 0);
+                belief[observed[v]] = 1;
+                continue;
+            }
+            Arrays.fill(belief, 1);
+            double sum = 0;
+            for (int x = 0; x < belief.length; x++) {
+                for (int i = variableEdgeOffsets[v]; i < variableEdgeOffsets[v + 1]; i++) {
+                    belief[x] *= factorToVariable[messageOffsets[variableEdges[i]] + x];
+                }
+                sum += belief[x];
+            }
+            if (sum == 0) {
+                throw new NumericalInstabilityException("The messages to node " + v + " contradict each other");
+            }
+            for (int x = 0; x < belief.length; x++) {
+                belief[x] /= sum;
+            }
+        }
+    }
+
+    /**
+     * an indexed max-heap of the edges, ordered by their residuals
+     */
+    private static class ResidualQueue {
+
+        private final int[] heap;
+        // the position of every edge in the heap, or -1
+        private final int[] positions;
+        private final double[] residuals;
+        private int size;
+
+        ResidualQueue(int edgeCount) {
+            heap = new int[edgeCount];
+            positions = new int[edgeCount];
+            residuals = new double[edgeCount];
+            Arrays.fill(positions, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekResidual() {
+            return residuals[heap[0]];
+        }
+
+        int poll() {
+            int edge = heap[0];
+            positions[edge] = -1;
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                positions[heap[0]] = 0;
+                siftDown(0);
+            }
+            return edge;
+        }
+
+        void update(int edge, double residual) {
+            residuals[edge] = residual;
+            int position = positions[edge];
+            if (position < 0) {
+                if (residual == 0) {
+                    return;
+                }
+                position = size++;
+                heap[position] = edge;
+                positions[edge] = position;
+            }
+            siftUp(position);
+            siftDown(positions[edge]);
+        }
+
+        private void siftUp(int position) {
+            int edge = heap[position];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (residuals[heap[parent]] >= residuals[edge]) {
+                    break;
+                }
+                move(heap[parent], position);
+                position = parent;
+            }
+            move(edge, position);
+        }
+
+        private void siftDown(int position) {
+            int edge = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && residuals[heap[child + 1]] > residuals[heap[child]]) {
+                    child++;
+                }
+                if (residuals[heap[child]] <= residuals[edge]) {
+                    break;
+                }
+                move(heap[child], position);
+                position = child;
+            }
+            move(edge, position);
+        }
+
+        private void move(int edge, int position) {
+            heap[position] = edge;
+            positions[edge] = position;
+        }
+
+    }
+
+    public void setSchedule(Schedule schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * @param damping
+     *            the weight of the previous message in every update, between 0 (no damping, the default) and 1
+     */
+    public void setDamping(double damping) {
+        this.damping = damping;
+    }
+
+    /**
+     * @param tolerance
+     *            propagation stops when no message would change by more than this in any outcome
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param maxIterations
+     *            the maximal number of sweeps, or for the residual schedule, the maximal number of message updates
+     *            divided by the number of edges of the factor graph
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @param isWarmStart
+     *            whether propagation starts from the messages of the last update (the default), rather than from
+     *            uniform messages
+     */
+    public void setWarmStart(boolean isWarmStart) {
+        this.isWarmStart = isWarmStart;
+    }
+
+    /**
+     * @param executor
+     *            runs the chunks of the synchronous schedule. If none is set, all messages are computed in the calling
+     *            thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param workerCount
+     *            the number of chunks the factors and variables are split into for the synchronous schedule
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    private void ensureBeliefsValid() {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+    }
+
+    /**
+     * @return whether the last update stopped because no message changed by more than the tolerance
+     */
+    public boolean isConverged() {
+        ensureBeliefsValid();
+        return maxResidual < tolerance;
+    }
+
+    /**
+     * @return the largest change of a message that was still pending when the last update stopped
+     */
+    public double getMaxResidual() {
+        ensureBeliefsValid();
+        return maxResidual;
+    }
+
+    /**
+     * @return the number of factor-to-variable messages that were updated in the last update of the beliefs
+     */
+    public int getUpdateCount() {
+        ensureBeliefsValid();
+        return updateCount;
+    }
+
+}
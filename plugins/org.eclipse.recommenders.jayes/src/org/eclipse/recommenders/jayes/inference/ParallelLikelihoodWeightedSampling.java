@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
+import org.eclipse.recommenders.internal.jayes.util.SplitMix64Random;
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.sampling.CompiledSampler;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+
+/**
+ * Likelihood weighting with the samples partitioned across workers. Every worker draws from its own random stream,
+ * split off from the seed in worker order, and accumulates the weights in its own arrays. The partial results are
+ * merged in worker order, so the beliefs only depend on the seed, the sample count and the worker count, but not on
+ * the executor or thread scheduling.
+ */
+public class ParallelLikelihoodWeightedSampling extends AbstractInferer {
+
+    private int sampleCount = 200;
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+    private long seed = new Random().nextLong();
+    private ExecutorService executor;
+    private final CompiledSampler sampler = new CompiledSampler();
+    // offset of every node's outcomes in the flat belief arrays of the workers
+    private int[] beliefOffsets;
+
+    @Override
+    public void setNetwork(BayesNet bn) {
+        super.setNetwork(bn);
+        sampler.setNetwork(bn);
+        beliefOffsets = new int[beliefs.length + 1];
+        for (int i = 0; i < beliefs.length; i++) {
+            beliefOffsets[i + 1] = beliefOffsets[i] + beliefs[i].length;
+        }
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        sampler.setEvidence(evidence);
+        SplitMix64Random root = new SplitMix64Random(seed);
+        List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(workerCount);
+        for (int worker = 0; worker < workerCount; worker++) {
+            int samples = (int) ((long) sampleCount * (worker + 1) / workerCount - (long) sampleCount * worker
+                    / workerCount);
+            tasks.add(createWorker(root.split(), samples));
+        }
+
+        for (double[] belief : beliefs) {
+            Arrays.fill(belief, 0);
+        }
+        for (double[] partialBeliefs : ParallelTasks.invokeAll(executor, tasks)) {
+            for (int node = 0; node < beliefs.length; node++) {
+                for (int outcome = 0; outcome < beliefs[node].length; outcome++) {
+                    beliefs[node][outcome] += partialBeliefs[beliefOffsets[node] + outcome];
+                }
+            }
+        }
+
+        normalizeBeliefs();
+    }
+
+    private Callable<double[]> createWorker(final Random random, final int samples) {
+        return new Callable<double[]>() {
+
+            @Override
+            public double[] call() {
+                double[] partialBeliefs = new double[beliefOffsets[beliefOffsets.length - 1]];
+                int[] sample = new int[beliefs.length];
+                for (int i = 0; i < samples; i++) {
+                    double weight = sampler.sampleLikelihoodWeighted(sample, random);
+                    for (int node = 0; node < sample.length; node++) {
+                        partialBeliefs[beliefOffsets[node] + sample[node]] += weight;
+                    }
+                }
+                return partialBeliefs;
+            }
+
+        };
+    }
+
+    private void normalizeBeliefs() {
+        for (int i = 0; i < beliefs.length; i++)
+            beliefs[i] = MathUtils.normalize(beliefs[i]);
+    }
+
+    public void setSampleCount(int sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    /**
+     * @param workerCount
+     *            the number of partitions of the samples. Together with the seed, it determines the result.
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * @param executor
+     *            runs the workers. If none is set, the workers run one after another in the calling thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void seed(long seed) {
+        this.seed = seed;
+    }
+
+}
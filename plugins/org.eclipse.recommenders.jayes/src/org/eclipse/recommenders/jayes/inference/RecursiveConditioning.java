@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.GraphElimination;
+import org.eclipse.recommenders.jayes.util.triangulation.IEliminationHeuristic;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+
+/**
+ * Exact inference in bounded memory by recursive conditioning. The CPTs are the leaves of a binary decomposition tree
+ * (dtree), built from the same elimination order the junction tree would use. Every inner node of the dtree splits its
+ * CPTs into two parts, which become independent once the variables they share (the cutset) are instantiated. The
+ * probability of the evidence is computed by enumerating the cutset instantiations top-down and multiplying the
+ * results of both parts, summed over all instantiations. <br/>
+ * <br/>
+ * Without caching, this needs memory linear in the network size, but recomputes a node for every instantiation of the
+ * cutsets above it. The result of a node only depends on the instantiation of its context, the variables of the node
+ * that are instantiated above it, so it can be cached per context instantiation. The cache budget determines which
+ * nodes are cached: they are chosen greedily by the factor by which caching reduces the number of their computations,
+ * as long as the cache tables fit into the budget. With an unlimited budget, every node that benefits is cached, and
+ * the time is comparable to the junction tree; with a budget of zero, the space is linear. <br/>
+ * <br/>
+ * The marginal of a node is computed from the probabilities of the evidence together with each of its outcomes. The
+ * cache entries that do not depend on the queried node are kept between its outcomes and between queries, until the
+ * evidence changes.
+ */
+public class RecursiveConditioning extends AbstractInferer {
+
+    private static final int DOUBLE_SIZE = 8;
+
+    private IEliminationHeuristic heuristic = new MinFillIn();
+    private long cacheBudget = 1L << 26;
+
+    private BayesNet net;
+    private boolean[] isBeliefValid = new boolean[0];
+    // outcome index per node, -1 for uninstantiated nodes
+    private int[] instantiation = new int[0];
+    private int[] outcomeCounts;
+
+    // the dtree; leaves have no children, the root is the last node
+    private int root;
+    private int[] left;
+    private int[] right;
+    private BitSet[] variables;
+    private int[][] cutsets;
+    private int[][] contexts;
+    private int[][] contextStrides;
+    private double[][] caches;
+    private long cacheSize;
+
+    // the CPTs of the leaves
+    private int[][] leafDimensionIDs;
+    private int[][] leafDimensions;
+    private int[][] leafStrides;
+    private double[][] leafProbabilities;
+
+    @Override
+    public void setNetwork(final BayesNet bayesNet) {
+        super.setNetwork(bayesNet);
+        this.net = bayesNet;
+        int nodeCount = bayesNet.getNodes().size();
+        isBeliefValid = new boolean[nodeCount];
+        instantiation = new int[nodeCount];
+        outcomeCounts = new int[nodeCount];
+        for (BayesNode node : bayesNet.getNodes()) {
+            outcomeCounts[node.getId()] = node.getOutcomeCount();
+        }
+        buildDtree(GraphElimination.getEliminationOrder(net, heuristic));
+        computeCutsetsAndContexts();
+        chooseCachedNodes();
+        beliefsValid = false;
+    }
+
+    /**
+     * builds the dtree bottom-up: when a variable is eliminated, the subtrees containing it are composed
+     */
+    private void buildDtree(List<Integer> eliminationOrder) {
+        int nodeCount = net.getNodes().size();
+        List<Integer> lefts = new ArrayList<Integer>();
+        List<Integer> rights = new ArrayList<Integer>();
+        List<BitSet> vars = new ArrayList<BitSet>();
+        List<Integer> open = new ArrayList<Integer>();
+
+        leafDimensionIDs = new int[nodeCount][];
+        leafDimensions = new int[nodeCount][];
+        leafStrides = new int[nodeCount][];
+        leafProbabilities = new double[nodeCount][];
+        for (BayesNode node : net.getNodes()) {
+            int id = node.getId();
+            leafDimensionIDs[id] = node.getFactor().getDimensionIDs().clone();
+            leafDimensions[id] = node.getFactor().getDimensions().clone();
+            leafStrides[id] = new int[leafDimensions[id].length];
+            int stride = 1;
+            for (int i = leafDimensions[id].length - 1; i >= 0; i--) {
+                leafStrides[id][i] = stride;
+                stride *= leafDimensions[id][i];
+            }
+            leafProbabilities[id] = node.getProbabilities();
+
+            BitSet leafVars = new BitSet(nodeCount);
+            for (int v : leafDimensionIDs[id]) {
+                leafVars.set(v);
+            }
+            // the leaf of a node has the node's id
+            lefts.add(-1);
+            rights.add(-1);
+            vars.add(leafVars);
+            open.add(id);
+        }
+
+        for (int variable : eliminationOrder) {
+            List<Integer> containing = new ArrayList<Integer>();
+            for (int i = open.size() - 1; i >= 0; i--) {
+                if (vars.get(open.get(i)).get(variable)) {
+                    containing.add(open.remove(i));
+                }
+            }
+            if (!containing.isEmpty()) {
+                open.add(compose(containing, lefts, rights, vars));
+            }
+        }
+        if (open.isEmpty()) {
+            // the empty network
+            lefts.add(-1);
+            rights.add(-1);
+            vars.add(new BitSet());
+            open.add(vars.size() - 1);
+        }
+        root = compose(open, lefts, rights, vars);
+
+        left = toArray(lefts);
+        right = toArray(rights);
+        variables = vars.toArray(new BitSet[vars.size()]);
+    }
+
+    /**
+     * composes the subtrees pairwise, so the resulting tree is balanced
+     */
+    private int compose(List<Integer> subtrees, List<Integer> lefts, List<Integer> rights, List<BitSet> vars) {
+        List<Integer> level = subtrees;
+        while (level.size() > 1) {
+            List<Integer> next = new ArrayList<Integer>();
+            for (int i = 0; i + 1 < level.size(); i += 2) {
+                BitSet union = (BitSet) vars.get(level.get(i)).clone();
+                union.or(vars.get(level.get(i + 1)));
+                lefts.add(level.get(i));
+                rights.add(level.get(i + 1));
+                vars.add(union);
+                next.add(vars.size() - 1);
+            }
+            if (level.size() % 2 == 1) {
+                next.add(level.get(level.size() - 1));
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private void computeCutsetsAndContexts() {
+        int size = left.length;
+        cutsets = new int[size][];
+        contexts = new int[size][];
+        contextStrides = new int[size][];
+        BitSet[] acutsets = new BitSet[size];
+        acutsets[root] = new BitSet();
+        // parents are created after their children, so their acutsets are known before
+        for (int t = size - 1; t >= 0; t--) {
+            if (acutsets[t] == null) {
+                // not part of the tree
+                continue;
+            }
+            BitSet context = (BitSet) variables[t].clone();
+            context.and(acutsets[t]);
+            contexts[t] = toArray(context);
+            if (left[t] == -1) {
+                cutsets[t] = new int[0];
+                continue;
+            }
+            BitSet cutset = (BitSet) variables[left[t]].clone();
+            cutset.and(variables[right[t]]);
+            cutset.andNot(acutsets[t]);
+            cutsets[t] = toArray(cutset);
+            BitSet childAcutset = (BitSet) acutsets[t].clone();
+            childAcutset.or(cutset);
+            acutsets[left[t]] = childAcutset;
+            acutsets[right[t]] = childAcutset;
+        }
+    }
+
+    private static int[] toArray(BitSet set) {
+        int[] array = new int[set.cardinality()];
+        for (int i = set.nextSetBit(0), j = 0; i >= 0; i = set.nextSetBit(i + 1)) {
+            array[j++] = i;
+        }
+        return array;
+    }
+
+    /**
+     * caches the nodes with the largest reduction of recomputations, as long as the budget allows it
+     */
+    private void chooseCachedNodes() {
+        int size = left.length;
+        caches = new double[size][];
+        cacheSize = 0;
+        final double[] reductions = new double[size];
+        // in logarithmic scale
+        double[] acutsetSizes = new double[size];
+        List<Integer> candidates = new ArrayList<Integer>();
+        for (int t = size - 1; t >= 0; t--) {
+            if (contexts[t] == null || left[t] == -1) {
+                continue;
+            }
+            acutsetSizes[left[t]] = acutsetSizes[t] + getLogSize(cutsets[t]);
+            acutsetSizes[right[t]] = acutsetSizes[left[t]];
+            // the number of computations without caching, divided by the one with caching
+            reductions[t] = acutsetSizes[t] - getLogSize(contexts[t]);
+            if (reductions[t] > 0) {
+                candidates.add(t);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer t1, Integer t2) {
+                return Double.compare(reductions[t2], reductions[t1]);
+            }
+
+        });
+
+        for (int t : candidates) {
+            double entries = 1;
+            for (int v : contexts[t]) {
+                entries *= outcomeCounts[v];
+            }
+            if (entries > Integer.MAX_VALUE || cacheSize + entries * DOUBLE_SIZE > cacheBudget) {
+                continue;
+            }
+            caches[t] = new double[(int) entries];
+            Arrays.fill(caches[t], Double.NaN);
+            cacheSize += caches[t].length * DOUBLE_SIZE;
+            contextStrides[t] = new int[contexts[t].length];
+            int stride = 1;
+            for (int i = contexts[t].length - 1; i >= 0; i--) {
+                contextStrides[t][i] = stride;
+                stride *= outcomeCounts[contexts[t][i]];
+            }
+        }
+    }
+
+    private double getLogSize(int[] vars) {
+        double logSize = 0;
+        for (int v : vars) {
+            logSize += Math.log(outcomeCounts[v]);
+        }
+        return logSize;
+    }
+
+    @Override
+    public double[] getBeliefs(final BayesNode node) {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        final int nodeId = node.getId();
+        if (!isBeliefValid[nodeId]) {
+            isBeliefValid[nodeId] = true;
+            if (instantiation[nodeId] == -1) {
+                beliefs[nodeId] = query(nodeId);
+            } else {
+                Arrays.fill(beliefs[nodeId], 0);
+                beliefs[nodeId][instantiation[nodeId]] = 1;
+            }
+        }
+        return beliefs[nodeId];
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        Arrays.fill(isBeliefValid, false);
+        fillObservedOutcomes(net, instantiation);
+        for (double[] cache : caches) {
+            if (cache != null) {
+                Arrays.fill(cache, Double.NaN);
+            }
+        }
+    }
+
+    private double[] query(int queryNode) {
+        // the cache entries of these nodes depend on the outcome of the query node
+        List<double[]> affected = new ArrayList<double[]>();
+        for (int t = 0; t < caches.length; t++) {
+            if (caches[t] != null && variables[t].get(queryNode)
+                    && Arrays.binarySearch(contexts[t], queryNode) < 0) {
+                affected.add(caches[t]);
+            }
+        }
+        double[] result = new double[outcomeCounts[queryNode]];
+        for (int outcome = 0; outcome < result.length; outcome++) {
+            clear(affected);
+            instantiation[queryNode] = outcome;
+            result[outcome] = recursiveConditioning(root);
+        }
+        instantiation[queryNode] = -1;
+        clear(affected);
+
+        double sum = 0;
+        for (double p : result) {
+            sum += p;
+        }
+        if (!(sum > 0)) {
+            throw new NumericalInstabilityException("The evidence " + evidence
+                    + " is impossible or its probability is too small to be represented");
+        }
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= sum;
+        }
+        return result;
+    }
+
+    private static void clear(List<double[]> caches) {
+        for (double[] cache : caches) {
+            Arrays.fill(cache, Double.NaN);
+        }
+    }
+
+    private double recursiveConditioning(int t) {
+        if (left[t] == -1) {
+            return lookup(t, 0, 0);
+        }
+        double[] cache = caches[t];
+        int index = 0;
+        if (cache != null) {
+            int[] context = contexts[t];
+            for (int i = 0; i < context.length; i++) {
+                index += instantiation[context[i]] * contextStrides[t][i];
+            }
+            if (!Double.isNaN(cache[index])) {
+                return cache[index];
+            }
+        }
+        double p = sumOverCutset(t, 0);
+        if (cache != null) {
+            cache[index] = p;
+        }
+        return p;
+    }
+
+    private double sumOverCutset(int t, int i) {
+        if (i == cutsets[t].length) {
+            double p = recursiveConditioning(left[t]);
+            return p == 0 ? 0 : p * recursiveConditioning(right[t]);
+        }
+        int variable = cutsets[t][i];
+        if (instantiation[variable] != -1) {
+            return sumOverCutset(t, i + 1);
+        }
+        double sum = 0;
+        for (int outcome = 0; outcome < outcomeCounts[variable]; outcome++) {
+            instantiation[variable] = outcome;
+            sum += sumOverCutset(t, i + 1);
+        }
+        instantiation[variable] = -1;
+        return sum;
+    }
+
+    /**
+     * the CPT entry of the leaf at the instantiation, summed over the uninstantiated variables
+     */
+    private double lookup(int leaf, int dimension, int offset) {
+        int[] ids = leafDimensionIDs[leaf];
+        for (; dimension < ids.length; dimension++) {
+            int outcome = instantiation[ids[dimension]];
+            if (outcome == -1) {
+                double sum = 0;
+                for (int x = 0; x < leafDimensions[leaf][dimension]; x++) {
+                    sum += lookup(leaf, dimension + 1, offset + x * leafStrides[leaf][dimension]);
+                }
+                return sum;
+            }
+            offset += outcome * leafStrides[leaf][dimension];
+        }
+        return leafProbabilities[leaf][offset];
+    }
+
+    public void setEliminationHeuristic(IEliminationHeuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * @param cacheBudget
+     *            the maximal size of the caches in bytes. 0 means that no results are cached and the space is linear in
+     *            the network size.
+     */
+    public void setCacheBudget(long cacheBudget) {
+        this.cacheBudget = cacheBudget;
+    }
+
+    /**
+     * @return the size of the caches in bytes, at most the cache budget
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+}
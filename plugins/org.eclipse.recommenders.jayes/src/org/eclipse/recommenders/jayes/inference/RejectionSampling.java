@@ -16,11 +16,10 @@ import java.util.Map.Entry;
 import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.sampling.BasicSampler;
-import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.sampling.IUniformSource;
 
-public class RejectionSampling extends AbstractInferer {
+public class RejectionSampling extends AbstractSamplingInferer {
 
-    private int sampleCount = 200;
     private BasicSampler sampler = new BasicSampler();
 
     @Override
@@ -31,26 +30,15 @@ public class RejectionSampling extends AbstractInferer {
     }
 
     @Override
-    protected void updateBeliefs() {
-        for (int i = 0; i < sampleCount; i++) {
-            Map<BayesNode, String> sample = sampler.sample();
-            boolean isConsistentWithEvidence = isConsistenWithEvidence(sample);
-            if (!isConsistentWithEvidence) {
-                i--;
-                continue;
-            }
-            for (BayesNode e : sample.keySet()) {
-                beliefs[e.getId()][e.getOutcomeIndex(sample.get(e))]++;
-            }
+    protected double drawWeightedSample(int[] sample) {
+        Map<BayesNode, String> outcomes = sampler.sample();
+        while (!isConsistenWithEvidence(outcomes)) {
+            outcomes = sampler.sample();
         }
-
-        normalizeBeliefs();
-
-    }
-
-    private void normalizeBeliefs() {
-        for (int i = 0; i < beliefs.length; i++)
-            beliefs[i] = MathUtils.normalize(beliefs[i]);
+        for (Entry<BayesNode, String> e : outcomes.entrySet()) {
+            sample[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+        return 1.0;
     }
 
     private boolean isConsistenWithEvidence(Map<BayesNode, String> sample) {
@@ -63,12 +51,15 @@ public class RejectionSampling extends AbstractInferer {
         return true;
     }
 
-    public void setSampleCount(int sampleCount) {
-        this.sampleCount = sampleCount;
-    }
-
     public void seed(long seed) {
         sampler.seed(seed);
     }
 
+    /**
+     * @see BasicSampler#setUniformSource(IUniformSource)
+     */
+    public void setUniformSource(IUniformSource uniformSource) {
+        sampler.setUniformSource(uniformSource);
+    }
+
 }
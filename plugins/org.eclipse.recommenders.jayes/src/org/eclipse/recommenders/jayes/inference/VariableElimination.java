@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.ChunkedFactor;
+import org.eclipse.recommenders.jayes.util.Graph;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.IEliminationHeuristic;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+import org.eclipse.recommenders.jayes.util.triangulation.QuotientGraph;
+
+/**
+ * Exact inference without compilation: every requested marginal is computed directly from the CPTs, by summing out
+ * the other variables one after another. Setting the network is cheap, so the first query is answered much faster
+ * than by compiling a junction tree, which pays off if only few marginals are needed per network or per evidence. <br/>
+ * <br/>
+ * For a query, only the query node, the evidence nodes and their ancestors are relevant, all other nodes are barren
+ * and pruned. The CPTs of the relevant nodes are sliced at the evidence, so observed nodes do not take part in the
+ * elimination. The elimination order is chosen greedily on the moral graph of the sliced CPTs, with an
+ * {@link IEliminationHeuristic}, and ties are broken by the size of the resulting cluster, like for the junction tree.
+ * <br/>
+ * <br/>
+ * Every intermediate factor is determined by the CPTs multiplied into it and the variables summed out of it, so it is
+ * cached under these two sets until the evidence changes. Queries whose elimination orders share a prefix, for
+ * example the queries for neighboring nodes, reuse the factors computed before instead of recomputing them. The
+ * factors are computed in double precision, independent of the {@link org.eclipse.recommenders.jayes.factor.FactorFactory
+ * FactorFactory}, and rescaled to a maximum of 1 to avoid underflow. They are {@link ChunkedFactor}s, so an
+ * intermediate factor may have more than 2^31 entries, as long as it fits into the heap.
+ */
+public class VariableElimination extends AbstractInferer {
+
+    private BayesNet net;
+    private IEliminationHeuristic heuristic = new MinFillIn();
+    private boolean[] isBeliefValid = new boolean[0];
+    // outcome index per node, -1 for unobserved nodes
+    private int[] observed = new int[0];
+
+    // intermediate factors for the current evidence. The first half of a key holds the CPTs multiplied into the
+    // factor, the second half the variables summed out.
+    private final Map<BitSet, Potential> cache = new HashMap<BitSet, Potential>();
+    private long cachedValueCount;
+    private long maxCachedValueCount = 1 << 22;
+
+    @Override
+    public void setNetwork(final BayesNet bayesNet) {
+        super.setNetwork(bayesNet);
+        this.net = bayesNet;
+        isBeliefValid = new boolean[beliefs.length];
+        observed = new int[beliefs.length];
+        beliefsValid = false;
+    }
+
+    @Override
+    public double[] getBeliefs(final BayesNode node) {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        final int nodeId = node.getId();
+        if (!isBeliefValid[nodeId]) {
+            isBeliefValid[nodeId] = true;
+            if (observed[nodeId] == -1) {
+                beliefs[nodeId] = query(nodeId);
+            } else {
+                Arrays.fill(beliefs[nodeId], 0);
+                beliefs[nodeId][observed[nodeId]] = 1;
+            }
+        }
+        return beliefs[nodeId];
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        Arrays.fill(isBeliefValid, false);
+        fillObservedOutcomes(net, observed);
+        clearCache();
+    }
+
+    private void clearCache() {
+        cache.clear();
+        cachedValueCount = 0;
+    }
+
+    private double[] query(int queryNode) {
+        boolean[] relevant = getRelevantNodes(queryNode);
+        List<Potential> potentials = new ArrayList<Potential>();
+        for (BayesNode node : net.getNodes()) {
+            if (relevant[node.getId()]) {
+                addIfNotConstant(potentials, createPotential(node));
+            }
+        }
+
+        int[] localIndices = new int[relevant.length];
+        List<Integer> variables = new ArrayList<Integer>();
+        for (int node = 0; node < relevant.length; node++) {
+            localIndices[node] = variables.size();
+            if (relevant[node] && observed[node] == -1) {
+                variables.add(node);
+            }
+        }
+        QuotientGraph graph = new QuotientGraph(buildMoralGraph(potentials, localIndices, variables.size()));
+
+        List<Integer> remaining = new ArrayList<Integer>(variables);
+        remaining.remove(Integer.valueOf(queryNode));
+        while (!remaining.isEmpty()) {
+            int next = nextEliminatedVariable(graph, remaining, localIndices, variables);
+            remaining.remove(Integer.valueOf(next));
+            graph.eliminate(localIndices[next]);
+            addIfNotConstant(potentials, eliminate(potentials, next));
+        }
+
+        double[] result = new double[net.getNode(queryNode).getOutcomeCount()];
+        Arrays.fill(result, 1);
+        for (Potential p : potentials) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] *= p.factor.getValue(i);
+            }
+        }
+        try {
+            return normalize(result);
+        } catch (final IllegalArgumentException exception) {
+            throw new NumericalInstabilityException("The evidence " + evidence + " is impossible", exception);
+        }
+    }
+
+    private static double[] normalize(double[] vector) {
+        double sum = 0;
+        for (double d : vector) {
+            sum += d;
+        }
+        if (!(sum > 0)) {
+            throw new IllegalArgumentException("Cannot normalize a vector with sum " + sum);
+        }
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= sum;
+        }
+        return vector;
+    }
+
+    /**
+     * the query node, the evidence nodes and their ancestors
+     */
+    private boolean[] getRelevantNodes(int queryNode) {
+        boolean[] relevant = new boolean[observed.length];
+        List<BayesNode> open = new ArrayList<BayesNode>();
+        open.add(net.getNode(queryNode));
+        for (int node = 0; node < observed.length; node++) {
+            if (observed[node] != -1) {
+                open.add(net.getNode(node));
+            }
+        }
+        while (!open.isEmpty()) {
+            BayesNode node = open.remove(open.size() - 1);
+            if (!relevant[node.getId()]) {
+                relevant[node.getId()] = true;
+                open.addAll(node.getParents());
+            }
+        }
+        return relevant;
+    }
+
+    private void addIfNotConstant(List<Potential> potentials, Potential potential) {
+        if (potential.factor.getDimensionIDs().length > 0) {
+            potentials.add(potential);
+        } else if (!(potential.factor.getValue(0) > 0)) {
+            // constant factors cancel out in the normalization, unless they are zero
+            throw new NumericalInstabilityException("The evidence " + evidence + " is impossible");
+        }
+    }
+
+    /**
+     * the CPT of the node, sliced at the evidence
+     */
+    private Potential createPotential(BayesNode node) {
+        int[] ids = node.getFactor().getDimensionIDs();
+        int[] dimensions = node.getFactor().getDimensions();
+        double[] probabilities = node.getProbabilities();
+
+        int freeCount = 0;
+        int offset = 0;
+        int stride = 1;
+        int[] strides = new int[ids.length];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            if (observed[ids[i]] == -1) {
+                freeCount++;
+            } else {
+                offset += observed[ids[i]] * stride;
+            }
+            stride *= dimensions[i];
+        }
+        int[] variables = new int[freeCount];
+        int[] sizes = new int[freeCount];
+        int[] freeStrides = new int[freeCount];
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (observed[ids[i]] == -1) {
+                variables[j] = ids[i];
+                sizes[j] = dimensions[i];
+                freeStrides[j++] = strides[i];
+            }
+        }
+
+        ChunkedFactor factor = new ChunkedFactor(variables, sizes);
+        int[] counter = new int[freeCount];
+        int index = offset;
+        for (int i = 0; i < factor.getLength(); i++) {
+            factor.setValue(i, probabilities[index]);
+            for (int d = freeCount - 1; d >= 0; d--) {
+                index += freeStrides[d];
+                if (++counter[d] < sizes[d]) {
+                    break;
+                }
+                index -= freeStrides[d] * sizes[d];
+                counter[d] = 0;
+            }
+        }
+        BitSet key = new BitSet(2 * observed.length);
+        key.set(node.getId());
+        return new Potential(key, factor);
+    }
+
+    private Graph buildMoralGraph(List<Potential> potentials, int[] localIndices, int size) {
+        Graph graph = new Graph();
+        graph.initialize(size);
+        for (Potential p : potentials) {
+            int[] variables = p.factor.getDimensionIDs();
+            for (int i = 0; i < variables.length; i++) {
+                for (int j = i + 1; j < variables.length; j++) {
+                    graph.addEdge(localIndices[variables[i]], localIndices[variables[j]]);
+                }
+            }
+        }
+        return graph;
+    }
+
+    private int nextEliminatedVariable(QuotientGraph graph, List<Integer> remaining, int[] localIndices,
+            List<Integer> variables) {
+        int minCost = Integer.MAX_VALUE;
+        double minClusterWeight = Double.MAX_VALUE;
+        int next = remaining.get(0);
+        for (int node : remaining) {
+            int cost = heuristic.getHeuristicValue(graph, localIndices[node]);
+            if (cost <= minCost) {
+                double clusterWeight = computeClusterWeight(graph, node, localIndices, variables);
+                if (cost < minCost || clusterWeight < minClusterWeight) {
+                    next = node;
+                    minCost = cost;
+                    minClusterWeight = clusterWeight;
+                }
+            }
+        }
+        return next;
+    }
+
+    private double computeClusterWeight(QuotientGraph graph, int node, int[] localIndices, List<Integer> variables) {
+        double weight = Math.log(net.getNode(node).getOutcomeCount());
+        for (int neighbor : graph.getNeighbors(localIndices[node])) {
+            weight += Math.log(net.getNode(variables.get(neighbor)).getOutcomeCount());
+        }
+        return weight;
+    }
+
+    /**
+     * removes the potentials containing the variable and returns their product, with the variable summed out
+     */
+    private Potential eliminate(List<Potential> potentials, int variable) {
+        List<Potential> bucket = new ArrayList<Potential>();
+        BitSet key = new BitSet(2 * observed.length);
+        for (Iterator<Potential> it = potentials.iterator(); it.hasNext();) {
+            Potential p = it.next();
+            if (p.contains(variable)) {
+                bucket.add(p);
+                key.or(p.key);
+                it.remove();
+            }
+        }
+        key.set(observed.length + variable);
+        Potential result = cache.get(key);
+        if (result == null) {
+            result = multiplyAndSumOut(bucket, variable, key);
+            if (cachedValueCount + result.factor.getLength() > maxCachedValueCount) {
+                clearCache();
+            }
+            cache.put(key, result);
+            cachedValueCount += result.factor.getLength();
+        }
+        return result;
+    }
+
+    private Potential multiplyAndSumOut(List<Potential> bucket, int variable, BitSet key) {
+        List<ChunkedFactor> factors = new ArrayList<ChunkedFactor>();
+        for (Potential p : bucket) {
+            factors.add(p.factor);
+        }
+        ChunkedFactor result = ChunkedFactor.multiplyAndSumOut(factors, variable);
+        double max = 0;
+        for (long i = 0; i < result.getLength(); i++) {
+            max = Math.max(max, result.getValue(i));
+        }
+        if (max > 0) {
+            for (long i = 0; i < result.getLength(); i++) {
+                result.setValue(i, result.getValue(i) / max);
+            }
+        }
+        return new Potential(key, result);
+    }
+
+    public void setEliminationHeuristic(IEliminationHeuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * @param maxCachedValueCount
+     *            the maximal number of entries of the cached intermediate factors. If it would be exceeded, the cache
+     *            is cleared.
+     */
+    public void setMaxCachedValueCount(long maxCachedValueCount) {
+        this.maxCachedValueCount = maxCachedValueCount;
+    }
+
+    /**
+     * a factor over the unobserved variables, with the CPTs and eliminated variables it was computed from
+     */
+    private static final class Potential {
+
+        final BitSet key;
+        final ChunkedFactor factor;
+
+        Potential(BitSet key, ChunkedFactor factor) {
+            this.key = key;
+            this.factor = factor;
+        }
+
+        boolean contains(int variable) {
+            return factor.getStride(variable) != 0;
+        }
+
+    }
+
+}
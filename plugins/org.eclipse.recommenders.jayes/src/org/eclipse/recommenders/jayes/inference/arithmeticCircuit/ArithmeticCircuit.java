@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.arithmeticCircuit;
+
+/**
+ * An arithmetic circuit over the CPT entries and the evidence indicators of a network, whose value is the probability
+ * of the evidence. The nodes are stored in flat arrays in topological order, children before parents, so evaluating
+ * the circuit is a single pass over the arrays, and the partial derivatives with respect to all nodes follow from a
+ * single pass in the opposite direction. The derivative with respect to the indicator of an outcome is the joint
+ * probability of the outcome and the evidence on the other variables, so one upward and one downward pass yield the
+ * marginals of all variables (see Darwiche, "A Differential Approach to Inference in Bayesian Networks"). <br/>
+ * <br/>
+ * Both passes take time proportional to the number of edges. The circuit is immutable, the values and derivatives
+ * are stored in arrays owned by the caller.
+ */
+public class ArithmeticCircuit {
+
+    static final int CONSTANT = 0;
+    static final int INDICATOR = 1;
+    static final int PRODUCT = 2;
+    static final int SUM = 3;
+
+    private final int[] types;
+    // the value of constant nodes, the variable and outcome of indicator nodes
+    private final double[] constants;
+    private final int[] indicatorVariables;
+    private final int[] indicatorOutcomes;
+    // the children of node i are children[childOffsets[i]] to children[childOffsets[i + 1] - 1]
+    private final int[] childOffsets;
+    private final int[] children;
+    private final int[][] indicators;
+    private final int root;
+
+    ArithmeticCircuit(int[] types, double[] constants, int[] indicatorVariables, int[] indicatorOutcomes,
+            int[] childOffsets, int[] children, int[][] indicators, int root) {
+        this.types = types;
+        this.constants = constants;
+        this.indicatorVariables = indicatorVariables;
+        this.indicatorOutcomes = indicatorOutcomes;
+        this.childOffsets = childOffsets;
+        this.children = children;
+        this.indicators = indicators;
+        this.root = root;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getSize() {
+        return types.length;
+    }
+
+    public int getEdgeCount() {
+        return children.length;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the node of the indicator of the outcome of the variable
+     */
+    public int getIndicator(int variable, int outcome) {
+        return indicators[variable][outcome];
+    }
+
+    /**
+     * the upward pass
+     *
+     * @param evidence
+     *            the observed outcome per variable, -1 for unobserved variables
+     * @param values
+     *            receives the value of every node, at least {@link #getSize()} entries
+     * @return the value of the root, the probability of the evidence
+     */
+    public double evaluate(int[] evidence, double[] values) {
+        for (int node = 0; node < types.length; node++) {
+            switch (types[node]) {
+            case CONSTANT:
+                values[node] = constants[node];
+                break;
+            case INDICATOR:
+                int observed = evidence[indicatorVariables[node]];
+                values[node] = observed == -1 || observed == indicatorOutcomes[node] ? 1 : 0;
+                break;
+            case PRODUCT:
+                double product = 1;
+                for (int c = childOffsets[node]; c < childOffsets[node + 1]; c++) {
+                    product *= values[children[c]];
+                }
+                values[node] = product;
+                break;
+            default:
+                double sum = 0;
+                for (int c = childOffsets[node]; c < childOffsets[node + 1]; c++) {
+                    sum += values[children[c]];
+                }
+                values[node] = sum;
+            }
+        }
+        return values[root];
+    }
+
+    /**
+     * the downward pass, after {@link #evaluate(int[], double[])}
+     *
+     * @param derivatives
+     *            receives the partial derivative of the root with respect to every node, at least {@link #getSize()}
+     *            entries
+     */
+    public void differentiate(double[] values, double[] derivatives) {
+        for (int node = 0; node < types.length; node++) {
+            derivatives[node] = 0;
+        }
+        derivatives[root] = 1;
+        for (int node = root; node >= 0; node--) {
+            double derivative = derivatives[node];
+            if (derivative == 0) {
+                continue;
+            }
+            if (types[node] == SUM) {
+                for (int c = childOffsets[node]; c < childOffsets[node + 1]; c++) {
+                    derivatives[children[c]] += derivative;
+                }
+            } else if (types[node] == PRODUCT) {
+                differentiateProduct(node, derivative, values, derivatives);
+            }
+        }
+    }
+
+    /**
+     * the derivative with respect to a child is the product of the other children. Zeros are counted instead of
+     * multiplied, so this does not divide by zero.
+     */
+    private void differentiateProduct(int node, double derivative, double[] values, double[] derivatives) {
+        int zeroCount = 0;
+        int zeroChild = -1;
+        double nonZeroProduct = derivative;
+        for (int c = childOffsets[node]; c < childOffsets[node + 1]; c++) {
+            double value = values[children[c]];
+            if (value == 0) {
+                zeroCount++;
+                zeroChild = children[c];
+            } else {
+                nonZeroProduct *= value;
+            }
+        }
+        if (zeroCount == 1) {
+            derivatives[zeroChild] += nonZeroProduct;
+        } else if (zeroCount == 0) {
+            for (int c = childOffsets[node]; c < childOffsets[node + 1]; c++) {
+                derivatives[children[c]] += nonZeroProduct / values[children[c]];
+            }
+        }
+    }
+
+}
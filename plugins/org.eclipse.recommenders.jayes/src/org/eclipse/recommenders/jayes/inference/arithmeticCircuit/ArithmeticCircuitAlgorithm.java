@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.arithmeticCircuit;
+
+import java.util.Arrays;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.inference.AbstractInferer;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+
+/**
+ * Exact inference on an {@link ArithmeticCircuit}, compiled once per network by the
+ * {@link ArithmeticCircuitCompiler}. For new evidence, the circuit is evaluated and differentiated once, which yields
+ * the beliefs of all nodes. The cost is proportional to the size of the circuit, which, for networks with many
+ * deterministic or repeated CPT entries, is much smaller than the junction tree. <br/>
+ * <br/>
+ * The values are computed in double precision without rescaling, so the probability of the evidence must not
+ * underflow.
+ */
+public class ArithmeticCircuitAlgorithm extends AbstractInferer {
+
+    private ArithmeticCircuitCompiler compiler = new ArithmeticCircuitCompiler();
+
+    private BayesNet net;
+    private ArithmeticCircuit circuit;
+    private int[] observed;
+    private double[] values;
+    private double[] derivatives;
+    private double evidenceProbability;
+
+    @Override
+    public void setNetwork(BayesNet bayesNet) {
+        super.setNetwork(bayesNet);
+        this.net = bayesNet;
+        circuit = compiler.compile(bayesNet);
+        observed = new int[beliefs.length];
+        values = new double[circuit.getSize()];
+        derivatives = new double[circuit.getSize()];
+        beliefsValid = false;
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        fillObservedOutcomes(net, observed);
+        evidenceProbability = circuit.evaluate(observed, values);
+        if (!(evidenceProbability > 0)) {
+            throw new NumericalInstabilityException("The evidence " + evidence + " is impossible or its probability "
+                    + "underflows");
+        }
+        circuit.differentiate(values, derivatives);
+        for (int node = 0; node < beliefs.length; node++) {
+            double[] belief = beliefs[node];
+            if (observed[node] != -1) {
+                Arrays.fill(belief, 0);
+                belief[observed[node]] = 1;
+                continue;
+            }
+            for (int outcome = 0; outcome < belief.length; outcome++) {
+                // the joint probability of the outcome and the evidence
+                belief[outcome] = derivatives[circuit.getIndicator(node, outcome)] / evidenceProbability;
+            }
+        }
+    }
+
+    public double getEvidenceProbability() {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        return evidenceProbability;
+    }
+
+    public ArithmeticCircuit getCircuit() {
+        return circuit;
+    }
+
+    public void setCompiler(ArithmeticCircuitCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+}
@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.arithmeticCircuit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.recommenders.internal.jayes.util.SumOutOdometer;
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.util.triangulation.GraphElimination;
+import org.eclipse.recommenders.jayes.util.triangulation.IEliminationHeuristic;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+
+/**
+ * Compiles a network into an {@link ArithmeticCircuit} by symbolic variable elimination: the factors hold circuit
+ * nodes instead of numbers, multiplying and summing creates product and sum nodes. Every CPT starts as a factor of
+ * constants, every variable contributes a factor of its indicators. <br/>
+ * <br/>
+ * The circuit is kept small by exploiting the local structure of the CPTs:
+ * <ul>
+ * <li>equal nodes are created only once, so equal CPT entries share a constant, and repeated rows and equal
+ * sub-computations share their nodes</li>
+ * <li>zeros annihilate products and vanish from sums, so deterministic CPT entries remove everything depending on
+ * them</li>
+ * <li>products and sums of constants are folded into constants</li>
+ * </ul>
+ * Compiling takes time and memory proportional to the tables of variable elimination, but the resulting circuit is
+ * often much smaller, for near-deterministic networks by orders of magnitude. Nodes that the root does not depend on
+ * are dropped, except for the indicators.
+ */
+public class ArithmeticCircuitCompiler {
+
+    private static final int ZERO = 0;
+    private static final int ONE = 1;
+
+    private IEliminationHeuristic heuristic = new MinFillIn();
+
+    // the circuit under construction
+    private int size;
+    private int[] types;
+    private double[] constants;
+    private int[] indicatorVariables;
+    private int[] indicatorOutcomes;
+    private int[][] children;
+    private Map<Long, Integer> uniqueConstants;
+    private Map<NodeKey, Integer> uniqueNodes;
+
+    public ArithmeticCircuitCompiler() {
+
+    }
+
+    public ArithmeticCircuitCompiler(IEliminationHeuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if an intermediate table of the elimination exceeds the maximal array size
+     */
+    public ArithmeticCircuit compile(BayesNet net) {
+        initialize();
+        int nodeCount = net.getNodes().size();
+        int[][] indicators = new int[nodeCount][];
+        List<SymbolicFactor> factors = new ArrayList<SymbolicFactor>();
+        for (BayesNode node : net.getNodes()) {
+            factors.add(createCptFactor(node));
+            indicators[node.getId()] = new int[node.getOutcomeCount()];
+            for (int outcome = 0; outcome < node.getOutcomeCount(); outcome++) {
+                indicators[node.getId()][outcome] = createIndicator(node.getId(), outcome);
+            }
+            factors.add(new SymbolicFactor(new int[] { node.getId() }, new int[] { node.getOutcomeCount() },
+                    indicators[node.getId()].clone()));
+        }
+
+        for (int variable : GraphElimination.getEliminationOrder(net, heuristic)) {
+            List<SymbolicFactor> bucket = new ArrayList<SymbolicFactor>();
+            for (Iterator<SymbolicFactor> it = factors.iterator(); it.hasNext();) {
+                SymbolicFactor factor = it.next();
+                if (factor.getDimension(variable) != -1) {
+                    bucket.add(factor);
+                    it.remove();
+                }
+            }
+            factors.add(multiplyAndSumOut(bucket, variable));
+        }
+
+        int[] rootChildren = new int[factors.size()];
+        for (int i = 0; i < rootChildren.length; i++) {
+            rootChildren[i] = factors.get(i).nodes[0];
+        }
+        return toCircuit(createProduct(rootChildren), indicators);
+    }
+
+    private void initialize() {
+        size = 0;
+        types = new int[16];
+        constants = new double[16];
+        indicatorVariables = new int[16];
+        indicatorOutcomes = new int[16];
+        children = new int[16][];
+        uniqueConstants = new HashMap<Long, Integer>();
+        uniqueNodes = new HashMap<NodeKey, Integer>();
+        createConstant(0);
+        createConstant(1);
+    }
+
+    private SymbolicFactor createCptFactor(BayesNode node) {
+        double[] probabilities = node.getProbabilities();
+        int[] nodes = new int[probabilities.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = createConstant(probabilities[i]);
+        }
+        return new SymbolicFactor(node.getFactor().getDimensionIDs().clone(), node.getFactor().getDimensions()
+                .clone(), nodes);
+    }
+
+    /**
+     * multiplies the factors and sums out the variable, without creating the product table
+     *
+     * @see SumOutOdometer
+     */
+    private SymbolicFactor multiplyAndSumOut(List<SymbolicFactor> bucket, int variable) {
+        int factorCount = bucket.size();
+        int[][] ids = new int[factorCount][];
+        int[][] dimensions = new int[factorCount][];
+        for (int f = 0; f < factorCount; f++) {
+            ids[f] = bucket.get(f).ids;
+            dimensions[f] = bucket.get(f).dimensions;
+        }
+        SumOutOdometer odometer = new SumOutOdometer(ids, dimensions, variable);
+        int[] result = new int[MathUtils.product(odometer.getDimensions())];
+        int[] products = new int[odometer.getSummedSize()];
+        int[] operands = new int[factorCount];
+        for (int i = 0; i < result.length; i++, odometer.next()) {
+            for (int x = 0; x < products.length; x++) {
+                for (int f = 0; f < factorCount; f++) {
+                    operands[f] = bucket.get(f).nodes[(int) odometer.getIndex(f, x)];
+                }
+                products[x] = createProduct(operands);
+            }
+            result[i] = createSum(products);
+        }
+        return new SymbolicFactor(odometer.getDimensionIDs(), odometer.getDimensions(), result);
+    }
+
+    private int createConstant(double value) {
+        Long key = Double.doubleToLongBits(value == 0 ? 0.0 : value);
+        Integer node = uniqueConstants.get(key);
+        if (node == null) {
+            node = addNode(ArithmeticCircuit.CONSTANT, null);
+            constants[node] = value;
+            uniqueConstants.put(key, node);
+        }
+        return node;
+    }
+
+    private int createIndicator(int variable, int outcome) {
+        int node = addNode(ArithmeticCircuit.INDICATOR, null);
+        indicatorVariables[node] = variable;
+        indicatorOutcomes[node] = outcome;
+        return node;
+    }
+
+    private int createProduct(int[] operands) {
+        double constant = 1;
+        int[] remaining = new int[operands.length];
+        int count = 0;
+        for (int operand : operands) {
+            if (types[operand] == ArithmeticCircuit.CONSTANT) {
+                constant *= constants[operand];
+            } else {
+                remaining[count++] = operand;
+            }
+        }
+        if (constant == 0) {
+            return ZERO;
+        }
+        if (constant != 1) {
+            remaining[count++] = createConstant(constant);
+        }
+        return createOperation(ArithmeticCircuit.PRODUCT, remaining, count, ONE);
+    }
+
+    private int createSum(int[] operands) {
+        double constant = 0;
+        int[] remaining = new int[operands.length];
+        int count = 0;
+        for (int operand : operands) {
+            if (types[operand] == ArithmeticCircuit.CONSTANT) {
+                constant += constants[operand];
+            } else {
+                remaining[count++] = operand;
+            }
+        }
+        if (constant != 0) {
+            remaining[count++] = createConstant(constant);
+        }
+        return createOperation(ArithmeticCircuit.SUM, remaining, count, ZERO);
+    }
+
+    /**
+     * @param neutral
+     *            the result if there are no operands
+     */
+    private int createOperation(int type, int[] operands, int count, int neutral) {
+        if (count == 0) {
+            return neutral;
+        }
+        if (count == 1) {
+            return operands[0];
+        }
+        int[] sorted = Arrays.copyOf(operands, count);
+        // the operations are commutative, so sorting makes equal operations equal
+        Arrays.sort(sorted);
+        NodeKey key = new NodeKey(type, sorted);
+        Integer node = uniqueNodes.get(key);
+        if (node == null) {
+            node = addNode(type, sorted);
+            uniqueNodes.put(key, node);
+        }
+        return node;
+    }
+
+    private int addNode(int type, int[] nodeChildren) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            constants = Arrays.copyOf(constants, capacity);
+            indicatorVariables = Arrays.copyOf(indicatorVariables, capacity);
+            indicatorOutcomes = Arrays.copyOf(indicatorOutcomes, capacity);
+            children = Arrays.copyOf(children, capacity);
+        }
+        types[size] = type;
+        children[size] = nodeChildren;
+        return size++;
+    }
+
+    /**
+     * keeps the nodes the root depends on and the indicators, in their order of creation, which is topological
+     */
+    private ArithmeticCircuit toCircuit(int root, int[][] indicators) {
+        boolean[] isKept = new boolean[size];
+        isKept[root] = true;
+        for (int node = size - 1; node >= 0; node--) {
+            if (isKept[node] && children[node] != null) {
+                for (int child : children[node]) {
+                    isKept[child] = true;
+                }
+            }
+            isKept[node] |= types[node] == ArithmeticCircuit.INDICATOR;
+        }
+        int[] newIndices = new int[size];
+        int keptCount = 0;
+        int edgeCount = 0;
+        for (int node = 0; node < size; node++) {
+            if (isKept[node]) {
+                newIndices[node] = keptCount++;
+                edgeCount += children[node] == null ? 0 : children[node].length;
+            }
+        }
+
+        int[] keptTypes = new int[keptCount];
+        double[] keptConstants = new double[keptCount];
+        int[] keptVariables = new int[keptCount];
+        int[] keptOutcomes = new int[keptCount];
+        int[] childOffsets = new int[keptCount + 1];
+        int[] keptChildren = new int[edgeCount];
+        int edge = 0;
+        for (int node = 0; node < size; node++) {
+            if (!isKept[node]) {
+                continue;
+            }
+            int newIndex = newIndices[node];
+            keptTypes[newIndex] = types[node];
+            keptConstants[newIndex] = constants[node];
+            keptVariables[newIndex] = indicatorVariables[node];
+            keptOutcomes[newIndex] = indicatorOutcomes[node];
+            childOffsets[newIndex] = edge;
+            if (children[node] != null) {
+                for (int child : children[node]) {
+                    keptChildren[edge++] = newIndices[child];
+                }
+            }
+        }
+        childOffsets[keptCount] = edge;
+
+        int[][] keptIndicators = new int[indicators.length][];
+        for (int variable = 0; variable < indicators.length; variable++) {
+            keptIndicators[variable] = new int[indicators[variable].length];
+            for (int outcome = 0; outcome < indicators[variable].length; outcome++) {
+                keptIndicators[variable][outcome] = newIndices[indicators[variable][outcome]];
+            }
+        }
+        // the construction state is not needed anymore
+        children = null;
+        uniqueNodes = null;
+        uniqueConstants = null;
+        return new ArithmeticCircuit(keptTypes, keptConstants, keptVariables, keptOutcomes, childOffsets,
+                keptChildren, keptIndicators, newIndices[root]);
+    }
+
+    public void setEliminationHeuristic(IEliminationHeuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * a table of circuit nodes over variables, in row-major order
+     */
+    private static final class SymbolicFactor {
+
+        final int[] ids;
+        final int[] dimensions;
+        final int[] nodes;
+
+        SymbolicFactor(int[] ids, int[] dimensions, int[] nodes) {
+            this.ids = ids;
+            this.dimensions = dimensions;
+            this.nodes = nodes;
+        }
+
+        int getDimension(int id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+    private static final class NodeKey {
+
+        final int type;
+        final int[] children;
+        final int hash;
+
+        NodeKey(int type, int[] children) {
+            this.type = type;
+            this.children = children;
+            this.hash = 31 * type + Arrays.hashCode(children);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof NodeKey)) {
+                return false;
+            }
+            NodeKey other = (NodeKey) obj;
+            return type == other.type && Arrays.equals(children, other.children);
+        }
+
+    }
+
+}
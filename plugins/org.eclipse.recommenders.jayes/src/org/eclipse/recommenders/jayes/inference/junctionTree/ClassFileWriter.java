@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for Java class files, just enough for the code of the {@link JunctionTreeCodeGenerator}: a class
+ * without fields, with static and instance methods whose code uses int and double arithmetic, arrays, branches and
+ * static calls. The class files have version 49 (Java 5), which the verifier checks by type inference, so no stack map
+ * frames are needed.
+ */
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ALOAD = 0x19;
+    static final int ILOAD = 0x15;
+    static final int ISTORE = 0x36;
+    static final int DCONST_0 = 0x0e;
+    static final int AALOAD = 0x32;
+    static final int DALOAD = 0x31;
+    static final int BALOAD = 0x33;
+    static final int DASTORE = 0x52;
+    static final int DUP2 = 0x5c;
+    static final int IADD = 0x60;
+    static final int ISHR = 0x7a;
+    static final int DADD = 0x63;
+    static final int DMUL = 0x6b;
+    static final int IFEQ = 0x99;
+    static final int IF_ICMPLT = 0xa1;
+    static final int GOTO = 0xa7;
+    static final int RETURN = 0xb1;
+
+    private static final int MAJOR_VERSION = 49;
+    private static final int MAX_STACK = 16;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+    private final Map<String, Integer> constantIndices = new HashMap<String, Integer>();
+    private int constantCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<MethodWriter> methods = new ArrayList<MethodWriter>();
+
+    /**
+     * @param className
+     *            the internal name, with slashes
+     */
+    ClassFileWriter(String className, String superName, String... interfaceNames) {
+        thisClass = classConstant(className);
+        superClass = classConstant(superName);
+        interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classConstant(interfaceNames[i]);
+        }
+    }
+
+    MethodWriter addMethod(int access, String name, String descriptor, int parameterSlots) {
+        MethodWriter method = new MethodWriter(access, utf8Constant(name), utf8Constant(descriptor), parameterSlots);
+        methods.add(method);
+        return method;
+    }
+
+    /**
+     * adds a public constructor without parameters, which calls the one of the super class
+     */
+    void addDefaultConstructor(String superName) {
+        MethodWriter constructor = addMethod(ACC_PUBLIC, "<init>", "()V", 1);
+        constructor.load(ALOAD, 0);
+        constructor.invokeSpecial(superName, "<init>", "()V");
+        constructor.op(RETURN);
+    }
+
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            // the code attributes refer to this name, so it has to be in the constant pool before it is written
+            int codeName = utf8Constant("Code");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(constantCount);
+            constants.flush();
+            constantPool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) {
+                out.writeShort(i);
+            }
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (MethodWriter method : methods) {
+                method.writeTo(out, codeName);
+            }
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // cannot happen for byte array streams
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int utf8Constant(String value) {
+        String key = "U" + value;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            index = newConstant(key);
+            write(CONSTANT_UTF8);
+            try {
+                constants.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    private int classConstant(String internalName) {
+        String key = "C" + internalName;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            int name = utf8Constant(internalName);
+            index = newConstant(key);
+            write(CONSTANT_CLASS);
+            writeShort(name);
+        }
+        return index;
+    }
+
+    private int integerConstant(int value) {
+        String key = "I" + value;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            index = newConstant(key);
+            write(CONSTANT_INTEGER);
+            writeShort(value >>> 16);
+            writeShort(value);
+        }
+        return index;
+    }
+
+    private int methodConstant(String owner, String name, String descriptor) {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            int ownerIndex = classConstant(owner);
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            int nameAndType = newConstant("N" + name + descriptor);
+            write(CONSTANT_NAME_AND_TYPE);
+            writeShort(nameIndex);
+            writeShort(descriptorIndex);
+            index = newConstant(key);
+            write(CONSTANT_METHODREF);
+            writeShort(ownerIndex);
+            writeShort(nameAndType);
+        }
+        return index;
+    }
+
+    private int newConstant(String key) {
+        if (constantCount == 0xFFFF) {
+            throw new IllegalStateException("Too many constants");
+        }
+        constantIndices.put(key, constantCount);
+        return constantCount++;
+    }
+
+    private void write(int b) {
+        try {
+            constants.writeByte(b);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeShort(int s) {
+        try {
+            constants.writeShort(s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * a position in the code of a method, which can be the target of branches before it is marked
+     */
+    static final class Label {
+
+        int position = -1;
+
+    }
+
+    final class MethodWriter {
+
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private int maxLocals;
+
+        private byte[] code = new byte[64];
+        private int length;
+        // the position the offset is relative to, the position of the offset and its width in bytes, per branch
+        private final List<int[]> branches = new ArrayList<int[]>();
+        private final List<Label> branchTargets = new ArrayList<Label>();
+
+        private MethodWriter(int access, int name, int descriptor, int parameterSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = parameterSlots;
+        }
+
+        /**
+         * @return a new int local variable
+         */
+        int newLocal() {
+            return maxLocals++;
+        }
+
+        void op(int opcode) {
+            put(opcode);
+        }
+
+        /**
+         * @param opcode
+         *            {@link #ALOAD}, {@link #ILOAD} or {@link #ISTORE}
+         */
+        void load(int opcode, int local) {
+            if (local > 0xFF) {
+                put(0xc4);
+                put(opcode);
+                putShort(local);
+            } else {
+                put(opcode);
+                put(local);
+            }
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                // iconst_m1 to iconst_5
+                put(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(0x10);
+                put(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                put(0x11);
+                putShort(value);
+            } else {
+                put(0x13);
+                putShort(integerConstant(value));
+            }
+        }
+
+        /**
+         * adds a constant to an int local variable
+         */
+        void increment(int local, int delta) {
+            if (delta == 0) {
+                return;
+            }
+            if (local <= 0xFF && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+                put(0x84);
+                put(local);
+                put(delta);
+            } else {
+                put(0xc4);
+                put(0x84);
+                putShort(local);
+                putShort(delta);
+            }
+        }
+
+        void invokeStatic(String owner, String methodName, String methodDescriptor) {
+            put(0xb8);
+            putShort(methodConstant(owner, methodName, methodDescriptor));
+        }
+
+        void invokeSpecial(String owner, String methodName, String methodDescriptor) {
+            put(0xb7);
+            putShort(methodConstant(owner, methodName, methodDescriptor));
+        }
+
+        void mark(Label label) {
+            label.position = length;
+        }
+
+        /**
+         * @param opcode
+         *            {@link #GOTO} or a conditional branch
+         */
+        void jump(int opcode, Label target) {
+            branches.add(new int[] { length, length + 1, 2 });
+            branchTargets.add(target);
+            put(opcode);
+            putShort(0);
+        }
+
+        /**
+         * switches on the int on top of the stack
+         */
+        void tableSwitch(int low, Label defaultTarget, Label[] targets) {
+            int opcodePosition = length;
+            put(0xaa);
+            while (length % 4 != 0) {
+                put(0);
+            }
+            putSwitchOffset(opcodePosition, defaultTarget);
+            putInt(low);
+            putInt(low + targets.length - 1);
+            for (Label target : targets) {
+                putSwitchOffset(opcodePosition, target);
+            }
+        }
+
+        private void putSwitchOffset(int opcodePosition, Label target) {
+            branches.add(new int[] { opcodePosition, length, 4 });
+            branchTargets.add(target);
+            putInt(0);
+        }
+
+        int getCodeLength() {
+            return length;
+        }
+
+        private void writeTo(DataOutputStream out, int codeName) throws IOException {
+            for (int i = 0; i < branches.size(); i++) {
+                int[] branch = branches.get(i);
+                int offset = branchTargets.get(i).position - branch[0];
+                if (branch[2] == 2 && (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE)) {
+                    throw new IllegalStateException("Branch offset out of range: " + offset);
+                }
+                for (int b = 0; b < branch[2]; b++) {
+                    code[branch[1] + b] = (byte) (offset >> (8 * (branch[2] - 1 - b)));
+                }
+            }
+            if (length > 0xFFFF) {
+                throw new IllegalStateException("Method too large: " + length + " bytes");
+            }
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + length);
+            out.writeShort(MAX_STACK);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        private void put(int b) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) b;
+        }
+
+        private void putShort(int s) {
+            put(s >> 8);
+            put(s);
+        }
+
+        private void putInt(int i) {
+            putShort(i >>> 16);
+            putShort(i);
+        }
+
+    }
+
+}
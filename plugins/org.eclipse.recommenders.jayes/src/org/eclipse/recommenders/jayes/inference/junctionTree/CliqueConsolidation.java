@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import static org.eclipse.recommenders.jayes.util.Pair.newPair;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.util.Graph;
+import org.eclipse.recommenders.jayes.util.Graph.Edge;
+import org.eclipse.recommenders.jayes.util.Pair;
+
+/**
+ * Post-processing of junction trees that merges adjacent cliques, as long as the merged clique's table does not exceed
+ * a given size and the predicted work for a full propagation decreases. For small cliques, the fixed cost of a message
+ * pass outweighs the arithmetic, so fewer, larger cliques are faster. Cliques that are subsets of a neighbor are always
+ * absorbed. <br/>
+ * <br/>
+ * Contracting an edge of a junction tree preserves the running intersection property, so the result is again a
+ * junction tree.
+ */
+public class CliqueConsolidation {
+
+    /**
+     * the default cost of a message pass that does not depend on the table sizes, measured in table entry operations
+     */
+    public static final double DEFAULT_MESSAGE_OVERHEAD = 64;
+
+    private final long maxCliqueSize;
+    private double messageOverhead = DEFAULT_MESSAGE_OVERHEAD;
+
+    /**
+     * @param maxCliqueSize
+     *            the maximal number of table entries of a clique created by merging
+     */
+    public CliqueConsolidation(long maxCliqueSize) {
+        this.maxCliqueSize = maxCliqueSize;
+    }
+
+    public void setMessageOverhead(double messageOverhead) {
+        this.messageOverhead = messageOverhead;
+    }
+
+    public JunctionTree consolidate(JunctionTree junctionTree, BayesNet net) {
+        List<Set<Integer>> clusters = new ArrayList<Set<Integer>>();
+        List<Set<Integer>> neighbors = new ArrayList<Set<Integer>>();
+        for (List<Integer> cluster : junctionTree.getClusters()) {
+            clusters.add(new LinkedHashSet<Integer>(cluster));
+            neighbors.add(new HashSet<Integer>());
+        }
+        for (Pair<Edge, List<Integer>> sepSet : junctionTree.getSepSets()) {
+            neighbors.get(sepSet.getFirst().getFirst()).add(sepSet.getFirst().getSecond());
+            neighbors.get(sepSet.getFirst().getSecond()).add(sepSet.getFirst().getFirst());
+        }
+        long[] sizes = new long[clusters.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = computeTableSize(clusters.get(i), net);
+        }
+
+        absorbSubsets(clusters, neighbors);
+        Pair<Integer, Integer> merge = findBestMerge(clusters, neighbors, sizes, net);
+        while (merge != null) {
+            int merged = merge(merge.getFirst(), merge.getSecond(), clusters, neighbors);
+            sizes[merged] = computeTableSize(clusters.get(merged), net);
+            absorbSubsets(clusters, neighbors);
+            merge = findBestMerge(clusters, neighbors, sizes, net);
+        }
+
+        return createJunctionTree(clusters, neighbors);
+    }
+
+    private void absorbSubsets(List<Set<Integer>> clusters, List<Set<Integer>> neighbors) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < clusters.size() && !changed; i++) {
+                if (clusters.get(i) == null) {
+                    continue;
+                }
+                for (int neighbor : neighbors.get(i)) {
+                    if (clusters.get(i).containsAll(clusters.get(neighbor))) {
+                        merge(i, neighbor, clusters, neighbors);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private Pair<Integer, Integer> findBestMerge(List<Set<Integer>> clusters, List<Set<Integer>> neighbors,
+            long[] sizes, BayesNet net) {
+        Pair<Integer, Integer> best = null;
+        double bestGain = 0;
+        for (int i = 0; i < clusters.size(); i++) {
+            if (clusters.get(i) == null) {
+                continue;
+            }
+            for (int j : neighbors.get(i)) {
+                if (j < i) {
+                    continue;
+                }
+                Set<Integer> union = new HashSet<Integer>(clusters.get(i));
+                union.addAll(clusters.get(j));
+                long mergedSize = computeTableSize(union, net);
+                if (mergedSize > maxCliqueSize) {
+                    continue;
+                }
+                double gain = predictGain(i, j, mergedSize, neighbors, sizes);
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    best = newPair(i, j);
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+     * a message pass over an edge costs the overhead plus a summation over the source clique and a multiplication
+     * into the target clique. Every edge is passed in both directions during a full propagation.
+     */
+    private double predictGain(int i, int j, long mergedSize, List<Set<Integer>> neighbors, long[] sizes) {
+        double savedWork = 2 * (messageOverhead + sizes[i] + sizes[j]);
+        double additionalWork = 2.0 * (neighbors.get(i).size() - 1) * (mergedSize - sizes[i]) + 2.0
+                * (neighbors.get(j).size() - 1) * (mergedSize - sizes[j]);
+        return savedWork - additionalWork;
+    }
+
+    /**
+     * merges cluster j into cluster i
+     *
+     * @return the index of the merged cluster
+     */
+    private int merge(int i, int j, List<Set<Integer>> clusters, List<Set<Integer>> neighbors) {
+        clusters.get(i).addAll(clusters.get(j));
+        clusters.set(j, null);
+        for (int neighbor : neighbors.get(j)) {
+            neighbors.get(neighbor).remove(j);
+            if (neighbor != i) {
+                neighbors.get(neighbor).add(i);
+                neighbors.get(i).add(neighbor);
+            }
+        }
+        neighbors.get(i).remove(j);
+        neighbors.set(j, new HashSet<Integer>());
+        return i;
+    }
+
+    private JunctionTree createJunctionTree(List<Set<Integer>> clusters, List<Set<Integer>> neighbors) {
+        int[] newIndices = new int[clusters.size()];
+        List<List<Integer>> newClusters = new ArrayList<List<Integer>>();
+        for (int i = 0; i < clusters.size(); i++) {
+            if (clusters.get(i) != null) {
+                newIndices[i] = newClusters.size();
+                newClusters.add(new ArrayList<Integer>(clusters.get(i)));
+            }
+        }
+        JunctionTree junctionTree = new JunctionTree(new Graph());
+        junctionTree.setClusters(newClusters);
+
+        List<Pair<Edge, List<Integer>>> sepSets = new ArrayList<Pair<Edge, List<Integer>>>();
+        for (int i = 0; i < clusters.size(); i++) {
+            for (int j : neighbors.get(i)) {
+                if (j > i) {
+                    List<Integer> sepSet = new ArrayList<Integer>(clusters.get(i));
+                    sepSet.retainAll(clusters.get(j));
+                    sepSets.add(newPair(new Edge(newIndices[i], newIndices[j]), sepSet));
+                    junctionTree.getGraph().addEdge(newIndices[i], newIndices[j]);
+                }
+            }
+        }
+        junctionTree.setSepSets(sepSets);
+        return junctionTree;
+    }
+
+    private long computeTableSize(Set<Integer> cluster, BayesNet net) {
+        long size = 1;
+        for (int var : cluster) {
+            size *= net.getNode(var).getOutcomeCount();
+        }
+        return size;
+    }
+
+}
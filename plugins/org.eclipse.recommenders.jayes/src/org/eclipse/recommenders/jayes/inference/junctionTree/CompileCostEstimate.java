@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.util.Graph.Edge;
+import org.eclipse.recommenders.jayes.util.Pair;
+
+/**
+ * The predicted cost of compiling a network with the {@link JunctionTreeAlgorithm}, computed from the triangulation
+ * alone, without allocating any factors (see {@link JunctionTreeBuilder#estimateCost(BayesNet)}). <br/>
+ * <br/>
+ * All sizes are <code>long</code>s and saturate at {@link Long#MAX_VALUE}, so they stay meaningful for networks that
+ * are far too large to be compiled. Memory is given in bytes for double precision values; with single precision, the
+ * memory of the values is halved.
+ */
+public class CompileCostEstimate {
+
+    private static final int SIZE_OF_DOUBLE = 8;
+    private static final int SIZE_OF_INT = 4;
+
+    private int treewidth = -1;
+    private int cliqueCount;
+    private long largestCliqueStates;
+    private long totalCliqueStates;
+    private long totalSepSetStates;
+    private long denseMemory;
+    private long sparseMemory;
+    private long preparedIndexMemory;
+    private long multiplications;
+    private long additions;
+
+    CompileCostEstimate(JunctionTree junctionTree, BayesNet net) {
+        List<List<Integer>> clusters = junctionTree.getClusters();
+        cliqueCount = clusters.size();
+        long[] cliqueStates = new long[cliqueCount];
+        for (int i = 0; i < cliqueCount; i++) {
+            treewidth = Math.max(treewidth, clusters.get(i).size() - 1);
+            cliqueStates[i] = computeStates(clusters.get(i), net);
+            largestCliqueStates = Math.max(largestCliqueStates, cliqueStates[i]);
+            totalCliqueStates = add(totalCliqueStates, cliqueStates[i]);
+        }
+
+        long sparseCliqueMemory = 0;
+        int[] homeClusters = JunctionTreeAlgorithm.computeHomeClusters(net, clusters);
+        double[] nonZeroFractions = computeNonZeroFractions(net, homeClusters, cliqueStates);
+        for (int i = 0; i < cliqueCount; i++) {
+            sparseCliqueMemory = add(sparseCliqueMemory, estimateSparseMemory(cliqueStates[i], nonZeroFractions[i]));
+        }
+
+        for (Pair<Edge, List<Integer>> sepSet : junctionTree.getSepSets()) {
+            long sepSetStates = computeStates(sepSet.getSecond(), net);
+            totalSepSetStates = add(totalSepSetStates, sepSetStates);
+            long first = cliqueStates[sepSet.getFirst().getFirst()];
+            long second = cliqueStates[sepSet.getFirst().getSecond()];
+            // one prepared multiplication per direction, indexed by the entries of the receiving clique
+            preparedIndexMemory = add(preparedIndexMemory, multiply(add(first, second), SIZE_OF_INT));
+            // a message in each direction sums up the sending clique, divides by the old sepset values and
+            // multiplies the receiving clique
+            additions = add(additions, add(first, second));
+            multiplications = add(multiplications, add(add(first, second), multiply(2, sepSetStates)));
+        }
+
+        for (BayesNode node : net.getNodes()) {
+            // the beliefs are read from the smallest clique containing the node
+            long queryStates = Long.MAX_VALUE;
+            for (int i = 0; i < cliqueCount; i++) {
+                if (clusters.get(i).contains(node.getId())) {
+                    queryStates = Math.min(queryStates, cliqueStates[i]);
+                }
+            }
+            if (queryStates == Long.MAX_VALUE) {
+                continue;
+            }
+            preparedIndexMemory = add(preparedIndexMemory, multiply(queryStates, SIZE_OF_INT));
+            additions = add(additions, queryStates);
+        }
+
+        long sepSetMemory = multiply(totalSepSetStates, SIZE_OF_DOUBLE);
+        denseMemory = add(multiply(totalCliqueStates, SIZE_OF_DOUBLE), sepSetMemory);
+        sparseMemory = add(sparseCliqueMemory, sepSetMemory);
+    }
+
+    private static long computeStates(List<Integer> cluster, BayesNet net) {
+        long states = 1;
+        for (int var : cluster) {
+            states = multiply(states, net.getNode(var).getOutcomeCount());
+        }
+        return states;
+    }
+
+    /**
+     * every zero of a CPT zeroes the entries of its home clique that agree with it, so the fraction of non-zero entries
+     * of a clique is at most the smallest fraction of its CPTs
+     */
+    private static double[] computeNonZeroFractions(BayesNet net, int[] homeClusters, long[] cliqueStates) {
+        double[] fractions = new double[cliqueStates.length];
+        Arrays.fill(fractions, 1);
+        boolean[] isSparse = new boolean[cliqueStates.length];
+        for (BayesNode node : net.getNodes()) {
+            int home = homeClusters[node.getId()];
+            double[] probabilities = node.getProbabilities();
+            int zeros = 0;
+            for (double p : probabilities) {
+                if (p == 0) {
+                    zeros++;
+                }
+            }
+            fractions[home] = Math.min(fractions[home], 1 - (double) zeros / probabilities.length);
+            // the same criterion as SparseFactor.isSuitable
+            isSparse[home] |= zeros > 2 * probabilities.length / Math.sqrt(cliqueStates[home]);
+        }
+        for (int i = 0; i < fractions.length; i++) {
+            if (!isSparse[i]) {
+                fractions[i] = 1;
+            }
+        }
+        return fractions;
+    }
+
+    private static long estimateSparseMemory(long states, double nonZeroFraction) {
+        if (nonZeroFraction == 1) {
+            return multiply(states, SIZE_OF_DOUBLE);
+        }
+        // blocks of about the square root of the size, with one pointer per block
+        double blockPointers = Math.ceil(Math.sqrt(states));
+        double values = Math.ceil(nonZeroFraction * states);
+        return Math.min(multiply(states, SIZE_OF_DOUBLE),
+                toLong(values * SIZE_OF_DOUBLE + blockPointers * SIZE_OF_INT));
+    }
+
+    private static long toLong(double value) {
+        return value >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) value;
+    }
+
+    private static long multiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a) {
+            return Long.MAX_VALUE;
+        }
+        return a * b;
+    }
+
+    private static long add(long a, long b) {
+        return a > Long.MAX_VALUE - b ? Long.MAX_VALUE : a + b;
+    }
+
+    /**
+     * @return the number of variables in the largest clique, minus one
+     */
+    public int getTreewidth() {
+        return treewidth;
+    }
+
+    public int getCliqueCount() {
+        return cliqueCount;
+    }
+
+    /**
+     * @return the number of entries of the largest clique table
+     */
+    public long getLargestCliqueStates() {
+        return largestCliqueStates;
+    }
+
+    /**
+     * @return the number of entries of all clique tables
+     */
+    public long getTotalCliqueStates() {
+        return totalCliqueStates;
+    }
+
+    /**
+     * @return the number of entries of all sepset tables
+     */
+    public long getTotalSepSetStates() {
+        return totalSepSetStates;
+    }
+
+    /**
+     * @return whether every table fits into an array, which is necessary for compiling the network
+     */
+    public boolean isCompilable() {
+        return largestCliqueStates <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the memory of the clique and sepset tables, if all of them are dense
+     */
+    public long getDenseMemory() {
+        return denseMemory;
+    }
+
+    /**
+     * @return the predicted memory of the clique and sepset tables, if the cliques whose CPTs contain enough zeros are
+     *         sparse. This is an upper bound of the memory the sparse tables need for their non-zero blocks.
+     */
+    public long getSparseMemory() {
+        return sparseMemory;
+    }
+
+    /**
+     * @return the memory of the precomputed indices for the message passes and the queries. Equal indices are shared,
+     *         so this is an upper bound.
+     */
+    public long getPreparedIndexMemory() {
+        return preparedIndexMemory;
+    }
+
+    /**
+     * @return the number of multiplications and divisions of a full propagation, a message in each direction of every
+     *         edge of the junction tree
+     */
+    public long getMultiplications() {
+        return multiplications;
+    }
+
+    /**
+     * @return the number of additions of a full propagation and the subsequent computation of all beliefs
+     */
+    public long getAdditions() {
+        return additions;
+    }
+
+    @Override
+    public String toString() {
+        return "CompileCostEstimate [treewidth=" + treewidth + ", cliqueCount=" + cliqueCount
+                + ", largestCliqueStates=" + largestCliqueStates + ", totalCliqueStates=" + totalCliqueStates
+                + ", totalSepSetStates=" + totalSepSetStates + ", denseMemory=" + denseMemory + ", sparseMemory="
+                + sparseMemory + ", preparedIndexMemory=" + preparedIndexMemory + ", multiplications="
+                + multiplications + ", additions=" + additions + "]";
+    }
+
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.recommenders.jayes.BayesNode;
+
+/**
+ * Declares how a network is going to be used, so that {@link ProfiledJunctionTreeAlgorithm} can compile a smaller
+ * junction tree: which nodes are observed in every query, and which nodes are queried. Evidence on the remaining nodes
+ * is still allowed, as long as they are ancestors of the declared ones. If no queryable nodes are declared, all nodes
+ * are queryable.
+ */
+public class CompileProfile {
+
+    private final Set<BayesNode> alwaysObserved = new LinkedHashSet<BayesNode>();
+    private final Set<BayesNode> queryable = new LinkedHashSet<BayesNode>();
+
+    public void addAlwaysObserved(BayesNode... nodes) {
+        Collections.addAll(alwaysObserved, nodes);
+    }
+
+    public void addQueryable(BayesNode... nodes) {
+        Collections.addAll(queryable, nodes);
+    }
+
+    public Set<BayesNode> getAlwaysObserved() {
+        return Collections.unmodifiableSet(alwaysObserved);
+    }
+
+    public Set<BayesNode> getQueryable() {
+        return Collections.unmodifiableSet(queryable);
+    }
+
+}
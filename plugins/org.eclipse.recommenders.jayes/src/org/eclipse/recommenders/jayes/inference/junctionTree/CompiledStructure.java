@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.util.Graph;
+import org.eclipse.recommenders.jayes.util.Graph.Edge;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+
+/**
+ * The value-independent part of a compiled junction tree. All arrays are shared between the
+ * {@link JunctionTreeAlgorithm}s that use this structure and must not be modified.
+ */
+class CompiledStructure {
+
+    final Graph junctionTree;
+    final int[] homeClusters;
+    final int[][] concernedClusters;
+    final int[] queryClusters;
+    final int[][] queryFactorReverseMapping;
+    final int[][] preparedQueries;
+    final IdentityHashMap<Edge, int[]> preparedMultiplications;
+
+    // factor templates without values, these only carry the (possibly sparse) layout
+    private final AbstractFactor[] cliqueTemplates;
+    private final int[] cliqueLengths;
+    private final Map<Edge, AbstractFactor> sepSetTemplates;
+
+    CompiledStructure(JunctionTreeAlgorithm algo) {
+        junctionTree = algo.junctionTree;
+        homeClusters = algo.homeClusters;
+        concernedClusters = algo.concernedClusters;
+        queryFactorReverseMapping = algo.queryFactorReverseMapping;
+        preparedQueries = algo.preparedQueries;
+        preparedMultiplications = algo.preparedMultiplications;
+
+        cliqueTemplates = new AbstractFactor[algo.nodePotentials.length];
+        cliqueLengths = new int[cliqueTemplates.length];
+        for (int i = 0; i < cliqueTemplates.length; i++) {
+            cliqueLengths[i] = algo.nodePotentials[i].getValueCount();
+            cliqueTemplates[i] = createTemplate(algo.nodePotentials[i]);
+        }
+        sepSetTemplates = new HashMap<Edge, AbstractFactor>();
+        for (Entry<Edge, AbstractFactor> sepSet : algo.sepSets.entrySet()) {
+            sepSetTemplates.put(sepSet.getKey(), createTemplate(sepSet.getValue()));
+        }
+
+        queryClusters = new int[algo.queryFactors.length];
+        for (int i = 0; i < queryClusters.length; i++) {
+            for (int cluster : concernedClusters[i]) {
+                if (algo.nodePotentials[cluster] == algo.queryFactors[i]) {
+                    queryClusters[i] = cluster;
+                }
+            }
+        }
+    }
+
+    private static AbstractFactor createTemplate(AbstractFactor factor) {
+        AbstractFactor template = factor.clone();
+        template.getMutableValues().newArray(0);
+        return template;
+    }
+
+    AbstractFactor[] createCliqueFactors() {
+        AbstractFactor[] cliques = new AbstractFactor[cliqueTemplates.length];
+        for (int i = 0; i < cliques.length; i++) {
+            cliques[i] = cliqueTemplates[i].clone();
+            cliques[i].getMutableValues().newArray(cliqueLengths[i]);
+        }
+        return cliques;
+    }
+
+    Map<Edge, AbstractFactor> createSepSetFactors() {
+        Map<Edge, AbstractFactor> sepSets = new HashMap<Edge, AbstractFactor>();
+        for (Entry<Edge, AbstractFactor> template : sepSetTemplates.entrySet()) {
+            AbstractFactor sepSet = template.getValue().clone();
+            sepSet.getMutableValues().newArray(MathUtils.product(sepSet.getDimensions()));
+            sepSets.put(template.getKey(), sepSet);
+        }
+        return sepSets;
+    }
+
+    AbstractFactor getCliqueTemplate(int cluster) {
+        return cliqueTemplates[cluster];
+    }
+
+}
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.FactorFactory;
+import org.eclipse.recommenders.jayes.inference.AbstractInferer;
+import org.eclipse.recommenders.jayes.sampling.CompiledSampler;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+
+/**
+ * Exact or approximate inference for networks whose junction tree is too large, by conditioning on a cutset. Fixing
+ * the outcomes of the cutset nodes removes them from the network; the junction tree of the remaining nodes is small
+ * enough to be compiled. For every cutset assignment, the CPTs of the reduced network are sliced at the assigned
+ * outcomes and propagated by a {@link JunctionTreeAlgorithm}. The beliefs are the average of the reduced beliefs,
+ * weighted with the probability of the assignment and the evidence. All assignments share one compiled junction tree,
+ * so only the probabilities are multiplied in and propagated per assignment. <br/>
+ * <br/>
+ * Unless a cutset is set explicitly, it is chosen greedily when the network is set: while the largest cluster of the
+ * reduced junction tree exceeds the maximal cluster size, the node that occurs in the most (and largest) of the
+ * oversized clusters is added to the cutset.<br/>
+ * <br/>
+ * If there are at most {@link #setMaxEnumeratedAssignments(long) maxEnumeratedAssignments} cutset assignments
+ * consistent with the evidence, all of them are enumerated, and the beliefs are exact. Otherwise, cutset assignments
+ * are drawn from the prior distribution and weighted with the probability of the evidence given the assignment
+ * (Rao-Blackwellised sampling). The evidence on cutset nodes is not used for sampling, so assignments that contradict
+ * it are drawn and discarded; in that case, observing fewer cutset nodes or setting a cutset without them is
+ * preferable.
+ */
+public class CutsetConditioning extends AbstractInferer {
+
+    private static final int UNOBSERVED = -1;
+
+    private long maxClusterSize = 1 << 16;
+    private long maxEnumeratedAssignments = 4096;
+    private int sampleCount = 200;
+    private final Random random = new Random();
+    private BayesNode[] fixedCutset;
+    private JunctionTreeBuilder junctionTreeBuilder = JunctionTreeBuilder.forHeuristic(new MinFillIn());
+    private final JunctionTreeAlgorithm inferer = new JunctionTreeAlgorithm();
+
+    private BayesNet net;
+    private int[] cutset;
+    private boolean[] isCutset;
+    private ReducedNetwork reduced;
+    private final CompiledSampler cutsetSampler = new CompiledSampler();
+    private boolean isExact;
+
+    @Override
+    public void setNetwork(BayesNet bn) {
+        super.setNetwork(bn);
+        this.net = bn;
+        isCutset = fixedCutset != null ? toMask(fixedCutset) : selectCutset();
+        cutset = toIds(isCutset);
+        reduced = new ReducedNetwork(bn, isCutset, new boolean[isCutset.length]);
+        inferer.setJunctionTreeBuilder(junctionTreeBuilder);
+        inferer.setCompileCache(new JunctionTreeCompileCache());
+        cutsetSampler.setNetwork(bn);
+    }
+
+    @Override
+    public void setFactorFactory(FactorFactory factory) {
+        super.setFactorFactory(factory);
+        inferer.setFactorFactory(factory);
+    }
+
+    private boolean[] toMask(BayesNode[] nodes) {
+        boolean[] mask = new boolean[beliefs.length];
+        for (BayesNode node : nodes) {
+            mask[node.getId()] = true;
+        }
+        return mask;
+    }
+
+    private static int[] toIds(boolean[] mask) {
+        int[] ids = new int[mask.length];
+        int count = 0;
+        for (int i = 0; i < mask.length; i++) {
+            if (mask[i]) {
+                ids[count++] = i;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private boolean[] selectCutset() {
+        boolean[] mask = new boolean[beliefs.length];
+        while (true) {
+            ReducedNetwork reduction = new ReducedNetwork(net, mask, new boolean[mask.length]);
+            BayesNet structure = reduction.getNetwork();
+            List<List<Integer>> clusters = junctionTreeBuilder.buildJunctionTree(structure).getClusters();
+            double[] scores = new double[mask.length];
+            int best = -1;
+            for (List<Integer> cluster : clusters) {
+                long size = computeClusterSize(structure, cluster);
+                if (size <= maxClusterSize) {
+                    continue;
+                }
+                for (int var : cluster) {
+                    // the likelihood nodes of cutset nodes have no counterpart and are no candidates
+                    BayesNode original = reduction.getOriginalNode(structure.getNode(var));
+                    if (original != null) {
+                        scores[original.getId()] += Math.log(size);
+                        if (best < 0 || scores[original.getId()] > scores[best]) {
+                            best = original.getId();
+                        }
+                    }
+                }
+            }
+            if (best < 0) {
+                return mask;
+            }
+            mask[best] = true;
+        }
+    }
+
+    private static long computeClusterSize(BayesNet net, List<Integer> cluster) {
+        long size = 1;
+        for (int var : cluster) {
+            size *= net.getNode(var).getOutcomeCount();
+        }
+        return size;
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        int[] observed = new int[beliefs.length];
+        Arrays.fill(observed, UNOBSERVED);
+        Map<BayesNode, String> reducedEvidence = new HashMap<BayesNode, String>();
+        for (Entry<BayesNode, String> e : evidence.entrySet()) {
+            int id = e.getKey().getId();
+            observed[id] = e.getKey().getOutcomeIndex(e.getValue());
+            if (!isCutset[id]) {
+                reducedEvidence.put(reduced.getReducedNode(id), e.getValue());
+            }
+        }
+
+        BeliefAccumulator accumulator = new BeliefAccumulator();
+        isExact = countAssignments(observed) <= maxEnumeratedAssignments;
+        if (isExact) {
+            enumerateAssignments(observed, reducedEvidence, accumulator);
+        } else {
+            sampleAssignments(observed, reducedEvidence, accumulator);
+        }
+        if (accumulator.isEmpty()) {
+            throw new NumericalInstabilityException("The evidence " + evidence
+                    + " has probability zero, or no sampled cutset assignment is consistent with it");
+        }
+        accumulator.normalizeInto(beliefs);
+    }
+
+    private long countAssignments(int[] observed) {
+        long count = 1;
+        for (int node : cutset) {
+            if (observed[node] == UNOBSERVED) {
+                count *= beliefs[node].length;
+                if (count > maxEnumeratedAssignments) {
+                    return count;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void enumerateAssignments(int[] observed, Map<BayesNode, String> reducedEvidence,
+            BeliefAccumulator accumulator) {
+        int[] assignment = new int[beliefs.length];
+        for (int node : cutset) {
+            assignment[node] = observed[node] == UNOBSERVED ? 0 : observed[node];
+        }
+        do {
+            double logScalar = reduced.setProbabilities(assignment);
+            if (logScalar != Double.NEGATIVE_INFINITY) {
+                inferer.setNetwork(reduced.getNetwork());
+                inferer.setEvidence(reducedEvidence);
+                accumulator.add(logScalar + inferer.getLogEvidenceProbability(), assignment);
+            }
+        } while (nextAssignment(assignment, observed));
+    }
+
+    private boolean nextAssignment(int[] assignment, int[] observed) {
+        for (int i = cutset.length - 1; i >= 0; i--) {
+            int node = cutset[i];
+            if (observed[node] != UNOBSERVED) {
+                continue;
+            }
+            assignment[node]++;
+            if (assignment[node] < beliefs[node].length) {
+                return true;
+            }
+            assignment[node] = 0;
+        }
+        return false;
+    }
+
+    private void sampleAssignments(int[] observed, Map<BayesNode, String> reducedEvidence,
+            BeliefAccumulator accumulator) {
+        Map<BayesNode, String> noEvidence = new HashMap<BayesNode, String>();
+        int[] sample = new int[beliefs.length];
+        for (int i = 0; i < sampleCount; i++) {
+            cutsetSampler.sample(sample, random);
+            if (!isConsistent(sample, observed)) {
+                continue;
+            }
+            reduced.setProbabilities(sample);
+            inferer.setNetwork(reduced.getNetwork());
+            // the weight is P(e | c) = P(c, e) / P(c). The factor of the cutset nodes without free parents cancels.
+            inferer.setEvidence(noEvidence);
+            double logPrior = inferer.getLogEvidenceProbability();
+            inferer.setEvidence(reducedEvidence);
+            accumulator.add(inferer.getLogEvidenceProbability() - logPrior, sample);
+        }
+    }
+
+    private boolean isConsistent(int[] sample, int[] observed) {
+        for (int node : cutset) {
+            if (observed[node] != UNOBSERVED && observed[node] != sample[node]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * sums the reduced beliefs weighted with the probabilities of the assignments. The weights are given as logarithms
+     * and rescaled to the largest weight seen so far, so that small probabilities do not underflow.
+     */
+    private class BeliefAccumulator {
+
+        private final double[][] sums = new double[beliefs.length][];
+        private double maxLogWeight = Double.NEGATIVE_INFINITY;
+
+        BeliefAccumulator() {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = new double[beliefs[i].length];
+            }
+        }
+
+        void add(double logWeight, int[] assignment) {
+            if (logWeight == Double.NEGATIVE_INFINITY || Double.isNaN(logWeight)) {
+                return;
+            }
+            if (logWeight > maxLogWeight) {
+                double scale = Math.exp(maxLogWeight - logWeight);
+                for (double[] sum : sums) {
+                    for (int i = 0; i < sum.length; i++) {
+                        sum[i] *= scale;
+                    }
+                }
+                maxLogWeight = logWeight;
+            }
+            double weight = Math.exp(logWeight - maxLogWeight);
+            for (int node = 0; node < sums.length; node++) {
+                if (isCutset[node]) {
+                    sums[node][assignment[node]] += weight;
+                } else {
+                    double[] reducedBeliefs = inferer.getBeliefs(reduced.getReducedNode(node));
+                    for (int i = 0; i < reducedBeliefs.length; i++) {
+                        sums[node][i] += weight * reducedBeliefs[i];
+                    }
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return maxLogWeight == Double.NEGATIVE_INFINITY;
+        }
+
+        void normalizeInto(double[][] beliefs) {
+            for (int node = 0; node < beliefs.length; node++) {
+                beliefs[node] = MathUtils.normalize(sums[node]);
+            }
+        }
+
+    }
+
+    /**
+     * @return the cutset that is conditioned on, either set explicitly or chosen when the network was set
+     */
+    public List<BayesNode> getCutset() {
+        List<BayesNode> nodes = new ArrayList<BayesNode>();
+        for (int node : cutset) {
+            nodes.add(net.getNode(node));
+        }
+        return nodes;
+    }
+
+    /**
+     * @param nodes
+     *            the cutset to condition on, which replaces the greedy choice. It takes effect on the next call to
+     *            {@link #setNetwork(BayesNet)}.
+     */
+    public void setCutset(BayesNode... nodes) {
+        this.fixedCutset = nodes.clone();
+    }
+
+    /**
+     * @return whether the last update of the beliefs enumerated all cutset assignments, rather than sampling them
+     */
+    public boolean isExact() {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        return isExact;
+    }
+
+    /**
+     * @param maxClusterSize
+     *            the maximal number of entries of a cluster of the reduced junction tree, used to choose the cutset
+     */
+    public void setMaxClusterSize(long maxClusterSize) {
+        this.maxClusterSize = maxClusterSize;
+    }
+
+    /**
+     * @param maxEnumeratedAssignments
+     *            the maximal number of cutset assignments consistent with the evidence for which exact inference is
+     *            done. If there are more assignments, they are sampled.
+     */
+    public void setMaxEnumeratedAssignments(long maxEnumeratedAssignments) {
+        this.maxEnumeratedAssignments = maxEnumeratedAssignments;
+    }
+
+    /**
+     * @param sampleCount
+     *            the number of cutset assignments drawn if they are not enumerated
+     */
+    public void setSampleCount(int sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    public void setJunctionTreeBuilder(JunctionTreeBuilder junctionTreeBuilder) {
+        this.junctionTreeBuilder = junctionTreeBuilder;
+    }
+
+    public void seed(long seed) {
+        random.setSeed(seed);
+    }
+
+}
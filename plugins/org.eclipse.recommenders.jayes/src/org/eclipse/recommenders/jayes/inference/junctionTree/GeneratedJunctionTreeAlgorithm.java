@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.inference.AbstractInferer;
+import org.eclipse.recommenders.jayes.util.Graph.Edge;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+
+/**
+ * The junction tree algorithm on code generated for the network (see {@link JunctionTreeCodeGenerator}). The network
+ * is compiled by a {@link JunctionTreeAlgorithm} once; its calibrated tables are copied into dense arrays, and the
+ * propagation and the queries run in the generated {@link JunctionTreeKernel}. For new evidence, the tables changed by
+ * the last propagation are reset, the entries contradicting the evidence are zeroed, and the evidence is collected into
+ * the first clique and distributed from there. Only the messages that carry evidence are passed. <br/>
+ * <br/>
+ * Generating the code adds to the compilation time, so this pays off for networks that answer many queries. The
+ * tables are in linear scale with double precision, independent of the
+ * {@link org.eclipse.recommenders.jayes.factor.FactorFactory FactorFactory}, so the evidence must not be so unlikely
+ * that the tables underflow.
+ */
+public class GeneratedJunctionTreeAlgorithm extends AbstractInferer {
+
+    private JunctionTreeBuilder junctionTreeBuilder = JunctionTreeBuilder.forHeuristic(new MinFillIn());
+    private JunctionTreeCodeGenerator generator = new JunctionTreeCodeGenerator();
+
+    private BayesNet net;
+    private JunctionTreeKernel kernel;
+    private double[][] initialCliques;
+    private double[][] initialSepSets;
+    private double[][] cliques;
+    private double[][] sepSets;
+    private double[][] scratch;
+    private List<int[]> messages;
+    private boolean[] isMessageNeeded;
+    // per clique, the number of cliques with evidence in the subtree below it
+    private int[] evidenceCounts;
+    private boolean[] isCliqueDirty;
+    private boolean[] isSepSetDirty;
+    // per variable, the cliques containing it and the variable's stride in them
+    private int[][] concernedClusters;
+    private int[][] strides;
+    private boolean[] isBeliefValid;
+    // outcome index per node, -1 for unobserved nodes
+    private int[] observed;
+
+    @Override
+    public void setNetwork(BayesNet bayesNet) {
+        super.setNetwork(bayesNet);
+        this.net = bayesNet;
+        JunctionTreeAlgorithm compiled = new JunctionTreeAlgorithm();
+        compiled.setFactorFactory(factory);
+        compiled.setJunctionTreeBuilder(junctionTreeBuilder);
+        compiled.setNetwork(bayesNet);
+        kernel = generator.generate(compiled);
+
+        initialCliques = new double[compiled.nodePotentials.length][];
+        cliques = new double[initialCliques.length][];
+        for (int i = 0; i < initialCliques.length; i++) {
+            initialCliques[i] = toDenseValues(compiled.nodePotentials[i], compiled.nodePotentials[i].isLogScale());
+            cliques[i] = new double[initialCliques[i].length];
+        }
+        List<Edge> sepSetEdges = JunctionTreeCodeGenerator.getSepSetEdges(compiled);
+        initialSepSets = new double[sepSetEdges.size()][];
+        sepSets = new double[initialSepSets.length][];
+        scratch = new double[initialSepSets.length][];
+        for (int i = 0; i < initialSepSets.length; i++) {
+            Edge edge = sepSetEdges.get(i);
+            // the sepsets are in log-scale only between log-scale cliques
+            boolean isLogScale = compiled.nodePotentials[edge.getFirst()].isLogScale()
+                    && compiled.nodePotentials[edge.getSecond()].isLogScale();
+            initialSepSets[i] = toDenseValues(compiled.sepSets.get(edge), isLogScale);
+            sepSets[i] = new double[initialSepSets[i].length];
+            scratch[i] = new double[initialSepSets[i].length];
+        }
+
+        messages = JunctionTreeCodeGenerator.getMessages(compiled);
+        isMessageNeeded = new boolean[messages.size()];
+        evidenceCounts = new int[cliques.length];
+        isCliqueDirty = new boolean[cliques.length];
+        Arrays.fill(isCliqueDirty, true);
+        isSepSetDirty = new boolean[sepSets.length];
+        Arrays.fill(isSepSetDirty, true);
+
+        concernedClusters = compiled.concernedClusters;
+        strides = new int[concernedClusters.length][];
+        for (int variable = 0; variable < strides.length; variable++) {
+            strides[variable] = new int[concernedClusters[variable].length];
+            for (int c = 0; c < strides[variable].length; c++) {
+                strides[variable][c] = getStride(compiled.nodePotentials[concernedClusters[variable][c]], variable);
+            }
+        }
+        isBeliefValid = new boolean[beliefs.length];
+        observed = new int[beliefs.length];
+        beliefsValid = false;
+    }
+
+    private static double[] toDenseValues(AbstractFactor factor, boolean isLogScale) {
+        double[] values = new double[MathUtils.product(factor.getDimensions())];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = factor.getValue(i);
+        }
+        if (isLogScale) {
+            MathUtils.exp(values);
+        }
+        return values;
+    }
+
+    private static int getStride(AbstractFactor factor, int variable) {
+        int[] ids = factor.getDimensionIDs();
+        int stride = 1;
+        for (int i = ids.length - 1; ids[i] != variable; i--) {
+            stride *= factor.getDimensions()[i];
+        }
+        return stride;
+    }
+
+    @Override
+    public double[] getBeliefs(BayesNode node) {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        int nodeId = node.getId();
+        if (!isBeliefValid[nodeId]) {
+            isBeliefValid[nodeId] = true;
+            double[] belief = beliefs[nodeId];
+            Arrays.fill(belief, 0);
+            if (observed[nodeId] != -1) {
+                belief[observed[nodeId]] = 1;
+            } else {
+                kernel.query(nodeId, cliques, belief);
+                try {
+                    MathUtils.normalize(belief);
+                } catch (IllegalArgumentException exception) {
+                    throw new NumericalInstabilityException("Numerical instability detected for evidence: "
+                            + evidence + " and node : " + nodeId, exception);
+                }
+            }
+        }
+        return beliefs[nodeId];
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        Arrays.fill(isBeliefValid, false);
+        fillObservedOutcomes(net, observed);
+        resetTables();
+        Arrays.fill(evidenceCounts, 0);
+        for (int variable = 0; variable < observed.length; variable++) {
+            if (observed[variable] != -1) {
+                zeroContradictingEntries(variable, observed[variable]);
+            }
+        }
+        computeNeededMessages();
+        kernel.propagate(cliques, sepSets, scratch, isMessageNeeded);
+    }
+
+    private void resetTables() {
+        for (int i = 0; i < cliques.length; i++) {
+            if (isCliqueDirty[i]) {
+                isCliqueDirty[i] = false;
+                System.arraycopy(initialCliques[i], 0, cliques[i], 0, cliques[i].length);
+            }
+        }
+        for (int i = 0; i < sepSets.length; i++) {
+            if (isSepSetDirty[i]) {
+                isSepSetDirty[i] = false;
+                System.arraycopy(initialSepSets[i], 0, sepSets[i], 0, sepSets[i].length);
+            }
+        }
+    }
+
+    /**
+     * A collection message is needed if there is evidence below its sender, a distribution message if there is evidence
+     * outside the subtree of its receiver. The tables the needed messages change are marked for the next reset.
+     */
+    private void computeNeededMessages() {
+        int collectionCount = messages.size() / 2;
+        for (int m = 0; m < collectionCount; m++) {
+            int[] message = messages.get(m);
+            isMessageNeeded[m] = evidenceCounts[message[0]] > 0;
+            evidenceCounts[message[2]] += evidenceCounts[message[0]];
+        }
+        for (int m = collectionCount; m < messages.size(); m++) {
+            int[] message = messages.get(m);
+            isMessageNeeded[m] = evidenceCounts[0] - evidenceCounts[message[2]] > 0;
+        }
+        for (int m = 0; m < messages.size(); m++) {
+            if (isMessageNeeded[m]) {
+                int[] message = messages.get(m);
+                isSepSetDirty[message[1]] = true;
+                isCliqueDirty[message[2]] = true;
+            }
+        }
+    }
+
+    private void zeroContradictingEntries(int variable, int outcome) {
+        int size = net.getNode(variable).getOutcomeCount();
+        for (int c = 0; c < concernedClusters[variable].length; c++) {
+            int cluster = concernedClusters[variable][c];
+            if (evidenceCounts[cluster] == 0) {
+                evidenceCounts[cluster] = 1;
+                isCliqueDirty[cluster] = true;
+            }
+            double[] clique = cliques[cluster];
+            int stride = strides[variable][c];
+            for (int block = 0; block < clique.length; block += stride * size) {
+                Arrays.fill(clique, block, block + outcome * stride, 0);
+                Arrays.fill(clique, block + (outcome + 1) * stride, block + size * stride, 0);
+            }
+        }
+    }
+
+    public void setJunctionTreeBuilder(JunctionTreeBuilder junctionTreeBuilder) {
+        this.junctionTreeBuilder = junctionTreeBuilder;
+    }
+
+    public void setCodeGenerator(JunctionTreeCodeGenerator generator) {
+        this.generator = generator;
+    }
+
+}
@@ -8,6 +8,7 @@ package org.eclipse.recommenders.jayes.inference.junctionTree;
 
 import static org.eclipse.recommenders.jayes.util.Pair.newPair;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -19,11 +20,15 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.eclipse.recommenders.internal.jayes.util.ArrayUtils;
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
 import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.factor.SparseFactor;
 import org.eclipse.recommenders.jayes.factor.arraywrapper.DoubleArrayWrapper;
 import org.eclipse.recommenders.jayes.factor.arraywrapper.IArrayWrapper;
 import org.eclipse.recommenders.jayes.inference.AbstractInferer;
@@ -60,13 +65,38 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
     protected boolean[] isObserved;
 
     protected double[] scratchpad;
+    // prepared operation that sums every entry of a cluster into a single value, sized for the largest cluster
+    private int[] totalSumPositions;
+
+    protected int[] homeClusters;
 
     protected JunctionTreeBuilder junctionTreeBuilder = JunctionTreeBuilder.forHeuristic(new MinFillIn());
 
+    protected ExecutorService compilationExecutor;
+
+    protected JunctionTreeCompileCache compileCache;
+
     public void setJunctionTreeBuilder(JunctionTreeBuilder bldr) {
         this.junctionTreeBuilder = bldr;
     }
 
+    /**
+     * sets an executor that is used during {@link #setNetwork(BayesNet)} to create, sparsify and prepare the clique
+     * factors in parallel. If no executor is set (the default), everything is computed in the calling thread.
+     */
+    public void setCompilationExecutor(ExecutorService executor) {
+        this.compilationExecutor = executor;
+    }
+
+    /**
+     * sets a cache for the structural part of the compilation. If a network with the same structure as the one given
+     * to {@link #setNetwork(BayesNet)} has already been compiled using this cache, the junction tree, factor layouts
+     * and prepared operations are reused, and only the probabilities are multiplied in and propagated.
+     */
+    public void setCompileCache(JunctionTreeCompileCache cache) {
+        this.compileCache = cache;
+    }
+
     @Override
     public double[] getBeliefs(final BayesNode node) {
         if (!beliefsValid) {
@@ -147,6 +177,77 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
         }
     }
 
+    /**
+     * @return the probability of the evidence, or more generally the total mass of the product of the CPTs that is
+     *         consistent with the evidence
+     */
+    public double getEvidenceProbability() {
+        return Math.exp(getLogEvidenceProbability());
+    }
+
+    /**
+     * @return the natural logarithm of {@link #getEvidenceProbability()}, which is computed without underflow if the
+     *         factors are in log-scale
+     */
+    public double getLogEvidenceProbability() {
+        final int root = propagateEvidence();
+        final int[] observedOutcomes = new int[isObserved.length];
+        for (final Entry<BayesNode, String> e : evidence.entrySet()) {
+            observedOutcomes[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+        double logProbability = computeLogSum(nodePotentials[root]);
+        // messages over fully observed sepsets are skipped, which separates the tree into independently calibrated
+        // parts. Given the sepset's observed values, the parts' evidence is independent.
+        final Set<Integer> visited = new HashSet<Integer>();
+        final ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(root);
+        visited.add(root);
+        while (!stack.isEmpty()) {
+            final int cluster = stack.pop();
+            for (final Edge e : junctionTree.getIncidentEdges(cluster)) {
+                if (visited.add(e.getSecond())) {
+                    final AbstractFactor sepSet = sepSets.get(e);
+                    if (!needMessagePass(sepSet)) {
+                        logProbability += computeLogSum(nodePotentials[e.getSecond()])
+                                - computeLogObservedValue(sepSet, observedOutcomes);
+                    }
+                    stack.push(e.getSecond());
+                }
+            }
+        }
+        return logProbability;
+    }
+
+    private double computeLogSum(final AbstractFactor factor) {
+        final double[] sum = new double[1];
+        // the stored values of a factor are never more than its dense size
+        factor.sumPrepared(new DoubleArrayWrapper(sum), totalSumPositions);
+        return factor.isLogScale() ? sum[0] : Math.log(sum[0]);
+    }
+
+    private static double computeLogObservedValue(final AbstractFactor sepSet, final int[] observedOutcomes) {
+        int index = 0;
+        for (int i = 0; i < sepSet.getDimensionIDs().length; i++) {
+            index = index * sepSet.getDimensions()[i] + observedOutcomes[sepSet.getDimensionIDs()[i]];
+        }
+        final double value = sepSet.getValue(index);
+        return sepSet.isLogScale() ? value : Math.log(value);
+    }
+
+    /**
+     * propagates the evidence, if that did not happen yet
+     *
+     * @return the cluster that collected the evidence. Relative to it, the potential of every cluster is proportional
+     *         to the joint distribution of its variables and the evidence in its subtree.
+     */
+    int propagateEvidence() {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        return findPropagationRoot();
+    }
+
     private int findPropagationRoot() {
         int propagationRoot = 0;
         for (BayesNode n : evidence.keySet()) {
@@ -255,7 +356,7 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
             return;
         }
 
-        final IArrayWrapper newSepValues = sepSet.getValues();
+        final IArrayWrapper newSepValues = sepSet.getMutableValues();
         System.arraycopy(newSepValues.toDoubleArray(), 0, scratchpad, 0, newSepValues.length());
 
         final int[] preparedOp = preparedMultiplications.get(sepSetEdge.getBackEdge());
@@ -304,19 +405,68 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
     public void setNetwork(final BayesNet net) {
         super.setNetwork(net);
         initializeFields(net.getNodes().size());
+        if (!adoptCachedStructure(net)) {
+            compileStructure(net);
+        }
+        initializePotentialValues();
+        multiplyCPTsIntoPotentials(findMultiplicationPartners(net, homeClusters));
+        prepareScratch();
+        invokeInitialBeliefUpdate();
+        storePotentialValues();
+
+    }
+
+    private void compileStructure(final BayesNet net) {
         JunctionTree jtree = buildJunctionTree(net);
-        int[] homeClusters = computeHomeClusters(net, jtree.getClusters());
-        initializeClusterFactors(net, jtree.getClusters(), homeClusters);
+        homeClusters = computeHomeClusters(net, jtree.getClusters());
+        initializeClusterFactors(jtree.getClusters(), findMultiplicationPartners(net, homeClusters));
         initializeSepsetFactors(jtree.getSepSets());
         determineConcernedClusters();
         setQueryFactors();
-        initializePotentialValues();
-        multiplyCPTsIntoPotentials(net, homeClusters);
         prepareMultiplications();
-        prepareScratch();
-        invokeInitialBeliefUpdate();
-        storePotentialValues();
+        if (compileCache != null) {
+            compileCache.put(StructureFingerprint.of(net), new CompiledStructure(this));
+        }
+    }
+
+    private boolean adoptCachedStructure(final BayesNet net) {
+        if (compileCache == null) {
+            return false;
+        }
+        final CompiledStructure structure = compileCache.get(StructureFingerprint.of(net));
+        if (structure == null || !isSparsityCompatible(structure, net)) {
+            return false;
+        }
+        junctionTree = structure.junctionTree;
+        homeClusters = structure.homeClusters;
+        concernedClusters = structure.concernedClusters;
+        queryFactorReverseMapping = structure.queryFactorReverseMapping;
+        preparedQueries = structure.preparedQueries;
+        preparedMultiplications = structure.preparedMultiplications;
+        nodePotentials = structure.createCliqueFactors();
+        sepSets = structure.createSepSetFactors();
+        for (int i = 0; i < queryFactors.length; i++) {
+            queryFactors[i] = nodePotentials[structure.queryClusters[i]];
+        }
+        return true;
+    }
 
+    /*
+     * the zeros of the cached sparse factors only fit networks that have at least those zeros in their CPTs
+     */
+    private boolean isSparsityCompatible(final CompiledStructure structure, final BayesNet net) {
+        final Map<Integer, List<AbstractFactor>> multiplicationPartners = findMultiplicationPartners(net,
+                structure.homeClusters);
+        for (final Entry<Integer, List<AbstractFactor>> partners : multiplicationPartners.entrySet()) {
+            final AbstractFactor template = structure.getCliqueTemplate(partners.getKey());
+            // templates are shared, so only use copies of them
+            if (template instanceof SparseFactor
+                    && !((SparseFactor) template.clone()).isSparsityCompatible(partners.getValue().toArray(
+                            new AbstractFactor[0]))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @SuppressWarnings("unchecked")
@@ -359,7 +509,7 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
         return jtree;
     }
 
-    private int[] computeHomeClusters(BayesNet net, final List<List<Integer>> clusters) {
+    static int[] computeHomeClusters(BayesNet net, final List<List<Integer>> clusters) {
         int[] homeClusters = new int[net.getNodes().size()];
         for (final BayesNode node : net.getNodes()) {
             final List<Integer> nodeAndParents = getNodeAndParentIds(node);
@@ -373,7 +523,7 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
         return homeClusters;
     }
 
-    private List<Integer> getNodeAndParentIds(final BayesNode n) {
+    private static List<Integer> getNodeAndParentIds(final BayesNode n) {
         final List<Integer> nodeAndParents = new ArrayList<Integer>(n.getParents().size() + 1);
         nodeAndParents.add(n.getId());
         for (final BayesNode p : n.getParents()) {
@@ -382,18 +532,30 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
         return nodeAndParents;
     }
 
-    private void initializeClusterFactors(BayesNet net, final List<List<Integer>> clusters, int[] homeClusters) {
+    private void initializeClusterFactors(final List<List<Integer>> clusters,
+            final Map<Integer, List<AbstractFactor>> multiplicationPartners) {
         nodePotentials = new AbstractFactor[clusters.size()];
-        Map<Integer, List<AbstractFactor>> multiplicationPartners = findMultiplicationPartners(net, homeClusters);
-        for (final ListIterator<List<Integer>> cliqueIt = clusters.listIterator(); cliqueIt.hasNext();) {
-            final List<Integer> cluster = cliqueIt.next();
-            int current = cliqueIt.nextIndex() - 1;
-            List<AbstractFactor> multiplicationPartnerList = multiplicationPartners.get(current);
-            final AbstractFactor cliqueFactor = factory.create(cluster,
-                    multiplicationPartnerList == null ? Collections.<AbstractFactor>emptyList()
-                            : multiplicationPartnerList);
-            nodePotentials[current] = cliqueFactor;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(clusters.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            final int current = i;
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    nodePotentials[current] = factory.create(clusters.get(current),
+                            getMultiplicationPartners(multiplicationPartners, current));
+                    return null;
+                }
+
+            });
         }
+        ParallelTasks.invokeAll(compilationExecutor, tasks);
+    }
+
+    private List<AbstractFactor> getMultiplicationPartners(Map<Integer, List<AbstractFactor>> multiplicationPartners,
+            int cluster) {
+        List<AbstractFactor> multiplicationPartnerList = multiplicationPartners.get(cluster);
+        return multiplicationPartnerList == null ? Collections.<AbstractFactor>emptyList() : multiplicationPartnerList;
     }
 
     private Map<Integer, List<AbstractFactor>> findMultiplicationPartners(BayesNet net, int[] homeClusters) {
@@ -418,7 +580,7 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
         for (int i = 0; i < queryFactors.length; i++) {
             for (final Integer f : concernedClusters[i]) {
                 final boolean isFirstOrSmallerTable = queryFactors[i] == null
-                        || queryFactors[i].getValues().length() > nodePotentials[f].getValues().length();
+                        || queryFactors[i].getValueCount() > nodePotentials[f].getValueCount();
                 if (isFirstOrSmallerTable) {
                     queryFactors[i] = nodePotentials[f];
                 }
@@ -440,22 +602,41 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
     private void prepareMultiplications() {
         // compress by combining equal prepared statements, thus saving memory
         final CanonicalIntArrayManager flyWeight = new CanonicalIntArrayManager();
-        prepareSepsetMultiplications(flyWeight);
-        prepareQueries(flyWeight);
-    }
+        // all preparations that access the same clique factor are done by the same task,
+        // because factors are not safe for concurrent use
+        List<Callable<List<Pair<Edge, int[]>>>> tasks = new ArrayList<Callable<List<Pair<Edge, int[]>>>>();
+        for (int i = 0; i < nodePotentials.length; i++) {
+            final int cluster = i;
+            tasks.add(new Callable<List<Pair<Edge, int[]>>>() {
 
-    private void prepareSepsetMultiplications(final CanonicalIntArrayManager flyWeight) {
-        for (int node = 0; node < nodePotentials.length; node++) {
-            for (final Edge e : junctionTree.getIncidentEdges(node)) {
-                final int[] preparedMultiplication = nodePotentials[e.getSecond()]
-                        .prepareMultiplication(sepSets.get(e));
-                preparedMultiplications.put(e, flyWeight.getInstance(preparedMultiplication));
+                @Override
+                public List<Pair<Edge, int[]>> call() {
+                    prepareQueries(cluster, flyWeight);
+                    return prepareSepsetMultiplications(cluster, flyWeight);
+                }
+
+            });
+        }
+        for (List<Pair<Edge, int[]>> prepared : ParallelTasks.invokeAll(compilationExecutor, tasks)) {
+            for (Pair<Edge, int[]> p : prepared) {
+                preparedMultiplications.put(p.getFirst(), p.getSecond());
             }
         }
     }
 
-    private void prepareQueries(final CanonicalIntArrayManager flyWeight) {
-        for (int i = 0; i < queryFactors.length; i++) {
+    private List<Pair<Edge, int[]>> prepareSepsetMultiplications(final int cluster,
+            final CanonicalIntArrayManager flyWeight) {
+        List<Pair<Edge, int[]>> prepared = new ArrayList<Pair<Edge, int[]>>();
+        for (final Edge e : junctionTree.getIncidentEdges(cluster)) {
+            final Edge incoming = e.getBackEdge();
+            final int[] preparedMultiplication = nodePotentials[cluster].prepareMultiplication(sepSets.get(incoming));
+            prepared.add(newPair(incoming, flyWeight.getInstance(preparedMultiplication)));
+        }
+        return prepared;
+    }
+
+    private void prepareQueries(final int cluster, final CanonicalIntArrayManager flyWeight) {
+        for (final int i : queryFactorReverseMapping[cluster]) {
             final AbstractFactor beliefFactor = factory.create(Arrays.asList(i),
                     Collections.<AbstractFactor>emptyList());
             final int[] preparedQuery = queryFactors[i].prepareMultiplication(beliefFactor);
@@ -466,9 +647,14 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
     private void prepareScratch() {
         int maxSize = 0;
         for (AbstractFactor sepSet : sepSets.values()) {
-            maxSize = Math.max(maxSize, sepSet.getValues().length());
+            maxSize = Math.max(maxSize, sepSet.getValueCount());
         }
         scratchpad = new double[maxSize];
+        int maxClusterSize = 0;
+        for (AbstractFactor potential : nodePotentials) {
+            maxClusterSize = Math.max(maxClusterSize, MathUtils.product(potential.getDimensions()));
+        }
+        totalSumPositions = new int[maxClusterSize];
 
     }
 
@@ -496,15 +682,27 @@ public class JunctionTreeAlgorithm extends AbstractInferer {
         }
     }
 
-    private void multiplyCPTsIntoPotentials(BayesNet net, int[] homeClusters) {
-        for (final BayesNode node : net.getNodes()) {
-            final AbstractFactor nodeHome = nodePotentials[homeClusters[node.getId()]];
-            if (nodeHome.isLogScale()) {
-                nodeHome.multiplyCompatibleToLog(node.getFactor());
-            } else {
-                nodeHome.multiplyCompatible(node.getFactor());
-            }
+    private void multiplyCPTsIntoPotentials(final Map<Integer, List<AbstractFactor>> multiplicationPartners) {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(multiplicationPartners.size());
+        for (final Entry<Integer, List<AbstractFactor>> partners : multiplicationPartners.entrySet()) {
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    final AbstractFactor nodeHome = nodePotentials[partners.getKey()];
+                    for (final AbstractFactor cpt : partners.getValue()) {
+                        if (nodeHome.isLogScale()) {
+                            nodeHome.multiplyCompatibleToLog(cpt);
+                        } else {
+                            nodeHome.multiplyCompatible(cpt);
+                        }
+                    }
+                    return null;
+                }
+
+            });
         }
+        ParallelTasks.invokeAll(compilationExecutor, tasks);
     }
 
     private boolean areBothEndsLogScale(final Edge edge) {
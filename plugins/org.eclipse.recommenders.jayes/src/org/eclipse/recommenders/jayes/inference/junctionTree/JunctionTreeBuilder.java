@@ -31,6 +31,7 @@ import org.eclipse.recommenders.jayes.util.triangulation.IEliminationHeuristic;
 
 public class JunctionTreeBuilder {
     private IEliminationHeuristic heuristic;
+    private CliqueConsolidation consolidation;
 
     public static JunctionTreeBuilder forHeuristic(IEliminationHeuristic heuristic) {
         return new JunctionTreeBuilder(heuristic);
@@ -40,14 +41,33 @@ public class JunctionTreeBuilder {
         this.heuristic = heuristic;
     }
 
+    /**
+     * @param consolidation
+     *            merges small cliques of the built junction trees, or <code>null</code> to leave the cliques as they
+     *            result from the triangulation (the default)
+     */
+    public void setCliqueConsolidation(CliqueConsolidation consolidation) {
+        this.consolidation = consolidation;
+    }
+
     public JunctionTree buildJunctionTree(BayesNet net) {
         JunctionTree junctionTree = new JunctionTree(new Graph());
         junctionTree.setClusters(triangulateGraphAndFindCliques(buildMoralGraph(net), weightNodesByOutcomes(net),
                 heuristic));
         junctionTree.setSepSets(computeSepsets(junctionTree, net));
+        if (consolidation != null) {
+            return consolidation.consolidate(junctionTree, net);
+        }
         return junctionTree;
     }
 
+    /**
+     * builds the junction tree, but none of its factors, to predict the cost of compiling the network
+     */
+    public CompileCostEstimate estimateCost(BayesNet net) {
+        return new CompileCostEstimate(buildJunctionTree(net), net);
+    }
+
     private Graph buildMoralGraph(BayesNet net) {
         Graph moral = new Graph();
         moral.initialize(net.getNodes().size());
@@ -165,14 +185,15 @@ public class JunctionTreeBuilder {
             if (compareNumberOfVariables != 0) {
                 return -compareNumberOfVariables;
             }
-            final int tableSize1 = getTableSize(sepSet1.getSecond());
-            final int tableSize2 = getTableSize(sepSet2.getSecond());
-            return compare(tableSize1, tableSize2);
+            final double tableSize1 = getTableSize(sepSet1.getSecond());
+            final double tableSize2 = getTableSize(sepSet2.getSecond());
+            return Double.compare(tableSize1, tableSize2);
 
         }
 
-        private int getTableSize(final List<Integer> cluster) {
-            int tableSize = 1;
+        // as double, so that the order stays correct for tables beyond the range of int and long
+        private double getTableSize(final List<Integer> cluster) {
+            double tableSize = 1;
             for (final int id : cluster) {
                 tableSize *= net.getNode(id).getOutcomeCount();
             }
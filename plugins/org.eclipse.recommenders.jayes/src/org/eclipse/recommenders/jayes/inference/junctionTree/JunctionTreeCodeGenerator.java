@@ -0,0 +1,495 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.inference.junctionTree.ClassFileWriter.Label;
+import org.eclipse.recommenders.jayes.inference.junctionTree.ClassFileWriter.MethodWriter;
+import org.eclipse.recommenders.jayes.util.Graph.Edge;
+
+/**
+ * Generates a {@link JunctionTreeKernel} for the junction tree of a compiled {@link JunctionTreeAlgorithm}. The class
+ * is written as bytecode and loaded by its own class loader, no compiler or library is needed. <br/>
+ * <br/>
+ * Every message pass and every query gets its own method, in which the loops over the tables are nested like the
+ * dimensions of the clique, with the sepset strides as constants. Dimensions that are contiguous in both tables are
+ * merged into one loop, and innermost loops of up to {@link #setMaxUnrolledDimension(int) 32} entries are unrolled, so
+ * the code contains neither prepared index arrays nor factor or array wrapper calls. Only the structure is fixed:
+ * the same kernel works for any probabilities and evidence.
+ */
+public class JunctionTreeCodeGenerator {
+
+    private static final String PACKAGE = "org/eclipse/recommenders/jayes/inference/junctionTree/generated/";
+    private static final String KERNEL = JunctionTreeKernel.class.getName().replace('.', '/');
+    private static final String MATH_UTILS = "org/eclipse/recommenders/jayes/util/MathUtils";
+    private static final String TABLE = "[D";
+    private static final String TABLES = "[[D";
+
+    // bounds of the methods that dispatch to the message and query methods, far below the maximal method size
+    private static final int MESSAGES_PER_METHOD = 256;
+    private static final int QUERY_SWITCH_BITS = 8;
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private int maxUnrolledDimension = 32;
+
+    /**
+     * @return the sepset factors of the algorithm, in the order the kernel expects them
+     */
+    public static List<AbstractFactor> getSepSetFactors(JunctionTreeAlgorithm algorithm) {
+        List<AbstractFactor> factors = new ArrayList<AbstractFactor>();
+        for (Edge edge : getSepSetEdges(algorithm)) {
+            factors.add(algorithm.sepSets.get(edge));
+        }
+        return factors;
+    }
+
+    static List<Edge> getSepSetEdges(JunctionTreeAlgorithm algorithm) {
+        List<Edge> edges = new ArrayList<Edge>();
+        for (int cluster = 0; cluster < algorithm.nodePotentials.length; cluster++) {
+            for (Edge edge : algorithm.junctionTree.getIncidentEdges(cluster)) {
+                if (edge.getFirst() < edge.getSecond()) {
+                    edges.add(edge);
+                }
+            }
+        }
+        Collections.sort(edges, new Comparator<Edge>() {
+
+            @Override
+            public int compare(Edge e1, Edge e2) {
+                if (!e1.getFirst().equals(e2.getFirst())) {
+                    return e1.getFirst() < e2.getFirst() ? -1 : 1;
+                }
+                return e1.getSecond() < e2.getSecond() ? -1 : e1.getSecond().equals(e2.getSecond()) ? 0 : 1;
+            }
+
+        });
+        return edges;
+    }
+
+    public JunctionTreeKernel generate(JunctionTreeAlgorithm algorithm) {
+        String className = PACKAGE + "JunctionTreeKernel" + classCount.incrementAndGet();
+        ClassFileWriter writer = new ClassFileWriter(className, "java/lang/Object", KERNEL);
+        writer.addDefaultConstructor("java/lang/Object");
+
+        List<int[]> messages = getMessages(algorithm);
+        List<AbstractFactor> sepSets = getSepSetFactors(algorithm);
+        for (int m = 0; m < messages.size(); m++) {
+            int[] message = messages.get(m);
+            writeMessage(writer, "message" + m, algorithm.nodePotentials[message[0]], sepSets.get(message[1]),
+                    algorithm.nodePotentials[message[2]]);
+        }
+        writePropagation(writer, className, messages);
+
+        int[] queryClusters = computeQueryClusters(algorithm);
+        for (int variable = 0; variable < queryClusters.length; variable++) {
+            if (queryClusters[variable] != -1) {
+                writeQuery(writer, "query" + variable, algorithm.nodePotentials[queryClusters[variable]], variable);
+            }
+        }
+        writeQueryDispatch(writer, className, queryClusters);
+
+        byte[] bytes = writer.toByteArray();
+        try {
+            Class<?> kernelClass = new KernelClassLoader(JunctionTreeKernel.class.getClassLoader()).define(
+                    className.replace('/', '.'), bytes);
+            return (JunctionTreeKernel) kernelClass.getConstructor().newInstance();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the messages of a propagation in the order the kernel passes them, as triples of the sending clique, the
+     *         sepset and the receiving clique: first the messages that collect the evidence into the first clique,
+     *         from the leaves upwards, then the messages that distribute it, from the first clique downwards
+     */
+    public static List<int[]> getMessages(JunctionTreeAlgorithm algorithm) {
+        Map<Edge, Integer> sepSetEdges = new IdentityHashMap<Edge, Integer>();
+        List<Edge> edges = getSepSetEdges(algorithm);
+        for (int i = 0; i < edges.size(); i++) {
+            sepSetEdges.put(edges.get(i), i);
+            sepSetEdges.put(edges.get(i).getBackEdge(), i);
+        }
+        List<int[]> collection = new ArrayList<int[]>();
+        List<int[]> distribution = new ArrayList<int[]>();
+        if (algorithm.nodePotentials.length > 0) {
+            addMessages(algorithm, sepSetEdges, 0, new HashSet<Integer>(), collection, distribution);
+        }
+        collection.addAll(distribution);
+        return collection;
+    }
+
+    private static void addMessages(JunctionTreeAlgorithm algorithm, Map<Edge, Integer> sepSetEdges, int cluster,
+            Set<Integer> visited, List<int[]> collection, List<int[]> distribution) {
+        visited.add(cluster);
+        for (Edge edge : algorithm.junctionTree.getIncidentEdges(cluster)) {
+            int child = edge.getSecond();
+            if (!visited.contains(child)) {
+                int sepSet = sepSetEdges.get(edge);
+                distribution.add(new int[] { cluster, sepSet, child });
+                addMessages(algorithm, sepSetEdges, child, visited, collection, distribution);
+                collection.add(new int[] { child, sepSet, cluster });
+            }
+        }
+    }
+
+    private static int[] computeQueryClusters(JunctionTreeAlgorithm algorithm) {
+        int[] queryClusters = new int[algorithm.queryFactors.length];
+        for (int variable = 0; variable < queryClusters.length; variable++) {
+            queryClusters[variable] = -1;
+            for (int cluster = 0; cluster < algorithm.nodePotentials.length; cluster++) {
+                if (algorithm.nodePotentials[cluster] == algorithm.queryFactors[variable]) {
+                    queryClusters[variable] = cluster;
+                }
+            }
+        }
+        return queryClusters;
+    }
+
+    /**
+     * sums the sending clique into the sepset, divides the new sepset values by the old ones and multiplies the
+     * quotient into the receiving clique
+     */
+    private void writeMessage(ClassFileWriter writer, String name, AbstractFactor from, AbstractFactor sepSet,
+            AbstractFactor to) {
+        int sepSetLength = product(sepSet.getDimensions());
+        // parameters: from, sepset, scratch, to
+        MethodWriter method = writer.addMethod(ClassFileWriter.ACC_STATIC, name, "(" + TABLE + TABLE + TABLE + TABLE
+                + ")V", 4);
+
+        // scratch = old sepset values, sepset = 0
+        method.load(ClassFileWriter.ALOAD, 1);
+        method.pushInt(0);
+        method.load(ClassFileWriter.ALOAD, 2);
+        method.pushInt(0);
+        method.pushInt(sepSetLength);
+        method.invokeStatic("java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V");
+        method.load(ClassFileWriter.ALOAD, 1);
+        method.op(ClassFileWriter.DCONST_0);
+        method.invokeStatic("java/util/Arrays", "fill", "(" + TABLE + "D)V");
+
+        writeTableLoop(method, 0, from.getDimensions(), 1, getStrides(from, sepSet), true);
+
+        // scratch = new / old
+        method.load(ClassFileWriter.ALOAD, 1);
+        method.load(ClassFileWriter.ALOAD, 2);
+        method.load(ClassFileWriter.ALOAD, 2);
+        method.invokeStatic(MATH_UTILS, "secureDivide", "(" + TABLE + TABLE + TABLE + ")V");
+
+        writeTableLoop(method, 3, to.getDimensions(), 2, getStrides(to, sepSet), false);
+        method.op(ClassFileWriter.RETURN);
+    }
+
+    private void writePropagation(ClassFileWriter writer, String className, List<int[]> messages) {
+        String descriptor = "(" + TABLES + TABLES + TABLES + "[Z)V";
+        int chunkCount = (messages.size() + MESSAGES_PER_METHOD - 1) / MESSAGES_PER_METHOD;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            // parameters: cliques, sepsets, scratch, isNeeded
+            MethodWriter method = writer.addMethod(ClassFileWriter.ACC_STATIC, "propagate" + chunk, descriptor, 4);
+            int end = Math.min(messages.size(), (chunk + 1) * MESSAGES_PER_METHOD);
+            for (int m = chunk * MESSAGES_PER_METHOD; m < end; m++) {
+                int[] message = messages.get(m);
+                Label skip = new Label();
+                method.load(ClassFileWriter.ALOAD, 3);
+                method.pushInt(m);
+                method.op(ClassFileWriter.BALOAD);
+                method.jump(ClassFileWriter.IFEQ, skip);
+                loadElement(method, 0, message[0]);
+                loadElement(method, 1, message[1]);
+                loadElement(method, 2, message[1]);
+                loadElement(method, 0, message[2]);
+                method.invokeStatic(className, "message" + m, "(" + TABLE + TABLE + TABLE + TABLE + ")V");
+                method.mark(skip);
+            }
+            method.op(ClassFileWriter.RETURN);
+        }
+
+        MethodWriter propagate = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "propagate", descriptor, 5);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            propagate.load(ClassFileWriter.ALOAD, 1);
+            propagate.load(ClassFileWriter.ALOAD, 2);
+            propagate.load(ClassFileWriter.ALOAD, 3);
+            propagate.load(ClassFileWriter.ALOAD, 4);
+            propagate.invokeStatic(className, "propagate" + chunk, descriptor);
+        }
+        propagate.op(ClassFileWriter.RETURN);
+    }
+
+    private void writeQuery(ClassFileWriter writer, String name, AbstractFactor clique, int variable) {
+        // parameters: clique, belief
+        MethodWriter method = writer.addMethod(ClassFileWriter.ACC_STATIC, name, "(" + TABLE + TABLE + ")V", 2);
+        int[] ids = clique.getDimensionIDs();
+        int[] strides = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            strides[i] = ids[i] == variable ? 1 : 0;
+        }
+        writeTableLoop(method, 0, clique.getDimensions(), 1, strides, true);
+        method.op(ClassFileWriter.RETURN);
+    }
+
+    /**
+     * switches on the variable, first over blocks of variables and then within the block, so that no switch exceeds
+     * the maximal method size
+     */
+    private void writeQueryDispatch(ClassFileWriter writer, String className, int[] queryClusters) {
+        String descriptor = "(I" + TABLES + TABLE + ")V";
+        int blockSize = 1 << QUERY_SWITCH_BITS;
+        int blockCount = (queryClusters.length + blockSize - 1) / blockSize;
+        for (int block = 0; block < blockCount; block++) {
+            // parameters: variable, cliques, belief
+            MethodWriter method = writer.addMethod(ClassFileWriter.ACC_STATIC, "query" + block + "x", descriptor, 3);
+            int low = block * blockSize;
+            int high = Math.min(queryClusters.length, low + blockSize);
+            Label end = new Label();
+            Label[] cases = new Label[high - low];
+            for (int i = 0; i < cases.length; i++) {
+                cases[i] = queryClusters[low + i] == -1 ? end : new Label();
+            }
+            method.load(ClassFileWriter.ILOAD, 0);
+            method.tableSwitch(low, end, cases);
+            for (int variable = low; variable < high; variable++) {
+                if (queryClusters[variable] == -1) {
+                    continue;
+                }
+                method.mark(cases[variable - low]);
+                loadElement(method, 1, queryClusters[variable]);
+                method.load(ClassFileWriter.ALOAD, 2);
+                method.invokeStatic(className, "query" + variable, "(" + TABLE + TABLE + ")V");
+                method.op(ClassFileWriter.RETURN);
+            }
+            method.mark(end);
+            method.op(ClassFileWriter.RETURN);
+        }
+
+        MethodWriter query = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "query", descriptor, 4);
+        Label end = new Label();
+        Label[] blocks = new Label[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            blocks[block] = new Label();
+        }
+        query.load(ClassFileWriter.ILOAD, 1);
+        query.pushInt(QUERY_SWITCH_BITS);
+        query.op(ClassFileWriter.ISHR);
+        query.tableSwitch(0, end, blocks);
+        for (int block = 0; block < blockCount; block++) {
+            query.mark(blocks[block]);
+            query.load(ClassFileWriter.ILOAD, 1);
+            query.load(ClassFileWriter.ALOAD, 2);
+            query.load(ClassFileWriter.ALOAD, 3);
+            query.invokeStatic(className, "query" + block + "x", descriptor);
+            query.op(ClassFileWriter.RETURN);
+        }
+        query.mark(end);
+        query.op(ClassFileWriter.RETURN);
+    }
+
+    private static void loadElement(MethodWriter method, int arrayLocal, int index) {
+        method.load(ClassFileWriter.ALOAD, arrayLocal);
+        method.pushInt(index);
+        method.op(ClassFileWriter.AALOAD);
+    }
+
+    /**
+     * @return per dimension of the table, the stride of its variable in the partner, 0 if the partner does not have it
+     */
+    private static int[] getStrides(AbstractFactor table, AbstractFactor partner) {
+        int[] ids = table.getDimensionIDs();
+        int[] partnerIDs = partner.getDimensionIDs();
+        int[] partnerDimensions = partner.getDimensions();
+        int[] strides = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int stride = 1;
+            for (int j = partnerIDs.length - 1; j >= 0; j--) {
+                if (partnerIDs[j] == ids[i]) {
+                    strides[i] = stride;
+                    break;
+                }
+                stride *= partnerDimensions[j];
+            }
+        }
+        return strides;
+    }
+
+    private static int product(int[] dimensions) {
+        int product = 1;
+        for (int d : dimensions) {
+            product *= d;
+        }
+        return product;
+    }
+
+    /**
+     * iterates over all entries of the table and either sums them into the partner (partner[j] += table[i]) or
+     * multiplies the partner into them (table[i] *= partner[j])
+     */
+    private void writeTableLoop(MethodWriter method, int tableLocal, int[] tableDimensions, int partnerLocal,
+            int[] partnerStrides, boolean isSum) {
+        // merge dimensions whose entries are contiguous in both tables
+        List<int[]> loops = new ArrayList<int[]>();
+        for (int d = 0; d < tableDimensions.length; d++) {
+            int[] last = loops.isEmpty() ? null : loops.get(loops.size() - 1);
+            if (last != null && last[1] == partnerStrides[d] * tableDimensions[d]) {
+                last[0] *= tableDimensions[d];
+                last[1] = partnerStrides[d];
+            } else {
+                loops.add(new int[] { tableDimensions[d], partnerStrides[d] });
+            }
+        }
+        if (loops.isEmpty()) {
+            loops.add(new int[] { 1, 0 });
+        }
+
+        Loop loop = new Loop(method, tableLocal, partnerLocal, isSum);
+        method.pushInt(0);
+        method.load(ClassFileWriter.ISTORE, loop.i);
+        method.pushInt(0);
+        method.load(ClassFileWriter.ISTORE, loop.j);
+        writeLevel(loop, loops, 0);
+    }
+
+    private void writeLevel(Loop loop, List<int[]> loops, int level) {
+        MethodWriter method = loop.method;
+        int size = loops.get(level)[0];
+        int stride = loops.get(level)[1];
+        if (level == loops.size() - 1) {
+            if (size <= maxUnrolledDimension) {
+                for (int x = 0; x < size; x++) {
+                    loop.writeOperation(x, x * stride);
+                }
+                method.increment(loop.i, size);
+            } else {
+                int counter = method.newLocal();
+                method.pushInt(0);
+                method.load(ClassFileWriter.ISTORE, counter);
+                Label start = new Label();
+                method.mark(start);
+                loop.writeOperation(0, 0);
+                method.increment(loop.i, 1);
+                method.increment(loop.j, stride);
+                method.increment(counter, 1);
+                method.load(ClassFileWriter.ILOAD, counter);
+                method.pushInt(size);
+                method.jump(ClassFileWriter.IF_ICMPLT, start);
+            }
+            return;
+        }
+        int counter = method.newLocal();
+        int savedJ = method.newLocal();
+        method.pushInt(0);
+        method.load(ClassFileWriter.ISTORE, counter);
+        Label start = new Label();
+        method.mark(start);
+        method.load(ClassFileWriter.ILOAD, loop.j);
+        method.load(ClassFileWriter.ISTORE, savedJ);
+        writeLevel(loop, loops, level + 1);
+        method.load(ClassFileWriter.ILOAD, savedJ);
+        method.pushInt(stride);
+        method.op(ClassFileWriter.IADD);
+        method.load(ClassFileWriter.ISTORE, loop.j);
+        method.increment(counter, 1);
+        method.load(ClassFileWriter.ILOAD, counter);
+        method.pushInt(size);
+        method.jump(ClassFileWriter.IF_ICMPLT, start);
+    }
+
+    /**
+     * @param maxUnrolledDimension
+     *            the maximal size of an innermost loop that is unrolled. 32 by default.
+     */
+    public void setMaxUnrolledDimension(int maxUnrolledDimension) {
+        this.maxUnrolledDimension = maxUnrolledDimension;
+    }
+
+    /**
+     * the local variables of a loop over a table and its partner
+     */
+    private static final class Loop {
+
+        final MethodWriter method;
+        final int table;
+        final int partner;
+        final boolean isSum;
+        final int i;
+        final int j;
+
+        Loop(MethodWriter method, int table, int partner, boolean isSum) {
+            this.method = method;
+            this.table = table;
+            this.partner = partner;
+            this.isSum = isSum;
+            this.i = method.newLocal();
+            this.j = method.newLocal();
+        }
+
+        /**
+         * the operation on table[i + tableOffset] and partner[j + partnerOffset]
+         */
+        void writeOperation(int tableOffset, int partnerOffset) {
+            if (isSum) {
+                loadIndex(partner, j, partnerOffset);
+                method.op(ClassFileWriter.DUP2);
+                method.op(ClassFileWriter.DALOAD);
+                loadIndex(table, i, tableOffset);
+                method.op(ClassFileWriter.DALOAD);
+                method.op(ClassFileWriter.DADD);
+            } else {
+                loadIndex(table, i, tableOffset);
+                method.op(ClassFileWriter.DUP2);
+                method.op(ClassFileWriter.DALOAD);
+                loadIndex(partner, j, partnerOffset);
+                method.op(ClassFileWriter.DALOAD);
+                method.op(ClassFileWriter.DMUL);
+            }
+            method.op(ClassFileWriter.DASTORE);
+        }
+
+        private void loadIndex(int array, int index, int offset) {
+            method.load(ClassFileWriter.ALOAD, array);
+            method.load(ClassFileWriter.ILOAD, index);
+            if (offset != 0) {
+                method.pushInt(offset);
+                method.op(ClassFileWriter.IADD);
+            }
+        }
+
+    }
+
+    private static final class KernelClassLoader extends ClassLoader {
+
+        KernelClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the structural part of compiled junction trees (junction tree, clique layout, sparsity layout and prepared
+ * operations), keyed by the {@link StructureFingerprint} of the network. {@link JunctionTreeAlgorithm}s that use the
+ * same cache only need to multiply in the probabilities of a network whose structure has already been compiled. The
+ * cached structures are shared between the algorithms, not copied. <br/>
+ * <br/>
+ * A cache should only be shared between algorithms that use equivalent {@link JunctionTreeBuilder}s and
+ * {@link org.eclipse.recommenders.jayes.factor.FactorFactory FactorFactories}, because the cached structure reflects
+ * their configuration (e.g. floating point type and log-scale).<br/>
+ * <br/>
+ * This class is thread-safe.
+ */
+public class JunctionTreeCompileCache {
+
+    private final Map<StructureFingerprint, CompiledStructure> structures = new HashMap<StructureFingerprint, CompiledStructure>();
+
+    synchronized CompiledStructure get(StructureFingerprint fingerprint) {
+        return structures.get(fingerprint);
+    }
+
+    synchronized void put(StructureFingerprint fingerprint, CompiledStructure structure) {
+        structures.put(fingerprint, structure);
+    }
+
+    public synchronized int size() {
+        return structures.size();
+    }
+
+    public synchronized void clear() {
+        structures.clear();
+    }
+
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+/**
+ * The propagation and the queries of a fixed junction tree, as generated by the {@link JunctionTreeCodeGenerator}. The
+ * tables are dense and in linear scale, the cliques are numbered like the clique factors of the
+ * {@link JunctionTreeAlgorithm} and the sepsets like {@link JunctionTreeCodeGenerator#getSepSetFactors}. Evidence is
+ * incorporated by zeroing the entries of the clique tables that contradict it before the propagation. <br/>
+ * <br/>
+ * Implementations are stateless, so one instance can serve any number of table sets.
+ */
+public interface JunctionTreeKernel {
+
+    /**
+     * collects the evidence into the first clique and distributes it from there
+     *
+     * @param scratch
+     *            one array per sepset, of the sepset's size
+     * @param isNeeded
+     *            per message of {@link JunctionTreeCodeGenerator#getMessages}, whether it is passed. Messages that do not
+     *            carry new evidence can be skipped.
+     */
+    void propagate(double[][] cliques, double[][] sepSets, double[][] scratch, boolean[] isNeeded);
+
+    /**
+     * adds the entries of the clique that answers the queries of the variable to the belief, per outcome of the
+     * variable
+     */
+    void query(int variable, double[][] cliques, double[] belief);
+
+}
@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.sampling.ISampler;
+import org.eclipse.recommenders.jayes.util.Graph.Edge;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+
+/**
+ * Draws exact samples from the posterior distribution given the evidence, without rejection (forward-filtering
+ * backward-sampling). The evidence is propagated by a {@link JunctionTreeAlgorithm}. The configuration of the cluster
+ * that collected the evidence is drawn from its potential, then every other cluster is drawn, from the root outwards,
+ * conditioned on the values of its sepset with the parent cluster. <br/>
+ * <br/>
+ * After propagation, the non-zero entries of every cluster potential that are consistent with the evidence are grouped
+ * by their sepset configuration and accumulated into cumulative weights. A sample then costs one binary search per
+ * cluster. A sample is an <code>int[]</code> holding the outcome index of every node, indexed by node id.
+ */
+public class JunctionTreeSampler implements ISampler {
+
+    private static final int UNOBSERVED = -1;
+
+    private final JunctionTreeAlgorithm inferer;
+    private BayesNet net;
+    private Random random = new Random();
+
+    private Map<BayesNode, String> preparedEvidence;
+    private int[] observed;
+    // clusters in breadth-first order from the root, every cluster after its parent
+    private int[] clusterOrder;
+    private int[][] clusterVariables;
+    private int[][] clusterDimensions;
+    // the sepset with the parent cluster, and the strides of its variables in the sepset configuration index
+    private int[][] sepsetVariables;
+    private int[][] sepsetStrides;
+    // the entries of cluster c for sepset configuration s are entries[c][offsets[c][s]] ... entries[c][offsets[c][s+1]-1]
+    private int[][] offsets;
+    private int[][] entries;
+    private double[][] cumulativeWeights;
+    // scratch buffers for preparing a cluster, sized for the largest cluster
+    private int[] configurations;
+    private int[] counter;
+    private boolean[] visited;
+
+    public JunctionTreeSampler() {
+        this.inferer = new JunctionTreeAlgorithm();
+    }
+
+    /**
+     * shares the compiled junction tree of an inferer. Samples are drawn given the evidence set on the inferer, and
+     * calling {@link #setNetwork(BayesNet)} is not necessary.
+     *
+     * @param inferer
+     *            an inferer whose network has been set to the given network
+     */
+    public JunctionTreeSampler(JunctionTreeAlgorithm inferer, BayesNet net) {
+        this.inferer = inferer;
+        this.net = net;
+        allocateBuffers();
+    }
+
+    @Override
+    public void setNetwork(BayesNet net) {
+        this.net = net;
+        inferer.setNetwork(net);
+        preparedEvidence = null;
+        allocateBuffers();
+    }
+
+    private void allocateBuffers() {
+        observed = new int[net.getNodes().size()];
+        int clusterCount = inferer.nodePotentials.length;
+        clusterOrder = new int[clusterCount];
+        clusterVariables = new int[clusterCount][];
+        clusterDimensions = new int[clusterCount][];
+        sepsetVariables = new int[clusterCount][];
+        sepsetStrides = new int[clusterCount][];
+        offsets = new int[clusterCount][];
+        entries = new int[clusterCount][];
+        cumulativeWeights = new double[clusterCount][];
+        visited = new boolean[clusterCount];
+        int maxEntryCount = 0;
+        int maxDimensionCount = 0;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            AbstractFactor potential = inferer.nodePotentials[cluster];
+            clusterVariables[cluster] = potential.getDimensionIDs().clone();
+            clusterDimensions[cluster] = potential.getDimensions().clone();
+            maxEntryCount = Math.max(maxEntryCount, MathUtils.product(clusterDimensions[cluster]));
+            maxDimensionCount = Math.max(maxDimensionCount, clusterDimensions[cluster].length);
+        }
+        configurations = new int[maxEntryCount];
+        counter = new int[maxDimensionCount];
+    }
+
+    @Override
+    public void setEvidence(Map<BayesNode, String> evidence) {
+        inferer.setEvidence(evidence);
+    }
+
+    /**
+     * fills every row of the buffer with a sample from the posterior distribution
+     *
+     * @param samples
+     *            rows with one entry per node, indexed by node id
+     */
+    public void sample(int[][] samples, Random random) {
+        prepare();
+        for (int[] sample : samples) {
+            drawSample(sample, random);
+        }
+    }
+
+    public void sample(int[][] samples) {
+        sample(samples, random);
+    }
+
+    /**
+     * @param sample
+     *            receives the outcome index of every node, indexed by node id
+     */
+    public void sample(int[] sample, Random random) {
+        prepare();
+        drawSample(sample, random);
+    }
+
+    private void drawSample(int[] sample, Random random) {
+        for (int cluster : clusterOrder) {
+            int configuration = 0;
+            for (int i = 0; i < sepsetVariables[cluster].length; i++) {
+                configuration += sample[sepsetVariables[cluster][i]] * sepsetStrides[cluster][i];
+            }
+            int entry = drawEntry(cluster, configuration, random);
+            int[] variables = clusterVariables[cluster];
+            int[] dimensions = clusterDimensions[cluster];
+            for (int i = variables.length - 1; i >= 0; i--) {
+                sample[variables[i]] = entry % dimensions[i];
+                entry /= dimensions[i];
+            }
+        }
+    }
+
+    private int drawEntry(int cluster, int configuration, Random random) {
+        double[] weights = cumulativeWeights[cluster];
+        int lo = offsets[cluster][configuration];
+        int hi = offsets[cluster][configuration + 1] - 1;
+        double u = random.nextDouble() * weights[hi];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (weights[mid] > u) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return entries[cluster][lo];
+    }
+
+    private void prepare() {
+        int root = inferer.propagateEvidence();
+        if (inferer.getEvidence().equals(preparedEvidence)) {
+            return;
+        }
+        preparedEvidence = new HashMap<BayesNode, String>(inferer.getEvidence());
+        Arrays.fill(observed, UNOBSERVED);
+        for (Entry<BayesNode, String> e : preparedEvidence.entrySet()) {
+            observed[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+
+        int clusterCount = inferer.nodePotentials.length;
+        Arrays.fill(visited, false);
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(root);
+        visited[root] = true;
+        sepsetVariables[root] = new int[0];
+        int ordered = 0;
+        while (!queue.isEmpty()) {
+            int cluster = queue.poll();
+            clusterOrder[ordered++] = cluster;
+            for (Edge e : inferer.junctionTree.getIncidentEdges(cluster)) {
+                int child = e.getSecond();
+                if (!visited[child]) {
+                    visited[child] = true;
+                    sepsetVariables[child] = inferer.sepSets.get(e).getDimensionIDs().clone();
+                    queue.add(child);
+                }
+            }
+        }
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            prepareCluster(cluster, inferer.nodePotentials[cluster]);
+        }
+    }
+
+    private void prepareCluster(int cluster, AbstractFactor potential) {
+        int[] variables = clusterVariables[cluster];
+        int[] dimensions = clusterDimensions[cluster];
+
+        int[] sepset = sepsetVariables[cluster];
+        int[] sepsetPositions = new int[sepset.length];
+        int[] strides = new int[sepset.length];
+        int configurationCount = 1;
+        for (int i = sepset.length - 1; i >= 0; i--) {
+            sepsetPositions[i] = indexOf(variables, sepset[i]);
+            strides[i] = configurationCount;
+            configurationCount *= dimensions[sepsetPositions[i]];
+        }
+        sepsetStrides[cluster] = strides;
+
+        int entryCount = 1;
+        for (int dimension : dimensions) {
+            entryCount *= dimension;
+        }
+        // first pass: the sepset configuration of every entry that can be sampled
+        int[] clusterOffsets = new int[configurationCount + 1];
+        Arrays.fill(counter, 0);
+        for (int entry = 0; entry < entryCount; entry++) {
+            configurations[entry] = isSampleable(potential, entry, variables, counter) ? computeConfiguration(
+                    counter, sepsetPositions, strides) : -1;
+            if (configurations[entry] >= 0) {
+                clusterOffsets[configurations[entry] + 1]++;
+            }
+            increment(counter, dimensions);
+        }
+        for (int i = 0; i < configurationCount; i++) {
+            clusterOffsets[i + 1] += clusterOffsets[i];
+        }
+
+        // second pass: group the entries by configuration
+        int[] clusterEntries = new int[clusterOffsets[configurationCount]];
+        int[] filled = Arrays.copyOf(clusterOffsets, configurationCount);
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (configurations[entry] >= 0) {
+                clusterEntries[filled[configurations[entry]]++] = entry;
+            }
+        }
+        offsets[cluster] = clusterOffsets;
+        entries[cluster] = clusterEntries;
+        cumulativeWeights[cluster] = computeCumulativeWeights(potential, clusterOffsets, clusterEntries);
+
+        if (sepset.length == 0 && clusterEntries.length == 0) {
+            throw new NumericalInstabilityException("The evidence " + preparedEvidence
+                    + " has probability zero, or it is too small for the chosen scale");
+        }
+    }
+
+    private boolean isSampleable(AbstractFactor potential, int entry, int[] variables, int[] counter) {
+        for (int i = 0; i < variables.length; i++) {
+            if (observed[variables[i]] != UNOBSERVED && observed[variables[i]] != counter[i]) {
+                return false;
+            }
+        }
+        double value = potential.getValue(entry);
+        return potential.isLogScale() ? value != Double.NEGATIVE_INFINITY : value > 0;
+    }
+
+    private static int computeConfiguration(int[] counter, int[] positions, int[] strides) {
+        int configuration = 0;
+        for (int i = 0; i < positions.length; i++) {
+            configuration += counter[positions[i]] * strides[i];
+        }
+        return configuration;
+    }
+
+    private static double[] computeCumulativeWeights(AbstractFactor potential, int[] offsets, int[] entries) {
+        double[] weights = new double[entries.length];
+        for (int configuration = 0; configuration < offsets.length - 1; configuration++) {
+            // the weights only need to be proportional within a configuration
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = offsets[configuration]; i < offsets[configuration + 1]; i++) {
+                max = Math.max(max, potential.getValue(entries[i]));
+            }
+            double sum = 0;
+            for (int i = offsets[configuration]; i < offsets[configuration + 1]; i++) {
+                double value = potential.getValue(entries[i]);
+                sum += potential.isLogScale() ? Math.exp(value - max) : value / max;
+                weights[i] = sum;
+            }
+        }
+        return weights;
+    }
+
+    private static void increment(int[] counter, int[] dimensions) {
+        for (int i = dimensions.length - 1; i >= 0; i--) {
+            counter[i]++;
+            if (counter[i] < dimensions[i]) {
+                return;
+            }
+            counter[i] = 0;
+        }
+    }
+
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Map<BayesNode, String> sample() {
+        int[] sample = new int[net.getNodes().size()];
+        sample(sample, random);
+        Map<BayesNode, String> result = new HashMap<BayesNode, String>();
+        for (int i = 0; i < sample.length; i++) {
+            BayesNode node = net.getNode(i);
+            result.put(node, node.getOutcomeName(sample[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public void seed(long seed) {
+        random.setSeed(seed);
+    }
+
+    @Override
+    @Deprecated
+    public void setBN(BayesNet net) {
+        setNetwork(net);
+    }
+
+}
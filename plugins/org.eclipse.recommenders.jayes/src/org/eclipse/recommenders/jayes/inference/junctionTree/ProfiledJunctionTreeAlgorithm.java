@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.FactorFactory;
+import org.eclipse.recommenders.jayes.inference.AbstractInferer;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+
+/**
+ * A junction tree specialized to a {@link CompileProfile}. The nodes that are observed in every query are removed from
+ * the structure: their children lose them as parents, and they are replaced by single-outcome likelihood nodes (see
+ * {@link CutsetConditioning}). Nodes that are neither queryable nor ancestors of the queryable or observed nodes are
+ * barren and pruned. The junction tree of the remaining network is compiled once; for every assignment of the observed
+ * nodes, the CPTs are sliced at it, multiplied into the compiled structure and propagated. The propagated junction
+ * trees of the most recent assignments are kept, so queries that repeat an assignment only incorporate the remaining
+ * evidence. <br/>
+ * <br/>
+ * Evidence for all always observed nodes has to be set before a query. Nodes that were pruned can neither be observed
+ * nor queried.
+ */
+public class ProfiledJunctionTreeAlgorithm extends AbstractInferer {
+
+    private JunctionTreeBuilder junctionTreeBuilder = JunctionTreeBuilder.forHeuristic(new MinFillIn());
+    private int maxSpecializations = 16;
+
+    private BayesNet net;
+    private boolean[] isAlwaysObserved;
+    private boolean[] isPruned;
+    private ReducedNetwork reduced;
+    private JunctionTreeCompileCache compileCache;
+    // the propagated junction trees per assignment of the always observed nodes, least recently used first
+    private Map<List<Integer>, Specialization> specializations;
+    private Specialization current;
+    private int specializationCount;
+
+    @Override
+    public void setNetwork(BayesNet bayesNet) {
+        setNetwork(bayesNet, new CompileProfile());
+    }
+
+    public void setNetwork(BayesNet bayesNet, CompileProfile profile) {
+        super.setNetwork(bayesNet);
+        this.net = bayesNet;
+        isAlwaysObserved = new boolean[beliefs.length];
+        for (BayesNode node : profile.getAlwaysObserved()) {
+            isAlwaysObserved[node.getId()] = true;
+        }
+        isPruned = computePrunedNodes(profile);
+        reduced = new ReducedNetwork(bayesNet, isAlwaysObserved, isPruned);
+        compileCache = new JunctionTreeCompileCache();
+        specializations = new LinkedHashMap<List<Integer>, Specialization>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<List<Integer>, Specialization> eldest) {
+                return size() > maxSpecializations;
+            }
+
+        };
+        current = null;
+        specializationCount = 0;
+        beliefsValid = false;
+    }
+
+    /**
+     * all nodes except the queryable and always observed nodes and their ancestors
+     */
+    private boolean[] computePrunedNodes(CompileProfile profile) {
+        boolean[] pruned = new boolean[beliefs.length];
+        if (profile.getQueryable().isEmpty()) {
+            return pruned;
+        }
+        Arrays.fill(pruned, true);
+        List<BayesNode> open = new ArrayList<BayesNode>(profile.getQueryable());
+        open.addAll(profile.getAlwaysObserved());
+        while (!open.isEmpty()) {
+            BayesNode node = open.remove(open.size() - 1);
+            if (pruned[node.getId()]) {
+                pruned[node.getId()] = false;
+                open.addAll(node.getParents());
+            }
+        }
+        return pruned;
+    }
+
+    @Override
+    public void setFactorFactory(FactorFactory factory) {
+        super.setFactorFactory(factory);
+        if (specializations != null) {
+            specializations.clear();
+            compileCache.clear();
+        }
+    }
+
+    @Override
+    public double[] getBeliefs(BayesNode node) {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        int id = node.getId();
+        if (isPruned[id]) {
+            throw new IllegalArgumentException("The node " + node + " is not queryable in the compile profile");
+        }
+        if (isAlwaysObserved[id]) {
+            return beliefs[id];
+        }
+        return current.inferer.getBeliefs(reduced.getReducedNode(id));
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        int[] assignment = new int[beliefs.length];
+        Map<BayesNode, String> reducedEvidence = new HashMap<BayesNode, String>();
+        boolean[] isObserved = new boolean[beliefs.length];
+        for (Entry<BayesNode, String> e : evidence.entrySet()) {
+            int id = e.getKey().getId();
+            if (isPruned[id]) {
+                throw new IllegalArgumentException("The node " + e.getKey()
+                        + " is pruned by the compile profile and cannot be observed");
+            }
+            isObserved[id] = true;
+            assignment[id] = e.getKey().getOutcomeIndex(e.getValue());
+            if (!isAlwaysObserved[id]) {
+                reducedEvidence.put(reduced.getReducedNode(id), e.getValue());
+            }
+        }
+
+        List<Integer> key = new ArrayList<Integer>();
+        for (BayesNode node : net.getNodes()) {
+            int id = node.getId();
+            if (isAlwaysObserved[id]) {
+                if (!isObserved[id]) {
+                    throw new IllegalStateException("The node " + node
+                            + " is always observed in the compile profile, but there is no evidence for it");
+                }
+                Arrays.fill(beliefs[id], 0);
+                beliefs[id][assignment[id]] = 1;
+                key.add(assignment[id]);
+            }
+        }
+
+        current = specializations.get(key);
+        if (current == null) {
+            current = specialize(assignment);
+            specializations.put(key, current);
+            specializationCount++;
+        }
+        current.inferer.setEvidence(reducedEvidence);
+    }
+
+    private Specialization specialize(int[] assignment) {
+        double logScalar = reduced.setProbabilities(assignment);
+        if (logScalar == Double.NEGATIVE_INFINITY) {
+            throw new NumericalInstabilityException("The evidence " + evidence + " has probability zero");
+        }
+        JunctionTreeAlgorithm inferer = new JunctionTreeAlgorithm();
+        inferer.setJunctionTreeBuilder(junctionTreeBuilder);
+        inferer.setFactorFactory(factory);
+        inferer.setCompileCache(compileCache);
+        inferer.setNetwork(reduced.getNetwork());
+        return new Specialization(inferer, logScalar);
+    }
+
+    /**
+     * @return the natural logarithm of the probability of the evidence
+     */
+    public double getLogEvidenceProbability() {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        return current.logScalar + current.inferer.getLogEvidenceProbability();
+    }
+
+    public double getEvidenceProbability() {
+        return Math.exp(getLogEvidenceProbability());
+    }
+
+    /**
+     * @return the network whose junction tree is compiled, without the always observed and the pruned nodes
+     */
+    public BayesNet getSpecializedNetwork() {
+        return reduced.getNetwork();
+    }
+
+    public void setJunctionTreeBuilder(JunctionTreeBuilder junctionTreeBuilder) {
+        this.junctionTreeBuilder = junctionTreeBuilder;
+    }
+
+    /**
+     * @return the number of assignments of the always observed nodes whose junction trees were specialized since the
+     *         network was set. Assignments that were evicted from the kept junction trees are counted again when they
+     *         are repeated.
+     */
+    public int getSpecializationCount() {
+        return specializationCount;
+    }
+
+    /**
+     * @param maxSpecializations
+     *            the number of assignments of the always observed nodes whose propagated junction trees are kept. 16
+     *            by default.
+     */
+    public void setMaxSpecializations(int maxSpecializations) {
+        this.maxSpecializations = maxSpecializations;
+    }
+
+    private static final class Specialization {
+
+        final JunctionTreeAlgorithm inferer;
+        // the CPT entries of always observed nodes that only have always observed parents
+        final double logScalar;
+
+        Specialization(JunctionTreeAlgorithm inferer, double logScalar) {
+            this.inferer = inferer;
+            this.logScalar = logScalar;
+        }
+
+    }
+
+}
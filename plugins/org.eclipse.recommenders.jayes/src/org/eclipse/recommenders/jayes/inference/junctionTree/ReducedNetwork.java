@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+
+/**
+ * The network that remains when the outcomes of some nodes are fixed and other nodes are pruned. The remaining nodes
+ * keep their names and outcomes, but lose their fixed parents. Every fixed node with remaining parents is replaced by
+ * a node with a single outcome, whose CPT holds the probability of the fixed node's assigned outcome given its
+ * parents. Pruned nodes are left out, which is only correct if all their descendants are pruned as well. <br/>
+ * <br/>
+ * The structure of the reduced network does not depend on the fixed outcomes, so all assignments share one junction
+ * tree; {@link #setProbabilities(int[])} slices the CPTs at an assignment.
+ */
+class ReducedNetwork {
+
+    private final BayesNet net;
+    private final boolean[] isFixed;
+    private final BayesNet reduced = new BayesNet();
+    // per original node id, the reduced node that carries its (sliced) CPT, or null
+    private final BayesNode[] reducedNodes;
+    // the reduced CPT of node n is probabilities[base + sliceOffsets[n][i]], where the base is the sum of the fixed
+    // parents' outcomes (and, for fixed nodes, its own outcome) times fixedStrides[n]
+    private int[][] sliceOffsets;
+    private int[][] fixedParents;
+    private int[][] fixedStrides;
+
+    ReducedNetwork(BayesNet net, boolean[] isFixed, boolean[] isPruned) {
+        this.net = net;
+        this.isFixed = isFixed;
+        reducedNodes = new BayesNode[isFixed.length];
+        for (BayesNode node : net.getNodes()) {
+            if (!isFixed[node.getId()] && !isPruned[node.getId()]) {
+                reducedNodes[node.getId()] = reduced.createNode(node.getName());
+                reducedNodes[node.getId()].addOutcomes(node.getOutcomes().toArray(new String[0]));
+            }
+        }
+        for (BayesNode node : net.getNodes()) {
+            if (isFixed[node.getId()] && !isPruned[node.getId()] && !getFreeParents(node).isEmpty()) {
+                reducedNodes[node.getId()] = reduced.createNode(createUniqueName(node.getName()));
+                reducedNodes[node.getId()].addOutcomes("likelihood");
+            }
+        }
+        for (BayesNode node : net.getNodes()) {
+            if (reducedNodes[node.getId()] != null) {
+                reducedNodes[node.getId()].setParents(getFreeParents(node));
+            }
+        }
+    }
+
+    private List<BayesNode> getFreeParents(BayesNode node) {
+        List<BayesNode> parents = new ArrayList<BayesNode>();
+        for (BayesNode parent : node.getParents()) {
+            if (!isFixed[parent.getId()]) {
+                parents.add(reducedNodes[parent.getId()]);
+            }
+        }
+        return parents;
+    }
+
+    private String createUniqueName(String name) {
+        String unique = name + "#likelihood";
+        while (net.getNode(unique) != null) {
+            unique += "'";
+        }
+        return unique;
+    }
+
+    BayesNet getNetwork() {
+        return reduced;
+    }
+
+    /**
+     * @return the reduced node that carries the (sliced) CPT of the original node, or <code>null</code> if the node is
+     *         pruned, or fixed and without remaining parents
+     */
+    BayesNode getReducedNode(int id) {
+        return reducedNodes[id];
+    }
+
+    /**
+     * @return the original node of a reduced node, or <code>null</code> for the likelihood nodes of fixed nodes
+     */
+    BayesNode getOriginalNode(BayesNode reducedNode) {
+        BayesNode original = net.getNode(reducedNode.getName());
+        return original != null && reducedNodes[original.getId()] == reducedNode ? original : null;
+    }
+
+    /**
+     * slices the CPTs of the reduced network at the assignment of the fixed nodes
+     *
+     * @return the log of the product of the CPT entries of fixed nodes that only have fixed parents
+     */
+    double setProbabilities(int[] assignment) {
+        if (sliceOffsets == null) {
+            prepareSlices();
+        }
+        double logScalar = 0;
+        for (BayesNode node : net.getNodes()) {
+            int id = node.getId();
+            if (fixedParents[id] == null || fixedParents[id].length == 0) {
+                continue;
+            }
+            int base = 0;
+            for (int i = 0; i < fixedParents[id].length; i++) {
+                base += assignment[fixedParents[id][i]] * fixedStrides[id][i];
+            }
+            double[] probabilities = node.getProbabilities();
+            if (reducedNodes[id] == null) {
+                logScalar += Math.log(probabilities[base]);
+            } else {
+                double[] slice = new double[sliceOffsets[id].length];
+                for (int i = 0; i < slice.length; i++) {
+                    slice[i] = probabilities[base + sliceOffsets[id][i]];
+                }
+                reducedNodes[id].setProbabilities(slice);
+            }
+        }
+        return logScalar;
+    }
+
+    private void prepareSlices() {
+        int nodeCount = isFixed.length;
+        sliceOffsets = new int[nodeCount][];
+        fixedParents = new int[nodeCount][];
+        fixedStrides = new int[nodeCount][];
+        for (BayesNode node : net.getNodes()) {
+            int id = node.getId();
+            if (reducedNodes[id] == null && !isFixed[id]) {
+                // pruned
+                continue;
+            }
+            List<BayesNode> parents = node.getParents();
+            int[] strides = new int[parents.size()];
+            int stride = node.getOutcomeCount();
+            for (int p = parents.size() - 1; p >= 0; p--) {
+                strides[p] = stride;
+                stride *= parents.get(p).getOutcomeCount();
+            }
+
+            int[] freeStrides = new int[parents.size() + 1];
+            int[] freeDimensions = new int[parents.size() + 1];
+            int[] fixed = new int[parents.size() + 1];
+            int[] fixedStride = new int[parents.size() + 1];
+            int freeCount = 0;
+            int fixedCount = 0;
+            for (int p = 0; p < parents.size(); p++) {
+                if (isFixed[parents.get(p).getId()]) {
+                    fixed[fixedCount] = parents.get(p).getId();
+                    fixedStride[fixedCount++] = strides[p];
+                } else {
+                    freeStrides[freeCount] = strides[p];
+                    freeDimensions[freeCount++] = parents.get(p).getOutcomeCount();
+                }
+            }
+            if (isFixed[id]) {
+                fixed[fixedCount] = id;
+                fixedStride[fixedCount++] = 1;
+            } else {
+                freeStrides[freeCount] = 1;
+                freeDimensions[freeCount++] = node.getOutcomeCount();
+            }
+            fixedParents[id] = Arrays.copyOf(fixed, fixedCount);
+            fixedStrides[id] = Arrays.copyOf(fixedStride, fixedCount);
+            sliceOffsets[id] = computeSliceOffsets(Arrays.copyOf(freeStrides, freeCount),
+                    Arrays.copyOf(freeDimensions, freeCount));
+
+            if (reducedNodes[id] != null && fixedCount == 0) {
+                // the CPT does not depend on the assignment
+                reducedNodes[id].setProbabilities(node.getProbabilities().clone());
+            }
+        }
+    }
+
+    private static int[] computeSliceOffsets(int[] strides, int[] dimensions) {
+        int length = 1;
+        for (int dimension : dimensions) {
+            length *= dimension;
+        }
+        int[] offsets = new int[length];
+        int[] counter = new int[dimensions.length];
+        for (int i = 0; i < length; i++) {
+            for (int d = 0; d < dimensions.length; d++) {
+                offsets[i] += counter[d] * strides[d];
+            }
+            for (int d = dimensions.length - 1; d >= 0; d--) {
+                counter[d]++;
+                if (counter[d] < dimensions[d]) {
+                    break;
+                }
+                counter[d] = 0;
+            }
+        }
+        return offsets;
+    }
+
+}
@@ -0,0 +1,522 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.recommenders.internal.jayes.util.ArrayUtils;
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.factor.arraywrapper.DoubleArrayWrapper;
+import org.eclipse.recommenders.jayes.factor.arraywrapper.IArrayWrapper;
+import org.eclipse.recommenders.jayes.inference.AbstractInferer;
+import org.eclipse.recommenders.jayes.util.Graph.Edge;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.Pair;
+import org.eclipse.recommenders.jayes.util.sharing.CanonicalIntArrayManager;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+
+/**
+ * Junction tree inference using the Shenoy-Shafer architecture. In contrast to the Hugin architecture used by
+ * {@link JunctionTreeAlgorithm}, every sepset stores one message per direction and no division takes place. The clique
+ * potentials are never modified after {@link #setNetwork(BayesNet)}, so messages stay valid across queries until
+ * evidence on their sending side changes, and only those are recomputed.<br/>
+ * <br/>
+ * A clique sending several messages computes the products of all but one incoming message by divide and conquer, which
+ * takes O(n log n) instead of O(n<sup>2</sup>) factor multiplications for a clique with n neighbors. Cliques on the
+ * same level of the tree send their messages in parallel if an executor is set.
+ */
+public class ShenoyShaferAlgorithm extends AbstractInferer {
+
+    protected JunctionTreeBuilder junctionTreeBuilder = JunctionTreeBuilder.forHeuristic(new MinFillIn());
+    protected ExecutorService executor;
+
+    // clique potentials, read-only after setNetwork
+    protected AbstractFactor[] potentials;
+    // per clique, working copies of the potential for the partial products
+    protected AbstractFactor[][] buffers;
+
+    protected int[][] neighbors;
+    // neighbors[i][k] has clique i at position backIndices[i][k]
+    protected int[][] backIndices;
+    protected int[][][] sepSetIDs;
+    protected int[][][] preparedSepSets;
+    // messages[i][k] is the message from clique i to neighbors[i][k], in the scale of the receiver
+    protected IArrayWrapper[][] messages;
+    protected boolean[][] isMessageValid;
+
+    protected int[] parentIndices;
+    protected int[][] cliquesByDepth;
+
+    protected int[][] concernedClusters;
+    protected int[] queryClusters;
+    protected int[][] preparedQueries;
+    protected boolean[] isBeliefValid;
+    protected boolean[] isCliqueBeliefValid;
+
+    protected int[] observedOutcomes;
+    protected Map<BayesNode, String> propagatedEvidence;
+
+    public void setJunctionTreeBuilder(JunctionTreeBuilder bldr) {
+        this.junctionTreeBuilder = bldr;
+    }
+
+    /**
+     * sets an executor that is used to send the messages of different cliques in parallel. If no executor is set (the
+     * default), all messages are computed in the calling thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void setNetwork(final BayesNet net) {
+        super.setNetwork(net);
+        JunctionTree jtree = junctionTreeBuilder.buildJunctionTree(net);
+        initializePotentials(net, jtree.getClusters());
+        initializeNeighbors(jtree.getSepSets());
+        initializeMessages(jtree.getSepSets());
+        determineConcernedClusters(net.getNodes().size());
+        prepareQueries(net.getNodes().size());
+        orderCliquesByDepth();
+
+        isBeliefValid = new boolean[beliefs.length];
+        isCliqueBeliefValid = new boolean[potentials.length];
+        observedOutcomes = new int[beliefs.length];
+        propagatedEvidence = new HashMap<BayesNode, String>();
+        beliefsValid = false;
+    }
+
+    private void initializePotentials(final BayesNet net, final List<List<Integer>> clusters) {
+        int[] homeClusters = JunctionTreeAlgorithm.computeHomeClusters(net, clusters);
+        List<List<AbstractFactor>> partners = new ArrayList<List<AbstractFactor>>();
+        for (int i = 0; i < clusters.size(); i++) {
+            partners.add(new ArrayList<AbstractFactor>());
+        }
+        for (BayesNode node : net.getNodes()) {
+            partners.get(homeClusters[node.getId()]).add(node.getFactor());
+        }
+
+        potentials = new AbstractFactor[clusters.size()];
+        for (int i = 0; i < clusters.size(); i++) {
+            AbstractFactor potential = factory.create(clusters.get(i), partners.get(i));
+            potential.fill(potential.isLogScale() ? 0.0 : 1.0);
+            for (AbstractFactor cpt : partners.get(i)) {
+                if (potential.isLogScale()) {
+                    potential.multiplyCompatibleToLog(cpt);
+                } else {
+                    potential.multiplyCompatible(cpt);
+                }
+            }
+            potentials[i] = potential;
+        }
+    }
+
+    private void initializeNeighbors(final List<Pair<Edge, List<Integer>>> sepSets) {
+        List<List<Integer>> neighborLists = new ArrayList<List<Integer>>();
+        for (int i = 0; i < potentials.length; i++) {
+            neighborLists.add(new ArrayList<Integer>());
+        }
+        for (Pair<Edge, List<Integer>> sepSet : sepSets) {
+            neighborLists.get(sepSet.getFirst().getFirst()).add(sepSet.getFirst().getSecond());
+            neighborLists.get(sepSet.getFirst().getSecond()).add(sepSet.getFirst().getFirst());
+        }
+        neighbors = new int[potentials.length][];
+        for (int i = 0; i < potentials.length; i++) {
+            neighbors[i] = ArrayUtils.toIntArray(neighborLists.get(i));
+        }
+        backIndices = new int[potentials.length][];
+        for (int i = 0; i < potentials.length; i++) {
+            backIndices[i] = new int[neighbors[i].length];
+            for (int k = 0; k < neighbors[i].length; k++) {
+                backIndices[i][k] = neighborLists.get(neighbors[i][k]).indexOf(i);
+            }
+        }
+    }
+
+    private void initializeMessages(final List<Pair<Edge, List<Integer>>> sepSets) {
+        sepSetIDs = new int[potentials.length][][];
+        preparedSepSets = new int[potentials.length][][];
+        messages = new IArrayWrapper[potentials.length][];
+        isMessageValid = new boolean[potentials.length][];
+        buffers = new AbstractFactor[potentials.length][];
+        for (int i = 0; i < potentials.length; i++) {
+            sepSetIDs[i] = new int[neighbors[i].length][];
+            preparedSepSets[i] = new int[neighbors[i].length][];
+            messages[i] = new IArrayWrapper[neighbors[i].length];
+            isMessageValid[i] = new boolean[neighbors[i].length];
+            buffers[i] = new AbstractFactor[computeRecursionDepth(neighbors[i].length) + 1];
+            for (int d = 0; d < buffers[i].length; d++) {
+                buffers[i][d] = potentials[i].clone();
+            }
+        }
+
+        // compress by combining equal prepared statements, thus saving memory
+        final CanonicalIntArrayManager flyWeight = new CanonicalIntArrayManager();
+        for (Pair<Edge, List<Integer>> sepSet : sepSets) {
+            int first = sepSet.getFirst().getFirst();
+            int second = sepSet.getFirst().getSecond();
+            int k = indexOf(neighbors[first], second);
+            int backK = backIndices[first][k];
+            AbstractFactor sepSetFactor = factory.create(sepSet.getSecond(), Collections.<AbstractFactor>emptyList());
+
+            sepSetIDs[first][k] = sepSetFactor.getDimensionIDs();
+            sepSetIDs[second][backK] = sepSetFactor.getDimensionIDs();
+            preparedSepSets[first][k] = flyWeight.getInstance(potentials[first].prepareMultiplication(sepSetFactor));
+            preparedSepSets[second][backK] = flyWeight.getInstance(potentials[second]
+                    .prepareMultiplication(sepSetFactor));
+            messages[first][k] = sepSetFactor.getValues().clone();
+            messages[second][backK] = sepSetFactor.getValues().clone();
+        }
+    }
+
+    private static int computeRecursionDepth(int neighborCount) {
+        return neighborCount <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(neighborCount - 1);
+    }
+
+    private static int indexOf(int[] array, int element) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void determineConcernedClusters(int numNodes) {
+        List<Integer>[] temp = (List<Integer>[]) new List<?>[numNodes];
+        for (int i = 0; i < temp.length; i++) {
+            temp[i] = new ArrayList<Integer>();
+        }
+        for (int i = 0; i < potentials.length; i++) {
+            for (final int var : potentials[i].getDimensionIDs()) {
+                temp[var].add(i);
+            }
+        }
+        concernedClusters = new int[numNodes][];
+        for (int i = 0; i < temp.length; i++) {
+            concernedClusters[i] = ArrayUtils.toIntArray(temp[i]);
+        }
+    }
+
+    private void prepareQueries(int numNodes) {
+        queryClusters = new int[numNodes];
+        preparedQueries = new int[numNodes][];
+        for (int i = 0; i < numNodes; i++) {
+            int queryCluster = concernedClusters[i][0];
+            for (int cluster : concernedClusters[i]) {
+                if (potentials[cluster].getValueCount() < potentials[queryCluster].getValueCount()) {
+                    queryCluster = cluster;
+                }
+            }
+            queryClusters[i] = queryCluster;
+            AbstractFactor beliefFactor = factory.create(Arrays.asList(i), Collections.<AbstractFactor>emptyList());
+            preparedQueries[i] = potentials[queryCluster].prepareMultiplication(beliefFactor);
+        }
+    }
+
+    private void orderCliquesByDepth() {
+        parentIndices = new int[potentials.length];
+        Arrays.fill(parentIndices, -1);
+        int[] depths = new int[potentials.length];
+        List<List<Integer>> levels = new ArrayList<List<Integer>>();
+        boolean[] visited = new boolean[potentials.length];
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(0);
+        visited[0] = true;
+        while (!queue.isEmpty()) {
+            int clique = queue.poll();
+            if (levels.size() <= depths[clique]) {
+                levels.add(new ArrayList<Integer>());
+            }
+            levels.get(depths[clique]).add(clique);
+            for (int k = 0; k < neighbors[clique].length; k++) {
+                int child = neighbors[clique][k];
+                if (!visited[child]) {
+                    visited[child] = true;
+                    depths[child] = depths[clique] + 1;
+                    parentIndices[child] = backIndices[clique][k];
+                    queue.add(child);
+                }
+            }
+        }
+        cliquesByDepth = new int[levels.size()][];
+        for (int d = 0; d < levels.size(); d++) {
+            cliquesByDepth[d] = ArrayUtils.toIntArray(levels.get(d));
+        }
+    }
+
+    @Override
+    public double[] getBeliefs(final BayesNode node) {
+        if (!beliefsValid) {
+            beliefsValid = true;
+            updateBeliefs();
+        }
+        final int nodeId = node.getId();
+        if (!isBeliefValid[nodeId]) {
+            isBeliefValid[nodeId] = true;
+            if (!evidence.containsKey(node)) {
+                validateBelief(nodeId);
+            } else {
+                Arrays.fill(beliefs[nodeId], 0);
+                beliefs[nodeId][node.getOutcomeIndex(evidence.get(node))] = 1;
+            }
+        }
+        return super.getBeliefs(node);
+    }
+
+    private void validateBelief(final int nodeId) {
+        final int cluster = queryClusters[nodeId];
+        if (!isCliqueBeliefValid[cluster]) {
+            isCliqueBeliefValid[cluster] = true;
+            computeCliqueBelief(cluster);
+        }
+        final AbstractFactor f = buffers[cluster][0];
+        f.sumPrepared(new DoubleArrayWrapper(beliefs[nodeId]), preparedQueries[nodeId]);
+        if (f.isLogScale()) {
+            MathUtils.exp(beliefs[nodeId]);
+        }
+        try {
+            beliefs[nodeId] = MathUtils.normalize(beliefs[nodeId]);
+        } catch (final IllegalArgumentException exception) {
+            throw new NumericalInstabilityException("Numerical instability detected for evidence: " + evidence
+                    + " and node : " + nodeId
+                    + ", consider using logarithmic scale computation (configurable in FactorFactory)", exception);
+        }
+    }
+
+    private void computeCliqueBelief(final int cluster) {
+        AbstractFactor belief = buffers[cluster][0];
+        belief.copyValues(potentials[cluster].getValues());
+        multiplyIncomingMessages(cluster, 0, neighbors[cluster].length - 1, belief);
+    }
+
+    @Override
+    protected void updateBeliefs() {
+        Arrays.fill(isBeliefValid, false);
+        Arrays.fill(isCliqueBeliefValid, false);
+        incorporateEvidenceChanges();
+        collectEvidence();
+        distributeEvidence();
+    }
+
+    private void incorporateEvidenceChanges() {
+        Arrays.fill(observedOutcomes, -1);
+        for (Map.Entry<BayesNode, String> e : evidence.entrySet()) {
+            observedOutcomes[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+
+        Set<BayesNode> changedNodes = new HashSet<BayesNode>();
+        for (Map.Entry<BayesNode, String> e : evidence.entrySet()) {
+            if (!e.getValue().equals(propagatedEvidence.get(e.getKey()))) {
+                changedNodes.add(e.getKey());
+            }
+        }
+        for (BayesNode node : propagatedEvidence.keySet()) {
+            if (!evidence.containsKey(node)) {
+                changedNodes.add(node);
+            }
+        }
+
+        Set<Integer> changedCliques = new HashSet<Integer>();
+        for (BayesNode node : changedNodes) {
+            for (int cluster : concernedClusters[node.getId()]) {
+                changedCliques.add(cluster);
+            }
+        }
+        for (int cluster : changedCliques) {
+            selectEvidence(cluster);
+            invalidateMessagesFrom(cluster);
+        }
+        propagatedEvidence = new HashMap<BayesNode, String>(evidence);
+    }
+
+    private void selectEvidence(final int cluster) {
+        for (AbstractFactor buffer : buffers[cluster]) {
+            buffer.resetSelections();
+            for (int var : buffer.getDimensionIDs()) {
+                if (observedOutcomes[var] != -1) {
+                    buffer.select(var, observedOutcomes[var]);
+                }
+            }
+        }
+    }
+
+    /*
+     * all messages pointing away from the cluster depend on its evidence. An invalid message can only have been
+     * invalidated together with all messages pointing further away, so the search stops there.
+     */
+    private void invalidateMessagesFrom(final int cluster) {
+        ArrayDeque<int[]> stack = new ArrayDeque<int[]>();
+        stack.push(new int[] { cluster, -1 });
+        while (!stack.isEmpty()) {
+            int[] current = stack.pop();
+            int clique = current[0];
+            for (int k = 0; k < neighbors[clique].length; k++) {
+                if (neighbors[clique][k] != current[1] && isMessageValid[clique][k]) {
+                    isMessageValid[clique][k] = false;
+                    stack.push(new int[] { neighbors[clique][k], clique });
+                }
+            }
+        }
+    }
+
+    private void collectEvidence() {
+        for (int depth = cliquesByDepth.length - 1; depth > 0; depth--) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int clique : cliquesByDepth[depth]) {
+                boolean[] targets = new boolean[neighbors[clique].length];
+                if (requestMessage(clique, parentIndices[clique], targets)) {
+                    tasks.add(createSendTask(clique, targets));
+                }
+            }
+            ParallelTasks.invokeAll(executor, tasks);
+        }
+    }
+
+    private void distributeEvidence() {
+        for (int depth = 0; depth < cliquesByDepth.length - 1; depth++) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int clique : cliquesByDepth[depth]) {
+                boolean[] targets = new boolean[neighbors[clique].length];
+                boolean hasTargets = false;
+                for (int k = 0; k < neighbors[clique].length; k++) {
+                    if (k != parentIndices[clique]) {
+                        hasTargets |= requestMessage(clique, k, targets);
+                    }
+                }
+                if (hasTargets) {
+                    tasks.add(createSendTask(clique, targets));
+                }
+            }
+            ParallelTasks.invokeAll(executor, tasks);
+        }
+    }
+
+    /**
+     * marks the message from the clique to its k-th neighbor as target, if it needs to be computed
+     *
+     * @return whether the message needs to be computed
+     */
+    private boolean requestMessage(final int clique, final int k, final boolean[] targets) {
+        if (isMessageValid[clique][k]) {
+            return false;
+        }
+        // we don't get additional information if all variables in the sepSet are
+        // observed, so a constant message suffices
+        if (isSepSetObserved(clique, k)) {
+            messages[clique][k].fill(potentials[neighbors[clique][k]].isLogScale() ? 0.0 : 1.0);
+            isMessageValid[clique][k] = true;
+            return false;
+        }
+        targets[k] = true;
+        return true;
+    }
+
+    private boolean isSepSetObserved(final int clique, final int k) {
+        for (int var : sepSetIDs[clique][k]) {
+            if (observedOutcomes[var] == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Callable<Void> createSendTask(final int clique, final boolean[] targets) {
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                sendMessages(clique, targets);
+                return null;
+            }
+
+        };
+    }
+
+    private void sendMessages(final int clique, final boolean[] targets) {
+        buffers[clique][0].copyValues(potentials[clique].getValues());
+        sendMessages(clique, targets, 0, neighbors[clique].length - 1, 0);
+    }
+
+    /**
+     * computes the messages to the targeted neighbors in [lo, hi]. The buffer at the given depth holds the product of
+     * the potential and all incoming messages from outside of [lo, hi]. If both halves of the range contain targets, the
+     * first half works on a copy at the next depth, otherwise the buffer is reused in place.
+     */
+    private void sendMessages(final int clique, final boolean[] targets, final int lo, final int hi, final int depth) {
+        final AbstractFactor buffer = buffers[clique][depth];
+        if (lo == hi) {
+            computeMessage(clique, lo, buffer);
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        final boolean isFirstHalfTargeted = containsTarget(targets, lo, mid);
+        final boolean isSecondHalfTargeted = containsTarget(targets, mid + 1, hi);
+        if (isFirstHalfTargeted) {
+            int nextDepth = depth;
+            if (isSecondHalfTargeted) {
+                nextDepth = depth + 1;
+                buffers[clique][nextDepth].copyValues(buffer.getValues());
+            }
+            multiplyIncomingMessages(clique, mid + 1, hi, buffers[clique][nextDepth]);
+            sendMessages(clique, targets, lo, mid, nextDepth);
+        }
+        if (isSecondHalfTargeted) {
+            multiplyIncomingMessages(clique, lo, mid, buffer);
+            sendMessages(clique, targets, mid + 1, hi, depth);
+        }
+    }
+
+    private static boolean containsTarget(final boolean[] targets, final int lo, final int hi) {
+        for (int k = lo; k <= hi; k++) {
+            if (targets[k]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void multiplyIncomingMessages(final int clique, final int lo, final int hi, final AbstractFactor target) {
+        for (int k = lo; k <= hi; k++) {
+            IArrayWrapper incoming = messages[neighbors[clique][k]][backIndices[clique][k]];
+            target.multiplyPrepared(incoming, preparedSepSets[clique][k]);
+        }
+    }
+
+    private void computeMessage(final int clique, final int k, final AbstractFactor product) {
+        final IArrayWrapper message = messages[clique][k];
+        product.sumPrepared(message, preparedSepSets[clique][k]);
+
+        final boolean isReceiverLogScale = potentials[neighbors[clique][k]].isLogScale();
+        if (product.isLogScale() && !isReceiverLogScale) {
+            MathUtils.exp(message);
+        } else if (!product.isLogScale() && isReceiverLogScale) {
+            MathUtils.log(message);
+        }
+        isMessageValid[clique][k] = true;
+    }
+
+}
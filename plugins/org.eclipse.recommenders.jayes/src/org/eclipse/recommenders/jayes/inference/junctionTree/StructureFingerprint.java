@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.inference.junctionTree;
+
+import java.util.Arrays;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+
+/**
+ * Identifies the structure of a {@link BayesNet}: the node order, the outcome counts and the parents of each node.
+ * Networks with equal fingerprints only differ in their probabilities, and can therefore use the same junction tree.
+ */
+public final class StructureFingerprint {
+
+    private final int[] structure;
+    private final int hashcode;
+
+    private StructureFingerprint(int[] structure) {
+        this.structure = structure;
+        this.hashcode = Arrays.hashCode(structure);
+    }
+
+    public static StructureFingerprint of(BayesNet net) {
+        int length = 1;
+        for (BayesNode node : net.getNodes()) {
+            length += 2 + node.getParents().size();
+        }
+        int[] structure = new int[length];
+        int i = 0;
+        structure[i++] = net.getNodes().size();
+        for (BayesNode node : net.getNodes()) {
+            structure[i++] = node.getOutcomeCount();
+            structure[i++] = node.getParents().size();
+            for (BayesNode parent : node.getParents()) {
+                structure[i++] = parent.getId();
+            }
+        }
+        return new StructureFingerprint(structure);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashcode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof StructureFingerprint)) {
+            return false;
+        }
+        StructureFingerprint other = (StructureFingerprint) obj;
+        return hashcode == other.hashcode && Arrays.equals(structure, other.structure);
+    }
+
+}
@@ -27,26 +27,34 @@ public class BasicSampler implements ISampler {
     private List<BayesNode> topologicallySortedNodes;
     private Map<BayesNode, String> evidence = Collections.emptyMap();
     private Random random = new Random();
+    private IUniformSource uniformSource = new PseudoRandomSource();
+    private boolean isUniformSourceInitialized;
 
     @Override
     public Map<BayesNode, String> sample() {
+        if (!isUniformSourceInitialized) {
+            isUniformSourceInitialized = true;
+            uniformSource.initialize(topologicallySortedNodes.size(), random);
+        }
+        uniformSource.nextPoint();
         Map<BayesNode, String> result = new HashMap<BayesNode, String>();
         result.putAll(evidence);
+        int dimension = 0;
         for (BayesNode n : topologicallySortedNodes) {
             if (!evidence.containsKey(n)) {
-                int newEvidence = sampleOutcome(n, result);
+                int newEvidence = sampleOutcome(n, result, uniformSource.getCoordinate(dimension));
                 result.put(n, n.getOutcomeName(newEvidence));
             }
+            dimension++;
         }
         return result;
 
     }
 
-    private int sampleOutcome(BayesNode node, Map<BayesNode, String> currentSample) {
+    private int sampleOutcome(BayesNode node, Map<BayesNode, String> currentSample, double rand) {
         double[] probs = node.marginalize(currentSample);
         double currentProb = 0;
         int newEvidence = 0;
-        double rand = random.nextDouble();
         for (double prob : probs) {
             currentProb += prob;
             if (rand < currentProb) {
@@ -60,6 +68,7 @@ public class BasicSampler implements ISampler {
     @Override
     public void setNetwork(BayesNet net) {
         topologicallySortedNodes = topsort(net.getNodes());
+        isUniformSourceInitialized = false;
     }
 
     private List<BayesNode> topsort(List<BayesNode> list) {
@@ -89,6 +98,17 @@ public class BasicSampler implements ISampler {
     @Override
     public void seed(long seed) {
         random.setSeed(seed);
+        isUniformSourceInitialized = false;
+    }
+
+    /**
+     * @param uniformSource
+     *            provides the uniform variates for the nodes, in topological order. The default are independent
+     *            pseudo-random numbers.
+     */
+    public void setUniformSource(IUniformSource uniformSource) {
+        this.uniformSource = uniformSource;
+        isUniformSourceInitialized = false;
     }
 
     @Override
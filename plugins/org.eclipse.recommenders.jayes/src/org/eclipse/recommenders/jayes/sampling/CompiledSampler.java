@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+
+/**
+ * Forward sampler working on primitive arrays. The network is compiled once into a topological order, parent strides
+ * and one alias table per CPT row (Walker's alias method, as constructed by Vose), so that drawing an outcome takes
+ * constant time. A sample is an <code>int[]</code> holding the outcome index of every node, indexed by node id.
+ * Sampling into a given array does not allocate.
+ */
+public class CompiledSampler implements ISampler {
+
+    private static final int UNOBSERVED = -1;
+
+    private BayesNet net;
+    private int[] topologicalOrder;
+    private int[] outcomeCounts;
+    // parents of node n are parentIds[parentOffsets[n]] ... parentIds[parentOffsets[n + 1] - 1]
+    private int[] parentOffsets;
+    private int[] parentIds;
+    private int[] parentStrides;
+    // the CPT of node n starts at tableOffsets[n] in the following arrays
+    private int[] tableOffsets;
+    private double[] probabilities;
+    private double[] aliasProbabilities;
+    private int[] aliases;
+
+    private int[] evidence = new int[0];
+    private Random random = new Random();
+
+    @Override
+    public void setNetwork(BayesNet net) {
+        this.net = net;
+        int nodeCount = net.getNodes().size();
+        topologicalOrder = computeTopologicalOrder(net);
+        outcomeCounts = new int[nodeCount];
+        parentOffsets = new int[nodeCount + 1];
+        tableOffsets = new int[nodeCount + 1];
+        for (BayesNode node : net.getNodes()) {
+            outcomeCounts[node.getId()] = node.getOutcomeCount();
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            BayesNode node = net.getNode(i);
+            parentOffsets[i + 1] = parentOffsets[i] + node.getParents().size();
+            tableOffsets[i + 1] = tableOffsets[i] + node.getProbabilities().length;
+        }
+
+        parentIds = new int[parentOffsets[nodeCount]];
+        parentStrides = new int[parentOffsets[nodeCount]];
+        probabilities = new double[tableOffsets[nodeCount]];
+        aliasProbabilities = new double[tableOffsets[nodeCount]];
+        aliases = new int[tableOffsets[nodeCount]];
+        for (int i = 0; i < nodeCount; i++) {
+            compileNode(net.getNode(i));
+        }
+
+        evidence = new int[nodeCount];
+        Arrays.fill(evidence, UNOBSERVED);
+    }
+
+    /**
+     * @return the node ids of the network, every node after its parents
+     */
+    public static int[] computeTopologicalOrder(BayesNet net) {
+        int nodeCount = net.getNodes().size();
+        int[] unsortedParents = new int[nodeCount];
+        ArrayDeque<BayesNode> roots = new ArrayDeque<BayesNode>();
+        for (BayesNode node : net.getNodes()) {
+            unsortedParents[node.getId()] = node.getParents().size();
+            if (node.getParents().isEmpty()) {
+                roots.add(node);
+            }
+        }
+        int[] order = new int[nodeCount];
+        int sorted = 0;
+        while (!roots.isEmpty()) {
+            BayesNode node = roots.poll();
+            order[sorted++] = node.getId();
+            for (BayesNode child : node.getChildren()) {
+                unsortedParents[child.getId()]--;
+                if (unsortedParents[child.getId()] == 0) {
+                    roots.add(child);
+                }
+            }
+        }
+        if (sorted != nodeCount) {
+            throw new IllegalArgumentException("The network contains a cycle");
+        }
+        return order;
+    }
+
+    private void compileNode(BayesNode node) {
+        int id = node.getId();
+        int stride = 1;
+        for (int p = node.getParents().size() - 1; p >= 0; p--) {
+            BayesNode parent = node.getParents().get(p);
+            parentIds[parentOffsets[id] + p] = parent.getId();
+            parentStrides[parentOffsets[id] + p] = stride;
+            stride *= parent.getOutcomeCount();
+        }
+
+        double[] cpt = node.getProbabilities();
+        System.arraycopy(cpt, 0, probabilities, tableOffsets[id], cpt.length);
+        int outcomeCount = node.getOutcomeCount();
+        for (int row = 0; row < cpt.length; row += outcomeCount) {
+            buildAliasTable(cpt, row, outcomeCount, tableOffsets[id] + row);
+        }
+    }
+
+    private void buildAliasTable(double[] cpt, int row, int outcomeCount, int target) {
+        double sum = 0;
+        for (int i = 0; i < outcomeCount; i++) {
+            sum += cpt[row + i];
+        }
+        double[] scaled = new double[outcomeCount];
+        int[] small = new int[outcomeCount];
+        int[] large = new int[outcomeCount];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < outcomeCount; i++) {
+            // rows that are all zero can never be reached, sample uniformly from them
+            scaled[i] = sum > 0 ? cpt[row + i] * outcomeCount / sum : 1.0;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            aliasProbabilities[target + less] = scaled[less];
+            aliases[target + less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // the remaining entries are 1 up to rounding errors
+        while (largeCount > 0) {
+            int more = large[--largeCount];
+            aliasProbabilities[target + more] = 1.0;
+            aliases[target + more] = more;
+        }
+        while (smallCount > 0) {
+            int less = small[--smallCount];
+            aliasProbabilities[target + less] = 1.0;
+            aliases[target + less] = less;
+        }
+    }
+
+    /**
+     * draws a sample from the prior distribution, with the evidence nodes clamped to their observed outcomes
+     *
+     * @param sample
+     *            receives the outcome index of every node, indexed by node id
+     */
+    public void sample(int[] sample, Random random) {
+        for (int node : topologicalOrder) {
+            if (evidence[node] != UNOBSERVED) {
+                sample[node] = evidence[node];
+            } else {
+                sample[node] = drawOutcome(node, computeRowOffset(node, sample), random);
+            }
+        }
+    }
+
+    public void sample(int[] sample) {
+        sample(sample, random);
+    }
+
+    /**
+     * draws a sample with the evidence nodes clamped to their observed outcomes, as used by likelihood weighting
+     *
+     * @param sample
+     *            receives the outcome index of every node, indexed by node id
+     * @return the likelihood of the evidence given the sample
+     */
+    public double sampleLikelihoodWeighted(int[] sample, Random random) {
+        double weight = 1.0;
+        for (int node : topologicalOrder) {
+            int rowOffset = computeRowOffset(node, sample);
+            if (evidence[node] != UNOBSERVED) {
+                sample[node] = evidence[node];
+                weight *= probabilities[rowOffset + evidence[node]];
+            } else {
+                sample[node] = drawOutcome(node, rowOffset, random);
+            }
+        }
+        return weight;
+    }
+
+    public double sampleLikelihoodWeighted(int[] sample) {
+        return sampleLikelihoodWeighted(sample, random);
+    }
+
+    private int drawOutcome(int node, int rowOffset, Random random) {
+        double u = random.nextDouble() * outcomeCounts[node];
+        int column = (int) u;
+        int entry = rowOffset + column;
+        return u - column < aliasProbabilities[entry] ? column : aliases[entry];
+    }
+
+    /**
+     * @return the position of the CPT row of the node that corresponds to the parent outcomes in the sample
+     */
+    protected int computeRowOffset(int node, int[] sample) {
+        int row = 0;
+        for (int p = parentOffsets[node]; p < parentOffsets[node + 1]; p++) {
+            row += sample[parentIds[p]] * parentStrides[p];
+        }
+        return tableOffsets[node] + row * outcomeCounts[node];
+    }
+
+    /**
+     * @return the conditional probability of the node's outcome in the sample, given its parents' outcomes in the
+     *         sample
+     */
+    public double getProbability(int node, int[] sample) {
+        return probabilities[computeRowOffset(node, sample) + sample[node]];
+    }
+
+    public int[] getTopologicalOrder() {
+        return topologicalOrder.clone();
+    }
+
+    /**
+     * @param evidence
+     *            the observed outcome index per node id, or -1 for unobserved nodes
+     */
+    public void setEvidence(int[] evidence) {
+        this.evidence = evidence.clone();
+    }
+
+    @Override
+    public void setEvidence(Map<BayesNode, String> evidence) {
+        Arrays.fill(this.evidence, UNOBSERVED);
+        for (Entry<BayesNode, String> e : evidence.entrySet()) {
+            this.evidence[e.getKey().getId()] = e.getKey().getOutcomeIndex(e.getValue());
+        }
+    }
+
+    @Override
+    public Map<BayesNode, String> sample() {
+        int[] sample = new int[outcomeCounts.length];
+        sample(sample);
+        Map<BayesNode, String> result = new HashMap<BayesNode, String>();
+        for (int i = 0; i < sample.length; i++) {
+            BayesNode node = net.getNode(i);
+            result.put(node, node.getOutcomeName(sample[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public void seed(long seed) {
+        random.setSeed(seed);
+    }
+
+    @Override
+    @Deprecated
+    public void setBN(BayesNet net) {
+        setNetwork(net);
+    }
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.recommenders.internal.jayes.util.ParallelTasks;
+import org.eclipse.recommenders.internal.jayes.util.SplitMix64Random;
+import org.eclipse.recommenders.jayes.BayesNet;
+
+/**
+ * Generates large datasets of samples from the joint distribution of a network, block by block. Every block is drawn
+ * from its own random stream, split off from the seed in block order, so the dataset only depends on the seed and the
+ * block size, but not on the executor or the worker count. <br/>
+ * <br/>
+ * With an executor, one block per worker is generated in parallel, while the blocks generated before are written to
+ * the sink in the calling thread. Two rounds of blocks are allocated and reused, so the memory use does not depend on
+ * the number of rows.
+ */
+public class DatasetGenerator {
+
+    private final BayesNet net;
+    private final CompiledSampler sampler = new CompiledSampler();
+    private int blockSize = 1 << 16;
+    private ExecutorService executor;
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+    private long seed = new Random().nextLong();
+
+    public DatasetGenerator(BayesNet net) {
+        this.net = net;
+        sampler.setNetwork(net);
+    }
+
+    /**
+     * generates the rows and passes them to the sink in blocks of at most the block size, in order
+     */
+    public void generate(long rowCount, ISampleBlockSink sink) throws IOException {
+        int blocksPerRound = executor == null ? 1 : workerCount;
+        SampleBlock[][] rounds = new SampleBlock[2][blocksPerRound];
+        SplitMix64Random streams = new SplitMix64Random(seed);
+        long remaining = rowCount;
+        int round = 0;
+        List<Future<SampleBlock>> pending = new ArrayList<Future<SampleBlock>>();
+        do {
+            List<Future<SampleBlock>> submitted = new ArrayList<Future<SampleBlock>>();
+            SampleBlock[] blocks = rounds[round++ % 2];
+            for (int i = 0; i < blocksPerRound && remaining > 0; i++) {
+                int rows = (int) Math.min(blockSize, remaining);
+                remaining -= rows;
+                if (blocks[i] == null) {
+                    blocks[i] = new SampleBlock(net.getNodes().size(), blockSize);
+                }
+                submitted.add(submit(createBlockTask(blocks[i], rows, streams.split())));
+            }
+            // the previous round is written while the current one is generated
+            for (Future<SampleBlock> block : pending) {
+                sink.write(ParallelTasks.await(block));
+            }
+            pending = submitted;
+        } while (!pending.isEmpty());
+    }
+
+    private Future<SampleBlock> submit(Callable<SampleBlock> task) {
+        if (executor != null) {
+            return executor.submit(task);
+        }
+        FutureTask<SampleBlock> future = new FutureTask<SampleBlock>(task);
+        future.run();
+        return future;
+    }
+
+    private Callable<SampleBlock> createBlockTask(final SampleBlock block, final int rows, final Random random) {
+        return new Callable<SampleBlock>() {
+
+            @Override
+            public SampleBlock call() {
+                fill(block, rows, random);
+                return block;
+            }
+
+        };
+    }
+
+    private void fill(SampleBlock block, int rows, Random random) {
+        int nodeCount = block.getNodeCount();
+        int[][] columns = new int[nodeCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            columns[node] = block.getColumn(node);
+        }
+        int[] sample = new int[nodeCount];
+        for (int row = 0; row < rows; row++) {
+            sampler.sample(sample, random);
+            for (int node = 0; node < nodeCount; node++) {
+                columns[node][row] = sample[node];
+            }
+        }
+        block.setRowCount(rows);
+    }
+
+    /**
+     * @param blockSize
+     *            the maximal number of rows per block. Together with the seed, it determines the dataset.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param executor
+     *            generates the blocks. If none is set, the blocks are generated and written one after another in the
+     *            calling thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param workerCount
+     *            the number of blocks generated in parallel if an executor is set
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public void seed(long seed) {
+        this.seed = seed;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+import java.util.Random;
+
+/**
+ * the Halton low-discrepancy sequence, which uses the radical inverse of the point index in the i-th prime base as the
+ * i-th coordinate. <br/>
+ * <br/>
+ * By default, the sequence is scrambled: the digits of every dimension are permuted with a random permutation, which
+ * breaks the correlations between the coordinates of higher dimensions, and a random shift modulo 1 makes every
+ * coordinate uniformly distributed. Independent scramblings give independent estimates, so the error can be measured
+ * across several runs with different seeds.
+ */
+public class HaltonSource implements IUniformSource {
+
+    private final boolean isScrambled;
+    private int[] bases;
+    private int[][] digitPermutations;
+    private double[] shifts;
+    private long index;
+
+    public HaltonSource() {
+        this(true);
+    }
+
+    /**
+     * @param isScrambled
+     *            whether to randomize the sequence with digit permutations and random shifts
+     */
+    public HaltonSource(boolean isScrambled) {
+        this.isScrambled = isScrambled;
+    }
+
+    @Override
+    public void initialize(int dimensions, Random random) {
+        bases = computePrimes(dimensions);
+        digitPermutations = new int[dimensions][];
+        shifts = new double[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            digitPermutations[d] = new int[bases[d]];
+            for (int i = 0; i < bases[d]; i++) {
+                digitPermutations[d][i] = i;
+            }
+            if (isScrambled) {
+                shuffle(digitPermutations[d], random);
+                shifts[d] = random.nextDouble();
+            }
+        }
+        // the first point has index 1, because the unscrambled point with index 0 is the origin
+        index = 0;
+    }
+
+    private static int[] computePrimes(int count) {
+        int[] primes = new int[count];
+        int found = 0;
+        for (int candidate = 2; found < count; candidate++) {
+            boolean isPrime = true;
+            for (int i = 0; i < found && primes[i] * primes[i] <= candidate; i++) {
+                if (candidate % primes[i] == 0) {
+                    isPrime = false;
+                    break;
+                }
+            }
+            if (isPrime) {
+                primes[found++] = candidate;
+            }
+        }
+        return primes;
+    }
+
+    static void shuffle(int[] array, Random random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    @Override
+    public void nextPoint() {
+        index++;
+    }
+
+    @Override
+    public double getCoordinate(int dimension) {
+        double value = radicalInverse(index, bases[dimension], digitPermutations[dimension]) + shifts[dimension];
+        return value >= 1.0 ? value - 1.0 : value;
+    }
+
+    private static double radicalInverse(long index, int base, int[] permutation) {
+        double value = 0;
+        double scale = 1.0 / base;
+        long remaining = index;
+        while (remaining > 0) {
+            value += permutation[(int) (remaining % base)] * scale;
+            remaining /= base;
+            scale /= base;
+        }
+        // the infinitely many leading zero digits of the index, as seen by the permutation
+        value += permutation[0] * scale * base / (base - 1);
+        return Math.min(value, Math.nextAfter(1.0, 0));
+    }
+
+}
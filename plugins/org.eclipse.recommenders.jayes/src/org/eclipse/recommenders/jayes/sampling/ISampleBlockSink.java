@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+import java.io.IOException;
+
+/**
+ * receives the blocks produced by a {@link DatasetGenerator}, in order
+ */
+public interface ISampleBlockSink {
+
+    /**
+     * @param block
+     *            is reused by the generator after this method returns, so it must not be retained
+     */
+    void write(SampleBlock block) throws IOException;
+
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+import java.util.Random;
+
+/**
+ * provides the uniform variates from which a sampler draws the outcomes of the nodes. Every sample corresponds to a
+ * point in the unit hypercube with one dimension per node. The points need not be independent: low-discrepancy and
+ * stratified sources spread them more evenly, which reduces the error per sample.
+ */
+public interface IUniformSource {
+
+    /**
+     * starts a new sequence of points
+     *
+     * @param dimensions
+     *            the number of coordinates of every point
+     * @param random
+     *            the source of randomness, if the source needs any
+     */
+    void initialize(int dimensions, Random random);
+
+    /**
+     * moves to the next point of the sequence
+     */
+    void nextPoint();
+
+    /**
+     * @return a coordinate of the current point, in [0, 1). Every coordinate is requested at most once per point.
+     */
+    double getCoordinate(int dimension);
+
+}
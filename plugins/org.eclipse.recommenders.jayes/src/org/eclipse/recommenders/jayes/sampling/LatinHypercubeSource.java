@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+import java.util.Random;
+
+/**
+ * Latin hypercube sampling. The points are generated in blocks. Within a block of n points, every dimension is split
+ * into n strata of equal width and every stratum contains exactly one coordinate, at a random position within the
+ * stratum. The strata are assigned to the points by an independent random permutation per dimension.
+ */
+public class LatinHypercubeSource implements IUniformSource {
+
+    private final int blockSize;
+    private Random random;
+    private int[][] strata;
+    private int point;
+
+    /**
+     * @param blockSize
+     *            the number of points per block, ideally the number of samples drawn per update
+     */
+    public LatinHypercubeSource(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public void initialize(int dimensions, Random random) {
+        this.random = random;
+        strata = new int[dimensions][blockSize];
+        point = blockSize - 1;
+    }
+
+    @Override
+    public void nextPoint() {
+        point++;
+        if (point == blockSize) {
+            point = 0;
+            for (int[] s : strata) {
+                for (int i = 0; i < blockSize; i++) {
+                    s[i] = i;
+                }
+                HaltonSource.shuffle(s, random);
+            }
+        }
+    }
+
+    @Override
+    public double getCoordinate(int dimension) {
+        return (strata[dimension][point] + random.nextDouble()) / blockSize;
+    }
+
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+import java.util.Random;
+
+/**
+ * independent pseudo-random coordinates, drawn from the random number generator on request
+ */
+public class PseudoRandomSource implements IUniformSource {
+
+    private Random random;
+
+    @Override
+    public void initialize(int dimensions, Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public void nextPoint() {
+
+    }
+
+    @Override
+    public double getCoordinate(int dimension) {
+        return random.nextDouble();
+    }
+
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.jayes.sampling;
+
+/**
+ * A block of samples, stored column-wise: the column of a node holds the node's outcome index for every row of the
+ * block. Blocks have a fixed capacity and are reused, so only the first {@link #getRowCount()} entries of a column are
+ * valid.
+ */
+public class SampleBlock {
+
+    private final int[][] columns;
+    private int rowCount;
+
+    public SampleBlock(int nodeCount, int capacity) {
+        columns = new int[nodeCount][capacity];
+    }
+
+    /**
+     * @return the outcome indices of the node, one per row
+     */
+    public int[] getColumn(int nodeId) {
+        return columns[nodeId];
+    }
+
+    public int getNodeCount() {
+        return columns.length;
+    }
+
+    public int getCapacity() {
+        return columns.length == 0 ? 0 : columns[0].length;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(int rowCount) {
+        if (rowCount < 0 || rowCount > getCapacity()) {
+            throw new IllegalArgumentException("Row count " + rowCount + " exceeds the capacity " + getCapacity());
+        }
+        this.rowCount = rowCount;
+    }
+
+}
@@ -10,6 +10,8 @@
  */
 package org.eclipse.recommenders.jayes.util;
 
+import java.util.Arrays;
+
 import org.eclipse.recommenders.jayes.factor.arraywrapper.IArrayWrapper;
 
 public class MathUtils {
@@ -123,11 +125,30 @@ public class MathUtils {
     /**
      * product of the values in the array, from index start (inclusive) to end (exclusive)
      * @throws ArrayIndexOutOfBoundsException if end >= vector.length
+     * @throws IllegalArgumentException if the product exceeds the range of int, which is the maximal table size
      */
     public static int productOfRange(int[] vector, int start, int end){
-        int result = 1;
+        long result = 1;
         for(int i = start; i < end; i++){
             result *= vector[i];
+            if (result > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Table size exceeds the maximal array size: "
+                        + Arrays.toString(Arrays.copyOfRange(vector, start, end)));
+            }
+        }
+        return (int) result;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the product exceeds the range of long
+     */
+    public static long longProduct(int[] vector) {
+        long result = 1;
+        for (int v : vector) {
+            if (v != 0 && result > Long.MAX_VALUE / v) {
+                throw new IllegalArgumentException("Table size exceeds the range of long: " + Arrays.toString(vector));
+            }
+            result *= v;
         }
         return result;
     }
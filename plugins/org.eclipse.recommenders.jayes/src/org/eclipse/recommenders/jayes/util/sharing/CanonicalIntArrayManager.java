@@ -10,11 +10,15 @@
  */
 package org.eclipse.recommenders.jayes.util.sharing;
 
+/**
+ * Manages canonical instances of int arrays. Instances of this class are thread-safe, so that prepared operations can
+ * be interned while they are computed in parallel.
+ */
 public class CanonicalIntArrayManager {
 
-    private CanonicalIntArraySet registered = new CanonicalIntArraySet();
+    private final CanonicalIntArraySet registered = new CanonicalIntArraySet();
 
-    public int[] getInstance(int[] intArr) {
+    public synchronized int[] getInstance(int[] intArr) {
         if (registered.contains(intArr)) {
             return registered.get(intArr);
         }
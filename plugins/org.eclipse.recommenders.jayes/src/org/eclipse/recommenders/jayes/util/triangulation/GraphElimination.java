@@ -15,6 +15,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.util.Graph;
 
 /**
@@ -33,6 +35,32 @@ public class GraphElimination implements Iterable<List<Integer>> {
         this.heuristic = heuristic;
     }
 
+    /**
+     * @return the variables of the network in the order the heuristic eliminates them from the moral graph. Ties are
+     *         broken towards small clusters, by weighting the nodes with the logarithm of their outcome count.
+     */
+    public static List<Integer> getEliminationOrder(BayesNet net, IEliminationHeuristic heuristic) {
+        Graph moralGraph = new Graph();
+        moralGraph.initialize(net.getNodes().size());
+        double[] weights = new double[net.getNodes().size()];
+        for (BayesNode node : net.getNodes()) {
+            weights[node.getId()] = Math.log(node.getOutcomeCount());
+            List<BayesNode> parents = node.getParents();
+            for (int i = 0; i < parents.size(); i++) {
+                moralGraph.addEdge(parents.get(i).getId(), node.getId());
+                for (int j = i + 1; j < parents.size(); j++) {
+                    moralGraph.addEdge(parents.get(i).getId(), parents.get(j).getId());
+                }
+            }
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        for (List<Integer> clique : new GraphElimination(moralGraph, weights, heuristic)) {
+            // the eliminated node comes first
+            order.add(clique.get(0));
+        }
+        return order;
+    }
+
     private List<Integer> getNodeList() {
         final List<Integer> moralNodes = new LinkedList<Integer>();
         for (int i = 0; i < graph.getAdjacency().size(); i++) {
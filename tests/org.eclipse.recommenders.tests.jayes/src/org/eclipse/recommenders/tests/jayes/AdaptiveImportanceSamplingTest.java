@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.AdaptiveImportanceSampling;
+import org.eclipse.recommenders.jayes.inference.LikelihoodWeightedSampling;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class AdaptiveImportanceSamplingTest {
+
+    @Test
+    public void testSampler1() {
+        BayesNet net = NetExamples.testNet1();
+
+        BayesNode a = net.getNode("a");
+        BayesNode b = net.getNode("b");
+        BayesNode c = net.getNode("c");
+
+        AdaptiveImportanceSampling sampler = new AdaptiveImportanceSampling();
+        sampler.setSampleCount(10000);
+        sampler.seed(1337); //for reproducibility
+        sampler.setNetwork(net);
+        sampler.addEvidence(a, "false");
+        sampler.addEvidence(b, "lu");
+
+        assertArrayEquals(sampler.getBeliefs(c), new double[] { 0.7, 0.3 }, 0.01);
+    }
+
+    @Test
+    public void testRareEvidence() {
+        BayesNet net = new BayesNet();
+        BayesNode cause1 = net.createNode("cause1");
+        cause1.addOutcomes("true", "false");
+        cause1.setProbabilities(0.001, 0.999);
+        BayesNode cause2 = net.createNode("cause2");
+        cause2.addOutcomes("true", "false");
+        cause2.setProbabilities(0.002, 0.998);
+        for (int i = 0; i < 6; i++) {
+            BayesNode symptom = net.createNode("symptom" + i);
+            symptom.addOutcomes("true", "false");
+            symptom.setParents(Arrays.asList(cause1, cause2));
+            symptom.setProbabilities(0.95, 0.05, 0.9, 0.1, 0.7, 0.3, 0.01, 0.99);
+        }
+
+        JunctionTreeAlgorithm exact = new JunctionTreeAlgorithm();
+        exact.setNetwork(net);
+        AdaptiveImportanceSampling adaptive = new AdaptiveImportanceSampling();
+        adaptive.setSampleCount(2000);
+        adaptive.seed(3);
+        adaptive.setNetwork(net);
+        LikelihoodWeightedSampling weighting = new LikelihoodWeightedSampling();
+        weighting.setSampleCount(7000);
+        weighting.seed(3);
+        weighting.setNetwork(net);
+        for (int i = 0; i < 6; i++) {
+            BayesNode symptom = net.getNode("symptom" + i);
+            exact.addEvidence(symptom, "true");
+            adaptive.addEvidence(symptom, "true");
+            weighting.addEvidence(symptom, "true");
+        }
+
+        assertArrayEquals(exact.getBeliefs(cause1), adaptive.getBeliefs(cause1), 0.05);
+        assertArrayEquals(exact.getBeliefs(cause2), adaptive.getBeliefs(cause2), 0.05);
+        weighting.getBeliefs(cause1);
+        assertTrue(adaptive.getEffectiveSampleSize() > 10 * weighting.getEffectiveSampleSize());
+    }
+
+}
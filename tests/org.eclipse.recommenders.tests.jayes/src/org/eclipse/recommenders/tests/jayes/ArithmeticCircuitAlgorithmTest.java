@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.arithmeticCircuit.ArithmeticCircuit;
+import org.eclipse.recommenders.jayes.inference.arithmeticCircuit.ArithmeticCircuitAlgorithm;
+import org.eclipse.recommenders.jayes.inference.arithmeticCircuit.ArithmeticCircuitCompiler;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.MinDegree;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class ArithmeticCircuitAlgorithmTest {
+
+    @Test
+    public void testWithoutEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        assertBeliefsEqual(net, new ArithmeticCircuitAlgorithm(), new HashMap<BayesNode, String>());
+    }
+
+    @Test
+    public void testChangingEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        ArithmeticCircuitAlgorithm inferer = new ArithmeticCircuitAlgorithm();
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("b"), "lu");
+        evidence.put(net.getNode("d"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+        evidence.put(net.getNode("a"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test
+    public void testSparseNet() {
+        BayesNet net = NetExamples.sparseNet();
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("d"), "false");
+        ArithmeticCircuitAlgorithm inferer = new ArithmeticCircuitAlgorithm();
+        inferer.setCompiler(new ArithmeticCircuitCompiler(new MinDegree()));
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test
+    public void testEvidenceProbability() {
+        BayesNet net = new BayesNet();
+        BayesNode a = net.createNode("a");
+        a.addOutcomes("true", "false");
+        a.setProbabilities(0.2, 0.8);
+        BayesNode b = net.createNode("b");
+        b.addOutcomes("true", "false");
+        b.setParents(Arrays.asList(a));
+        b.setProbabilities(0.9, 0.1, 0.3, 0.7);
+
+        ArithmeticCircuitAlgorithm inferer = new ArithmeticCircuitAlgorithm();
+        inferer.setNetwork(net);
+        assertEquals(1.0, inferer.getEvidenceProbability(), 1e-9);
+        inferer.addEvidence(b, "true");
+        assertEquals(0.2 * 0.9 + 0.8 * 0.3, inferer.getEvidenceProbability(), 1e-9);
+        assertArrayEquals(new double[] { 0.18 / 0.42, 0.24 / 0.42 }, inferer.getBeliefs(a), 1e-9);
+    }
+
+    @Test
+    public void testDeterminismShrinksCircuit() {
+        // a chain of copies: every node deterministically repeats its parent
+        BayesNet net = new BayesNet();
+        BayesNode parent = null;
+        for (int i = 0; i < 10; i++) {
+            BayesNode node = net.createNode("n" + i);
+            node.addOutcomes("x", "y", "z");
+            if (parent == null) {
+                node.setProbabilities(0.2, 0.3, 0.5);
+            } else {
+                node.setParents(Arrays.asList(parent));
+                node.setProbabilities(1, 0, 0, 0, 1, 0, 0, 0, 1);
+            }
+            parent = node;
+        }
+        ArithmeticCircuit circuit = new ArithmeticCircuitCompiler().compile(net);
+        // the eliminations of a dense chain would need 9 products per node
+        assertTrue(circuit.getEdgeCount() < 9 * 10);
+
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("n9"), "z");
+        assertBeliefsEqual(net, new ArithmeticCircuitAlgorithm(), evidence);
+    }
+
+    @Test(expected = NumericalInstabilityException.class)
+    public void testImpossibleEvidence() {
+        BayesNet net = NetExamples.sparseNet();
+        BayesNode a = net.getNode("a");
+        ArithmeticCircuitAlgorithm inferer = new ArithmeticCircuitAlgorithm();
+        inferer.setNetwork(net);
+        // a has probability 0 for its first outcome
+        inferer.addEvidence(a, a.getOutcomeName(0));
+        inferer.getBeliefs(net.getNode("d"));
+    }
+
+    private void assertBeliefsEqual(BayesNet net, ArithmeticCircuitAlgorithm inferer, Map<BayesNode, String> evidence) {
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.setEvidence(evidence);
+        inferer.setNetwork(net);
+        inferer.setEvidence(evidence);
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 1e-9);
+        }
+    }
+
+}
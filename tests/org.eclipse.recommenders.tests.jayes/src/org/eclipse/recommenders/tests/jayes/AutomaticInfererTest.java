@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.AutomaticInferer;
+import org.eclipse.recommenders.jayes.inference.AutomaticInferer.Strategy;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class AutomaticInfererTest {
+
+    @Test
+    public void testJunctionTree() {
+        BayesNet net = NetExamples.testNet1();
+        AutomaticInferer inferer = new AutomaticInferer();
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertEquals(Strategy.JUNCTION_TREE, inferer.getStrategy());
+        assertNotNull(inferer.getCostEstimate());
+        assertBeliefsEqual(net, inferer, 1e-9);
+    }
+
+    @Test
+    public void testVariableElimination() {
+        BayesNet net = NetExamples.testNet1();
+        AutomaticInferer inferer = new AutomaticInferer();
+        // a propagation fits into the latency budget, but the compilation does not
+        inferer.setOperationsPerMillisecond(1);
+        inferer.setLatencyBudget(100);
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertEquals(Strategy.VARIABLE_ELIMINATION, inferer.getStrategy());
+        assertBeliefsEqual(net, inferer, 1e-9);
+    }
+
+    @Test
+    public void testApproximation() {
+        BayesNet net = NetExamples.testNet1();
+        AutomaticInferer inferer = new AutomaticInferer();
+        inferer.setMemoryBudget(0);
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertEquals(Strategy.LOOPY_BELIEF_PROPAGATION, inferer.getStrategy());
+        assertBeliefsEqual(net, inferer, 0.05);
+
+        inferer.setLatencyBudget(0);
+        inferer.setNetwork(net);
+        assertEquals(Strategy.SAMPLING, inferer.getStrategy());
+    }
+
+    @Test
+    public void testBackgroundCompilation() {
+        BayesNet net = NetExamples.testNet1();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AutomaticInferer inferer = new AutomaticInferer();
+            inferer.setExecutor(executor);
+            inferer.setNetwork(net);
+            inferer.addEvidence(net.getNode("d"), "false");
+            assertBeliefsEqual(net, inferer, 0.05);
+
+            inferer.awaitStrategy();
+            assertEquals(Strategy.JUNCTION_TREE, inferer.getStrategy());
+            assertBeliefsEqual(net, inferer, 1e-9);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertBeliefsEqual(BayesNet net, AutomaticInferer inferer, double delta) {
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.setEvidence(inferer.getEvidence());
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), delta);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.factor.ChunkedFactor;
+import org.eclipse.recommenders.jayes.factor.DenseFactor;
+import org.eclipse.recommenders.jayes.factor.arraywrapper.DoubleArrayWrapper;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.junit.Test;
+
+public class ChunkedFactorTest {
+
+    private static final double TOLERANCE = 0.00001;
+
+    // chunks of 4 entries, so that the tables below span several chunks
+    private static final int CHUNK_BITS = 2;
+
+    private static ChunkedFactor create(int[] ids, int[] dimensions, double... values) {
+        ChunkedFactor factor = new ChunkedFactor(ids, dimensions, CHUNK_BITS);
+        for (int i = 0; i < values.length; i++) {
+            factor.setValue(i, values[i]);
+        }
+        return factor;
+    }
+
+    private static double[] toArray(ChunkedFactor factor) {
+        double[] values = new double[(int) factor.getLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = factor.getValue(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void testSelectAndSum() {
+        ChunkedFactor factor = create(new int[] { 0, 1, 2 }, new int[] { 2, 2, 2 }, 0.5, 0.5, 1.0, 0.0, 0.4, 0.6,
+                0.3, 0.7);
+        factor.select(0, 0);
+        assertArrayEquals(new double[] { 0.75, 0.25 }, MathUtils.normalize(factor.marginalizeAllBut(-1)), TOLERANCE);
+
+        factor.select(0, -1);
+        factor.select(2, 0);
+        assertArrayEquals(new double[] { 0.9 / 2.2, 1.3 / 2.2 }, MathUtils.normalize(factor.marginalizeAllBut(1)),
+                TOLERANCE);
+    }
+
+    @Test
+    public void testMultiplication() {
+        ChunkedFactor f1 = new ChunkedFactor(new int[] { 0, 1, 2 }, new int[] { 2, 2, 2 }, CHUNK_BITS);
+        f1.fill(0.5);
+        ChunkedFactor f2 = create(new int[] { 2, 0 }, new int[] { 2, 2 }, 1.0, 0.0, 0.0, 1.0);
+
+        f1.multiplyCompatible(f2);
+        assertArrayEquals(new double[] { 0.5, 0.0, 0.5, 0.0, 0.0, 0.5, 0.0, 0.5 }, toArray(f1), TOLERANCE);
+    }
+
+    @Test
+    public void testSumIntoMatchesDenseFactor() {
+        double[] values = new double[3 * 4 * 5];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 7 + 1;
+        }
+        ChunkedFactor chunked = create(new int[] { 0, 1, 2 }, new int[] { 3, 4, 5 }, values);
+        chunked.select(1, 2);
+        ChunkedFactor target = new ChunkedFactor(new int[] { 2, 0 }, new int[] { 5, 3 }, CHUNK_BITS);
+        chunked.sumInto(target);
+
+        AbstractFactor dense = new DenseFactor();
+        dense.setDimensionIDs(0, 1, 2);
+        dense.setDimensions(3, 4, 5);
+        dense.setValues(new DoubleArrayWrapper(values));
+        dense.select(1, 2);
+        AbstractFactor denseTarget = new DenseFactor();
+        denseTarget.setDimensionIDs(2, 0);
+        denseTarget.setDimensions(5, 3);
+        dense.sumPrepared(denseTarget.getValues(), dense.prepareMultiplication(denseTarget));
+
+        assertArrayEquals(denseTarget.getValues().toDoubleArray(), toArray(target), TOLERANCE);
+    }
+
+    @Test
+    public void testMultiplyAndSumOut() {
+        ChunkedFactor f1 = create(new int[] { 0, 1 }, new int[] { 2, 3 }, 1, 2, 3, 4, 5, 6);
+        ChunkedFactor f2 = create(new int[] { 2, 1 }, new int[] { 2, 3 }, 1, 0, 2, 3, 1, 1);
+
+        ChunkedFactor result = ChunkedFactor.multiplyAndSumOut(Arrays.asList(f1, f2), 1);
+
+        assertArrayEquals(new int[] { 0, 2 }, result.getDimensionIDs());
+        // result(a, c) = sum_b f1(a, b) * f2(c, b)
+        assertArrayEquals(new double[] { 1 + 6, 3 * 1 + 2 * 1 + 3 * 1, 4 + 12, 3 * 4 + 5 + 6 }, toArray(result),
+                TOLERANCE);
+    }
+
+    @Test
+    public void testLongStrides() {
+        // the empty first dimension keeps the table from being allocated, but the strides exceed the range of int
+        ChunkedFactor factor = new ChunkedFactor(new int[] { 0, 1, 2 }, new int[] { 0, 1 << 20, 1 << 20 });
+        assertEquals(0, factor.getLength());
+        assertEquals(1L << 40, factor.getStride(0));
+        assertEquals(1L << 20, factor.getStride(1));
+        factor.multiplyCompatible(new ChunkedFactor(new int[] { 2 }, new int[] { 1 << 20 }, CHUNK_BITS));
+    }
+
+    @Test
+    public void testRunsAcrossChunksMatchDenseFactor() {
+        // runs of 5 entries in chunks of 4 entries cross the chunk boundaries
+        int[] ids = { 0, 1, 2 };
+        int[] dimensions = { 3, 2, 5 };
+        double[] values = new double[30];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 11 + 1;
+        }
+        double[] otherValues = { 2, 3, 5, 7, 11, 13, 17, 19, 23, 29 };
+        for (int selected = -1; selected < 2; selected++) {
+            ChunkedFactor chunked = create(ids, dimensions, values);
+            AbstractFactor dense = createDense(ids, dimensions, values);
+            // the selection of the last dimension leaves the middle dimension as innermost loop
+            chunked.select(2, selected);
+            dense.select(2, selected);
+
+            chunked.multiplyCompatible(create(new int[] { 2, 1 }, new int[] { 5, 2 }, otherValues));
+            dense.multiplyCompatible(createDense(new int[] { 2, 1 }, new int[] { 5, 2 }, otherValues));
+            assertArrayEquals(dense.getValues().toDoubleArray(), toArray(chunked), TOLERANCE);
+
+            ChunkedFactor target = new ChunkedFactor(new int[] { 2, 0 }, new int[] { 5, 3 }, CHUNK_BITS);
+            chunked.sumInto(target);
+            AbstractFactor denseTarget = createDense(new int[] { 2, 0 }, new int[] { 5, 3 }, new double[15]);
+            dense.sumPrepared(denseTarget.getValues(), dense.prepareMultiplication(denseTarget));
+            assertArrayEquals(denseTarget.getValues().toDoubleArray(), toArray(target), TOLERANCE);
+        }
+    }
+
+    private static AbstractFactor createDense(int[] ids, int[] dimensions, double[] values) {
+        AbstractFactor dense = new DenseFactor();
+        dense.setDimensionIDs(ids);
+        dense.setDimensions(dimensions);
+        dense.setValues(new DoubleArrayWrapper(values.clone()));
+        return dense;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntOverflow() {
+        MathUtils.product(new int[] { 1 << 16, 1 << 16 });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLongOverflow() {
+        new ChunkedFactor(new int[] { 0, 1, 2 }, new int[] { 1 << 30, 1 << 30, 1 << 30 });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroChunkBits() {
+        new ChunkedFactor(new int[] { 0 }, new int[] { 4 }, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyChunkBits() {
+        new ChunkedFactor(new int[] { 0 }, new int[] { 4 }, 31);
+    }
+
+}
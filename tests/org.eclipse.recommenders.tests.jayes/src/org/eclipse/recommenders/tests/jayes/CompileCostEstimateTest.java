@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.junctionTree.CompileCostEstimate;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeBuilder;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class CompileCostEstimateTest {
+
+    @Test
+    public void testSmallNet() {
+        // cliques {a, b, c} and {c, d}, separated by {c}
+        CompileCostEstimate estimate = JunctionTreeBuilder.forHeuristic(new MinFillIn()).estimateCost(
+                NetExamples.testNet1());
+
+        assertTrue(estimate.isCompilable());
+        assertEquals(2, estimate.getTreewidth());
+        assertEquals(2, estimate.getCliqueCount());
+        assertEquals(12, estimate.getLargestCliqueStates());
+        assertEquals(16, estimate.getTotalCliqueStates());
+        assertEquals(2, estimate.getTotalSepSetStates());
+        assertEquals((16 + 2) * 8, estimate.getDenseMemory());
+        assertEquals(estimate.getDenseMemory(), estimate.getSparseMemory());
+        // both directions of the edge, and the queries of a, b (in {a, b, c}) and c, d (in {c, d})
+        assertEquals((12 + 4 + 12 + 12 + 4 + 4) * 4, estimate.getPreparedIndexMemory());
+        assertEquals(12 + 4 + 2 * 2, estimate.getMultiplications());
+    }
+
+    @Test
+    public void testSparseNet() {
+        CompileCostEstimate estimate = JunctionTreeBuilder.forHeuristic(new MinFillIn()).estimateCost(
+                NetExamples.sparseNet());
+
+        assertTrue(estimate.getSparseMemory() < estimate.getDenseMemory());
+    }
+
+    @Test
+    public void testOverflow() {
+        CompileCostEstimate estimate = JunctionTreeBuilder.forHeuristic(new MinFillIn()).estimateCost(
+                createGrid(20, 10));
+
+        assertFalse(estimate.isCompilable());
+        assertTrue(estimate.getTreewidth() >= 20);
+        assertEquals(Long.MAX_VALUE, estimate.getLargestCliqueStates());
+        assertEquals(Long.MAX_VALUE, estimate.getDenseMemory());
+        assertEquals(Long.MAX_VALUE, estimate.getMultiplications());
+    }
+
+    /**
+     * every node depends on its upper and left neighbor
+     */
+    private BayesNet createGrid(int size, int outcomes) {
+        BayesNet net = new BayesNet();
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                BayesNode node = net.createNode(row + "," + column);
+                for (int i = 0; i < outcomes; i++) {
+                    node.addOutcome("o" + i);
+                }
+                List<BayesNode> parents = new ArrayList<BayesNode>();
+                if (row > 0) {
+                    parents.add(net.getNode((row - 1) + "," + column));
+                }
+                if (column > 0) {
+                    parents.add(net.getNode(row + "," + (column - 1)));
+                }
+                node.setParents(parents);
+                double[] probabilities = new double[(int) Math.pow(outcomes, parents.size() + 1)];
+                for (int i = 0; i < probabilities.length; i++) {
+                    probabilities[i] = 1.0 / outcomes;
+                }
+                node.setProbabilities(probabilities);
+            }
+        }
+        return net;
+    }
+
+}
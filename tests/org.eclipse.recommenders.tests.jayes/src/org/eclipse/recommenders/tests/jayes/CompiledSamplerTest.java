@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.sampling.CompiledSampler;
+import org.eclipse.recommenders.jayes.util.MathUtils;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class CompiledSamplerTest {
+
+    private static final double TOLERANCE = 0.01;
+    private static final int SAMPLE_COUNT = 100000;
+
+    @Test
+    public void testPriorSampling() {
+        for (BayesNet net : new BayesNet[] { NetExamples.testNet1(), NetExamples.sparseNet() }) {
+            CompiledSampler sampler = new CompiledSampler();
+            sampler.setNetwork(net);
+
+            double[][] frequencies = createFrequencies(net);
+            int[] sample = new int[net.getNodes().size()];
+            Random random = new Random(1337);
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                sampler.sample(sample, random);
+                for (int node = 0; node < sample.length; node++) {
+                    frequencies[node][sample[node]]++;
+                }
+            }
+
+            JunctionTreeAlgorithm compare = new JunctionTreeAlgorithm();
+            compare.setNetwork(net);
+            for (BayesNode n : net.getNodes()) {
+                assertArrayEquals(compare.getBeliefs(n), MathUtils.normalize(frequencies[n.getId()]), TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void testLikelihoodWeightedSampling() {
+        BayesNet net = NetExamples.testNet1();
+        BayesNode a = net.getNode("a");
+        BayesNode b = net.getNode("b");
+        BayesNode c = net.getNode("c");
+
+        CompiledSampler sampler = new CompiledSampler();
+        sampler.setNetwork(net);
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(a, "false");
+        evidence.put(b, "lu");
+        sampler.setEvidence(evidence);
+
+        double[][] frequencies = createFrequencies(net);
+        int[] sample = new int[net.getNodes().size()];
+        Random random = new Random(1337);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            double weight = sampler.sampleLikelihoodWeighted(sample, random);
+            assertEquals(a.getOutcomeIndex("false"), sample[a.getId()]);
+            for (int node = 0; node < sample.length; node++) {
+                frequencies[node][sample[node]] += weight;
+            }
+        }
+
+        assertArrayEquals(new double[] { 0.7, 0.3 }, MathUtils.normalize(frequencies[c.getId()]), TOLERANCE);
+    }
+
+    @Test
+    public void testProbabilityLookup() {
+        BayesNet net = NetExamples.testNet1();
+        CompiledSampler sampler = new CompiledSampler();
+        sampler.setNetwork(net);
+
+        int[] sample = new int[net.getNodes().size()];
+        BayesNode c = net.getNode("c");
+        double[] cpt = c.getProbabilities();
+        // c is the last dimension of its CPT, so the last entry belongs to the last outcomes of all parents
+        for (BayesNode parent : c.getParents()) {
+            sample[parent.getId()] = parent.getOutcomeCount() - 1;
+        }
+        sample[c.getId()] = c.getOutcomeCount() - 1;
+        assertEquals(cpt[cpt.length - 1], sampler.getProbability(c.getId(), sample), 0.0);
+    }
+
+    private double[][] createFrequencies(BayesNet net) {
+        double[][] frequencies = new double[net.getNodes().size()][];
+        for (BayesNode n : net.getNodes()) {
+            frequencies[n.getId()] = new double[n.getOutcomeCount()];
+        }
+        return frequencies;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.junctionTree.CutsetConditioning;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class CutsetConditioningTest {
+
+    @Test
+    public void testGreedyCutset() {
+        BayesNet net = NetExamples.testNet1();
+        CutsetConditioning inferer = new CutsetConditioning();
+        inferer.setMaxClusterSize(2);
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertFalse(inferer.getCutset().isEmpty());
+        assertTrue(inferer.isExact());
+        assertBeliefsEqual(net, inferer, net.getNode("d"), "false");
+    }
+
+    @Test
+    public void testGivenCutset() {
+        BayesNet net = NetExamples.sparseNet();
+        CutsetConditioning inferer = new CutsetConditioning();
+        inferer.setCutset(net.getNode("a"), net.getNode("c"));
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertEquals(Arrays.asList(net.getNode("a"), net.getNode("c")), inferer.getCutset());
+        assertBeliefsEqual(net, inferer, net.getNode("d"), "false");
+    }
+
+    @Test
+    public void testObservedCutsetNode() {
+        BayesNet net = NetExamples.testNet1();
+        CutsetConditioning inferer = new CutsetConditioning();
+        inferer.setCutset(net.getNode("b"));
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("b"), "lu");
+
+        assertBeliefsEqual(net, inferer, net.getNode("b"), "lu");
+    }
+
+    @Test
+    public void testSampledAssignments() {
+        BayesNet net = NetExamples.testNet1();
+        CutsetConditioning inferer = new CutsetConditioning();
+        inferer.setCutset(net.getNode("a"), net.getNode("b"));
+        inferer.setMaxEnumeratedAssignments(1);
+        inferer.setSampleCount(5000);
+        inferer.seed(1337);
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertFalse(inferer.isExact());
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.addEvidence(net.getNode("d"), "false");
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 0.02);
+        }
+    }
+
+    @Test
+    public void testEvidenceProbability() {
+        BayesNet net = NetExamples.testNet1();
+        JunctionTreeAlgorithm inferer = new JunctionTreeAlgorithm();
+        inferer.setNetwork(net);
+        BayesNode a = net.getNode("a");
+        BayesNode d = net.getNode("d");
+
+        assertEquals(1.0, inferer.getEvidenceProbability(), 1e-9);
+        inferer.addEvidence(a, "true");
+        assertEquals(a.getProbabilities()[0], inferer.getEvidenceProbability(), 1e-9);
+        inferer.addEvidence(d, "false");
+        double pAD = inferer.getEvidenceProbability();
+        inferer.setEvidence(Collections.singletonMap(a, "true"));
+        assertEquals(pAD / a.getProbabilities()[0], inferer.getBeliefs(d)[1], 1e-9);
+        assertEquals(Math.log(inferer.getEvidenceProbability()), inferer.getLogEvidenceProbability(), 1e-9);
+    }
+
+    private void assertBeliefsEqual(BayesNet net, CutsetConditioning inferer, BayesNode observed, String outcome) {
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.addEvidence(observed, outcome);
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 1e-9);
+        }
+    }
+
+}
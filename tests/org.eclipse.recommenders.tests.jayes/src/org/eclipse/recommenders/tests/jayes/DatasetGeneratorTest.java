@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.io.ColumnarDatasetReader;
+import org.eclipse.recommenders.jayes.io.ColumnarDatasetWriter;
+import org.eclipse.recommenders.jayes.io.CsvDatasetWriter;
+import org.eclipse.recommenders.jayes.sampling.DatasetGenerator;
+import org.eclipse.recommenders.jayes.sampling.SampleBlock;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class DatasetGeneratorTest {
+
+    private static final int ROW_COUNT = 50000;
+
+    @Test
+    public void testColumnarRoundTrip() throws IOException {
+        BayesNet net = NetExamples.testNet1();
+        byte[] dataset = writeColumnar(net, null);
+
+        ColumnarDatasetReader reader = new ColumnarDatasetReader(Channels.newChannel(new ByteArrayInputStream(
+                dataset)));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), reader.getNodeNames());
+        assertEquals(Arrays.asList("la", "le", "lu"), reader.getOutcomes(1));
+
+        double[][] frequencies = new double[net.getNodes().size()][];
+        for (BayesNode node : net.getNodes()) {
+            frequencies[node.getId()] = new double[node.getOutcomeCount()];
+        }
+        int rows = 0;
+        SampleBlock block = null;
+        while ((block = reader.readBlock(block)) != null) {
+            for (int node = 0; node < frequencies.length; node++) {
+                for (int row = 0; row < block.getRowCount(); row++) {
+                    frequencies[node][block.getColumn(node)[row]] += 1.0 / ROW_COUNT;
+                }
+            }
+            rows += block.getRowCount();
+        }
+        assertEquals(ROW_COUNT, rows);
+        assertNull(reader.readBlock(null));
+
+        JunctionTreeAlgorithm inferer = new JunctionTreeAlgorithm();
+        inferer.setNetwork(net);
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(inferer.getBeliefs(node), frequencies[node.getId()], 0.01);
+        }
+    }
+
+    @Test
+    public void testExecutorIndependence() throws IOException {
+        BayesNet net = NetExamples.testNet1();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertArrayEquals(writeColumnar(net, null), writeColumnar(net, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        BayesNet net = NetExamples.testNet1();
+        DatasetGenerator generator = new DatasetGenerator(net);
+        generator.seed(1337);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvDatasetWriter writer = new CsvDatasetWriter(Channels.newChannel(out), net);
+        generator.generate(10, writer);
+        writer.close();
+
+        String csv = new String(out.toByteArray(), "UTF-8");
+        assertTrue(csv.endsWith("\r\n"));
+        String[] lines = csv.split("\r\n");
+        assertEquals(11, lines.length);
+        assertEquals("a,b,c,d", lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            String[] values = lines[i].split(",");
+            assertEquals(4, values.length);
+            for (BayesNode node : net.getNodes()) {
+                node.getOutcomeIndex(values[node.getId()]);
+            }
+        }
+    }
+
+    private byte[] writeColumnar(BayesNet net, ExecutorService executor) throws IOException {
+        DatasetGenerator generator = new DatasetGenerator(net);
+        generator.seed(1337);
+        generator.setBlockSize(4096);
+        generator.setExecutor(executor);
+        generator.setWorkerCount(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarDatasetWriter writer = new ColumnarDatasetWriter(Channels.newChannel(out), net);
+        generator.generate(ROW_COUNT, writer);
+        writer.close();
+        return out.toByteArray();
+    }
+
+}
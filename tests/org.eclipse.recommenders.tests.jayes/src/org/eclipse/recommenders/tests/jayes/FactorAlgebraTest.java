@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.factor.DenseFactor;
+import org.eclipse.recommenders.jayes.factor.FactorAlgebra;
+import org.eclipse.recommenders.jayes.factor.SparseFactor;
+import org.eclipse.recommenders.jayes.factor.arraywrapper.DoubleArrayWrapper;
+import org.junit.Test;
+
+public class FactorAlgebraTest {
+
+    private static final double TOLERANCE = 0.00001;
+
+    private static DenseFactor create(int[] ids, int[] dimensions, double... values) {
+        DenseFactor factor = new DenseFactor();
+        factor.setDimensionIDs(ids);
+        factor.setDimensions(dimensions);
+        factor.setValues(new DoubleArrayWrapper(values));
+        return factor;
+    }
+
+    /**
+     * a factor whose first half of the table is zero, so that a sparse copy has zero blocks
+     */
+    private static DenseFactor createHalfZero(int[] ids, int[] dimensions, Random random) {
+        int length = 1;
+        for (int d : dimensions) {
+            length *= d;
+        }
+        double[] values = new double[length];
+        for (int i = length / 2; i < length; i++) {
+            values[i] = random.nextInt(3) == 0 ? 0 : random.nextDouble();
+        }
+        return create(ids, dimensions, values);
+    }
+
+    private static double[] toArray(AbstractFactor factor) {
+        double[] values = new double[factor.getValues().length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = factor.getValue(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void testProduct() {
+        DenseFactor f1 = create(new int[] { 0, 1 }, new int[] { 2, 2 }, 1, 2, 3, 4);
+        DenseFactor f2 = create(new int[] { 2, 1 }, new int[] { 2, 2 }, 5, 6, 7, 8);
+
+        DenseFactor product = FactorAlgebra.product(f1, f2);
+        assertArrayEquals(new int[] { 0, 1, 2 }, product.getDimensionIDs());
+        assertArrayEquals(new int[] { 2, 2, 2 }, product.getDimensions());
+        assertArrayEquals(new double[] { 1 * 5, 1 * 7, 2 * 6, 2 * 8, 3 * 5, 3 * 7, 4 * 6, 4 * 8 }, toArray(product),
+                TOLERANCE);
+        // the operands are unchanged
+        assertArrayEquals(new double[] { 1, 2, 3, 4 }, toArray(f1), TOLERANCE);
+    }
+
+    @Test
+    public void testSumOutAndMaxOut() {
+        DenseFactor factor = create(new int[] { 0, 1, 2 }, new int[] { 2, 2, 2 }, 1, 2, 3, 4, 5, 6, 7, 8);
+
+        DenseFactor sum = FactorAlgebra.sumOut(factor, 1);
+        assertArrayEquals(new int[] { 0, 2 }, sum.getDimensionIDs());
+        assertArrayEquals(new double[] { 4, 6, 12, 14 }, toArray(sum), TOLERANCE);
+
+        DenseFactor max = FactorAlgebra.maxOut(factor, 0, 2);
+        assertArrayEquals(new int[] { 1 }, max.getDimensionIDs());
+        assertArrayEquals(new double[] { 6, 8 }, toArray(max), TOLERANCE);
+    }
+
+    @Test
+    public void testReduce() {
+        DenseFactor factor = create(new int[] { 0, 1, 2 }, new int[] { 2, 3, 2 }, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10,
+                11, 12);
+        Map<Integer, Integer> evidence = new HashMap<Integer, Integer>();
+        evidence.put(1, 2);
+        evidence.put(5, 0);
+
+        DenseFactor reduced = FactorAlgebra.reduce(factor, evidence);
+        assertArrayEquals(new int[] { 0, 2 }, reduced.getDimensionIDs());
+        assertArrayEquals(new double[] { 5, 6, 11, 12 }, toArray(reduced), TOLERANCE);
+    }
+
+    @Test
+    public void testSumProductMatchesProduct() {
+        Random random = new Random(1337);
+        DenseFactor f1 = createHalfZero(new int[] { 0, 1, 2 }, new int[] { 3, 2, 4 }, random);
+        DenseFactor f2 = createHalfZero(new int[] { 2, 3 }, new int[] { 4, 3 }, random);
+        DenseFactor f3 = createHalfZero(new int[] { 3, 4, 0 }, new int[] { 3, 2, 3 }, random);
+
+        DenseFactor joint = FactorAlgebra.product(f1, f2, f3);
+        DenseFactor expected = FactorAlgebra.sumOut(joint, 0, 2, 3);
+        DenseFactor expectedMax = FactorAlgebra.maxOut(joint, 0, 2, 3);
+        assertArrayEquals(new int[] { 1, 4 }, expected.getDimensionIDs());
+
+        DenseFactor fused = FactorAlgebra.sumProduct(Arrays.asList(f1, f2, f3), 4, 1);
+        assertArrayEquals(new int[] { 4, 1 }, fused.getDimensionIDs());
+        DenseFactor fusedMax = FactorAlgebra.maxProduct(Arrays.asList(f1, f2, f3), 1, 4);
+        assertArrayEquals(toArray(expectedMax), toArray(fusedMax), TOLERANCE);
+
+        // the sparse kernel gives the same results
+        DenseFactor sparse = FactorAlgebra.sumProduct(
+                Arrays.<AbstractFactor> asList(f1, SparseFactor.fromFactor(f2), SparseFactor.fromFactor(f3)), 1, 4);
+        assertArrayEquals(toArray(expected), toArray(sparse), TOLERANCE);
+
+        double[] marginal = toArray(expected);
+        double[] transposed = toArray(fused);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                assertEquals(marginal[i * 2 + j], transposed[j * 2 + i], TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void testSumProductMatchesMarginalization() {
+        DenseFactor f1 = create(new int[] { 0, 1 }, new int[] { 2, 2 }, 0.2, 0.8, 0.6, 0.4);
+        DenseFactor f2 = create(new int[] { 0 }, new int[] { 2 }, 0.3, 0.7);
+
+        DenseFactor marginal = FactorAlgebra.sumProduct(Arrays.asList(f1, f2), 1);
+
+        DenseFactor reference = create(new int[] { 0, 1 }, new int[] { 2, 2 }, 1, 1, 1, 1);
+        reference.multiplyCompatible(f1);
+        reference.multiplyCompatible(f2);
+        assertArrayEquals(reference.marginalizeAllBut(1), toArray(marginal), TOLERANCE);
+    }
+
+    @Test
+    public void testLogScaleOperand() {
+        DenseFactor factor = create(new int[] { 0, 1 }, new int[] { 2, 2 }, 0.1, 0.2, 0.3, 0.4);
+        DenseFactor log = create(new int[] { 0, 1 }, new int[] { 2, 2 }, Math.log(0.1), Math.log(0.2),
+                Math.log(0.3), Math.log(0.4));
+        log.setLogScale(true);
+
+        assertArrayEquals(toArray(FactorAlgebra.sumOut(factor, 0)), toArray(FactorAlgebra.sumOut(log, 0)), TOLERANCE);
+    }
+
+    @Test
+    public void testEmptyProduct() {
+        DenseFactor product = FactorAlgebra.sumProduct(Collections.<AbstractFactor> emptyList());
+        assertArrayEquals(new double[] { 1 }, toArray(product), TOLERANCE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInconsistentDimensions() {
+        DenseFactor f1 = create(new int[] { 0 }, new int[] { 2 }, 1, 2);
+        DenseFactor f2 = create(new int[] { 0 }, new int[] { 3 }, 1, 2, 3);
+        FactorAlgebra.product(f1, f2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingKeptDimension() {
+        DenseFactor f1 = create(new int[] { 0 }, new int[] { 2 }, 1, 2);
+        FactorAlgebra.sumProduct(Arrays.asList(f1), 1);
+    }
+
+}
@@ -14,8 +14,12 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.eclipse.recommenders.jayes.factor.AbstractFactor;
 import org.eclipse.recommenders.jayes.factor.DenseFactor;
+import org.eclipse.recommenders.jayes.factor.FactorParallelism;
 import org.eclipse.recommenders.jayes.factor.SparseFactor;
 import org.eclipse.recommenders.jayes.factor.arraywrapper.DoubleArrayWrapper;
 import org.eclipse.recommenders.jayes.util.MathUtils;
@@ -169,4 +173,112 @@ public class FactorTest {
         assertThat(dense2.getValues().toDoubleArray(), is(new double[] { 6 }));
     }
 
+    @Test
+    public void testParallelKernels() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            FactorParallelism parallelism = new FactorParallelism(executor, 3);
+            parallelism.setThreshold(1);
+
+            AbstractFactor dense = new DenseFactor();
+            dense.setDimensionIDs(0, 1, 2);
+            dense.setDimensions(4, 3, 5);
+            for (int i = 0; i < dense.getValues().length(); i++) {
+                dense.getMutableValues().set(i, i % 7);
+            }
+            AbstractFactor original = create2x2x2Factor();
+            original.setValues(new DoubleArrayWrapper(distribution2x2x2()));
+            AbstractFactor sparse = SparseFactor.fromFactor(original);
+
+            assertParallelKernelsEqual(dense, parallelism, 1);
+            dense.select(1, 2);
+            assertParallelKernelsEqual(dense, parallelism, 1);
+            assertParallelKernelsEqual(sparse, parallelism, 2);
+            sparse.select(1, 0);
+            assertParallelKernelsEqual(sparse, parallelism, 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertParallelKernelsEqual(AbstractFactor factor, FactorParallelism parallelism, int sepSetID) {
+        AbstractFactor sepSet = new DenseFactor();
+        sepSet.setDimensionIDs(sepSetID);
+        for (int i = 0; i < factor.getDimensionIDs().length; i++) {
+            if (factor.getDimensionIDs()[i] == sepSetID) {
+                sepSet.setDimensions(factor.getDimensions()[i]);
+            }
+        }
+        for (int i = 0; i < sepSet.getValues().length(); i++) {
+            sepSet.getMutableValues().set(i, i + 2);
+        }
+        int[] prepared = factor.prepareMultiplication(sepSet);
+
+        AbstractFactor sequential = factor.clone();
+        sequential.setParallelism(null);
+        AbstractFactor parallel = factor.clone();
+        parallel.setParallelism(parallelism);
+
+        sequential.multiplyPrepared(sepSet.getValues(), prepared);
+        parallel.multiplyPrepared(sepSet.getValues(), prepared);
+        assertArrayEquals(sequential.getValues().toDoubleArray(), parallel.getValues().toDoubleArray(), TOLERANCE);
+
+        double[] sequentialSum = new double[sepSet.getValues().length()];
+        double[] parallelSum = new double[sepSet.getValues().length()];
+        sequential.sumPrepared(new DoubleArrayWrapper(sequentialSum), prepared);
+        parallel.sumPrepared(new DoubleArrayWrapper(parallelSum), prepared);
+        assertArrayEquals(sequentialSum, parallelSum, TOLERANCE);
+    }
+
+    @Test
+    public void testOccupancyTracking() {
+        AbstractFactor tracked = new DenseFactor();
+        tracked.setDimensionIDs(0, 1, 2);
+        tracked.setDimensions(4, 3, 5);
+        for (int i = 0; i < tracked.getValues().length(); i++) {
+            tracked.getMutableValues().set(i, i % 7 + 1);
+        }
+        AbstractFactor untracked = tracked.clone();
+        tracked.setOccupancyBlockSize(4);
+
+        AbstractFactor message = new DenseFactor();
+        message.setDimensionIDs(0);
+        message.setDimensions(4);
+        message.setValues(new DoubleArrayWrapper(0, 1, 0, 2));
+        int[] prepared = tracked.prepareMultiplication(message);
+        tracked.multiplyPrepared(message.getValues(), prepared);
+        untracked.multiplyPrepared(message.getValues(), prepared);
+
+        // the entries 0-14 and 30-44 are zero, which covers 6 of the 15 blocks
+        assertThat(tracked.getZeroBlockFraction(), is(6.0 / 15));
+
+        AbstractFactor message2 = new DenseFactor();
+        message2.setDimensionIDs(2);
+        message2.setDimensions(5);
+        message2.setValues(new DoubleArrayWrapper(1, 2, 3, 4, 5));
+        int[] prepared2 = tracked.prepareMultiplication(message2);
+        tracked.multiplyPrepared(message2.getValues(), prepared2);
+        untracked.multiplyPrepared(message2.getValues(), prepared2);
+
+        double[] trackedSum = new double[5];
+        double[] untrackedSum = new double[5];
+        tracked.sumPrepared(new DoubleArrayWrapper(trackedSum), prepared2);
+        untracked.sumPrepared(new DoubleArrayWrapper(untrackedSum), prepared2);
+        assertArrayEquals(untrackedSum, trackedSum, TOLERANCE);
+
+        // reading the values keeps the zero blocks
+        assertArrayEquals(untracked.getValues().toDoubleArray(), tracked.getValues().toDoubleArray(), TOLERANCE);
+        assertThat(tracked.getValueCount(), is(60));
+        assertThat(tracked.getZeroBlockFraction(), is(6.0 / 15));
+
+        // the values might be modified through the array
+        tracked.getMutableValues();
+        assertThat(tracked.getZeroBlockFraction(), is(0.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOccupancyBlockSizeNotPowerOfTwo() {
+        new DenseFactor().setOccupancyBlockSize(3);
+    }
+
 }
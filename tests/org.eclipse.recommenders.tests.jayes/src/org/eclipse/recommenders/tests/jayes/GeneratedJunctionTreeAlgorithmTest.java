@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.junctionTree.GeneratedJunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeCodeGenerator;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class GeneratedJunctionTreeAlgorithmTest {
+
+    @Test
+    public void testWithoutEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        GeneratedJunctionTreeAlgorithm inferer = new GeneratedJunctionTreeAlgorithm();
+        inferer.setNetwork(net);
+        assertBeliefsEqual(net, inferer, new HashMap<BayesNode, String>());
+    }
+
+    @Test
+    public void testChangingEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        GeneratedJunctionTreeAlgorithm inferer = new GeneratedJunctionTreeAlgorithm();
+        inferer.setNetwork(net);
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("b"), "lu");
+        evidence.put(net.getNode("d"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+        evidence.put(net.getNode("a"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+        // the tables changed by the earlier evidence have to be reset
+        evidence.remove(net.getNode("b"));
+        evidence.remove(net.getNode("a"));
+        assertBeliefsEqual(net, inferer, evidence);
+        evidence.clear();
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test
+    public void testSparseNetWithLoops() {
+        BayesNet net = NetExamples.sparseNet();
+        GeneratedJunctionTreeAlgorithm inferer = new GeneratedJunctionTreeAlgorithm();
+        JunctionTreeCodeGenerator generator = new JunctionTreeCodeGenerator();
+        // no unrolling, every dimension is a loop
+        generator.setMaxUnrolledDimension(1);
+        inferer.setCodeGenerator(generator);
+        inferer.setNetwork(net);
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("d"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test
+    public void testUnconnectedNet() {
+        BayesNet net = NetExamples.unconnectedNet();
+        GeneratedJunctionTreeAlgorithm inferer = new GeneratedJunctionTreeAlgorithm();
+        inferer.setNetwork(net);
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        BayesNode node = net.getNodes().get(net.getNodes().size() - 1);
+        evidence.put(node, node.getOutcomeName(0));
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test(expected = NumericalInstabilityException.class)
+    public void testImpossibleEvidence() {
+        BayesNet net = NetExamples.sparseNet();
+        BayesNode a = net.getNode("a");
+        GeneratedJunctionTreeAlgorithm inferer = new GeneratedJunctionTreeAlgorithm();
+        inferer.setNetwork(net);
+        // a has probability 0 for its first outcome
+        inferer.addEvidence(a, a.getOutcomeName(0));
+        inferer.getBeliefs(net.getNode("d"));
+    }
+
+    private void assertBeliefsEqual(BayesNet net, GeneratedJunctionTreeAlgorithm inferer,
+            Map<BayesNode, String> evidence) {
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.setEvidence(evidence);
+        inferer.setEvidence(evidence);
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 1e-9);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.GibbsSampling;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class GibbsSamplingTest {
+
+    @Test
+    public void testSampler1() {
+        BayesNet net = NetExamples.testNet1();
+
+        BayesNode a = net.getNode("a");
+        BayesNode b = net.getNode("b");
+        BayesNode c = net.getNode("c");
+
+        GibbsSampling sampler = new GibbsSampling();
+        sampler.setSampleCount(5000);
+        sampler.seed(1337); //for reproducibility
+        sampler.setNetwork(net);
+        sampler.addEvidence(a, "false");
+        sampler.addEvidence(b, "lu");
+
+        assertArrayEquals(sampler.getBeliefs(c), new double[] { 0.7, 0.3 }, 0.01);
+        assertEquals(1.0, sampler.getMaxPotentialScaleReduction(), 0.05);
+    }
+
+    @Test
+    public void testUnlikelyEvidence() {
+        BayesNet net = new BayesNet();
+        BayesNode cause = net.createNode("cause");
+        cause.addOutcomes("true", "false");
+        cause.setProbabilities(0.001, 0.999);
+        BayesNode symptom = net.createNode("symptom");
+        symptom.addOutcomes("true", "false");
+        symptom.setParents(Arrays.asList(cause));
+        symptom.setProbabilities(0.99, 0.01, 0.0001, 0.9999);
+
+        JunctionTreeAlgorithm exact = new JunctionTreeAlgorithm();
+        exact.setNetwork(net);
+        exact.addEvidence(symptom, "true");
+
+        GibbsSampling sampler = new GibbsSampling();
+        sampler.setSampleCount(5000);
+        sampler.seed(42);
+        sampler.setNetwork(net);
+        sampler.addEvidence(symptom, "true");
+
+        assertArrayEquals(exact.getBeliefs(cause), sampler.getBeliefs(cause), 0.02);
+    }
+
+    @Test(expected = NumericalInstabilityException.class)
+    public void testNearlyImpossibleEvidence() {
+        BayesNet net = new BayesNet();
+        BayesNode cause = net.createNode("cause");
+        cause.addOutcomes("true", "false");
+        cause.setProbabilities(1e-12, 1 - 1e-12);
+        BayesNode symptom = net.createNode("symptom");
+        symptom.addOutcomes("true", "false");
+        symptom.setParents(Arrays.asList(cause));
+        // the symptom only occurs with the cause, so forward samples almost never agree with it
+        symptom.setProbabilities(1.0, 0.0, 0.0, 1.0);
+
+        GibbsSampling sampler = new GibbsSampling();
+        sampler.seed(42);
+        sampler.setNetwork(net);
+        sampler.addEvidence(symptom, "true");
+        sampler.getBeliefs(cause);
+    }
+
+    @Test
+    public void testReproducibleAcrossExecutors() {
+        BayesNet net = NetExamples.testNet1();
+        BayesNode a = net.getNode("a");
+
+        GibbsSampling sequential = createSampler(net);
+        sequential.addEvidence(a, "false");
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            GibbsSampling parallel = createSampler(net);
+            parallel.setExecutor(executor);
+            parallel.addEvidence(a, "false");
+
+            for (BayesNode n : net.getNodes()) {
+                assertArrayEquals(sequential.getBeliefs(n), parallel.getBeliefs(n), 0.0);
+                assertArrayEquals(sequential.getPotentialScaleReductions(n), parallel.getPotentialScaleReductions(n),
+                        0.0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private GibbsSampling createSampler(BayesNet net) {
+        GibbsSampling sampler = new GibbsSampling();
+        sampler.setSampleCount(1000);
+        sampler.setChainCount(3);
+        sampler.setThinning(2);
+        sampler.seed(42);
+        sampler.setNetwork(net);
+        return sampler;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.FactorFactory;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeSampler;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class JunctionTreeSamplerTest {
+
+    private static final int SAMPLE_COUNT = 100000;
+
+    @Test
+    public void testPosteriorMarginals() {
+        BayesNet net = NetExamples.testNet1();
+        JunctionTreeAlgorithm inferer = new JunctionTreeAlgorithm();
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertMarginalsEqual(net, inferer, new JunctionTreeSampler(inferer, net));
+    }
+
+    @Test
+    public void testLogScale() {
+        BayesNet net = NetExamples.sparseNet();
+        JunctionTreeAlgorithm inferer = new JunctionTreeAlgorithm();
+        FactorFactory factory = FactorFactory.defaultFactory();
+        factory.setUseLogScale(true);
+        inferer.setFactorFactory(factory);
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+
+        assertMarginalsEqual(net, inferer, new JunctionTreeSampler(inferer, net));
+    }
+
+    @Test
+    public void testEvidenceChange() {
+        BayesNet net = NetExamples.testNet1();
+        JunctionTreeSampler sampler = new JunctionTreeSampler();
+        sampler.setNetwork(net);
+        sampler.seed(1337);
+        BayesNode a = net.getNode("a");
+        BayesNode c = net.getNode("c");
+
+        sampler.setEvidence(Collections.singletonMap(a, "true"));
+        int[][] samples = new int[100][net.getNodes().size()];
+        sampler.sample(samples);
+        for (int[] sample : samples) {
+            assertEquals(0, sample[a.getId()]);
+        }
+
+        sampler.setEvidence(Collections.singletonMap(c, "false"));
+        sampler.sample(samples);
+        for (int[] sample : samples) {
+            assertEquals(1, sample[c.getId()]);
+        }
+    }
+
+    private void assertMarginalsEqual(BayesNet net, JunctionTreeAlgorithm inferer, JunctionTreeSampler sampler) {
+        int[][] samples = new int[SAMPLE_COUNT][net.getNodes().size()];
+        sampler.sample(samples, new Random(42));
+        for (BayesNode node : net.getNodes()) {
+            double[] frequencies = new double[node.getOutcomeCount()];
+            for (int[] sample : samples) {
+                frequencies[sample[node.getId()]] += 1.0 / SAMPLE_COUNT;
+            }
+            assertArrayEquals(inferer.getBeliefs(node), frequencies, 0.01);
+        }
+    }
+
+}
@@ -12,6 +12,7 @@ package org.eclipse.recommenders.tests.jayes;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -20,18 +21,24 @@ import java.nio.CharBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.factor.AbstractFactor;
 import org.eclipse.recommenders.jayes.factor.FactorFactory;
 import org.eclipse.recommenders.jayes.inference.IBayesInferer;
+import org.eclipse.recommenders.jayes.inference.LoopyBeliefPropagation;
+import org.eclipse.recommenders.jayes.inference.junctionTree.CliqueConsolidation;
 import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeBuilder;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeCompileCache;
 import org.eclipse.recommenders.jayes.io.XMLBIFReader;
 import org.eclipse.recommenders.jayes.testgen.TestCase;
 import org.eclipse.recommenders.jayes.testgen.TestcaseDeserializer;
 import org.eclipse.recommenders.jayes.testgen.scenario.impl.SampledScenarioGenerator;
-import org.eclipse.recommenders.tests.jayes.lbp.LoopyBeliefPropagation;
+import org.eclipse.recommenders.jayes.util.triangulation.MinFillIn;
 import org.eclipse.recommenders.tests.jayes.util.NetExamples;
 import org.junit.Test;
 
@@ -168,6 +175,123 @@ public class JunctionTreeTest {
             assertArrayEquals(compare.getBeliefs(n), inference.getBeliefs(n), 0.01);
     }
 
+    @Test
+    public void testParallelCompilation() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (BayesNet net : new BayesNet[] { NetExamples.testNet1(), NetExamples.sparseNet() }) {
+                BayesNode a = net.getNode("a");
+                BayesNode b = net.getNode("b");
+
+                JunctionTreeAlgorithm sequential = new JunctionTreeAlgorithm();
+                sequential.setNetwork(net);
+                sequential.addEvidence(a, "false");
+                sequential.addEvidence(b, "lu");
+
+                JunctionTreeAlgorithm parallel = new JunctionTreeAlgorithm();
+                parallel.setCompilationExecutor(executor);
+                parallel.setNetwork(net);
+                parallel.addEvidence(a, "false");
+                parallel.addEvidence(b, "lu");
+
+                for (BayesNode n : net.getNodes()) {
+                    assertArrayEquals(sequential.getBeliefs(n), parallel.getBeliefs(n), SMALL_TOLERANCE);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompileCache() {
+        JunctionTreeCompileCache cache = new JunctionTreeCompileCache();
+
+        JunctionTreeAlgorithm first = new JunctionTreeAlgorithm();
+        first.setCompileCache(cache);
+        first.setNetwork(NetExamples.testNet1());
+
+        BayesNet variant = NetExamples.testNet1();
+        variant.getNode("a").setProbabilities(0.6, 0.4);
+        variant.getNode("d").setProbabilities(0.1, 0.9, 0.7, 0.3);
+
+        JunctionTreeAlgorithm cached = new JunctionTreeAlgorithm();
+        cached.setCompileCache(cache);
+        cached.setNetwork(variant);
+        cached.addEvidence(variant.getNode("b"), "lu");
+
+        JunctionTreeAlgorithm uncached = new JunctionTreeAlgorithm();
+        uncached.setNetwork(variant);
+        uncached.addEvidence(variant.getNode("b"), "lu");
+
+        assertEquals(1, cache.size());
+        for (BayesNode n : variant.getNodes()) {
+            assertArrayEquals(uncached.getBeliefs(n), cached.getBeliefs(n), SMALL_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testCompileCacheRecompilesIncompatibleSparsity() {
+        JunctionTreeCompileCache cache = new JunctionTreeCompileCache();
+
+        // the zeros of a and c make the clique of c sparse
+        JunctionTreeAlgorithm first = new JunctionTreeAlgorithm();
+        first.setCompileCache(cache);
+        first.setNetwork(NetExamples.sparseNet());
+
+        // without any zeros, the same clique needs a dense layout
+        BayesNet variant = NetExamples.sparseNet();
+        variant.getNode("a").setProbabilities(0.4, 0.6);
+        //@formatter:off
+        variant.getNode("c").setProbabilities(
+                0.1, 0.2, 0.3, 0.4,
+                0.4, 0.3, 0.2, 0.1,
+                0.25, 0.25, 0.25, 0.25,
+                0.3, 0.3, 0.2, 0.2,
+                0.1, 0.6, 0.2, 0.1,
+                0.7, 0.1, 0.1, 0.1);
+        //@formatter:on
+        variant.getNode("d").setProbabilities(0.5, 0.5, 0.2, 0.8, 0.9, 0.1, 0.3, 0.7);
+
+        JunctionTreeAlgorithm cached = new JunctionTreeAlgorithm();
+        cached.setCompileCache(cache);
+        cached.setNetwork(variant);
+        cached.addEvidence(variant.getNode("d"), "false");
+
+        JunctionTreeAlgorithm uncached = new JunctionTreeAlgorithm();
+        uncached.setNetwork(variant);
+        uncached.addEvidence(variant.getNode("d"), "false");
+
+        assertEquals(1, cache.size());
+        for (BayesNode n : variant.getNodes()) {
+            assertArrayEquals(uncached.getBeliefs(n), cached.getBeliefs(n), SMALL_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testCliqueConsolidation() {
+        for (BayesNet net : new BayesNet[] { NetExamples.testNet1(), NetExamples.sparseNet() }) {
+            JunctionTreeBuilder builder = JunctionTreeBuilder.forHeuristic(new MinFillIn());
+            builder.setCliqueConsolidation(new CliqueConsolidation(1024));
+            int originalCliques = JunctionTreeBuilder.forHeuristic(new MinFillIn()).buildJunctionTree(net)
+                    .getClusters().size();
+            assertTrue(builder.buildJunctionTree(net).getClusters().size() < originalCliques);
+
+            JunctionTreeAlgorithm consolidated = new JunctionTreeAlgorithm();
+            consolidated.setJunctionTreeBuilder(builder);
+            consolidated.setNetwork(net);
+            consolidated.addEvidence(net.getNode("b"), net.getNode("b").getOutcomeName(0));
+
+            JunctionTreeAlgorithm plain = new JunctionTreeAlgorithm();
+            plain.setNetwork(net);
+            plain.addEvidence(net.getNode("b"), net.getNode("b").getOutcomeName(0));
+
+            for (BayesNode n : net.getNodes()) {
+                assertArrayEquals(plain.getBeliefs(n), consolidated.getBeliefs(n), SMALL_TOLERANCE);
+            }
+        }
+    }
+
     @Test
     public void testLargerScaleCorrectness() throws Exception {
         getClass().getClassLoader();
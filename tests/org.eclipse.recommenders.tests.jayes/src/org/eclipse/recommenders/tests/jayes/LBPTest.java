@@ -11,11 +11,18 @@
 package org.eclipse.recommenders.tests.jayes;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.inference.IBayesInferer;
-import org.eclipse.recommenders.tests.jayes.lbp.LoopyBeliefPropagation;
+import org.eclipse.recommenders.jayes.inference.LoopyBeliefPropagation;
+import org.eclipse.recommenders.jayes.inference.LoopyBeliefPropagation.Schedule;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
 import org.eclipse.recommenders.tests.jayes.util.NetExamples;
 import org.junit.Test;
 
@@ -36,4 +43,82 @@ public class LBPTest {
         assertArrayEquals(sampler.getBeliefs(c), new double[] { 0.7, 0.3 }, 0.01);
     }
 
+    @Test
+    public void testTreeIsExact() {
+        BayesNet net = NetExamples.treeNet();
+        BayesNode leaf = net.getNodes().get(net.getNodes().size() - 1);
+
+        for (Schedule schedule : Schedule.values()) {
+            LoopyBeliefPropagation inferer = new LoopyBeliefPropagation();
+            inferer.setSchedule(schedule);
+            inferer.setTolerance(1e-10);
+            inferer.setNetwork(net);
+            inferer.addEvidence(leaf, leaf.getOutcomeName(0));
+            assertTrue(inferer.isConverged());
+
+            JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+            reference.setNetwork(net);
+            reference.addEvidence(leaf, leaf.getOutcomeName(0));
+            for (BayesNode node : net.getNodes()) {
+                assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 1e-8);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSweepsAreDeterministic() throws Exception {
+        BayesNet net = NetExamples.testNet1();
+        LoopyBeliefPropagation sequential = new LoopyBeliefPropagation();
+        sequential.setSchedule(Schedule.SYNCHRONOUS);
+        sequential.setDamping(0.3);
+        sequential.setNetwork(net);
+        sequential.addEvidence(net.getNode("d"), "false");
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            LoopyBeliefPropagation parallel = new LoopyBeliefPropagation();
+            parallel.setSchedule(Schedule.SYNCHRONOUS);
+            parallel.setDamping(0.3);
+            parallel.setExecutor(executor);
+            parallel.setWorkerCount(3);
+            parallel.setNetwork(net);
+            parallel.addEvidence(net.getNode("d"), "false");
+
+            for (BayesNode node : net.getNodes()) {
+                assertArrayEquals(sequential.getBeliefs(node), parallel.getBeliefs(node), 0.0);
+            }
+            assertEquals(sequential.getUpdateCount(), parallel.getUpdateCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWarmStart() {
+        BayesNet net = NetExamples.testNet1();
+        LoopyBeliefPropagation inferer = new LoopyBeliefPropagation();
+        inferer.setNetwork(net);
+        inferer.addEvidence(net.getNode("d"), "false");
+        inferer.getBeliefs(net.getNode("a"));
+
+        inferer.addEvidence(net.getNode("d"), "false");
+        assertEquals(0, inferer.getUpdateCount());
+
+        // starts from the fixed point of the previous evidence
+        inferer.addEvidence(net.getNode("d"), "true");
+        inferer.addEvidence(net.getNode("b"), "lu");
+        assertTrue(inferer.isConverged());
+
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.addEvidence(net.getNode("d"), "true");
+        reference.addEvidence(net.getNode("b"), "lu");
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 1e-6);
+        }
+
+        inferer.resetMessages();
+        assertTrue(inferer.getUpdateCount() > 0);
+    }
+
 }
@@ -11,10 +11,14 @@
 package org.eclipse.recommenders.tests.jayes;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
 import org.eclipse.recommenders.jayes.inference.LikelihoodWeightedSampling;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
 import org.eclipse.recommenders.tests.jayes.util.NetExamples;
 import org.junit.Test;
 
@@ -38,4 +42,71 @@ public class LikelyhoodWeightedSamplingTest {
         assertArrayEquals(sampler.getBeliefs(c), new double[] { 0.7, 0.3 }, 0.01);
     }
 
+    @Test
+    public void testTargetHalfWidth() {
+        BayesNet net = NetExamples.testNet1();
+
+        BayesNode a = net.getNode("a");
+        BayesNode b = net.getNode("b");
+        BayesNode c = net.getNode("c");
+
+        LikelihoodWeightedSampling sampler = new LikelihoodWeightedSampling();
+        sampler.setTargetHalfWidth(0.005);
+        sampler.setBatchSize(500);
+        sampler.seed(1337);
+        sampler.setNetwork(net);
+        sampler.addEvidence(a, "false");
+        sampler.addEvidence(b, "lu");
+
+        assertArrayEquals(sampler.getBeliefs(c), new double[] { 0.7, 0.3 }, 0.01);
+        assertTrue(sampler.getHalfWidth() <= 0.005);
+        assertTrue(sampler.getDrawnSampleCount() > 500);
+        assertTrue(sampler.getDrawnSampleCount() % 500 == 0);
+    }
+
+    @Test
+    public void testMaxSampleCount() {
+        BayesNet net = NetExamples.testNet1();
+
+        LikelihoodWeightedSampling sampler = new LikelihoodWeightedSampling();
+        sampler.setTargetHalfWidth(0.0);
+        sampler.setMaxSampleCount(1234);
+        sampler.setNetwork(net);
+        sampler.addEvidence(net.getNode("a"), "false");
+
+        sampler.getBeliefs(net.getNode("c"));
+        assertEquals(1234, sampler.getDrawnSampleCount());
+        assertTrue(sampler.getHalfWidth() > 0.0);
+    }
+
+    @Test
+    public void testZeroWeights() {
+        BayesNet net = NetExamples.testNet1();
+        net.getNode("a").setProbabilities(1.0, 0.0);
+
+        LikelihoodWeightedSampling sampler = new LikelihoodWeightedSampling();
+        sampler.setTargetEffectiveSampleSize(100);
+        sampler.setBatchSize(100);
+        sampler.setMaxSampleCount(1000);
+        sampler.setNetwork(net);
+        sampler.addEvidence(net.getNode("a"), "false");
+
+        try {
+            sampler.getBeliefs(net.getNode("c"));
+            fail("impossible evidence");
+        } catch (NumericalInstabilityException e) {
+            // expected
+        }
+        // the stopping rule must not accept an undefined estimate
+        assertEquals(1000, sampler.getDrawnSampleCount());
+        assertEquals(0.0, sampler.getEffectiveSampleSize(), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, sampler.getHalfWidth(), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, sampler.getWeightVariance(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchSizeHasToBePositive() {
+        new LikelihoodWeightedSampling().setBatchSize(0);
+    }
+
 }
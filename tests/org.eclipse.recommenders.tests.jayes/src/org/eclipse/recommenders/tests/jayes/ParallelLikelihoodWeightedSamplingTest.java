@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.ParallelLikelihoodWeightedSampling;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class ParallelLikelihoodWeightedSamplingTest {
+
+    @Test
+    public void testSampler1() {
+        BayesNet net = NetExamples.testNet1();
+
+        BayesNode a = net.getNode("a");
+        BayesNode b = net.getNode("b");
+        BayesNode c = net.getNode("c");
+
+        ParallelLikelihoodWeightedSampling sampler = new ParallelLikelihoodWeightedSampling();
+        sampler.setSampleCount(10000);
+        sampler.setWorkerCount(4);
+        sampler.seed(1337); //for reproducibility
+        sampler.setNetwork(net);
+        sampler.addEvidence(a, "false");
+        sampler.addEvidence(b, "lu");
+
+        assertArrayEquals(sampler.getBeliefs(c), new double[] { 0.7, 0.3 }, 0.01);
+    }
+
+    @Test
+    public void testReproducibleAcrossExecutors() {
+        BayesNet net = NetExamples.testNet1();
+        BayesNode a = net.getNode("a");
+
+        ParallelLikelihoodWeightedSampling sequential = createSampler(net);
+        sequential.addEvidence(a, "false");
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ParallelLikelihoodWeightedSampling parallel = createSampler(net);
+            parallel.setExecutor(executor);
+            parallel.addEvidence(a, "false");
+
+            for (BayesNode n : net.getNodes()) {
+                assertArrayEquals(sequential.getBeliefs(n), parallel.getBeliefs(n), 0.0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private ParallelLikelihoodWeightedSampling createSampler(BayesNet net) {
+        ParallelLikelihoodWeightedSampling sampler = new ParallelLikelihoodWeightedSampling();
+        sampler.setSampleCount(5000);
+        sampler.setWorkerCount(5);
+        sampler.seed(42);
+        sampler.setNetwork(net);
+        return sampler;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.junctionTree.CompileProfile;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.inference.junctionTree.ProfiledJunctionTreeAlgorithm;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class ProfiledJunctionTreeAlgorithmTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void testPruning() {
+        BayesNet net = NetExamples.testNet1();
+        CompileProfile profile = new CompileProfile();
+        profile.addAlwaysObserved(net.getNode("a"));
+        profile.addQueryable(net.getNode("b"));
+        ProfiledJunctionTreeAlgorithm inferer = new ProfiledJunctionTreeAlgorithm();
+        inferer.setNetwork(net, profile);
+        inferer.addEvidence(net.getNode("a"), "true");
+
+        // a is conditioned out, c and d are pruned
+        assertEquals(1, inferer.getSpecializedNetwork().getNodes().size());
+        assertBeliefsEqual(net, inferer, inferer.getEvidence(), "b", "a");
+        assertEquals(0.2, inferer.getEvidenceProbability(), TOLERANCE);
+    }
+
+    @Test
+    public void testConditionedParent() {
+        BayesNet net = NetExamples.testNet1();
+        CompileProfile profile = new CompileProfile();
+        profile.addAlwaysObserved(net.getNode("b"));
+        profile.addQueryable(net.getNode("a"), net.getNode("d"));
+        ProfiledJunctionTreeAlgorithm inferer = new ProfiledJunctionTreeAlgorithm();
+        inferer.setNetwork(net, profile);
+
+        BayesNet specialized = inferer.getSpecializedNetwork();
+        assertNull(specialized.getNode("b"));
+        assertEquals(1, specialized.getNode("c").getParents().size());
+
+        for (String b : net.getNode("b").getOutcomes()) {
+            inferer.addEvidence(net.getNode("b"), b);
+            inferer.addEvidence(net.getNode("d"), "false");
+            assertBeliefsEqual(net, inferer, inferer.getEvidence(), "a", "b", "c", "d");
+        }
+    }
+
+    @Test
+    public void testRepeatedAssignments() {
+        BayesNet net = NetExamples.sparseNet();
+        CompileProfile profile = new CompileProfile();
+        profile.addAlwaysObserved(net.getNode("b"));
+        ProfiledJunctionTreeAlgorithm inferer = new ProfiledJunctionTreeAlgorithm();
+        inferer.setMaxSpecializations(1);
+        inferer.setNetwork(net, profile);
+
+        for (String b : new String[] { "la", "lu", "la", "le", "lu" }) {
+            inferer.addEvidence(net.getNode("b"), b);
+            assertBeliefsEqual(net, inferer, inferer.getEvidence(), "a", "b", "c", "d");
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        BayesNet net = NetExamples.sparseNet();
+        CompileProfile profile = new CompileProfile();
+        profile.addAlwaysObserved(net.getNode("b"));
+        ProfiledJunctionTreeAlgorithm inferer = new ProfiledJunctionTreeAlgorithm();
+        inferer.setMaxSpecializations(2);
+        inferer.setNetwork(net, profile);
+
+        // lu evicts le, because la was used more recently
+        String[] assignments = { "la", "le", "la", "lu", "la", "le" };
+        int[] specializationCounts = { 1, 2, 2, 3, 3, 4 };
+        for (int i = 0; i < assignments.length; i++) {
+            inferer.addEvidence(net.getNode("b"), assignments[i]);
+            assertBeliefsEqual(net, inferer, inferer.getEvidence(), "a", "b", "c", "d");
+            assertEquals(specializationCounts[i], inferer.getSpecializationCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryPrunedNode() {
+        BayesNet net = NetExamples.testNet1();
+        CompileProfile profile = new CompileProfile();
+        profile.addQueryable(net.getNode("b"));
+        ProfiledJunctionTreeAlgorithm inferer = new ProfiledJunctionTreeAlgorithm();
+        inferer.setNetwork(net, profile);
+
+        inferer.getBeliefs(net.getNode("d"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        CompileProfile profile = new CompileProfile();
+        profile.addAlwaysObserved(net.getNode("c"));
+        ProfiledJunctionTreeAlgorithm inferer = new ProfiledJunctionTreeAlgorithm();
+        inferer.setNetwork(net, profile);
+
+        inferer.getBeliefs(net.getNode("d"));
+    }
+
+    private void assertBeliefsEqual(BayesNet net, ProfiledJunctionTreeAlgorithm inferer,
+            Map<BayesNode, String> evidence, String... nodes) {
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.setEvidence(new HashMap<BayesNode, String>(evidence));
+        for (String node : nodes) {
+            assertArrayEquals(reference.getBeliefs(net.getNode(node)), inferer.getBeliefs(net.getNode(node)),
+                    TOLERANCE);
+        }
+        assertEquals(reference.getLogEvidenceProbability(), inferer.getLogEvidenceProbability(), TOLERANCE);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.RecursiveConditioning;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class RecursiveConditioningTest {
+
+    @Test
+    public void testWithoutCache() {
+        BayesNet net = NetExamples.testNet1();
+        RecursiveConditioning inferer = new RecursiveConditioning();
+        inferer.setCacheBudget(0);
+        inferer.setNetwork(net);
+
+        assertEquals(0, inferer.getCacheSize());
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("d"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test
+    public void testUnlimitedCache() {
+        BayesNet net = NetExamples.sparseNet();
+        RecursiveConditioning inferer = new RecursiveConditioning();
+        inferer.setCacheBudget(Long.MAX_VALUE);
+        inferer.setNetwork(net);
+
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        assertBeliefsEqual(net, inferer, evidence);
+        evidence.put(net.getNode("b"), "le");
+        assertBeliefsEqual(net, inferer, evidence);
+        evidence.put(net.getNode("d"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test
+    public void testCacheBudget() {
+        BayesNet net = createChain(12);
+        RecursiveConditioning unlimited = new RecursiveConditioning();
+        unlimited.setCacheBudget(Long.MAX_VALUE);
+        unlimited.setNetwork(net);
+        RecursiveConditioning limited = new RecursiveConditioning();
+        limited.setCacheBudget(unlimited.getCacheSize() - 1);
+        limited.setNetwork(net);
+
+        assertTrue(limited.getCacheSize() < unlimited.getCacheSize());
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("x3"), "true");
+        evidence.put(net.getNode("x10"), "false");
+        assertBeliefsEqual(net, limited, evidence);
+    }
+
+    /**
+     * every node depends on its two predecessors
+     */
+    private BayesNet createChain(int length) {
+        BayesNet net = new BayesNet();
+        for (int i = 0; i < length; i++) {
+            BayesNode node = net.createNode("x" + i);
+            node.addOutcomes("true", "false");
+            node.setParents(new ArrayList<BayesNode>(net.getNodes().subList(Math.max(0, i - 2), i)));
+            double[] probabilities = new double[2 << Math.min(i, 2)];
+            for (int j = 0; j < probabilities.length; j += 2) {
+                probabilities[j] = (i + j + 1.0) / (i + j + 3.0);
+                probabilities[j + 1] = 1 - probabilities[j];
+            }
+            node.setProbabilities(probabilities);
+        }
+        return net;
+    }
+
+    private void assertBeliefsEqual(BayesNet net, RecursiveConditioning inferer, Map<BayesNode, String> evidence) {
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.setEvidence(evidence);
+        inferer.setEvidence(evidence);
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 1e-9);
+        }
+    }
+
+}
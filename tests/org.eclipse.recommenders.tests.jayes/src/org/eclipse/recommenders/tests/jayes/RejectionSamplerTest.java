@@ -11,6 +11,7 @@
 package org.eclipse.recommenders.tests.jayes;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import org.eclipse.recommenders.jayes.BayesNet;
 import org.eclipse.recommenders.jayes.BayesNode;
@@ -37,4 +38,21 @@ public class RejectionSamplerTest {
         assertArrayEquals(sampler.getBeliefs(c), new double[] { 0.7, 0.3 }, 0.01);
     }
 
+    @Test
+    public void testTargetEffectiveSampleSize() {
+        BayesNet net = NetExamples.testNet1();
+
+        RejectionSampling sampler = new RejectionSampling();
+        sampler.setTargetEffectiveSampleSize(1000);
+        sampler.setBatchSize(300);
+        sampler.setNetwork(net);
+        sampler.addEvidence(net.getNode("a"), "false");
+
+        sampler.getBeliefs(net.getNode("c"));
+        // all accepted samples have the same weight
+        assertEquals(1200, sampler.getEffectiveSampleSize(), 1e-6);
+        assertEquals(1200, sampler.getDrawnSampleCount());
+        assertEquals(0.0, sampler.getWeightVariance(), 1e-9);
+    }
+
 }
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.factor.AbstractFactor;
+import org.eclipse.recommenders.jayes.factor.FactorFactory;
+import org.eclipse.recommenders.jayes.inference.IBayesInferer;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.inference.junctionTree.ShenoyShaferAlgorithm;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class ShenoyShaferTest {
+
+    private static final double SMALL_TOLERANCE = 0.00001;
+
+    @Test
+    public void testAgainstJunctionTree() {
+        for (BayesNet net : new BayesNet[] { NetExamples.testNet1(), NetExamples.sparseNet(), NetExamples.treeNet(),
+                NetExamples.unconnectedNet() }) {
+            ShenoyShaferAlgorithm inferer = new ShenoyShaferAlgorithm();
+            inferer.setNetwork(net);
+            JunctionTreeAlgorithm compare = new JunctionTreeAlgorithm();
+            compare.setNetwork(net);
+
+            assertEqualBeliefs(net, compare, inferer);
+
+            BayesNode b = net.getNode("b");
+            inferer.addEvidence(b, b.getOutcomeName(0));
+            compare.addEvidence(b, b.getOutcomeName(0));
+            assertEqualBeliefs(net, compare, inferer);
+        }
+    }
+
+    @Test
+    public void testEvidenceChanges() {
+        BayesNet net = NetExamples.testNet1();
+        BayesNode a = net.getNode("a");
+        BayesNode b = net.getNode("b");
+
+        ShenoyShaferAlgorithm inferer = new ShenoyShaferAlgorithm();
+        inferer.setNetwork(net);
+        JunctionTreeAlgorithm compare = new JunctionTreeAlgorithm();
+        compare.setNetwork(net);
+
+        inferer.addEvidence(a, "false");
+        compare.addEvidence(a, "false");
+        assertEqualBeliefs(net, compare, inferer);
+
+        inferer.addEvidence(b, "lu");
+        compare.addEvidence(b, "lu");
+        assertEqualBeliefs(net, compare, inferer);
+
+        inferer.addEvidence(a, "true");
+        compare.addEvidence(a, "true");
+        assertEqualBeliefs(net, compare, inferer);
+
+        inferer.getEvidence().remove(a);
+        inferer.setEvidence(inferer.getEvidence());
+        compare.getEvidence().remove(a);
+        compare.setEvidence(compare.getEvidence());
+        assertEqualBeliefs(net, compare, inferer);
+    }
+
+    @Test
+    public void testMixedScale() {
+        BayesNet net = NetExamples.testNet1();
+
+        ShenoyShaferAlgorithm inferer = new ShenoyShaferAlgorithm();
+        // this will make the a,b,c clique log scale but the
+        // c,d clique normal
+        inferer.setFactorFactory(new FactorFactory() {
+            @Override
+            protected boolean getUseLogScale(AbstractFactor f) {
+                return f.getDimensions().length > 2;
+            }
+        });
+        inferer.addEvidence(net.getNode("a"), "false");
+        inferer.addEvidence(net.getNode("b"), "lu");
+        inferer.setNetwork(net);
+
+        JunctionTreeAlgorithm compare = new JunctionTreeAlgorithm();
+        compare.addEvidence(net.getNode("a"), "false");
+        compare.addEvidence(net.getNode("b"), "lu");
+        compare.setNetwork(net);
+
+        assertEqualBeliefs(net, compare, inferer);
+    }
+
+    @Test
+    public void testParallelMessages() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BayesNet net = NetExamples.sparseNet();
+            ShenoyShaferAlgorithm inferer = new ShenoyShaferAlgorithm();
+            inferer.setExecutor(executor);
+            inferer.setNetwork(net);
+            inferer.addEvidence(net.getNode("d"), "false");
+
+            JunctionTreeAlgorithm compare = new JunctionTreeAlgorithm();
+            compare.setNetwork(net);
+            compare.addEvidence(net.getNode("d"), "false");
+
+            assertEqualBeliefs(net, compare, inferer);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertEqualBeliefs(BayesNet net, IBayesInferer expected, IBayesInferer actual) {
+        for (BayesNode n : net.getNodes()) {
+            assertArrayEquals(expected.getBeliefs(n), actual.getBeliefs(n), SMALL_TOLERANCE);
+        }
+    }
+
+}
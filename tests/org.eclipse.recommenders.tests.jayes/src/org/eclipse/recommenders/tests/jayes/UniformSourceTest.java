@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.LikelihoodWeightedSampling;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.sampling.HaltonSource;
+import org.eclipse.recommenders.jayes.sampling.IUniformSource;
+import org.eclipse.recommenders.jayes.sampling.LatinHypercubeSource;
+import org.eclipse.recommenders.jayes.sampling.PseudoRandomSource;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class UniformSourceTest {
+
+    @Test
+    public void testHalton() {
+        HaltonSource halton = new HaltonSource(false);
+        halton.initialize(2, new Random());
+        double[][] expected = { { 0.5, 1.0 / 3 }, { 0.25, 2.0 / 3 }, { 0.75, 1.0 / 9 }, { 0.125, 4.0 / 9 } };
+        for (double[] point : expected) {
+            halton.nextPoint();
+            assertArrayEquals(point, new double[] { halton.getCoordinate(0), halton.getCoordinate(1) }, 1e-12);
+        }
+    }
+
+    @Test
+    public void testLatinHypercube() {
+        int blockSize = 50;
+        LatinHypercubeSource source = new LatinHypercubeSource(blockSize);
+        source.initialize(3, new Random(42));
+        for (int block = 0; block < 2; block++) {
+            int[][] hits = new int[3][blockSize];
+            for (int i = 0; i < blockSize; i++) {
+                source.nextPoint();
+                for (int d = 0; d < 3; d++) {
+                    hits[d][(int) (source.getCoordinate(d) * blockSize)]++;
+                }
+            }
+            for (int[] strata : hits) {
+                for (int count : strata) {
+                    assertEquals(1, count);
+                }
+            }
+        }
+    }
+
+    /*
+     * compares the root mean squared error of the beliefs of likelihood weighting over several seeds
+     */
+    @Test
+    public void testVarianceReduction() {
+        double pseudoRandomError = computeError(null);
+        assertTrue(computeError(new HaltonSource()) < 0.5 * pseudoRandomError);
+        assertTrue(computeError(new LatinHypercubeSource(1000)) < 0.75 * pseudoRandomError);
+        assertEquals(pseudoRandomError, computeError(new PseudoRandomSource()), 0.0);
+    }
+
+    private double computeError(IUniformSource source) {
+        BayesNet net = NetExamples.testNet1();
+        BayesNode d = net.getNode("d");
+        JunctionTreeAlgorithm exact = new JunctionTreeAlgorithm();
+        exact.setNetwork(net);
+        exact.addEvidence(d, "false");
+
+        double squaredError = 0;
+        int errorCount = 0;
+        for (int seed = 0; seed < 20; seed++) {
+            LikelihoodWeightedSampling sampler = new LikelihoodWeightedSampling();
+            sampler.setSampleCount(1000);
+            sampler.seed(seed);
+            if (source != null) {
+                sampler.setUniformSource(source);
+            }
+            sampler.setNetwork(net);
+            sampler.addEvidence(d, "false");
+            for (BayesNode node : net.getNodes()) {
+                double[] expected = exact.getBeliefs(node);
+                double[] actual = sampler.getBeliefs(node);
+                for (int i = 0; i < expected.length; i++) {
+                    squaredError += (expected[i] - actual[i]) * (expected[i] - actual[i]);
+                    errorCount++;
+                }
+            }
+        }
+        return Math.sqrt(squaredError / errorCount);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Michael Kutschke.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Michael Kutschke - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.recommenders.tests.jayes;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.recommenders.jayes.BayesNet;
+import org.eclipse.recommenders.jayes.BayesNode;
+import org.eclipse.recommenders.jayes.inference.VariableElimination;
+import org.eclipse.recommenders.jayes.inference.junctionTree.JunctionTreeAlgorithm;
+import org.eclipse.recommenders.jayes.util.NumericalInstabilityException;
+import org.eclipse.recommenders.jayes.util.triangulation.MinDegree;
+import org.eclipse.recommenders.tests.jayes.util.NetExamples;
+import org.junit.Test;
+
+public class VariableEliminationTest {
+
+    @Test
+    public void testWithoutEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        assertBeliefsEqual(net, new VariableElimination(), new HashMap<BayesNode, String>());
+    }
+
+    @Test
+    public void testWithEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("b"), "lu");
+        evidence.put(net.getNode("d"), "false");
+        assertBeliefsEqual(net, new VariableElimination(), evidence);
+    }
+
+    @Test
+    public void testSparseNet() {
+        BayesNet net = NetExamples.sparseNet();
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("d"), "false");
+        VariableElimination inferer = new VariableElimination();
+        inferer.setEliminationHeuristic(new MinDegree());
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test
+    public void testChangingEvidence() {
+        BayesNet net = NetExamples.testNet1();
+        VariableElimination inferer = new VariableElimination();
+        // with a cache that is too small to hold anything
+        inferer.setMaxCachedValueCount(0);
+        Map<BayesNode, String> evidence = new HashMap<BayesNode, String>();
+        evidence.put(net.getNode("c"), "true");
+        assertBeliefsEqual(net, inferer, evidence);
+        evidence.put(net.getNode("a"), "false");
+        assertBeliefsEqual(net, inferer, evidence);
+    }
+
+    @Test(expected = NumericalInstabilityException.class)
+    public void testImpossibleEvidence() {
+        BayesNet net = NetExamples.sparseNet();
+        BayesNode a = net.getNode("a");
+        VariableElimination inferer = new VariableElimination();
+        inferer.setNetwork(net);
+        // a has probability 0 for its first outcome
+        inferer.addEvidence(a, a.getOutcomeName(0));
+        inferer.getBeliefs(net.getNode("d"));
+    }
+
+    private void assertBeliefsEqual(BayesNet net, VariableElimination inferer, Map<BayesNode, String> evidence) {
+        JunctionTreeAlgorithm reference = new JunctionTreeAlgorithm();
+        reference.setNetwork(net);
+        reference.setEvidence(evidence);
+        inferer.setNetwork(net);
+        inferer.setEvidence(evidence);
+        for (BayesNode node : net.getNodes()) {
+            assertArrayEquals(reference.getBeliefs(node), inferer.getBeliefs(node), 1e-9);
+        }
+    }
+
+}